@@ -0,0 +1,215 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Collects the champion list of a term while its list is merged (see
+ * {@link IndexHandler#CHAMPION_LIST_SIZE}): the first half are the first
+ * documents of the list (i.e., those with the highest static rank if the
+ * documents are numbered in descending static rank), the other half are
+ * the documents of the rest of the list with the highest frequency of the
+ * term, of which documents with a lower number win ties. It also counts
+ * the documents of the list and its highest frequency for the seeklist,
+ * and the highest frequency and static rank of the documents which are
+ * not champions, so a scorer can bound their scores.
+ * The parts of the list are added in the order of their documents
+ * (<tt>doc:pos,pos;doc:pos</tt>, without the final '.'); the champion list
+ * is written in the same format and order.
+ * A champion list is reused for the lists of all terms (see
+ * {@link #clear()}).
+ */
+class ChampionList {
+
+	// the number of documents of the list and the highest frequency in it
+	int documentFrequency;
+	int maxFrequency;
+	/*
+	 * the highest frequency and static rank of the documents which are not
+	 * champions (0 if there are none; the rank is -1 if it is not known)
+	 */
+	int outsideMaxFrequency;
+	float outsideMaxRank;
+
+	// the maximum number of champions
+	private final int size;
+	// the static ranks of the documents (by number) or null if they are not known
+	private final float[] ranks;
+	// the first documents of the list (entries)
+	private final byte[][] leaders;
+	private int leaderCount;
+	// the other champions, a heap with the worst first (frequency, document, entry)
+	private final int[] frequencies;
+	private final int[] documents;
+	private final byte[][] entries;
+	private int heapSize;
+
+	/**
+	 * @param size the maximum number of champions
+	 * @param ranks the static ranks of the documents, by number (or
+	 *   <tt>null</tt> if they are not known)
+	 */
+	ChampionList(int size, float[] ranks) {
+		this.size = size;
+		this.ranks = ranks;
+		this.leaders = new byte[size / 2][];
+		this.frequencies = new int[size - size / 2];
+		this.documents = new int[size - size / 2];
+		this.entries = new byte[size - size / 2][];
+		this.clear();
+	}
+
+	/**
+	 * Forget the list, so that the list of the next term can be added.
+	 */
+	void clear() {
+		this.documentFrequency = 0;
+		this.maxFrequency = 0;
+		this.outsideMaxFrequency = 0;
+		this.outsideMaxRank = 0;
+		Arrays.fill(this.leaders, 0, this.leaderCount, null);
+		Arrays.fill(this.entries, 0, this.heapSize, null);
+		this.leaderCount = 0;
+		this.heapSize = 0;
+	}
+
+	/**
+	 * Add a part of the list.
+	 * @param list the entries of the part, separated by ';'
+	 */
+	void add(byte[] list) {
+		int start = 0;
+		while (start < list.length) {
+			int end = start;
+			int document = 0;
+			int frequency = 1;
+			boolean inDocument = true;
+			while (end < list.length && list[end] != ';') {
+				if (list[end] == ':') {
+					inDocument = false;
+				} else if (inDocument) {
+					document = 10 * document + (list[end] - '0');
+				} else if (list[end] == ',') {
+					frequency++;
+				}
+				end++;
+			}
+			this.documentFrequency++;
+			this.maxFrequency = Math.max(this.maxFrequency, frequency);
+
+			if (this.leaderCount < this.leaders.length) {
+				this.leaders[this.leaderCount++] = Arrays.copyOfRange(list, start, end);
+			} else if (this.heapSize < this.entries.length) {
+				int slot = this.heapSize++;
+				this.set(slot, frequency, document, Arrays.copyOfRange(list, start, end));
+				this.siftUp(slot);
+			} else if (this.entries.length > 0 && frequency > this.frequencies[0]) {
+				// the documents are ascending, so a document only beats the worst with a higher frequency
+				this.addOutside(this.frequencies[0], this.documents[0]);
+				this.set(0, frequency, document, Arrays.copyOfRange(list, start, end));
+				this.siftDown(0);
+			} else {
+				this.addOutside(frequency, document);
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if the list has more documents than champions
+	 *   (otherwise, the list is its own champion list)
+	 */
+	boolean isPartial() {
+		return this.documentFrequency > this.size;
+	}
+
+	/**
+	 * Write the champion list, ordered by document, followed by '.'.
+	 * @param out the stream
+	 * @return the number of bytes written
+	 * @throws IOException if the list cannot be written
+	 */
+	long write(OutputStream out) throws IOException {
+		// the leaders precede the other champions, which are sorted by document
+		long[] order = new long[this.heapSize];
+		for (int slot = 0; slot < this.heapSize; slot++) {
+			order[slot] = ((long) this.documents[slot] << 32) | slot;
+		}
+		Arrays.sort(order);
+		long length = 0;
+		for (int i = 0; i < this.leaderCount + this.heapSize; i++) {
+			if (i > 0) {
+				out.write(';');
+				length++;
+			}
+			byte[] entry = i < this.leaderCount ? this.leaders[i]
+					: this.entries[(int) order[i - this.leaderCount]];
+			out.write(entry);
+			length += entry.length;
+		}
+		out.write('.');
+		return length + 1;
+	}
+
+	/**
+	 * Count a document which is not a champion.
+	 */
+	private void addOutside(int frequency, int document) {
+		this.outsideMaxFrequency = Math.max(this.outsideMaxFrequency, frequency);
+		if (this.outsideMaxRank >= 0) {
+			this.outsideMaxRank = this.ranks != null && document < this.ranks.length
+					? Math.max(this.outsideMaxRank, this.ranks[document]) : -1;
+		}
+	}
+
+	private void set(int slot, int frequency, int document, byte[] entry) {
+		this.frequencies[slot] = frequency;
+		this.documents[slot] = document;
+		this.entries[slot] = entry;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the champion in the first slot is worse: it
+	 *   has a lower frequency, or the same one and a higher number
+	 */
+	private boolean isWorse(int slot, int other) {
+		return this.frequencies[slot] != this.frequencies[other]
+				? this.frequencies[slot] < this.frequencies[other]
+				: this.documents[slot] > this.documents[other];
+	}
+
+	private void swap(int slot, int other) {
+		int frequency = this.frequencies[slot];
+		int document = this.documents[slot];
+		byte[] entry = this.entries[slot];
+		this.set(slot, this.frequencies[other], this.documents[other], this.entries[other]);
+		this.set(other, frequency, document, entry);
+	}
+
+	private void siftUp(int slot) {
+		while (slot > 0) {
+			int parent = (slot - 1) / 2;
+			if (!this.isWorse(slot, parent)) {
+				break;
+			}
+			this.swap(slot, parent);
+			slot = parent;
+		}
+	}
+
+	private void siftDown(int slot) {
+		while (2 * slot + 1 < this.heapSize) {
+			int child = 2 * slot + 1;
+			if (child + 1 < this.heapSize && this.isWorse(child + 1, child)) {
+				child++;
+			}
+			if (!this.isWorse(child, slot)) {
+				break;
+			}
+			this.swap(slot, child);
+			slot = child;
+		}
+	}
+
+}
@@ -0,0 +1,438 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Holds per-document columns which are addressed by dense document numbers.
+ * While indexing, every page gets the next free document number (0..N-1 in
+ * index order); postings and all other per-document structures use these
+ * numbers instead of the sparse Wikipedia page IDs.
+ *
+ * All columns are binary files which are memory-mapped for querying, so
+ * opening a DocumentTable costs no parsing and (almost) no heap:
+ *  - pageIds: the external page id per document (8 bytes each)
+ *  - titles / titleOffsets: the UTF-8 encoded titles, concatenated, and
+ *    the offset of each title in that blob (4 bytes each, plus one)
+ *  - titleKeys / titleKeyTable: the processed titles (see
+ *    {@link LinkIndex#processTitle(String)}) in UTF-8 byte order, and a
+ *    table of (key offset, document number) entries in the same order
+ *    (plus one entry which marks the end of the last key), which is
+ *    binary searched to map titles to documents
+ *
+ * A DocumentTable is either created for writing ({@link #create(String)}),
+ * resumed from a checkpoint ({@link #resume(String, int, int)}) or opened
+ * for reading ({@link #open(String)}).
+ */
+class DocumentTable {
+
+	// name of the file which stores the page ids (one long per document)
+	private static final String pageIdsFileName = "pageIds";
+	// name of the file which stores the titles (UTF-8, concatenated)
+	private static final String titlesFileName = "titles";
+	// name of the file which stores the offsets of the titles (one int per document, plus one)
+	private static final String titleOffsetsFileName = "titleOffsets";
+	// name of the file which stores the sorted processed titles (UTF-8, concatenated)
+	private static final String titleKeysFileName = "titleKeys";
+	// name of the file which stores (key offset, document number) in key order
+	private static final String titleKeyTableFileName = "titleKeyTable";
+	// file extension of binary columns
+	private static final String fileExtension = ".bin";
+	// buffer size for writing columns
+	private static final int bufferSize = 65536;
+
+	private static final String[] fileNames = new String[] {
+		pageIdsFileName, titlesFileName,
+		titleOffsetsFileName, titleKeysFileName, titleKeyTableFileName
+	};
+
+	/**
+	 * Orders UTF-8 encoded strings by their unsigned bytes, which is the
+	 * order of their code points.
+	 */
+	static final Comparator<byte[]> utf8Order = new Comparator<byte[]>() {
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			int length = Math.min(a.length, b.length);
+			for (int i = 0; i < length; i++) {
+				int difference = (a[i] & 0xff) - (b[i] & 0xff);
+				if (difference != 0) {
+					return difference;
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+
+	// directory of the columns
+	private String dir;
+
+	// streams for appending columns, and their files (indexing only)
+	private DataOutputStream pageIdsOut;
+	private DataOutputStream titlesOut;
+	private DataOutputStream titleOffsetsOut;
+	private List<FileOutputStream> columnFiles;
+	// the processed titles, sorted when writing is finished (indexing only)
+	private List<byte[]> titleKeys;
+	// number of bytes written to the titles blob (indexing only)
+	private int titlesLength;
+
+	// mapped columns (querying only)
+	private LongBuffer pageIds;
+	private ByteBuffer titles;
+	private IntBuffer titleOffsets;
+	private ByteBuffer titleKeyBlob;
+	private IntBuffer titleKeyTable;
+	// the mappings of the columns (unmapped by release)
+	private final List<ByteBuffer> mappings = new ArrayList<ByteBuffer>();
+
+	// number of documents
+	private int size;
+
+	private DocumentTable(String dir) {
+		this.dir = dir;
+		this.size = 0;
+	}
+
+	/**
+	 * Create an empty DocumentTable in the given directory. Existing
+	 * columns are overwritten.
+	 * @param dir the directory for all index files
+	 * @return a DocumentTable which accepts new documents
+	 * @throws IOException
+	 */
+	public static DocumentTable create(String dir) throws IOException {
+		DocumentTable table = new DocumentTable(dir);
+		table.columnFiles = new ArrayList<FileOutputStream>(3);
+		table.pageIdsOut = table.createColumn(DocumentTable.pageIdsFileName, false);
+		table.titlesOut = table.createColumn(DocumentTable.titlesFileName, false);
+		table.titleOffsetsOut = table.createColumn(DocumentTable.titleOffsetsFileName, false);
+		table.titleKeys = new ArrayList<byte[]>();
+		table.titlesLength = 0;
+		return table;
+	}
+
+	/**
+	 * Continue writing the DocumentTable in the given directory from a
+	 * checkpoint (see {@link #checkpoint()}): the columns are truncated to
+	 * the given number of documents, which keep their numbers, and further
+	 * documents are appended.
+	 * @param dir the directory for all index files
+	 * @param size the number of documents at the checkpoint
+	 * @param titlesLength the length of the titles blob at the checkpoint
+	 * @return a DocumentTable which accepts new documents
+	 * @throws IOException if the columns are shorter than the checkpoint
+	 */
+	public static DocumentTable resume(String dir, int size, int titlesLength) throws IOException {
+		DocumentTable table = new DocumentTable(dir);
+		table.truncateColumn(DocumentTable.pageIdsFileName, 8L * size);
+		table.truncateColumn(DocumentTable.titlesFileName, titlesLength);
+		table.truncateColumn(DocumentTable.titleOffsetsFileName, 4L * size);
+
+		// the processed titles are only kept in memory, read them again
+		ByteBuffer titles = table.mapColumn(DocumentTable.titlesFileName);
+		IntBuffer titleOffsets = table.mapColumn(DocumentTable.titleOffsetsFileName).asIntBuffer();
+		table.titleKeys = new ArrayList<byte[]>(size);
+		for (int i = 0; i < size; i++) {
+			int start = titleOffsets.get(i);
+			int end = i + 1 < size ? titleOffsets.get(i + 1) : titlesLength;
+			String title = DocumentTable.decode(titles, start, end - start);
+			table.titleKeys.add(DocumentTable.encode(LinkIndex.processTitle(title)));
+		}
+		// the columns are appended to, not read, from now on
+		MappedBuffers.unmap(table.mappings);
+
+		table.columnFiles = new ArrayList<FileOutputStream>(3);
+		table.pageIdsOut = table.createColumn(DocumentTable.pageIdsFileName, true);
+		table.titlesOut = table.createColumn(DocumentTable.titlesFileName, true);
+		table.titleOffsetsOut = table.createColumn(DocumentTable.titleOffsetsFileName, true);
+		table.titlesLength = titlesLength;
+		table.size = size;
+		return table;
+	}
+
+	/**
+	 * Open the DocumentTable in the given directory and map its columns
+	 * into memory.
+	 * @param dir the directory for all index files
+	 * @return a read-only DocumentTable
+	 * @throws IOException if a column cannot be read
+	 */
+	public static DocumentTable open(String dir) throws IOException {
+		DocumentTable table = new DocumentTable(dir);
+		table.pageIds = table.mapColumn(DocumentTable.pageIdsFileName).asLongBuffer();
+		table.titles = table.mapColumn(DocumentTable.titlesFileName);
+		table.titleOffsets = table.mapColumn(DocumentTable.titleOffsetsFileName).asIntBuffer();
+		table.titleKeyBlob = table.mapColumn(DocumentTable.titleKeysFileName);
+		table.titleKeyTable = table.mapColumn(DocumentTable.titleKeyTableFileName).asIntBuffer();
+		table.size = table.pageIds.limit();
+		return table;
+	}
+
+	private DataOutputStream createColumn(String fileName, boolean append) throws IOException {
+		FileOutputStream file = new FileOutputStream(this.dir + fileName + DocumentTable.fileExtension, append);
+		if (this.columnFiles != null) {
+			this.columnFiles.add(file);
+		}
+		return new DataOutputStream(new BufferedOutputStream(file, DocumentTable.bufferSize));
+	}
+
+	private void truncateColumn(String fileName, long length) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(
+				this.dir + fileName + DocumentTable.fileExtension, "rw");
+		try {
+			if (file.length() < length) {
+				throw new IOException("Column " + fileName + " is shorter than the checkpoint");
+			}
+			file.setLength(length);
+		} finally {
+			file.close();
+		}
+	}
+
+	private ByteBuffer mapColumn(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(
+				this.dir + fileName + DocumentTable.fileExtension, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			// the mapping stays valid after the channel is closed
+			ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			this.mappings.add(mapping);
+			return mapping;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Append a document and assign the next document number to it.
+	 * @param pageId the external (Wikipedia) page id
+	 * @param title the title of the page
+	 * @return the dense document number of the new document
+	 * @throws IOException
+	 */
+	public int addDocument(long pageId, String title) throws IOException {
+		this.pageIdsOut.writeLong(pageId);
+		byte[] titleBytes = DocumentTable.encode(title);
+		this.titleOffsetsOut.writeInt(this.titlesLength);
+		this.titlesOut.write(titleBytes);
+		this.titlesLength += titleBytes.length;
+		this.titleKeys.add(DocumentTable.encode(LinkIndex.processTitle(title)));
+		return this.size++;
+	}
+
+	/**
+	 * Write all documents which were added so far and force them to disk,
+	 * so that the table can be resumed with the current {@link #size()}
+	 * and {@link #getTitlesLength()}.
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		this.pageIdsOut.flush();
+		this.titlesOut.flush();
+		this.titleOffsetsOut.flush();
+		for (FileOutputStream file : this.columnFiles) {
+			file.getFD().sync();
+		}
+	}
+
+	/**
+	 * @return the length of the titles blob (indexing only)
+	 */
+	public int getTitlesLength() {
+		return this.titlesLength;
+	}
+
+	/**
+	 * Read the mapped columns into memory (pre-warming).
+	 */
+	public void load() {
+		MappedBuffers.load(this.mappings);
+	}
+
+	/**
+	 * Unmap the columns of a read-only DocumentTable. It must not be used
+	 * afterwards.
+	 */
+	public void release() {
+		MappedBuffers.unmap(this.mappings);
+	}
+
+	/**
+	 * Finish writing: close all columns and write the sorted title keys.
+	 * Must be called once all documents were added.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (this.pageIdsOut == null) {
+			return;	// read-only or already closed
+		}
+		this.pageIdsOut.close();
+		this.titlesOut.close();
+		// end of the last title
+		this.titleOffsetsOut.writeInt(this.titlesLength);
+		this.titleOffsetsOut.close();
+		this.pageIdsOut = null;
+		this.columnFiles = null;
+
+		// sort the document numbers by title key (stable: equal keys keep index order)
+		final List<byte[]> keys = this.titleKeys;
+		Integer[] order = new Integer[keys.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return utf8Order.compare(keys.get(a), keys.get(b));
+			}
+		});
+
+		// write keys and table; of several documents with the same key, the last one wins
+		DataOutputStream keysOut = this.createColumn(DocumentTable.titleKeysFileName, false);
+		DataOutputStream tableOut = this.createColumn(DocumentTable.titleKeyTableFileName, false);
+		int keysLength = 0;
+		for (int i = 0; i < order.length; i++) {
+			byte[] key = keys.get(order[i]);
+			if (i + 1 < order.length && utf8Order.compare(key, keys.get(order[i + 1])) == 0) {
+				continue;
+			}
+			tableOut.writeInt(keysLength);
+			tableOut.writeInt(order[i]);
+			keysOut.write(key);
+			keysLength += key.length;
+		}
+		// end of the last key
+		tableOut.writeInt(keysLength);
+		tableOut.writeInt(-1);
+		keysOut.close();
+		tableOut.close();
+		this.titleKeys = null;
+	}
+
+	/**
+	 * Get the external page id of a document.
+	 * @param documentNumber the dense document number
+	 * @return the Wikipedia page id
+	 */
+	public long getPageId(int documentNumber) {
+		return this.pageIds.get(documentNumber);
+	}
+
+	/**
+	 * Get the title of a document.
+	 * @param documentNumber the dense document number
+	 * @return the title
+	 */
+	public String getTitle(int documentNumber) {
+		int start = this.titleOffsets.get(documentNumber);
+		int end = this.titleOffsets.get(documentNumber + 1);
+		return DocumentTable.decode(this.titles, start, end - start);
+	}
+
+	/**
+	 * Find the document with the given processed title by binary search
+	 * over the mapped key table. The key is compared with the mapped bytes
+	 * directly, no titles are decoded.
+	 * @param processedTitle a title processed by {@link LinkIndex#processTitle(String)}
+	 * @return the document number or <tt>-1</tt> if there is no such document
+	 */
+	public int getDocumentNumber(String processedTitle) {
+		byte[] key = DocumentTable.encode(processedTitle);
+		int low = 0;
+		int high = this.titleKeyTable.limit() / 2 - 2;	// last entry only marks the end
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int start = this.titleKeyTable.get(2 * middle);
+			int end = this.titleKeyTable.get(2 * middle + 2);
+			int comparison = this.compareKey(start, end - start, key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return this.titleKeyTable.get(2 * middle + 1);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare a mapped key with the given one (unsigned bytes).
+	 */
+	private int compareKey(int start, int length, byte[] key) {
+		int commonLength = Math.min(length, key.length);
+		for (int i = 0; i < commonLength; i++) {
+			int difference = (this.titleKeyBlob.get(start + i) & 0xff) - (key[i] & 0xff);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * @return the number of documents (N); document numbers are 0..N-1
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	static byte[] encode(String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);	// UTF-8 is always supported
+		}
+	}
+
+	static String decode(ByteBuffer buffer, int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);	// absolute get: thread-safe
+		}
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);	// UTF-8 is always supported
+		}
+	}
+
+	/**
+	 * Tests whether the given directory has all columns of a DocumentTable.
+	 * @param dir the directory
+	 * @return <tt>true</tt> if all files are present and can be read
+	 */
+	public static boolean directoryHasFiles(String dir) {
+		for (String fileName : DocumentTable.fileNames) {
+			if (!new File(dir + fileName + DocumentTable.fileExtension).canRead()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delete all columns in the given directory (if they exist).
+	 * @param dir the directory
+	 */
+	public static void deleteFiles(String dir) {
+		for (String fileName : DocumentTable.fileNames) {
+			new File(dir + fileName + DocumentTable.fileExtension).delete();
+		}
+	}
+
+}
@@ -0,0 +1,351 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * Reads a (possibly compressed) dump. Use {@link #open(String)}: plain XML
+ * files are read directly, files ending with ".bz2" or ".gz" are
+ * decompressed in the background while the parser consumes the output.
+ *
+ * Multistream bzip2 dumps (as provided by Wikipedia) are concatenations of
+ * independent bzip2 streams. A splitter thread cuts the file at stream
+ * boundaries into chunks of at least {@link #CHUNK_SIZE} compressed bytes,
+ * which are decompressed on a pool of threads (one per processor); the
+ * results are queued in the order of the file, so the output is the
+ * decompressed dump. A stream starts with "BZh", the block size ('1'-'9')
+ * and the magic number of a block (0x314159265359); stream boundaries are
+ * byte-aligned. If no boundary is found within {@link #MAX_CHUNK_SIZE}
+ * bytes (i.e. the dump is a single stream), the rest of the file is
+ * decompressed sequentially by the splitter thread. Gzip dumps are always
+ * decompressed sequentially (in the background).
+ *
+ * At most {@link #QUEUE_SIZE} decompressed chunks wait for the parser.
+ */
+class DumpInputStream extends InputStream {
+
+	// minimal size of a chunk of compressed streams
+	static final int CHUNK_SIZE = 1024 * 1024;
+	// size of a chunk after which a dump is treated as a single stream
+	static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+	// size of the blocks which are decompressed sequentially
+	private static final int BLOCK_SIZE = 1024 * 1024;
+	// size of the reads from the compressed file
+	private static final int READ_SIZE = 1024 * 1024;
+	// number of (future) decompressed chunks which may wait for the reader
+	private static final int QUEUE_SIZE = 2 * Runtime.getRuntime().availableProcessors() + 2;
+
+	// start of a bzip2 stream: "BZh", block size, magic number of a block
+	private static final byte[] streamMagic = new byte[] {
+		'B', 'Z', 'h', 0, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59
+	};
+	private static final byte[] noBytes = new byte[0];
+
+	// the decompressed chunks, in order; an empty chunk marks the end
+	private final BlockingQueue<Future<byte[]>> chunks =
+			new ArrayBlockingQueue<Future<byte[]>>(DumpInputStream.QUEUE_SIZE);
+	// decompresses chunks of bzip2 streams (multistream only)
+	private ExecutorService pool;
+	// splits the file or decompresses it sequentially
+	private Thread producer;
+
+	// the current chunk
+	private byte[] chunk = DumpInputStream.noBytes;
+	private int position = 0;
+	private boolean finished = false;
+
+	/**
+	 * Open a dump for reading.
+	 * @param dumpFile the path of the dump (.xml, .xml.bz2 or .xml.gz)
+	 * @return a stream of the (decompressed) XML
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static InputStream open(String dumpFile) throws IOException {
+		final InputStream file = new FileInputStream(dumpFile);
+		if (dumpFile.endsWith(".bz2")) {
+			return new DumpInputStream(file, true);
+		} else if (dumpFile.endsWith(".gz")) {
+			return new DumpInputStream(file, false);
+		}
+		return new BufferedInputStream(file, DumpInputStream.READ_SIZE);
+	}
+
+	private DumpInputStream(final InputStream file, final boolean bzip2) {
+		if (bzip2) {
+			this.pool = Executors.newFixedThreadPool(
+					Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "DumpInputStream decompressor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		this.producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				DumpInputStream.this.produce(file, bzip2);
+			}
+		}, "DumpInputStream producer");
+		this.producer.setDaemon(true);
+		this.producer.start();
+	}
+
+	/**
+	 * The loop of the producer thread.
+	 */
+	private void produce(InputStream file, boolean bzip2) {
+		try {
+			try {
+				if (bzip2) {
+					this.splitStreams(file);
+				} else {
+					this.decompressSequentially(new GzipCompressorInputStream(
+							new BufferedInputStream(file, DumpInputStream.READ_SIZE), true));
+				}
+			} finally {
+				file.close();
+			}
+			this.put(DumpInputStream.noBytes);
+		} catch (InterruptedException e) {
+			// closed
+		} catch (final Exception e) {
+			// the reader gets the exception with the next chunk
+			try {
+				this.put(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws Exception {
+						throw e;
+					}
+				});
+			} catch (InterruptedException ie) {
+				// closed
+			}
+		}
+	}
+
+	/**
+	 * Split a bzip2 file into chunks of complete streams and decompress
+	 * them in the pool.
+	 */
+	private void splitStreams(InputStream file) throws IOException, InterruptedException {
+		byte[] buffer = new byte[DumpInputStream.CHUNK_SIZE + DumpInputStream.READ_SIZE];
+		int length = 0;
+		int searchFrom = DumpInputStream.CHUNK_SIZE;
+		while (true) {
+			if (buffer.length - length < DumpInputStream.READ_SIZE) {
+				byte[] grown = new byte[2 * buffer.length];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+			int read = file.read(buffer, length, DumpInputStream.READ_SIZE);
+			if (read < 0) {
+				break;
+			}
+			length += read;
+			if (length < DumpInputStream.CHUNK_SIZE) {
+				continue;
+			}
+
+			// look for the start of the next stream
+			int start = DumpInputStream.findStream(buffer, searchFrom, length);
+			if (start < 0) {
+				if (length >= DumpInputStream.MAX_CHUNK_SIZE) {
+					// no multistream dump: decompress the rest on this thread
+					this.decompressSequentially(new BZip2CompressorInputStream(new SequenceInputStream(
+							new ByteArrayInputStream(buffer, 0, length), file), true));
+					return;
+				}
+				searchFrom = Math.max(searchFrom, length - DumpInputStream.streamMagic.length + 1);
+				continue;
+			}
+			final byte[] streams = new byte[start];
+			System.arraycopy(buffer, 0, streams, 0, start);
+			this.submit(streams);
+			System.arraycopy(buffer, start, buffer, 0, length - start);
+			length -= start;
+			searchFrom = DumpInputStream.CHUNK_SIZE;
+		}
+		if (length > 0) {
+			final byte[] streams = new byte[length];
+			System.arraycopy(buffer, 0, streams, 0, length);
+			this.submit(streams);
+		}
+	}
+
+	/**
+	 * Find the start of a bzip2 stream in the buffer.
+	 * @return the position or <tt>-1</tt>
+	 */
+	private static int findStream(byte[] buffer, int from, int to) {
+		byte[] magic = DumpInputStream.streamMagic;
+		for (int i = Math.max(from, 1); i + magic.length <= to; i++) {
+			if (buffer[i] != 'B' || buffer[i + 1] != 'Z' || buffer[i + 2] != 'h'
+					|| buffer[i + 3] < '1' || buffer[i + 3] > '9') {
+				continue;
+			}
+			boolean match = true;
+			for (int j = 4; j < magic.length; j++) {
+				if (buffer[i + j] != magic[j]) {
+					match = false;
+					break;
+				}
+			}
+			if (match) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Queue the decompression of complete bzip2 streams.
+	 */
+	private void submit(final byte[] streams) throws InterruptedException {
+		this.chunks.put(this.pool.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				ByteArrayOutputStream output = new ByteArrayOutputStream(8 * streams.length);
+				InputStream input = new BZip2CompressorInputStream(new ByteArrayInputStream(streams), true);
+				try {
+					byte[] block = new byte[65536];
+					int read;
+					while ((read = input.read(block)) > 0) {
+						output.write(block, 0, read);
+					}
+				} finally {
+					input.close();
+				}
+				return output.toByteArray();
+			}
+		}));
+	}
+
+	/**
+	 * Read blocks from a decompressing stream and queue them.
+	 */
+	private void decompressSequentially(InputStream input) throws IOException, InterruptedException {
+		try {
+			while (true) {
+				byte[] block = new byte[DumpInputStream.BLOCK_SIZE];
+				int length = 0;
+				int read;
+				while (length < block.length && (read = input.read(block, length, block.length - length)) > 0) {
+					length += read;
+				}
+				if (length == 0) {
+					return;
+				}
+				if (length < block.length) {
+					byte[] rest = new byte[length];
+					System.arraycopy(block, 0, rest, 0, length);
+					block = rest;
+				}
+				this.put(block);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private void put(final byte[] block) throws InterruptedException {
+		this.put(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return block;
+			}
+		});
+	}
+
+	/**
+	 * Queue a chunk which is computed on the producer thread.
+	 */
+	private void put(Callable<byte[]> callable) throws InterruptedException {
+		FutureTask<byte[]> task = new FutureTask<byte[]>(callable);
+		task.run();
+		this.chunks.put(task);
+	}
+
+	/**
+	 * Make the next chunk the current one.
+	 * @return <tt>false</tt> at the end of the dump
+	 */
+	private boolean nextChunk() throws IOException {
+		while (!this.finished && this.position >= this.chunk.length) {
+			try {
+				this.chunk = this.chunks.take().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading the dump");
+			} catch (ExecutionException e) {
+				throw new IOException("Cannot decompress the dump: " + e.getCause(), e.getCause());
+			}
+			this.position = 0;
+			this.finished = this.chunk.length == 0;
+		}
+		return !this.finished;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!this.nextChunk()) {
+			return -1;
+		}
+		return this.chunk[this.position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (!this.nextChunk()) {
+			return -1;
+		}
+		int count = Math.min(length, this.chunk.length - this.position);
+		System.arraycopy(this.chunk, this.position, bytes, offset, count);
+		this.position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return this.chunk.length - this.position;
+	}
+
+	/**
+	 * Stop decompressing.
+	 */
+	@Override
+	public void close() {
+		this.finished = true;
+		if (this.producer != null) {
+			this.producer.interrupt();
+			this.producer = null;
+		}
+		if (this.pool != null) {
+			this.pool.shutdownNow();
+			this.pool = null;
+		}
+		this.chunks.clear();
+	}
+
+}
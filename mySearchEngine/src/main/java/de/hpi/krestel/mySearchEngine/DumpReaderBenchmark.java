@@ -0,0 +1,134 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Compares the throughput of the {@link SAXHandler} with the
+ * {@link PullDumpReader}. The pages of a dump are repeated to create a
+ * larger dump in memory, which is parsed several times by both readers.
+ * The pages are only counted, not indexed.
+ *
+ * Usage: DumpReaderBenchmark [dump file] [copies] [rounds]
+ */
+public class DumpReaderBenchmark {
+
+	/**
+	 * Counts the pages and their chars.
+	 */
+	private static class CountingSink implements PageSink {
+		long pages;
+		long chars;
+
+		@Override
+		public void indexPage(Long pageId, String title, TextBuffer text) {
+			this.pages++;
+			this.chars += text.length();
+		}
+
+		@Override
+		public void setDumpOffset(long offset) {
+		}
+
+		@Override
+		public void createIndex() {
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String dumpFile = args.length > 0 ? args[0] : "../wikipedia/testDump.xml";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		byte[] dump = DumpReaderBenchmark.scaleDump(dumpFile, copies);
+		System.out.println(String.format("dump: %d copies, %.1f MB, %d rounds",
+				copies, dump.length / 1e6, rounds));
+
+		SearchEngineRetrEvil searchEngine = new SearchEngineRetrEvil();
+		// warm up both readers, then measure
+		DumpReaderBenchmark.runSax(searchEngine, dump, 2);
+		DumpReaderBenchmark.runPull(searchEngine, dump, 2);
+
+		long start = System.nanoTime();
+		CountingSink sax = DumpReaderBenchmark.runSax(searchEngine, dump, rounds);
+		long saxNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		CountingSink pull = DumpReaderBenchmark.runPull(searchEngine, dump, rounds);
+		long pullNanos = System.nanoTime() - start;
+
+		DumpReaderBenchmark.report("SAX", (long) dump.length * rounds, saxNanos, sax, rounds);
+		DumpReaderBenchmark.report("pull (StAX)", (long) dump.length * rounds, pullNanos, pull, rounds);
+		System.out.println(String.format("speedup: %.1fx", (double) saxNanos / pullNanos));
+	}
+
+	private static CountingSink runSax(SearchEngineRetrEvil searchEngine, byte[] dump, int rounds)
+			throws Exception {
+		CountingSink sink = new CountingSink();
+		for (int round = 0; round < rounds; round++) {
+			// the same setup as SearchEngineRetrEvil.index
+			SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+			InputSource source = new InputSource(
+					new InputStreamReader(new ByteArrayInputStream(dump), "UTF-8"));
+			source.setEncoding("UTF-8");
+			saxParser.parse(source, new SAXHandler(searchEngine, sink));
+		}
+		return sink;
+	}
+
+	private static CountingSink runPull(SearchEngineRetrEvil searchEngine, byte[] dump, int rounds)
+			throws Exception {
+		CountingSink sink = new CountingSink();
+		for (int round = 0; round < rounds; round++) {
+			new PullDumpReader(searchEngine, sink).read(new ByteArrayInputStream(dump));
+		}
+		return sink;
+	}
+
+	private static void report(String name, long bytes, long nanos, CountingSink sink, int rounds) {
+		System.out.println(String.format("%-12s %8.1f ms %8.1f MB/s (%d pages, %d chars per round)",
+				name, nanos / 1e6, bytes / (nanos / 1e3), sink.pages / rounds, sink.chars / rounds));
+	}
+
+	/**
+	 * Create a dump which contains the pages of the given dump the given
+	 * number of times.
+	 */
+	private static byte[] scaleDump(String dumpFile, int copies) throws Exception {
+		ByteArrayOutputStream original = new ByteArrayOutputStream();
+		InputStream inputStream = new FileInputStream(dumpFile);
+		try {
+			byte[] buffer = new byte[65536];
+			int length;
+			while ((length = inputStream.read(buffer)) > 0) {
+				original.write(buffer, 0, length);
+			}
+		} finally {
+			inputStream.close();
+		}
+		String xml = original.toString("UTF-8");
+		int pagesStart = xml.indexOf("<page>");
+		int pagesEnd = xml.lastIndexOf("</page>") + "</page>".length();
+		byte[] head = xml.substring(0, pagesStart).getBytes("UTF-8");
+		byte[] pages = xml.substring(pagesStart, pagesEnd).getBytes("UTF-8");
+		byte[] tail = xml.substring(pagesEnd).getBytes("UTF-8");
+
+		ByteArrayOutputStream scaled = new ByteArrayOutputStream(
+				head.length + copies * pages.length + tail.length);
+		scaled.write(head);
+		for (int i = 0; i < copies; i++) {
+			scaled.write(pages);
+		}
+		scaled.write(tail);
+		return scaled.toByteArray();
+	}
+
+}
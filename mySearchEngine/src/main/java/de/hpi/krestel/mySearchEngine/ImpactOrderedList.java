@@ -0,0 +1,85 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The list of a term in impact order (see {@link ImpactScores}): its
+ * documents in descending impact, grouped into blocks of equal impact, for
+ * score-at-a-time query evaluation. The list is read block by block.
+ */
+class ImpactOrderedList {
+
+	// the documents and their impacts
+	private final IntBuffer documents;
+	private final ByteBuffer impacts;
+	// the first document of the next block
+	private int position;
+
+	/**
+	 * @param documents the documents of the list
+	 * @param impacts their impacts (descending)
+	 */
+	ImpactOrderedList(IntBuffer documents, ByteBuffer impacts) {
+		this.documents = documents;
+		this.impacts = impacts;
+	}
+
+	/**
+	 * @return <tt>true</tt> if all blocks were read
+	 */
+	boolean isFinished() {
+		return this.position >= this.documents.limit();
+	}
+
+	/**
+	 * @return the number of documents of the list
+	 */
+	int size() {
+		return this.documents.limit();
+	}
+
+	/**
+	 * @return the impact of the next block
+	 */
+	int impact() {
+		return this.impacts.get(this.position) & 0xFF;
+	}
+
+	/**
+	 * @return the position of the first document of the next block
+	 */
+	int position() {
+		return this.position;
+	}
+
+	/**
+	 * @return the position after the last document of the next block
+	 */
+	int blockEnd() {
+		byte impact = this.impacts.get(this.position);
+		int end = this.position + 1;
+		while (end < this.impacts.limit() && this.impacts.get(end) == impact) {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * @param position the position of a document of the list
+	 * @return the document
+	 */
+	int document(int position) {
+		return this.documents.get(position);
+	}
+
+	/**
+	 * Continue at the given position (the rest of a block which was read in
+	 * part is read as a block of its own).
+	 * @param position the position of the next document to read
+	 */
+	void moveTo(int position) {
+		this.position = position;
+	}
+
+}
@@ -0,0 +1,433 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The quantized BM25 scores of the postings of an index (its impacts): for
+ * every document of the list of a term, the score of the term in the
+ * document, <tt>idf * (k1 + 1) * tf / (K + tf)</tt> with
+ * <tt>K = k1 * ((1 - b) + b * length / average length)</tt>, is stored in
+ * one byte (0 to {@link #MAX_IMPACT}), so a query adds integers instead of
+ * computing logarithms and divisions per posting.
+ * The impacts of a partition of the index are stored in one file, in the
+ * order of its lists and their documents; the seeklist holds the position
+ * of the first impact of every list. They are computed once the index is
+ * merged, from the statistics of the seeklist (the number of documents
+ * of a term) and the document lengths (the number of terms of a
+ * document, counted over all lists; only if b is not 0). Scores below 0
+ * (terms in more than half of the documents) are stored as 0. All impacts
+ * of an index have the same scale, which is chosen so that no score can
+ * exceed the highest impact.
+ * The impacts are computed with the BM25 parameters of the searcher
+ * ({@link SearchEngineRetrEvil#BM25_K1} and
+ * {@link SearchEngineRetrEvil#BM25_B}). The parameters k1 and b, the
+ * scale and the number of documents are stored with the impacts; a
+ * searcher with other BM25 parameters must not use them.
+ * Optionally, the lists are stored in impact order, too (see
+ * {@link ImpactOrderedList}): for every list, its documents in descending
+ * impact (documents with the same impact in ascending order) in a column
+ * of one int per document and their impacts in a column of one byte per
+ * document, both at the position of the impacts of the list.
+ * The files are mapped in chunks (see {@link #CHUNK_SIZE}), so a partition
+ * may hold more than 2 GB of impacts.
+ */
+class ImpactScores {
+
+	// the highest impact (8 bits)
+	static final int MAX_IMPACT = 255;
+
+	// name of the file which stores the parameters
+	private static final String metadataFileName = "impacts.txt";
+	// prefix and extension of the files of the partitions
+	private static final String fileName = "impacts_";
+	private static final String orderedDocumentsFileName = "impacts_ordered_documents_";
+	private static final String orderedImpactsFileName = "impacts_ordered_";
+	private static final String fileExtension = ".bin";
+	// buffer size for reading the index and writing the impacts
+	private static final int bufferSize = 65536;
+	/*
+	 * size of the chunks in which the files are mapped (a mapping is limited
+	 * to 2 GB); a chunk also maps the length of the longest list of the next
+	 * one, so every list lies in one chunk
+	 */
+	private static final long CHUNK_SIZE = 1L << 30;
+
+	// the parameters
+	private double k1;
+	private double b;
+	private double scale;
+	private int documentCount;
+	private boolean impactOrdered;
+	// the mapped impacts of every partition (chunks, see map)
+	private final List<ByteBuffer[]> partitions = new ArrayList<ByteBuffer[]>();
+	// the mapped impact-ordered documents and impacts of every partition (if stored)
+	private final List<ByteBuffer[]> orderedDocuments = new ArrayList<ByteBuffer[]>();
+	private final List<ByteBuffer[]> orderedImpacts = new ArrayList<ByteBuffer[]>();
+	// all mapped chunks
+	private final List<ByteBuffer> mappings = new ArrayList<ByteBuffer>();
+
+	private ImpactScores() {
+	}
+
+	/**
+	 * Compute the impacts of a merged index and write them.
+	 * @param dir the directory of the index (ending with '/')
+	 * @param indexFiles the partitions of the index
+	 * @param seekListFiles the seeklists of the partitions (with the
+	 *   statistics and the impact position of every list)
+	 * @param documentCount the number of documents
+	 * @param impactOrdered whether the lists are stored in impact order, too
+	 * @throws IOException if the index cannot be read or the impacts
+	 *   cannot be written
+	 */
+	public static void create(String dir, List<String> indexFiles, List<String> seekListFiles,
+			int documentCount, boolean impactOrdered) throws IOException {
+		// the document lengths (only needed for length normalization)
+		int[] lengths = null;
+		double averageLength = 1;
+		if (SearchEngineRetrEvil.BM25_B != 0) {
+			lengths = new int[documentCount];
+			long totalLength = 0;
+			for (int partition = 0; partition < indexFiles.size(); partition++) {
+				InputStream index = new BufferedInputStream(new FileInputStream(indexFiles.get(partition)),
+						ImpactScores.bufferSize);
+				BufferedReader seekList = new BufferedReader(new FileReader(seekListFiles.get(partition)));
+				try {
+					String line;
+					while ((line = seekList.readLine()) != null) {
+						String[] parts = line.split("\t");
+						PostingsCursor list = new PostingsCursor(index, Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+						while (list.next()) {
+							lengths[list.document()] += list.frequency();
+							totalLength += list.frequency();
+						}
+					}
+				} finally {
+					index.close();
+					seekList.close();
+				}
+			}
+			averageLength = documentCount > 0 ? Math.max(1.0, (double) totalLength / documentCount) : 1;
+		}
+
+		ImpactScores impacts = new ImpactScores();
+		impacts.k1 = SearchEngineRetrEvil.BM25_K1;
+		impacts.b = SearchEngineRetrEvil.BM25_B;
+		impacts.documentCount = documentCount;
+		impacts.impactOrdered = impactOrdered;
+		// the highest score: idf of a term in one document, tf / (K + tf) below 1
+		impacts.scale = Math.max(1e-9, impacts.getIdf(1) * (impacts.k1 + 1)) / ImpactScores.MAX_IMPACT;
+
+		for (int partition = 0; partition < indexFiles.size(); partition++) {
+			InputStream index = new BufferedInputStream(new FileInputStream(indexFiles.get(partition)),
+					ImpactScores.bufferSize);
+			BufferedReader seekList = new BufferedReader(new FileReader(seekListFiles.get(partition)));
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					dir + ImpactScores.fileName + partition + ImpactScores.fileExtension), ImpactScores.bufferSize);
+			DataOutputStream orderedDocumentsOut = null;
+			OutputStream orderedImpactsOut = null;
+			try {
+				if (impactOrdered) {
+					orderedDocumentsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+							dir + ImpactScores.orderedDocumentsFileName + partition + ImpactScores.fileExtension),
+							ImpactScores.bufferSize));
+					orderedImpactsOut = new BufferedOutputStream(new FileOutputStream(
+							dir + ImpactScores.orderedImpactsFileName + partition + ImpactScores.fileExtension),
+							ImpactScores.bufferSize);
+				}
+				String line;
+				while ((line = seekList.readLine()) != null) {
+					String[] parts = line.split("\t");
+					int documentFrequency = Integer.parseInt(parts[2]);
+					double idf = impacts.getIdf(documentFrequency);
+					PostingsCursor list = new PostingsCursor(index, documentFrequency, Integer.parseInt(parts[3]));
+					// the postings as (impact, document), for ordering them by impact
+					long[] postings = impactOrdered ? new long[documentFrequency] : null;
+					int count = 0;
+					while (list.next()) {
+						double lengthRatio = lengths != null ? lengths[list.document()] / averageLength : 1;
+						int impact = impacts.quantize(idf, list.frequency(), lengthRatio);
+						out.write(impact);
+						if (impactOrdered && count < postings.length) {
+							// descending impact, then ascending document
+							postings[count] = ((long) (ImpactScores.MAX_IMPACT - impact) << 32) | list.document();
+						}
+						count++;
+					}
+					if (count != documentFrequency) {
+						// the impacts of the following lists would be misplaced
+						throw new IOException("The list of " + parts[0] + " has " + count
+								+ " documents instead of " + documentFrequency);
+					}
+					if (impactOrdered) {
+						Arrays.sort(postings);
+						for (long posting : postings) {
+							orderedDocumentsOut.writeInt((int) posting);
+							orderedImpactsOut.write(ImpactScores.MAX_IMPACT - (int) (posting >>> 32));
+						}
+					}
+				}
+			} finally {
+				index.close();
+				seekList.close();
+				out.close();
+				if (orderedDocumentsOut != null) {
+					orderedDocumentsOut.close();
+				}
+				if (orderedImpactsOut != null) {
+					orderedImpactsOut.close();
+				}
+			}
+		}
+
+		Writer metadata = new FileWriter(dir + ImpactScores.metadataFileName);
+		try {
+			metadata.write("k1\t" + impacts.k1 + "\n");
+			metadata.write("b\t" + impacts.b + "\n");
+			metadata.write("scale\t" + impacts.scale + "\n");
+			metadata.write("documents\t" + impacts.documentCount + "\n");
+			metadata.write("impactOrdered\t" + impacts.impactOrdered + "\n");
+		} finally {
+			metadata.close();
+		}
+	}
+
+	/**
+	 * Open the impacts in the given directory and map them into memory.
+	 * @param dir the directory for all index files
+	 * @param partitionCount the number of partitions of the index
+	 * @return the read-only impacts
+	 * @throws IOException if the impacts cannot be read
+	 */
+	public static ImpactScores open(String dir, int partitionCount) throws IOException {
+		ImpactScores impacts = new ImpactScores();
+		BufferedReader metadata = new BufferedReader(new FileReader(dir + ImpactScores.metadataFileName));
+		try {
+			String line;
+			while ((line = metadata.readLine()) != null) {
+				String[] parts = line.split("\t");
+				if (parts[0].equals("k1")) {
+					impacts.k1 = Double.parseDouble(parts[1]);
+				} else if (parts[0].equals("b")) {
+					impacts.b = Double.parseDouble(parts[1]);
+				} else if (parts[0].equals("scale")) {
+					impacts.scale = Double.parseDouble(parts[1]);
+				} else if (parts[0].equals("documents")) {
+					impacts.documentCount = Integer.parseInt(parts[1]);
+				} else if (parts[0].equals("impactOrdered")) {
+					impacts.impactOrdered = Boolean.parseBoolean(parts[1]);
+				}
+			}
+		} finally {
+			metadata.close();
+		}
+		// the longest list has one impact (and document) per document of the index
+		long longestList = impacts.documentCount;
+		if (ImpactScores.CHUNK_SIZE + 4 * longestList > Integer.MAX_VALUE) {
+			throw new IOException("The impacts of " + impacts.documentCount + " documents cannot be mapped");
+		}
+		try {
+			for (int partition = 0; partition < partitionCount; partition++) {
+				impacts.partitions.add(impacts.map(dir + ImpactScores.fileName + partition
+						+ ImpactScores.fileExtension, longestList));
+				if (impacts.impactOrdered) {
+					impacts.orderedDocuments.add(impacts.map(dir + ImpactScores.orderedDocumentsFileName + partition
+							+ ImpactScores.fileExtension, 4 * longestList));
+					impacts.orderedImpacts.add(impacts.map(dir + ImpactScores.orderedImpactsFileName + partition
+							+ ImpactScores.fileExtension, longestList));
+				}
+			}
+		} catch (IOException e) {
+			impacts.release();
+			throw e;
+		}
+		return impacts;
+	}
+
+	/**
+	 * Map a file in chunks: chunk <tt>i</tt> starts at
+	 * <tt>i * CHUNK_SIZE</tt> and is <tt>CHUNK_SIZE + overlap</tt> long (or
+	 * reaches the end of the file), so a range of up to <tt>overlap</tt>
+	 * bytes lies in one chunk (see {@link #slice(ByteBuffer[], long, int)}).
+	 * @param fileName the file
+	 * @param overlap the length of the longest range which is read
+	 * @return the chunks
+	 * @throws IOException if the file cannot be mapped
+	 */
+	private ByteBuffer[] map(String fileName, long overlap) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			ByteBuffer[] chunks = new ByteBuffer[(int) Math.max(1,
+					(size + ImpactScores.CHUNK_SIZE - 1) / ImpactScores.CHUNK_SIZE)];
+			for (int chunk = 0; chunk < chunks.length; chunk++) {
+				// the mapping stays valid after the channel is closed
+				long start = chunk * ImpactScores.CHUNK_SIZE;
+				chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(size - start, ImpactScores.CHUNK_SIZE + overlap));
+				this.mappings.add(chunks[chunk]);
+			}
+			return chunks;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * @param chunks the chunks of a file (see {@link #map(String, long)})
+	 * @param position the position of a range in the file
+	 * @param length the length of the range (at most the overlap of the chunks)
+	 * @return the range
+	 */
+	private static ByteBuffer slice(ByteBuffer[] chunks, long position, int length) {
+		ByteBuffer chunk = chunks[(int) (position / ImpactScores.CHUNK_SIZE)].duplicate();
+		int start = (int) (position % ImpactScores.CHUNK_SIZE);
+		chunk.position(start);
+		chunk.limit(start + length);
+		return chunk.slice();
+	}
+
+	/**
+	 * @param documentFrequency the number of documents of a term
+	 * @return its idf (as in SearchEngineRetrEvil)
+	 */
+	private double getIdf(int documentFrequency) {
+		return Math.log(1.0 / ((documentFrequency + 0.5) / ((this.documentCount - documentFrequency) + 0.5)));
+	}
+
+	/**
+	 * @return the impact of a term in a document
+	 */
+	private int quantize(double idf, int frequency, double lengthRatio) {
+		double K = this.k1 * ((1 - this.b) + this.b * lengthRatio);
+		double score = idf * (((this.k1 + 1.0) * frequency) / (K + frequency));
+		return (int) Math.max(0, Math.min(ImpactScores.MAX_IMPACT, Math.round(score / this.scale)));
+	}
+
+	/**
+	 * An upper bound of the impacts of a term (for any document length).
+	 * @param documentFrequency the number of documents of the term
+	 * @param maxFrequency the highest frequency of the term in a document
+	 * @return the bound
+	 */
+	public int getMaxImpact(int documentFrequency, int maxFrequency) {
+		// K is at least k1 * (1 - b)
+		return this.quantize(this.getIdf(documentFrequency), maxFrequency, 0);
+	}
+
+	/**
+	 * Get the impacts of a list.
+	 * @param partition the partition of the list
+	 * @param impactOffset the position of its first impact
+	 * @param documentFrequency the number of its documents
+	 * @return the impacts, one per document of the list
+	 */
+	public ByteBuffer getImpacts(int partition, long impactOffset, int documentFrequency) {
+		return ImpactScores.slice(this.partitions.get(partition), impactOffset, documentFrequency);
+	}
+
+	/**
+	 * @return <tt>true</tt> if the lists are stored in impact order, too
+	 */
+	public boolean isImpactOrdered() {
+		return this.impactOrdered;
+	}
+
+	/**
+	 * Get a list in impact order.
+	 * @param partition the partition of the list
+	 * @param impactOffset the position of its first impact
+	 * @param documentFrequency the number of its documents
+	 * @return the list
+	 */
+	public ImpactOrderedList getImpactOrderedList(int partition, long impactOffset, int documentFrequency) {
+		ByteBuffer documents = ImpactScores.slice(this.orderedDocuments.get(partition), 4 * impactOffset,
+				4 * documentFrequency);
+		ByteBuffer impacts = ImpactScores.slice(this.orderedImpacts.get(partition), impactOffset, documentFrequency);
+		return new ImpactOrderedList(documents.asIntBuffer(), impacts);
+	}
+
+	/**
+	 * @return the BM25 parameter k1 of the impacts
+	 */
+	public double getK1() {
+		return this.k1;
+	}
+
+	/**
+	 * @return the BM25 parameter b of the impacts
+	 */
+	public double getB() {
+		return this.b;
+	}
+
+	/**
+	 * @return the score of one unit of impact
+	 */
+	public double getScale() {
+		return this.scale;
+	}
+
+	/**
+	 * Read the mapped impacts into memory (pre-warming).
+	 */
+	public void load() {
+		MappedBuffers.load(this.mappings);
+	}
+
+	/**
+	 * Unmap the impacts. They must not be used afterwards.
+	 */
+	public void release() {
+		this.partitions.clear();
+		this.orderedDocuments.clear();
+		this.orderedImpacts.clear();
+		MappedBuffers.unmap(this.mappings);
+	}
+
+	/**
+	 * Tests whether the given directory has impacts.
+	 * @param dir the directory
+	 * @return <tt>true</tt> if their parameters are present and can be read
+	 */
+	public static boolean directoryHasFiles(String dir) {
+		return new File(dir + ImpactScores.metadataFileName).canRead();
+	}
+
+	/**
+	 * Delete the impacts in the given directory (if they exist).
+	 * @param dir the directory
+	 */
+	public static void deleteFiles(String dir) {
+		new File(dir + ImpactScores.metadataFileName).delete();
+		File[] files = new File(dir).listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(ImpactScores.fileName)
+						&& file.getName().endsWith(ImpactScores.fileExtension)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+}
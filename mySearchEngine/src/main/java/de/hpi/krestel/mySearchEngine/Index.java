@@ -24,7 +24,8 @@ class Index {
 	/**
 	 * A TermList is a inverted list, i.e., a list of documents and
 	 * positions in these documents where a particular term occurs.
-	 * Each document and position is represented by ids which are Longs.
+	 * Each document is represented by its dense document number (see
+	 * {@link DocumentTable}), each position by its index in the document.
 	 * Documents as well as positions within documents are ordered,
 	 * such as (conceptually):
 	 * 		"apfel": 1: 3, 36, 47; 3: 2, 28, 91, 106
@@ -48,14 +49,14 @@ class Index {
 		 * TreeSets, which do not implement the interface List. Iterate
 		 * over the elements via {@link Collection#iterator()}.
 		 */
-		private Map<Long, Collection<Integer>> occurrences;
+		private Map<Integer, Collection<Integer>> occurrences;
 		
 		/**
 		 * Create a new TermList.
 		 * Initialize the map.
 		 */
 		public TermList() {
-			this.occurrences = new TreeMap<Long, Collection<Integer>>();
+			this.occurrences = new TreeMap<Integer, Collection<Integer>>();
 		} 
 		
 		/**
@@ -69,7 +70,7 @@ class Index {
 			// format: doc:pos,pos,pos;doc:pos,pos,pos[.]
 			StringTokenizer tok = new StringTokenizer(string, ":;.");
 			StringTokenizer innerTok;
-			Long docId = null;
+			Integer docId = null;
 			String positions = null;
 			Integer position = null;
 			boolean isDocId = true;
@@ -77,7 +78,7 @@ class Index {
 				while (tok.hasMoreTokens()) {
 					String token = tok.nextToken();
 					if (isDocId) {
-						docId = Long.parseLong(token);
+						docId = Integer.parseInt(token);
 					} else {
 						positions = token;
 						// parse positions
@@ -98,17 +99,32 @@ class Index {
 		}
 		
 		/**
-		 * Add an occurrence (i.e., the id of the document in which the
+		 * Add an occurrence (i.e., the number of the document in which the
 		 * term occurs and the position in that document) to this TermList.
 		 * If the document is not already present in the map, a new List
 		 * of positions is created for that document and put in the map.
 		 * Otherwise, the position is just added to the existing list.
 		 * If the position is already known, nothing will be changed.
-		 * @param documentId the id of the document
+		 * @param documentId the number of the document
 		 * @param position the position in the document
 		 */
-		public void addOccurrence(Long documentId, Integer position) {
-			Collection<Integer> positions = this.createCollectionForDocument(documentId);
+		public void addOccurrence(Integer documentId, Integer position) {
+			this.addOccurrenceAndMeasure(documentId, position);
+		}
+
+		/**
+		 * Add an occurrence, see {@link #addOccurrence(Integer, Integer)}.
+		 * @return the estimated number of heap bytes which were allocated
+		 *   for the occurrence
+		 */
+		int addOccurrenceAndMeasure(Integer documentId, Integer position) {
+			int size = 0;
+			Collection<Integer> positions = this.occurrences.get(documentId);
+			if (positions == null) {
+				positions = new TreeSet<Integer>();
+				this.occurrences.put(documentId, positions);
+				size += Index.MAP_ENTRY_SIZE + Index.INTEGER_SIZE + Index.TREE_SET_SIZE;
+			}
 			
 			/*
 			 * the following test is actually not necessary with TreeSet,
@@ -116,22 +132,9 @@ class Index {
 			 */
 			if (!positions.contains(position)) {
 				positions.add(position);
+				size += Index.MAP_ENTRY_SIZE + Index.INTEGER_SIZE;
 			}
-		}
-		
-		/**
-		 * Create an empty Collection and add it to the Map of occurrences,
-		 * using the id as key.
-		 * If there is already a Collection, nothing will be changed.
-		 * @param documentId the id of the document
-		 */
-		private Collection<Integer> createCollectionForDocument(Long documentId) {
-			Collection<Integer> result = this.occurrences.get(documentId);
-			if (result == null) {
-				result = new TreeSet<Integer>();
-				this.occurrences.put(documentId, result);
-			}
-			return result;
+			return size;
 		}
 		
 		/**
@@ -145,7 +148,7 @@ class Index {
 			StringBuilder result = new StringBuilder();
 			
 			result.append("( ");
-			for (Long documentId : this.occurrences.keySet()) {	// uses iterator
+			for (Integer documentId : this.occurrences.keySet()) {	// uses iterator
 				result.append(documentId + ": [ ");
 				Collection<Integer> positions = this.occurrences.get(documentId);
 				if (positions != null) {
@@ -171,7 +174,7 @@ class Index {
 		public void toIndexString(BufferedOutputStream bo, String term, boolean isIndexing) throws IOException {
 			boolean isFirstOccurence = true;
 			boolean isFirstPosition = true;
-			for (Long documentId : this.occurrences.keySet()) {	// uses iterator
+			for (Integer documentId : this.occurrences.keySet()) {	// uses iterator
 				if (isFirstOccurence && isIndexing) {
 					// encode term as base64 to avoid .,-: etc...
 					bo.write(DatatypeConverter.printBase64Binary(term.getBytes()).getBytes());
@@ -193,23 +196,46 @@ class Index {
 			}
 			bo.write(TitleList.dot);
 			if (isIndexing) bo.write("\n".getBytes());
-			bo.flush();
 		}
 		
-		public Map<Long, Collection<Integer>> getOccurrences() {
+		public Map<Integer, Collection<Integer>> getOccurrences() {
 			return this.occurrences;
 		}
 		
 	}
 	
+	/*
+	 * Estimated heap sizes (64 bit JVM with compressed references) of the
+	 * objects of an index, used to account for its memory.
+	 */
+	// an entry of a TreeMap (or TreeSet)
+	static final int MAP_ENTRY_SIZE = 40;
+	// an Integer (small values are cached, which is ignored)
+	static final int INTEGER_SIZE = 16;
+	// an empty TreeSet (including its TreeMap)
+	static final int TREE_SET_SIZE = 64;
+	// an empty TermList (including its TreeMap)
+	static final int TERM_LIST_SIZE = 64;
+	
+	/**
+	 * @return the estimated heap size of a String of the given length
+	 */
+	static int stringSize(int length) {
+		return 40 + 2 * length;
+	}
+	
 	private Map<String, Index.TermList> termLists;
 	
+	// the estimated heap size of the lists and their terms
+	private long estimatedSize;
+	
 	/**
 	 * Create a new Index.
 	 * Initialize the map.
 	 */
 	public Index() {
 		this.termLists = new TreeMap<String, Index.TermList>();
+		this.estimatedSize = 0;
 	}
 	
 	/**
@@ -217,28 +243,28 @@ class Index {
 	 * position to the index. Creates a new TermList for that term, if necessary.
 	 * If the position is already known, nothing will be changed.
 	 * @param term the term
-	 * @param documentId the id of the document
+	 * @param documentId the number of the document
 	 * @param position the position within the document
 	 */
-	public void addTermOccurrence(String term, Long documentId, Integer position) {
-		Index.TermList list = this.createListForTerm(term);
-		// delegate the rest to the TermList
-		list.addOccurrence(documentId, position);
-	}
-	
-	/**
-	 * Creates a new TermList for the given term and adds it to the map,
-	 * using the term as key.
-	 * If the term is already present in the map, nothing will be changed.
-	 * @param term the term to create a list for
-	 */
-	private Index.TermList createListForTerm(String term) {
+	public void addTermOccurrence(String term, Integer documentId, Integer position) {
 		Index.TermList list = this.termLists.get(term);
 		if (list == null) {
 			list = new TermList();
 			this.termLists.put(term, list);
+			this.estimatedSize += Index.MAP_ENTRY_SIZE + Index.stringSize(term.length()) + Index.TERM_LIST_SIZE;
 		}
-		return list;
+		// delegate the rest to the TermList
+		this.estimatedSize += list.addOccurrenceAndMeasure(documentId, position);
+	}
+	
+	/**
+	 * Get the estimated heap size of this index, i.e., of all objects which
+	 * were created by {@link #addTermOccurrence(String, Integer, Integer)}.
+	 * It is tracked while adding occurrences, not computed.
+	 * @return the estimated size in bytes
+	 */
+	public long getEstimatedSize() {
+		return this.estimatedSize;
 	}
 	
 	/**
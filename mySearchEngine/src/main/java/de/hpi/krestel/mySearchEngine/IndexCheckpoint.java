@@ -0,0 +1,140 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * A durable checkpoint of an index build (see {@link IndexHandler}). It is
+ * written whenever a part of the index is complete on disk, and records
+ * everything which is needed to continue the build after a crash:
+ *  - the offset in the dump and the page id of the last indexed page (a
+ *    resumed build skips the dump up to and including that page)
+ *  - the number of complete parts of the index and link index
+ *  - the number of documents and the length of the titles blob of the
+ *    {@link DocumentTable}, and the length of the {@link TextStore}
+ * All files are forced to disk before the checkpoint is written; the
+ * checkpoint itself is written to a temporary file which is renamed, so a
+ * crash leaves either the previous or the new checkpoint.
+ * A finished checkpoint marks a directory whose build is complete (used for
+ * the partitions of a {@link PartitionedIndexBuilder}).
+ */
+class IndexCheckpoint {
+
+	// name of the checkpoint file (within the directory of the build)
+	private static final String fileName = "checkpoint";
+	// file extension
+	private static final String fileExtension = ".txt";
+	// extension of the file which is written before it is renamed
+	private static final String tempFileExtension = ".tmp";
+
+	// offset in the dump which is not before the start of the last indexed page
+	final long dumpOffset;
+	// page id of the last indexed page
+	final long lastPageId;
+	// number of complete parts (0..runs-1) of the index and link index
+	final int runs;
+	// number of documents
+	final int documents;
+	// length of the titles blob of the document table
+	final int titlesLength;
+	// length of the texts file of the text store
+	final long textsLength;
+	// whether the build of the directory is complete
+	final boolean finished;
+
+	IndexCheckpoint(long dumpOffset, long lastPageId, int runs, int documents, int titlesLength,
+			long textsLength, boolean finished) {
+		this.dumpOffset = dumpOffset;
+		this.lastPageId = lastPageId;
+		this.runs = runs;
+		this.documents = documents;
+		this.titlesLength = titlesLength;
+		this.textsLength = textsLength;
+		this.finished = finished;
+	}
+
+	/**
+	 * Write the checkpoint into the given directory (atomically) and force
+	 * it to disk.
+	 * @param dir the directory of the build
+	 * @throws IOException
+	 */
+	public void write(String dir) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("dumpOffset", String.valueOf(this.dumpOffset));
+		properties.setProperty("lastPageId", String.valueOf(this.lastPageId));
+		properties.setProperty("runs", String.valueOf(this.runs));
+		properties.setProperty("documents", String.valueOf(this.documents));
+		properties.setProperty("titlesLength", String.valueOf(this.titlesLength));
+		properties.setProperty("textsLength", String.valueOf(this.textsLength));
+		properties.setProperty("finished", String.valueOf(this.finished));
+
+		File tempFile = new File(dir + IndexCheckpoint.fileName + IndexCheckpoint.tempFileExtension);
+		FileOutputStream out = new FileOutputStream(tempFile);
+		try {
+			properties.store(out, "index build checkpoint");
+			out.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tempFile.renameTo(IndexCheckpoint.getFile(dir))) {
+			throw new IOException("Cannot write the checkpoint in " + dir);
+		}
+	}
+
+	/**
+	 * Read the checkpoint of the given directory.
+	 * @param dir the directory of the build
+	 * @return the checkpoint or <tt>null</tt> if there is none (or it
+	 *   cannot be read)
+	 */
+	public static IndexCheckpoint read(String dir) {
+		File file = IndexCheckpoint.getFile(dir);
+		if (!file.canRead()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			return new IndexCheckpoint(
+					Long.parseLong(properties.getProperty("dumpOffset")),
+					Long.parseLong(properties.getProperty("lastPageId")),
+					Integer.parseInt(properties.getProperty("runs")),
+					Integer.parseInt(properties.getProperty("documents")),
+					Integer.parseInt(properties.getProperty("titlesLength")),
+					Long.parseLong(properties.getProperty("textsLength")),
+					Boolean.parseBoolean(properties.getProperty("finished")));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} catch (RuntimeException e) {
+			// incomplete checkpoint (missing or malformed values)
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Delete the checkpoint of the given directory (if it exists).
+	 * @param dir the directory of the build
+	 */
+	public static void delete(String dir) {
+		IndexCheckpoint.getFile(dir).delete();
+		new File(dir + IndexCheckpoint.fileName + IndexCheckpoint.tempFileExtension).delete();
+	}
+
+	private static File getFile(String dir) {
+		return new File(dir + IndexCheckpoint.fileName + IndexCheckpoint.fileExtension);
+	}
+
+}
@@ -0,0 +1,98 @@
+package de.hpi.krestel.mySearchEngine;
+
+/**
+ * Holds the current generation of the index (see {@link SegmentedIndex})
+ * and swaps in new generations while queries are running.
+ * Every query acquires the current searcher and releases it when it is
+ * done, so a query sees one generation from start to end. A new
+ * generation is pre-warmed before it becomes current: its mapped files are
+ * read into memory, and the {@link Warmer} runs recent queries on it, so
+ * the first queries after the swap do not pay for cold caches. The old
+ * generation is closed (its files unmapped, and deleted if no manifest
+ * references them) once the last query which acquired it releases it.
+ */
+class IndexGenerations {
+
+	/**
+	 * Pre-warms a new generation before it becomes current.
+	 */
+	interface Warmer {
+		/**
+		 * @param index the new generation (must not be released)
+		 */
+		void warm(SegmentedIndex index);
+	}
+
+	// the current generation (null until the first one is published)
+	private volatile SegmentedIndex current;
+	// pre-warms new generations (may be null)
+	private final Warmer warmer;
+
+	/**
+	 * @param warmer pre-warms new generations (may be <tt>null</tt>)
+	 */
+	public IndexGenerations(Warmer warmer) {
+		this.warmer = warmer;
+	}
+
+	/**
+	 * Acquire the current generation. It must be released with
+	 * {@link #release(SegmentedIndex)}.
+	 * @return the current generation or <tt>null</tt> if there is none
+	 */
+	public SegmentedIndex acquire() {
+		while (true) {
+			SegmentedIndex index = this.current;
+			if (index == null || index.tryIncRef()) {
+				return index;
+			}
+			// the generation was closed after it was swapped out; retry with the new one
+		}
+	}
+
+	/**
+	 * Release a generation which was acquired.
+	 * @param index the generation
+	 */
+	public void release(SegmentedIndex index) {
+		index.decRef();
+	}
+
+	/**
+	 * @return the number of the current generation or <tt>-1</tt> if there
+	 *   is none
+	 */
+	public int getGeneration() {
+		SegmentedIndex index = this.current;
+		return index != null ? index.getGeneration() : -1;
+	}
+
+	/**
+	 * Pre-warm a new generation and make it current (the swap). The old
+	 * generation is released; it is closed once no query uses it any more.
+	 * @param index the new generation (this takes over its reference)
+	 */
+	public synchronized void publish(SegmentedIndex index) {
+		index.warm();
+		if (this.warmer != null) {
+			this.warmer.warm(index);
+		}
+		SegmentedIndex old = this.current;
+		this.current = index;
+		if (old != null) {
+			old.decRef();
+		}
+	}
+
+	/**
+	 * Release the current generation; queries find no index afterwards.
+	 */
+	public synchronized void close() {
+		SegmentedIndex old = this.current;
+		this.current = null;
+		if (old != null) {
+			old.decRef();
+		}
+	}
+
+}
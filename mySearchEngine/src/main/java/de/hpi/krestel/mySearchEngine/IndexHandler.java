@@ -1,34 +1,54 @@
 package de.hpi.krestel.mySearchEngine;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.PriorityQueue;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
 import javax.xml.bind.DatatypeConverter;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -48,7 +68,7 @@ import de.hpi.krestel.mySearchEngine.LinkIndex.TitleList;
  * finished parsing.
  * (in the future:) Provides information for the query engine.
  */
-class IndexHandler {
+class IndexHandler implements PageSink {
 
 	// just to provide a simple way to switch between full index creation and just merging
 	public static final boolean DEV_MODE = false;
@@ -60,80 +80,79 @@ class IndexHandler {
 	
 	// number of documents in which a term has to appear to be insignificant
 	protected static final int TERM_INSIGNIFICANCE_THRESHOLD = 100000;
+	/*
+	 * number the documents of a finished index in descending static rank
+	 * (see PageRank), so the lists of the index are ordered by it and
+	 * scorers can stop early (see sortByStaticRank)
+	 */
+	static final boolean STATIC_RANK_ORDER = true;
+	/*
+	 * number of documents with the highest frequency of a term which are
+	 * stored as its champion list, if its list is longer (see ChampionList)
+	 */
+	static final int CHAMPION_LIST_SIZE = 1000;
+	// store the quantized BM25 scores of the postings (see ImpactScores)
+	static final boolean QUANTIZED_IMPACTS = true;
+	// store the lists in impact order, too (see ImpactOrderedList)
+	static final boolean IMPACT_ORDERED_LISTS = true;
+	// store the term vectors of the documents (see TermVectors)
+	static final boolean TERM_VECTORS = true;
 
 	// name of the file which stores the index
 	private static final String indexFileName = "index";
 	// name of the file which stores the seeklist
 	private static final String seekListFileName = "index_seeklist";
+	private static final String championListFileName = "index_champions";
 	// name of the file which stores the link index
 	private static final String linkIndexFileName = "link_index";
-	// name of the file which stores the texts (for snippets)
-	private static final String textsFileName = "texts";
-	// name of the file which stores the seeklist for the texts
-	private static final String textsSeekListFileName = "texts_seeklist";
-	// name of the file which stores the mapping of document ids and titles
-	private static final String titlesFileName = "idsToTitles";
-	// name of the file which stores the mapping of (processed) titles to ids
-	private static final String titlesToIdsFileName = "titlesToIds";
 	// file extension
 	private static final String fileExtension = ".txt";
 	// file extension
 	private static final String tempFileExtension = ".tmp";
+	// suffixes of the directories in which an index is sorted by static rank
+	private static final String sortedDirSuffix = "_sorted";
+	private static final String unsortedDirSuffix = "_unsorted";
 	// extended stopword list 
 	private static final String germanStopWordsFileName = "/GermanStopWords.csv";
 
+	// fraction of the maximum heap which may be used by the index and link index
+	private static final double INDEXING_RAM_FRACTION = 0.8;
 	/*
-	 * Insertion-ordered map of regular expressions which are used to remove
-	 * the syntax from documents in order to create nice snippets.
-	 * Lists (* ..., # ...) are not removed.
-	 */
-	private static final Map<String, String> cleaningPatterns = new LinkedHashMap<String, String>();
-	static {
-		cleaningPatterns.put("'''", "");						// bold
-		cleaningPatterns.put("''", "");							// italic
-		cleaningPatterns.put("==+", "");						// headings
-		cleaningPatterns.put("\\[\\[Datei:[^\\]]*\\]\\]", "");	// files (delete content)
-		cleaningPatterns.put("\\[\\[[^|\\]]+\\|", "");			// internal links
-		cleaningPatterns.put("\\[\\[", "");
-		cleaningPatterns.put("\\]\\]", "");
-		cleaningPatterns.put("\\[\\w+://[^\\s]+\\s", "");		// external links
-		cleaningPatterns.put("\\[", "");
-		cleaningPatterns.put("\\]", "");
-		cleaningPatterns.put("\\{\\{[^}]*\\}\\}", "");			// special internal links (delete content)
-		cleaningPatterns.put("\\{\\{", "");
-		cleaningPatterns.put("\\}\\}", "");
-		cleaningPatterns.put("\\{[^}]*\\}", "");				// templates (delete content)
-		cleaningPatterns.put("\\|(.*)\n", "");
-		cleaningPatterns.put("<gallery>[^<]*</gallery>", "");	// galleries (delete content)
-		cleaningPatterns.put("<ref>[^<]*</ref>", "");			// references (delete content)
-		cleaningPatterns.put("#WEITERLEITUNG", "");				// redirection (should not happen anyway)
-		cleaningPatterns.put("<[^>]*>", "");					// arbitrary tags
-		cleaningPatterns.put("\n(.*):\\\\mathrm(.*)\n", "\n");	// formulas
-		cleaningPatterns.put("  ", "");							// double spaces
-		cleaningPatterns.put("\n ", "\n");						// newline followed by space
-		cleaningPatterns.put("\n\n\n", "\n\n");					// triple newlines
-		cleaningPatterns.put("&nbsp;", " ");					// HTML whitespace
-	}
-
-	/*
-	 * List of regular expressions which are used to extract internal links
-	 * from pages. Patterns are immutable, Matchers are not. Do not include
-	 * links to categories. Remove hash parts (e.g. ...#Section).
-	 */
-	private static final List<Pattern> linkingPatterns = new ArrayList<Pattern>();
-	static {
-		// simple internal links, e.g. [[Actinium]]
-		linkingPatterns.add(Pattern.compile("\\[\\[([^:#|\\]]+)(#[^|\\]]*)?\\]\\]"));
-		// internal links with text, e.g. [[Actinium|ein dummes Element]]
-		linkingPatterns.add(Pattern.compile("\\[\\[([^:#|\\]]+)(#[^|\\]]*)?\\|[^\\]]*\\]\\]"));
-		// external links which should be internal, e.g. 
-		// [http://de.wikipedia.org/wiki/Actinium Lol voll die "externe" Seite trololol]
-		linkingPatterns.add(Pattern.compile("\\[http://de\\.wikipedia\\.org/wiki/([^ :#\\]]+)[^\\]]*\\]"));
-	}
-
-	private static int THRESHOLD = 128 * 1024 * 1024;
+	 * fraction of the tenured heap which may still be used after a garbage
+	 * collection; if it is exceeded, every IndexHandler writes its part early
+	 */
+	private static final double MEMORY_PRESSURE_FRACTION = 0.9;
+	// minimal size of a part which is written early because of memory pressure
+	private static final long MIN_SPILL_SIZE = 4 * 1024 * 1024;
 	private static int bufferSize = 8192;
-	private int byteCounter = 0;
+	// buffer size for writing and reading the parts of the index
+	private static final int runBufferSize = 1024 * 1024;
+	// number of threads which merge the partitions of the index and link index
+	private static final int MERGE_THREADS = Runtime.getRuntime().availableProcessors();
+	// minimal size of the parts of a partition (smaller indexes have fewer partitions)
+	private static final long MIN_PARTITION_SIZE = 32 * 1024 * 1024;
+	// distance of the sampled keys in a part, which are used to choose the partitions
+	private static final int SAMPLE_DISTANCE = 256 * 1024;
+	// compress the parts of the index (less I/O, more CPU)
+	private static final boolean COMPRESS_RUNS = false;
+	/*
+	 * number of parts which may wait for the spill writer while it writes
+	 * another one; indexing blocks if more parts are pending
+	 */
+	private static final int SPILL_QUEUE_SIZE = 1;
+	/*
+	 * write a checkpoint with every part, from which a crashed build can be
+	 * resumed (see IndexCheckpoint)
+	 */
+	private static final boolean WRITE_CHECKPOINTS = true;
+	// estimated heap size of the index and link index after which they are written as a part
+	private long ramBudget = IndexHandler.getDefaultRamBudget();
+	// number of memory pressure notifications which this IndexHandler has reacted to
+	private int seenMemoryPressure = 0;
+
+	// number of memory pressure notifications (see MEMORY_PRESSURE_FRACTION)
+	private static final AtomicInteger memoryPressure = new AtomicInteger();
+	private static boolean watchingMemoryPressure = false;
 
 	// directory of files to be read / written
 	private String dir;
@@ -143,6 +162,10 @@ class IndexHandler {
 
 	// the analyzer for pre-processing of documents and queries
 	private Analyzer analyzer;
+	// removes the markup from texts for snippets
+	private WikiMarkupStripper markupStripper;
+	// extracts the titles of linked pages from texts
+	private WikiLinkScanner linkScanner;
 
 	// the index
 	private Index index;
@@ -150,24 +173,72 @@ class IndexHandler {
 	private Map<String, Long> seeklist;
 	// the link index
 	private LinkIndex linkIndex;
-	// the seeklist for the texts (document id - offset)
-	private Map<Long, Long> textsSeeklist;
-	// the mapping from document ids to titles
-	private Map<Long, String> idsToTitles;
-	// the mapping from (processed) document titles to ids
-	private Map<String, Long> titlesToIds;
-	// the RandomAccessFile where the index will be written to
-	private File indexFile;
-	private File linkIndexFile;
-	private RandomAccessFile raIndexFile;
-	private FileOutputStream fos;
-	private BufferedOutputStream bo;
+	// the partitions of the index (and seeklist)
+	private PartitionDirectory indexPartitions;
+	// the per-document columns (page ids, titles), assigns the dense document numbers
+	private DocumentTable documentTable;
+	// the links between the documents (built from the link index)
+	private LinkGraph linkGraph;
+	// the static rank of the documents (computed from the link graph)
+	private PageRank pageRank;
+	// the quantized BM25 scores of the postings (null if the index has none)
+	private ImpactScores impactScores;
+	// the term vectors of the documents (null if the index has none)
+	private TermVectors termVectors;
+	/*
+	 * the static ranks of the documents which were taken over in static
+	 * rank order (see sortByStaticRank), in the new order; null otherwise
+	 */
+	private float[] sortedRanks;
+	// the compressed texts of all documents (for snippets)
+	private TextStore textStore;
+	// indexing only: parts of the index which wait for the spill writer
+	private BlockingQueue<Spill> spills;
+	private Thread spillWriter;
+	// the first error of the spill writer
+	private volatile IOException spillError;
+	// indexing only: offset of the current page in the dump (see setDumpOffset)
+	private long dumpOffset;
+	// indexing only: page id and dump offset of the last indexed page
+	private Long lastPageId;
+	private long lastPageOffset;
+	// indexing only: the checkpoint from which the build was resumed
+	private IndexCheckpoint checkpoint;
+	// indexing only: pages are skipped up to and including this one (resumed build)
+	private Long resumeAfterPageId;
+	// merging only: throttles reading the parts and segments (may be null)
+	private RateLimiter rateLimiter;
+
+	/**
+	 * A part of the index and link index which is written to the parts
+	 * with the given number, and the checkpoint which is written afterwards
+	 * (may be <tt>null</tt>).
+	 */
+	private static class Spill {
+		final Index index;
+		final LinkIndex linkIndex;
+		final int number;
+		final IndexCheckpoint checkpoint;
+
+		Spill(Index index, LinkIndex linkIndex, int number, IndexCheckpoint checkpoint) {
+			this.index = index;
+			this.linkIndex = linkIndex;
+			this.number = number;
+			this.checkpoint = checkpoint;
+		}
+	}
+
+	// marks the end of the spills
+	private static final Spill END_OF_SPILLS = new Spill(null, null, -1, null);
 
 	/**
 	 * Create an Indexer which handles index files in the given directory.
 	 * This includes the creation of an analyzer for pre-processing
 	 * as well as the initialization of all index structures.
 	 * Uses {@link TreeMap} for maps whose keys are ordered.
+	 * If the directory holds the checkpoint of an unfinished build (see
+	 * {@link IndexCheckpoint}), the build is resumed from it: pages up to
+	 * the last one of the checkpoint are skipped.
 	 * @param dir the directory for all index files
 	 */
 	public IndexHandler(String dir) {
@@ -187,35 +258,88 @@ class IndexHandler {
 		this.dir = dir;
 
 		this.analyzer = this.createAnalyzer();
+		this.markupStripper = new WikiMarkupStripper();
+		this.linkScanner = new WikiLinkScanner();
 
 		this.index = new Index();
-		this.indexFile = new File(this.dir
-				+ IndexHandler.indexFileName
-				+ IndexHandler.fileExtension);
-		try {
-			this.raIndexFile = new RandomAccessFile(indexFile, "rw");
-			this.fos = new FileOutputStream(raIndexFile.getFD());
-			this.bo = new BufferedOutputStream(fos);
-		}
-		catch (FileNotFoundException e) { e.printStackTrace(); }
-		catch (IOException e) { e.printStackTrace(); }
 
 		this.setLinkIndex(new LinkIndex());
 
 		this.seeklist = new LinkedHashMap<String, Long>();
-		this.textsSeeklist = new TreeMap<Long, Long>();
-		this.idsToTitles = new TreeMap<Long, String>();
-		this.setTitlesToIds(new TreeMap<String, Long>());
 
-		// if a new index is to be created, delete old files (if necessary)
+		// if a new index is to be created, resume it or delete old files (if necessary)
 		if (!load) {
+			IndexHandler.recoverStaticRankSort(this.dir);
+			IndexHandler.watchMemoryPressure();
+			// notifications before this IndexHandler was created do not concern it
+			this.seenMemoryPressure = IndexHandler.memoryPressure.get();
+			IndexCheckpoint checkpoint = IndexCheckpoint.read(this.dir);
+			if (checkpoint != null && !checkpoint.finished && this.resume(checkpoint)) {
+				return;
+			}
 			this.deleteOldFiles();
+			try {
+				this.documentTable = DocumentTable.create(this.dir);
+				this.textStore = TextStore.create(this.dir);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		} else {
 			// load seeklist and mapping of titles
 			this.loadIndex();
 		}
 	}
 
+	/**
+	 * Resume a build from the given checkpoint: truncate the document table
+	 * and text store to the checkpoint, delete the parts which were written
+	 * after it and skip the pages up to its last page.
+	 * If an IOException occurs, print it and return <tt>false</tt> (the
+	 * build has to start over).
+	 * @param checkpoint the checkpoint
+	 * @return <tt>true</tt> if the build was resumed
+	 */
+	private boolean resume(IndexCheckpoint checkpoint) {
+		try {
+			this.documentTable = DocumentTable.resume(this.dir, checkpoint.documents, checkpoint.titlesLength);
+			this.textStore = TextStore.resume(this.dir, checkpoint.textsLength, checkpoint.documents);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		for (String fileName : new String[] { IndexHandler.indexFileName, IndexHandler.linkIndexFileName }) {
+			for (File run : IndexHandler.getTempFiles(this.dir, fileName)) {
+				if (IndexHandler.getTempFileNumber(run.getName(), fileName + "_") >= checkpoint.runs) {
+					run.delete();
+				}
+			}
+		}
+		this.fileCount = checkpoint.runs;
+		this.checkpoint = checkpoint;
+		this.lastPageId = checkpoint.lastPageId;
+		this.lastPageOffset = checkpoint.dumpOffset;
+		this.resumeAfterPageId = checkpoint.lastPageId;
+		System.out.println("Resuming the index build after page " + checkpoint.lastPageId
+				+ " (" + checkpoint.documents + " documents)");
+		return true;
+	}
+
+	/**
+	 * @return the checkpoint from which the build was resumed, or
+	 *   <tt>null</tt> if it was started from scratch
+	 */
+	IndexCheckpoint getCheckpoint() {
+		return this.checkpoint;
+	}
+
+	/**
+	 * @return <tt>true</tt> while a resumed build skips the pages up to the
+	 *   last one of its checkpoint
+	 */
+	boolean isSkippingToCheckpoint() {
+		return this.resumeAfterPageId != null;
+	}
+
 	/**
 	 * Create and configure the Analyser to be used.
 	 * @return an analyzer for text processing
@@ -265,6 +389,14 @@ class IndexHandler {
 	 * @param text the text to be processed
 	 */
 	List<String> processRawText(String text) throws IOException {
+		return this.processRawText(new StringReader(text));
+	}
+
+	/**
+	 * Pre-process raw text from a Reader, see {@link #processRawText(String)}.
+	 * @param text the text to be processed
+	 */
+	List<String> processRawText(Reader text) throws IOException {
 		/* 
 		 * Create the event stream; subsequent calls to analyzer.tokenStream
 		 * will return the same stream; "fieldName" should not be relevant for
@@ -295,683 +427,1513 @@ class IndexHandler {
 	}
 
 	/**
-	 * Add the id-title-mapping to the respective map.
+	 * Assign the next document number to the page and store its page id
+	 * and title in the document table.
+	 * Hand the cleaned text to the text store (written in the background).
 	 * Add the occurrences of all terms in the given text to the index.
 	 * Add the occurrences of links to other pages to the index.
-	 * Add the text to the texts file and store the offset.
 	 * If an IOException occurs, print it, but proceed.
-	 * @param id the id of the document
+	 * @param pageId the (Wikipedia) page id of the document
 	 * @param title the title of the document
-	 * @param text the text of the document
+	 * @param text the text of the document (only read during the call)
 	 */
-	public void indexPage(final Long id, final String title, final String text) {
-		// id - title - mapping
-		this.idsToTitles.put(id, title);
-		this.getTitlesToIds().put(LinkIndex.processTitle(title), id);
-		
+	@Override
+	public void indexPage(final Long pageId, final String title, final TextBuffer text) {
+		if (this.resumeAfterPageId != null) {
+			// resumed build: the page is part of the checkpoint
+			if (this.resumeAfterPageId.equals(pageId)) {
+				this.resumeAfterPageId = null;
+			}
+			return;
+		}
+		this.lastPageId = pageId;
+		this.lastPageOffset = this.dumpOffset;
+
+		final Integer id;
+		try {
+			// assign the dense document number
+			id = this.documentTable.addDocument(pageId, title);
+			// text store (same order of documents)
+			this.textStore.addText(cleanPageText(text));
+		} catch (IOException e) {
+			// the page cannot be addressed without a document number
+			e.printStackTrace();
+			return;
+		}
+
 
 		// indexing
 		try {
 			/*
 			 * Indexing of Links
 			 */
-			List<String> linkedDocumentTitles = this.getLinkedDocumentTitles(text);
-			for (String linkedTitle : linkedDocumentTitles) {
-				if (linkedTitle != null && linkedTitle.length() > 0) {
-					// add linking to the linkIndex
-					this.getLinkIndex().addLinkingTitle(linkedTitle, title);
-					// if threshold is reached: write part of the index
-					this.byteCounter += (title.length() + linkedTitle.length());
-					if (this.byteCounter >= THRESHOLD) {
-						writeToIndexFile();
-						this.byteCounter = 0;
-					}
-				}
+			String processedTitle = LinkIndex.processTitle(title);
+			for (String linkedTitle : this.linkScanner.scan(text)) {
+				// add linking to the linkIndex
+				this.getLinkIndex().addLink(linkedTitle, processedTitle);
 			}
 
 			/*
 			 * Indexing of Terms
 			 */
 			// process text (tokenizing, stopping, stemming)
-			List<String> terms = this.processRawText(text);
+			List<String> terms = this.processRawText(text.reader());
 			// add occurrences to index
 			for (Integer position = 0; position < terms.size(); position++) {
 				String term = terms.get(position);
 				this.index.addTermOccurrence(term, id, position);
-				// if threshold is reached: write part of the index
-				this.byteCounter += (term.length() + id.toString().length() + position.toString().length());
-				if (this.byteCounter >= THRESHOLD) {
-					writeToIndexFile();
-					this.byteCounter = 0;
-				}
 			}
 		} catch (IOException e) {
 			// an IOException was thrown by the Analyzer
 			e.printStackTrace();
 		}
 
-		// texts file and its seeklist
-		try {
-			RandomAccessFile raTextsFile = new RandomAccessFile(new File(this.dir 
-					+ IndexHandler.textsFileName 
-					+ IndexHandler.fileExtension), "rw");
+		// if the budget is used up: write part of the index
+		long size = this.index.getEstimatedSize() + this.linkIndex.getEstimatedSize();
+		int pressure = IndexHandler.memoryPressure.get();
+		boolean pressureChanged = pressure != this.seenMemoryPressure;
+		// a notification which finds the index small is not acted upon later
+		this.seenMemoryPressure = pressure;
+		if (size >= this.ramBudget || (pressureChanged && size >= IndexHandler.MIN_SPILL_SIZE)) {
+			writeToIndexFile();
+		}
+	}
+
+	@Override
+	public void setDumpOffset(long offset) {
+		this.dumpOffset = offset;
+	}
+
+	/**
+	 * Get the default budget of an IndexHandler: the estimated heap size
+	 * which its index and link index may use before they are written as a
+	 * part. {@link #INDEXING_RAM_FRACTION} of the heap is shared by the
+	 * current index and the pending parts (see {@link #SPILL_QUEUE_SIZE}).
+	 * @return the budget in bytes
+	 */
+	static long getDefaultRamBudget() {
+		long budget = (long) (Runtime.getRuntime().maxMemory() * IndexHandler.INDEXING_RAM_FRACTION);
+		return budget / (IndexHandler.SPILL_QUEUE_SIZE + 2);
+	}
 
-			// set pointer to end of file (position of first new byte to be written)
-			raTextsFile.seek(raTextsFile.length());
+	/**
+	 * Set the budget of this IndexHandler, e.g. if several IndexHandlers
+	 * share the heap (see {@link #getDefaultRamBudget()}).
+	 * @param ramBudget the budget in bytes
+	 */
+	void setRamBudget(long ramBudget) {
+		this.ramBudget = ramBudget;
+	}
 
-			// store offset (before the text) in the seeklist of the texts file
-			this.textsSeeklist.put(id, raTextsFile.getFilePointer());
+	/**
+	 * Count a memory pressure notification whenever a tenured memory pool
+	 * is still used above {@link #MEMORY_PRESSURE_FRACTION} after a garbage
+	 * collection. Every IndexHandler which is indexing then writes its part
+	 * (unless it is smaller than {@link #MIN_SPILL_SIZE}).
+	 */
+	private static synchronized void watchMemoryPressure() {
+		if (IndexHandler.watchingMemoryPressure) {
+			return;
+		}
+		IndexHandler.watchingMemoryPressure = true;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			long max = pool.getUsage().getMax();
+			// only tenured pools support both thresholds (eden and survivor spaces do not)
+			if (pool.getType() == MemoryType.HEAP && max > 0
+					&& pool.isUsageThresholdSupported() && pool.isCollectionUsageThresholdSupported()) {
+				pool.setCollectionUsageThreshold((long) (max * IndexHandler.MEMORY_PRESSURE_FRACTION));
+			}
+		}
+		NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+		emitter.addNotificationListener(new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+					IndexHandler.memoryPressure.incrementAndGet();
+				}
+			}
+		}, null, null);
+	}
 
-			// write clean text of the document to the file (2 bytes per char)
-			raTextsFile.write(cleanPageText(text).getBytes());
+	/**
+	 * Prepare the given text of a document for snippet creation, i.e., 
+	 * remove all markup and replace tabs in the text.
+	 * @param text the text of a document
+	 * @return text prepared for the text store
+	 */
+	private String cleanPageText(CharSequence text) {
+		return this.markupStripper.strip(text);
+	}
 
-			// close the file
-			raTextsFile.close();
+	/**
+	 * Hand the current index and link index to the spill writer, which
+	 * writes them as the next part, and continue with empty ones. Blocks
+	 * while {@link #SPILL_QUEUE_SIZE} parts wait for the spill writer (so
+	 * at most two parts are pending besides the current one).
+	 * The spill writer writes a checkpoint after the part (see
+	 * {@link #createCheckpoint()}).
+	 * If an IOException occurs (also in the spill writer), print it, but
+	 * proceed.
+	 */
+	private void writeToIndexFile() {
+		int number = this.fileCount++;
+		Spill spill = new Spill(this.index, this.linkIndex, number, this.createCheckpoint());
+		this.index = new Index();
+		this.linkIndex = new LinkIndex();
+		try {
+			this.checkSpillWriter();
+			if (this.spillWriter == null) {
+				this.startSpillWriter();
+			}
+			this.spills.put(spill);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Parse the given text for links to other Wikipedia pages and return
-	 * a list of their titles.
-	 * @param wikiText the original text of the page (in Wikipedia syntax)
-	 * @return a list of titles (may be empty but not <tt>null</tt>)
+	 * Force the document table and text store to disk and create the
+	 * checkpoint of all pages which were indexed so far. It must only be
+	 * written once the parts up to the current one are on disk.
+	 * If an IOException occurs, print it and return <tt>null</tt>.
+	 * @return the checkpoint or <tt>null</tt> if no checkpoints are written
+	 *   or no page was indexed (e.g. when partitions are merged)
 	 */
-	private List<String> getLinkedDocumentTitles(String wikiText) {
-		List<String> titles = new ArrayList<String>();
+	private IndexCheckpoint createCheckpoint() {
+		if (!IndexHandler.WRITE_CHECKPOINTS || this.lastPageId == null) {
+			return null;
+		}
+		try {
+			this.documentTable.checkpoint();
+			long textsLength = this.textStore.checkpoint();
+			return new IndexCheckpoint(this.lastPageOffset, this.lastPageId, this.fileCount,
+					this.documentTable.size(), this.documentTable.getTitlesLength(), textsLength, false);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
 
-		// apply regular expressions to find links to other pages
-		for (Pattern pattern : linkingPatterns) {
-			// create the matcher for this pattern
-			Matcher matcher = pattern.matcher(wikiText);
-			// iterate over matching regions
-			while (matcher.find()) {
-				// add the content of the first matching group (page title)
-				String title = matcher.group(1);
-				if (!titles.contains(title)) {
-					titles.add(title);
-				}
+	private void startSpillWriter() {
+		this.spills = new ArrayBlockingQueue<Spill>(IndexHandler.SPILL_QUEUE_SIZE);
+		this.spillWriter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				IndexHandler.this.writeSpills();
 			}
-		}
+		}, "IndexHandler spill writer");
+		this.spillWriter.start();
+	}
 
-		return titles;
+	private void checkSpillWriter() throws IOException {
+		if (this.spillError != null) {
+			throw this.spillError;
+		}
 	}
 
 	/**
-	 * Prepare the given text of a document for snippet creation, i.e., 
-	 * remove all markup. Also, prepare it for being written to the texts
-	 * file, i.e., replace tabs in the text and append a tab to it as 
-	 * delimiter.
-	 * @param text the text of a document
-	 * @return text prepared for the texts file
+	 * The loop of the spill writer: write the parts until the end is reached.
 	 */
-	private String cleanPageText(String text) {
-		// remove tabs from the text and add one as separator
-		String processedText = (text != null ? text : "")
-				.replace('\t', ' ')
-				.concat("\t");
-
-		// remove matches
-		for (String pattern : cleaningPatterns.keySet()) {
-			processedText = processedText.replaceAll(pattern, cleaningPatterns.get(pattern));
+	private void writeSpills() {
+		try {
+			while (true) {
+				Spill spill = this.spills.take();
+				if (spill == IndexHandler.END_OF_SPILLS) {
+					break;
+				}
+				this.writeSpill(spill);
+				if (spill.checkpoint != null) {
+					spill.checkpoint.write(this.dir);
+				}
+			}
+		} catch (IOException e) {
+			this.spillError = e;
+		} catch (InterruptedException e) {
+			this.spillError = new IOException("Interrupted while writing the index");
+		} catch (RuntimeException e) {
+			this.spillError = new IOException(e);
+		} finally {
+			if (this.spillError != null) {
+				// keep the indexing thread from blocking on a full queue
+				this.spills.clear();
+			}
 		}
+	}
 
-		// return with removed leading / trailing whitespace
-		return processedText.trim();
+	/**
+	 * Wait until the spill writer has written all parts.
+	 * @throws IOException if a part could not be written
+	 */
+	private void waitForSpills() throws IOException {
+		if (this.spillWriter == null) {
+			return;
+		}
+		try {
+			if (this.spillError == null) {
+				this.spills.put(IndexHandler.END_OF_SPILLS);
+			}
+			this.spillWriter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the index");
+		} finally {
+			this.spillWriter = null;
+		}
+		this.checkSpillWriter();
 	}
 
-	private void writeToIndexFile() {
-		this.indexFile = new File(this.dir
+	/**
+	 * Write a part of the index and of the link index (spill writer). If a
+	 * checkpoint follows, force them to disk.
+	 */
+	private void writeSpill(Spill spill) throws IOException {
+		/*
+		 * write part of index
+		 */
+		File indexRun = new File(this.dir
 				+ IndexHandler.indexFileName
 				+ "_"
-				+ this.fileCount
-				+ IndexHandler.tempFileExtension);
-		
-		this.linkIndexFile = new File(this.dir
-				+ IndexHandler.linkIndexFileName
-				+ "_"
-				+ this.fileCount
+				+ spill.number
 				+ IndexHandler.tempFileExtension);
+		BufferedOutputStream out = IndexHandler.openRunOutput(indexRun);
 		try {
-			/*
-			 * write part of index
-			 */				
-			this.raIndexFile = new RandomAccessFile(indexFile, "rw");
-			this.fos = new FileOutputStream(raIndexFile.getFD());
-			this.bo = new BufferedOutputStream(fos, IndexHandler.bufferSize);
-
 			// get map of terms and their occurrence lists
-			Map<String, Index.TermList> termLists = this.index.getTermLists();
+			Map<String, Index.TermList> termLists = spill.index.getTermLists();
 			// write each occurrence list to the file
-			for (String term : termLists.keySet()) {	// uses iterator
+			for (Entry<String, Index.TermList> entry : termLists.entrySet()) {	// uses iterator
 				// write the list using custom toIndexString method of TermList
-				termLists.get(term).toIndexString(this.bo, term, true);
+				entry.getValue().toIndexString(out, entry.getKey(), true);
 			}
-			this.bo.close();
-			this.fos.close();
-
-			/*
-			 * write part of link index
-			 * 
-			 */
-			this.raIndexFile = new RandomAccessFile(this.linkIndexFile, "rw");
-			this.fos = new FileOutputStream(this.raIndexFile.getFD());
-			this.bo = new BufferedOutputStream(this.fos, IndexHandler.bufferSize);
+		} finally {
+			out.close();
+		}
 
+		/*
+		 * write part of link index
+		 */
+		File linkIndexRun = new File(this.dir
+				+ IndexHandler.linkIndexFileName
+				+ "_"
+				+ spill.number
+				+ IndexHandler.tempFileExtension);
+		out = IndexHandler.openRunOutput(linkIndexRun);
+		try {
 			// get map of terms and their occurrence lists
-			Map<String, TitleList> titleLists = this.linkIndex.getTitleLists();
+			Map<String, TitleList> titleLists = spill.linkIndex.getTitleLists();
 			// write each occurrence list to the file
-			for (String title : titleLists.keySet()) {	// uses iterator
-				// write the list using custom toIndexString method of TermList
-				titleLists.get(title).toIndexString(this.bo);
+			for (TitleList titleList : titleLists.values()) {	// uses iterator
+				titleList.toIndexString(out);
 			}
-			this.bo.close();
-			this.fos.close();
+		} finally {
+			out.close();
+		}
 
-			this.fileCount++;
-		} catch(IOException e) {
-			e.printStackTrace();
+		if (spill.checkpoint != null) {
+			IndexHandler.sync(indexRun);
+			IndexHandler.sync(linkIndexRun);
+		}
+	}
+
+	/**
+	 * Force a (closed) file to disk.
+	 */
+	private static void sync(File file) throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+		try {
+			raFile.getFD().sync();
+		} finally {
+			raFile.close();
 		}
+	}
 
-		this.index = new Index();
-		this.linkIndex = new LinkIndex();
+	/**
+	 * Open a part of the index for writing (compressed, if
+	 * {@link #COMPRESS_RUNS} is set).
+	 */
+	private static BufferedOutputStream openRunOutput(File run) throws IOException {
+		OutputStream out = new FileOutputStream(run);
+		if (IndexHandler.COMPRESS_RUNS) {
+			out = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), IndexHandler.runBufferSize) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						this.def.end();
+					}
+				}
+			};
+		}
+		return new BufferedOutputStream(out, IndexHandler.runBufferSize);
+	}
+
+	/**
+	 * Open a part of the index for reading, see {@link #openRunOutput(File)}.
+	 */
+	private static InputStream openRunInput(File run) throws IOException {
+		return IndexHandler.openRunInput(run, 0);
+	}
+
+	/**
+	 * Open a part of the index for reading from the given offset (which
+	 * must be 0 for compressed parts).
+	 */
+	private static InputStream openRunInput(File run, long start) throws IOException {
+		FileInputStream file = new FileInputStream(run);
+		file.getChannel().position(start);
+		InputStream in = file;
+		if (IndexHandler.COMPRESS_RUNS) {
+			in = new InflaterInputStream(in, new Inflater(), IndexHandler.runBufferSize / 16) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						this.inf.end();
+					}
+				}
+			};
+		}
+		return new BufferedInputStream(in, IndexHandler.runBufferSize / 16);
 	}
 
 	/**
 	 * Merges all parts of the index.
 	 * Merges all parts of the link index.
 	 * Creates the seeklist.
-	 * Writes the index, the seeklist, the id-titles-mapping and the 
-	 * titles-id-mapping to files (one file each).
+	 * Writes the index and the seeklist to files (one per partition of the
+	 * terms, see {@link PartitionDirectory}) and finishes the document table.
 	 * If an IOException occurs, print it, but proceed.
 	 */
+	@Override
 	public void createIndex() {
+		if (this.resumeAfterPageId != null) {
+			// resumed build: the dump did not reach the checkpoint (yet)
+			System.out.println("The last page of the checkpoint (" + this.resumeAfterPageId + ") was not found");
+			return;
+		}
 		try {
 			/*
 			 * write remaining parts of the index and link index
 			 */
 			writeToIndexFile();
-			
+
 			/*
-			 * write the seeklist of the texts file to a file
+			 * finish the document table (page ids, titles)
 			 */
-			writeStringifiedToFile(this.textsSeekListToString(), this.dir
-					+ IndexHandler.textsSeekListFileName
-					+ IndexHandler.fileExtension);
-			this.textsSeeklist = null;
+			this.documentTable.close();
 
 			/*
-			 * write the id-title-mapping to a file
+			 * wait for the spill writer to write all parts
 			 */
-			writeStringifiedToFile(this.titlesToString(), this.dir 
-					+ IndexHandler.titlesFileName 
-					+ IndexHandler.fileExtension);
-			this.idsToTitles = null;
-			
+			waitForSpills();
+
 			/*
-			 * write the title-id-mapping to a file
+			 * merge the parts of the link index and of the index, in
+			 * partitions of disjoint key ranges, in parallel
 			 */
-			writeStringifiedToFile(this.titlesToIdsToString(), this.dir 
-					+ IndexHandler.titlesToIdsFileName 
-					+ IndexHandler.fileExtension);
-			this.titlesToIds = null;
+			mergeTempFiles();
+			this.linkIndex = null;
 
 			/*
-			 * merge link index files
+			 * compute the quantized scores of the postings (only of the
+			 * final index, i.e., after renumbering by static rank)
 			 */
-			mergeTempFilesIntoFile(IndexHandler.linkIndexFileName, false);
-			this.linkIndex = null;
-			
+			if (IndexHandler.QUANTIZED_IMPACTS && (!IndexHandler.STATIC_RANK_ORDER || this.sortedRanks != null)) {
+				createImpactScores();
+			}
+
+			/*
+			 * build the term vectors of the documents (of the final index, too)
+			 */
+			if (IndexHandler.TERM_VECTORS && (!IndexHandler.STATIC_RANK_ORDER || this.sortedRanks != null)) {
+				createTermVectors();
+			}
+
+			/*
+			 * build the link graph from the merged link index and compute
+			 * the static rank of the documents over it
+			 */
+			createLinkGraph();
+
 			/*
-			 * merge index files
+			 * wait for the text store, which is written in the background
+			 * while merging, and force it to disk
 			 */
-			mergeTempFilesIntoFile(IndexHandler.indexFileName, true);
+			this.textStore.close();
 
 			/*
-			 * remove remaining parts after merging
+			 * remove remaining parts and the checkpoint after merging
 			 */
 			deleteTemporaryFiles();
+			IndexCheckpoint.delete(this.dir);
+
+			/*
+			 * renumber the documents in descending static rank
+			 */
+			if (IndexHandler.STATIC_RANK_ORDER && this.sortedRanks == null) {
+				sortByStaticRank();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private void deleteTemporaryFiles() {
-		FilenameFilter filter = new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String name) {
-				return name.endsWith(IndexHandler.tempFileExtension);
-			}
-		};
+	/**
+	 * Compute the quantized BM25 scores of the postings of the merged index
+	 * (see {@link ImpactScores}).
+	 * @throws IOException if the index cannot be read or the impacts cannot
+	 *   be written
+	 */
+	private void createImpactScores() throws IOException {
+		ImpactScores.create(this.dir, this.getPartitionFileNames(IndexHandler.indexFileName),
+				this.getPartitionFileNames(IndexHandler.seekListFileName), this.documentTable.size(),
+				IndexHandler.IMPACT_ORDERED_LISTS);
+	}
 
-		File directory = new File(this.dir);
-		File[] filesInFolder = directory.listFiles(filter);
-		for (File file : filesInFolder) file.delete();
+	/**
+	 * Build the term vectors of the documents from the merged index (see
+	 * {@link TermVectors}).
+	 * @throws IOException if the index cannot be read or the term vectors
+	 *   cannot be written
+	 */
+	private void createTermVectors() throws IOException {
+		TermVectors.create(this.dir, this.getPartitionFileNames(IndexHandler.indexFileName),
+				this.getPartitionFileNames(IndexHandler.seekListFileName), this.documentTable.size());
 	}
 
-	private void mergeTempFilesIntoFile(final String fileName, boolean base64Encoded) throws IOException {
-		FilenameFilter filter = new FilenameFilter() {
+	/**
+	 * Get the files of all partitions of the merged index (or seeklist).
+	 * @param fileName the name of the index file
+	 * @return the files, ordered by partition
+	 * @throws IOException if the partition directory cannot be read
+	 */
+	private List<String> getPartitionFileNames(String fileName) throws IOException {
+		PartitionDirectory partitions = PartitionDirectory.read(this.dir, IndexHandler.indexFileName);
+		List<String> fileNames = new ArrayList<String>(partitions.size());
+		for (int partition = 0; partition < partitions.size(); partition++) {
+			fileNames.add(this.getPartitionFileName(fileName, partition));
+		}
+		return fileNames;
+	}
+
+	/**
+	 * Build the link graph (see {@link LinkGraph}) from the partitions of
+	 * the merged link index, and compute the PageRank of the documents over
+	 * it (see {@link PageRank}).
+	 * @throws IOException if the link index cannot be read or the graph or
+	 *   ranks cannot be written
+	 */
+	private void createLinkGraph() throws IOException {
+		PartitionDirectory partitions = PartitionDirectory.read(this.dir, IndexHandler.linkIndexFileName);
+		List<String> linkIndexFiles = new ArrayList<String>(partitions.size());
+		for (int partition = 0; partition < partitions.size(); partition++) {
+			linkIndexFiles.add(this.getPartitionFileName(IndexHandler.linkIndexFileName, partition));
+		}
+		DocumentTable documents = DocumentTable.open(this.dir);
+		try {
+			LinkGraph.create(this.dir, documents, linkIndexFiles);
+			if (this.sortedRanks != null) {
+				// the same graph, renumbered: keep the ranks (and their order)
+				PageRank.write(this.dir, this.sortedRanks);
+				return;
+			}
+			LinkGraph graph = LinkGraph.open(this.dir, documents);
+			try {
+				PageRank.create(this.dir, graph, documents.size());
+			} finally {
+				graph.release();
+			}
+		} finally {
+			documents.release();
+		}
+	}
+
+	/**
+	 * Renumber the documents of the finished index in descending static
+	 * rank (see {@link #STATIC_RANK_ORDER}), so that every list of the index
+	 * holds the documents with a high rank first: the index is taken over
+	 * like a segment (see {@link #mergeSegments(List, List)}) by an
+	 * IndexHandler in a sibling directory, with its documents in the new
+	 * order, and that directory replaces this one. Documents with the same
+	 * rank keep their order.
+	 * This directory is renamed (to the suffix {@link #unsortedDirSuffix})
+	 * before the sorted one is renamed to it; a crash in between is
+	 * recovered by {@link #recoverStaticRankSort(String)}.
+	 * @throws IOException if the index cannot be read or the sorted index
+	 *   cannot be written
+	 */
+	private void sortByStaticRank() throws IOException {
+		String baseDir = IndexHandler.getBaseDir(this.dir);
+		File sortedDir = new File(baseDir + IndexHandler.sortedDirSuffix);
+		File unsortedDir = new File(baseDir + IndexHandler.unsortedDirSuffix);
+		IndexManifest.deleteDirectory(sortedDir);
+		IndexManifest.deleteDirectory(unsortedDir);
+		sortedDir.mkdirs();
+
+		// the documents in descending rank
+		DocumentTable documents = DocumentTable.open(this.dir);
+		final PageRank ranks = PageRank.open(this.dir);
+		int size = documents.size();
+		documents.release();
+		Integer[] order = new Integer[size];
+		for (int document = 0; document < size; document++) {
+			order[document] = document;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
 			@Override
-			public boolean accept(File dir, String name) {
-				return name.startsWith(fileName) && name.endsWith(IndexHandler.tempFileExtension);
+			public int compare(Integer a, Integer b) {
+				return Float.compare(ranks.getRank(b), ranks.getRank(a));
 			}
-		};
+		});
+		int[] documentOrder = new int[size];
+		float[] sortedRanks = new float[size];
+		for (int i = 0; i < size; i++) {
+			documentOrder[i] = order[i];
+			sortedRanks[i] = ranks.getRank(order[i]);
+		}
+		ranks.release();
+
+		IndexHandler sorter = new IndexHandler(sortedDir.getPath() + "/");
+		sorter.setRateLimiter(this.rateLimiter);
+		sorter.sortedRanks = sortedRanks;
+		sorter.takeOverSegment(this.dir, LiveDocs.allLive(size), documentOrder);
+		sorter.createIndex();
+		if (!IndexHandler.directoryHasIndexFiles(sorter.dir)) {
+			throw new IOException("The index could not be sorted by static rank");
+		}
 
-		File directory = new File(this.dir);
-		File leFile = new File(this.dir
-				+ fileName
-				+ IndexHandler.fileExtension);
-		this.raIndexFile = new RandomAccessFile(leFile, "rw");
-		this.fos = new FileOutputStream(this.raIndexFile.getFD());
-		this.bo = new BufferedOutputStream(this.fos, IndexHandler.bufferSize);
-		File[] filesInFolder = directory.listFiles(filter);
-		int fileCount = filesInFolder.length;
-		BufferedOutputStream slBo = null;
-		RandomAccessFile seeklistFile = null;
-		FileOutputStream foss = null;
-		if (fileName.equals(IndexHandler.indexFileName)) {
-			File le = new File(this.dir
-					+ IndexHandler.seekListFileName
-					+ IndexHandler.fileExtension);
-			seeklistFile = new RandomAccessFile(le, "rw");
-			foss = new FileOutputStream(seeklistFile.getFD());
-			slBo = new BufferedOutputStream(foss, IndexHandler.bufferSize);
-		}
-		BufferedReader[] fileBeginnings = new BufferedReader[fileCount];
-		
-		String[] terms = new String[fileCount];
-		String[] lines = new String[fileCount];
+		// replace this directory (see recoverStaticRankSort)
+		File dir = new File(baseDir);
+		if (!dir.renameTo(unsortedDir) || !sortedDir.renameTo(dir)) {
+			throw new IOException("Could not replace " + dir + " with " + sortedDir);
+		}
+		IndexManifest.deleteDirectory(unsortedDir);
+	}
 
-		String[] lineBuffer = new String[fileCount];
-		
-		setupMergingToolsForTempFiles(filesInFolder, fileBeginnings, terms, lines, lineBuffer, base64Encoded);
-		
-		String term = getLowest(terms);
-		String nextTerm = term;
-		int index = 0;
-		int countDown = fileCount;
-		int winnerSlot = -1;
-		boolean firstLine = true;
-		String currentLine = "";
-		int termIndex = -1;
-		/*
-		 * whenever a term is merged the next line from the file it originated from is read
-		 * this is continued until all lines in all files are read / all readers reached the end of the file
-		 * lines of files will be merged whenever a read line yields the same term  
-		 */
-		int safetyCounter = countDown * 2;
-		while(countDown > 0 || safetyCounter > 0) {
-			safetyCounter--;
-			for(index = 0; index < fileCount; index++) {
-				if (lines[index] == null) continue;
-				String currentTerm = terms[index];
-				if (term.compareTo(currentTerm) == 0) {
-					if (!firstLine)
-						bo.write(";".getBytes());
-					if (firstLine && fileName.equals(IndexHandler.indexFileName)) {
-						this.bo.flush(); this.fos.flush();
-						slBo.write(term.getBytes());
-						slBo.write("\t".getBytes());
-						slBo.write((this.raIndexFile.getFilePointer() + "").getBytes());
-						slBo.write("\n".getBytes());
-					};
-					if (firstLine && fileName.equals(IndexHandler.linkIndexFileName)) {
-						this.bo.write(term.getBytes());
-						this.bo.write(TitleList.colon);
-					};
-					bo.write(lines[index].substring(1, lines[index].lastIndexOf(".")).getBytes());
-					firstLine = false;
-					currentLine = fileBeginnings[index].readLine();
-					if (currentLine == null) {
-						fileBeginnings[index].close();
-						fileBeginnings[index] = null;
-						terms[index] = null;
-						lines[index] = null;
-						countDown--;
-						if (fileName.equals(IndexHandler.indexFileName)) {
-							term = getLowest(lines);
-							if (!term.isEmpty())
-								term = term.substring(0, term.indexOf(":"));
-							else continue;
-						} else {
-							term = getLowest(terms);
-							if (term.isEmpty()) term = nextTerm;
-						}
-						
-					} else {
-						currentLine = currentLine.trim();
-						lineBuffer[index] = currentLine;
-						if (currentLine.isEmpty()) {
-							terms[index] = "";
-							lines[index] = "";
-							continue;
-						}
-						terms[index] = conditionalBase64Converter(currentLine, base64Encoded).trim();
-						if (currentLine.contains(":"))
-							lines[index] = currentLine.substring(currentLine.indexOf(":")).trim();
-						else lines[index] = ":###.";
-						winnerSlot = index;
+	/**
+	 * Recover the given directory from a crash while it was replaced by
+	 * its index in static rank order (see {@link #sortByStaticRank()}).
+	 * If the directory was renamed, but the sorted one was not renamed to
+	 * it, the directory is renamed back (replacing a directory which was
+	 * created in its place since), so that the parts and partitions which
+	 * it holds can be used again, and the sorted directory is deleted. If
+	 * both were renamed, the renamed directory is deleted.
+	 * @param dir the directory
+	 */
+	static void recoverStaticRankSort(String dir) {
+		String baseDir = IndexHandler.getBaseDir(dir);
+		File unsortedDir = new File(baseDir + IndexHandler.unsortedDirSuffix);
+		if (!unsortedDir.isDirectory()) {
+			return;
+		}
+		File sortedDir = new File(baseDir + IndexHandler.sortedDirSuffix);
+		if (sortedDir.exists()) {
+			System.out.println("Restoring " + baseDir + " after an interrupted sort by static rank");
+			IndexManifest.deleteDirectory(new File(baseDir));
+			if (!unsortedDir.renameTo(new File(baseDir))) {
+				System.out.println("Could not restore " + baseDir + " from " + unsortedDir);
+				return;
+			}
+			IndexManifest.deleteDirectory(sortedDir);
+		} else {
+			IndexManifest.deleteDirectory(unsortedDir);
+		}
+	}
+
+	/**
+	 * @param dir a directory, with or without a trailing '/'
+	 * @return the directory without a trailing '/'
+	 */
+	private static String getBaseDir(String dir) {
+		return dir.endsWith("/") ? dir.substring(0, dir.length() - 1) : dir;
+	}
+
+	/**
+	 * Finish a partition of the dump (see {@link PartitionedIndexBuilder}):
+	 * write the remaining parts of the index and link index and close the
+	 * document table and text store, but do not merge. The parts are merged
+	 * into the final index by {@link #mergePartitions(List)}. A finished
+	 * checkpoint marks the partition as complete.
+	 * If an IOException occurs, print it, but proceed.
+	 */
+	void finishPartition() {
+		if (this.resumeAfterPageId != null) {
+			// resumed build: the dump did not reach the checkpoint (yet)
+			System.out.println("The last page of the checkpoint (" + this.resumeAfterPageId + ") was not found");
+			return;
+		}
+		try {
+			writeToIndexFile();
+			this.documentTable.close();
+			waitForSpills();
+			this.textStore.close();
+			new IndexCheckpoint(this.lastPageOffset, this.lastPageId == null ? -1 : this.lastPageId,
+					this.fileCount, this.documentTable.size(), 0, 0, true).write(this.dir);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Take over the finished partitions in the given directories, in the
+	 * order of the dump: append their documents to the document table,
+	 * concatenate their text stores and move their parts of the index and
+	 * link index into this directory. Document numbers are renumbered
+	 * (shifted by the documents of the preceding partitions) on the way.
+	 * Afterwards, {@link #createIndex()} merges all parts as usual.
+	 * Must be called before any page is indexed by this IndexHandler.
+	 * @param partitionDirs the directories of the partitions
+	 * @throws IOException if a partition cannot be read
+	 */
+	void mergePartitions(List<String> partitionDirs) throws IOException {
+		int documentBase = 0;
+		for (String partitionDir : partitionDirs) {
+			// documents: the partition's numbers follow those of the preceding partitions
+			DocumentTable partition = DocumentTable.open(partitionDir);
+			for (int document = 0; document < partition.size(); document++) {
+				this.documentTable.addDocument(partition.getPageId(document), partition.getTitle(document));
+			}
+			int partitionSize = partition.size();
+			partition.release();
+
+			/*
+			 * parts of the index and link index; once they are moved, the
+			 * partition cannot be resumed any more
+			 */
+			IndexCheckpoint.delete(partitionDir);
+			for (String fileName : new String[] { IndexHandler.indexFileName, IndexHandler.linkIndexFileName }) {
+				/*
+				 * the runs keep the order in which they were written: the
+				 * merge breaks ties between equal terms by that order, so
+				 * the lists stay in document order
+				 */
+				boolean isIndexRun = fileName.equals(IndexHandler.indexFileName);
+				for (File run : IndexHandler.getTempFiles(partitionDir, fileName)) {
+					File target = new File(this.dir + fileName + "_" + this.fileCount++
+							+ IndexHandler.tempFileExtension);
+					if (isIndexRun && documentBase > 0) {
+						IndexHandler.renumberRun(run, target, documentBase);
+						run.delete();
+					} else if (!run.renameTo(target)) {
+						throw new IOException("Could not move " + run + " to " + target);
 					}
-				} else if (term.compareTo(currentTerm) < 0 && nextTerm.compareTo(currentTerm) < 0) {
-					nextTerm = getLowest(terms);
-				} else {
-					continue;
 				}
 			}
-			if (term.isEmpty()) continue;
-			if (!firstLine)
-				this.bo.write(TitleList.dot);
-			if (!firstLine && fileName.equals(IndexHandler.linkIndexFileName)) this.bo.write("\n".getBytes());
-			if (term.equals(nextTerm)) {
-				if (winnerSlot == -1) break;
-				if (fileBeginnings[winnerSlot] != null) {
-					currentLine = fileBeginnings[winnerSlot].readLine();
-					if (currentLine == null) {
-						fileBeginnings[winnerSlot].close();
-						fileBeginnings[winnerSlot] = null;
-						lines[winnerSlot] = null;
-						terms[winnerSlot] = null;
-						countDown--;
-					} else {
-						currentLine = currentLine.trim();
-						lineBuffer[winnerSlot] = currentLine;
-						if (currentLine.isEmpty()) {
-							terms[winnerSlot] = "";
-							lines[winnerSlot] = "";
+			documentBase += partitionSize;
+		}
+
+		// texts: the compressed blocks are copied, not recompressed
+		this.textStore.close();
+		TextStore.concatenate(this.dir, partitionDirs);
+	}
+
+	/**
+	 * Take over the live documents of the given segments (see
+	 * {@link SegmentedIndex}), in their order: append them to the document
+	 * table and text store, and write the lists of every segment's index and
+	 * link index as a part of this directory, with the documents renumbered
+	 * and deleted documents (and their links) left out. Afterwards,
+	 * {@link #createIndex()} merges the parts as usual.
+	 * Must be called before any page is indexed by this IndexHandler.
+	 * @param segmentDirs the directories of the segments
+	 * @param liveDocs the live documents of every segment
+	 * @throws IOException if a segment cannot be read
+	 */
+	void mergeSegments(List<String> segmentDirs, List<LiveDocs> liveDocs) throws IOException {
+		for (int segment = 0; segment < segmentDirs.size(); segment++) {
+			this.takeOverSegment(segmentDirs.get(segment), liveDocs.get(segment), null);
+		}
+	}
+
+	/**
+	 * Take over the live documents of a segment, see
+	 * {@link #mergeSegments(List, List)}.
+	 * @param segmentDir the directory of the segment
+	 * @param live the live documents of the segment
+	 * @param order the documents of the segment in their new order, or
+	 *   <tt>null</tt> to keep their order
+	 * @throws IOException if the segment cannot be read
+	 */
+	private void takeOverSegment(String segmentDir, LiveDocs live, int[] order) throws IOException {
+		// documents: the new numbers of the live documents (-1: deleted)
+		DocumentTable documents = DocumentTable.open(segmentDir);
+		int[] documentNumbers = new int[documents.size()];
+		for (int i = 0; i < documents.size(); i++) {
+			int document = order != null ? order[i] : i;
+			if (!live.isLive(document)) {
+				documentNumbers[document] = -1;
+				continue;
+			}
+			documentNumbers[document] = this.documentTable.addDocument(
+					documents.getPageId(document), documents.getTitle(document));
+		}
+
+		/*
+		 * texts: copied in the order in which they are stored, so every
+		 * block is decompressed once (in the order of the new numbers, each
+		 * text could need a block of its own); the text store records the
+		 * new number of each text
+		 */
+		TextStore texts = TextStore.open(segmentDir);
+		int[] textDocuments = new int[documents.size()];
+		for (int document = 0; document < documents.size(); document++) {
+			textDocuments[texts.getTextNumber(document)] = document;
+		}
+		for (int textNumber = 0; textNumber < textDocuments.length; textNumber++) {
+			int documentNumber = documentNumbers[textDocuments[textNumber]];
+			if (documentNumber < 0) {
+				continue;
+			}
+			String text = texts.getStoredText(textNumber);
+			this.textStore.addText(text, documentNumber);
+			if (this.rateLimiter != null) {
+				this.rateLimiter.pause(text.length());
+			}
+		}
+
+		int number = this.fileCount++;
+		this.writeSegmentIndexRun(segmentDir, number, documentNumbers, order != null);
+		this.writeSegmentLinkIndexRun(segmentDir, number, documents, live);
+		documents.release();
+		texts.close();
+	}
+
+	/**
+	 * Write the index of a segment as a part, see
+	 * {@link #mergeSegments(List, List)}. The terms of the seeklists of its
+	 * partitions are ascending, their lists follow each other in the index
+	 * files, so both are read sequentially.
+	 * @param reordered whether the documents were reordered (their lists
+	 *   are sorted by the new numbers then)
+	 */
+	private void writeSegmentIndexRun(String segmentDir, int number, int[] documentNumbers, boolean reordered)
+			throws IOException {
+		BufferedOutputStream out = IndexHandler.openRunOutput(new File(this.dir
+				+ IndexHandler.indexFileName + "_" + number + IndexHandler.tempFileExtension));
+		try {
+			PartitionDirectory partitions = PartitionDirectory.read(segmentDir, IndexHandler.indexFileName);
+			for (int partition = 0; partition < partitions.size(); partition++) {
+				BufferedReader seekList = new BufferedReader(new InputStreamReader(this.openSegmentFile(
+						segmentDir + IndexHandler.seekListFileName + "_" + partition + IndexHandler.fileExtension)),
+						IndexHandler.bufferSize);
+				InputStream index = new BufferedInputStream(this.openSegmentFile(
+						segmentDir + IndexHandler.indexFileName + "_" + partition + IndexHandler.fileExtension),
+						IndexHandler.bufferSize);
+				try {
+					StringBuilder list = new StringBuilder();
+					String line;
+					while ((line = seekList.readLine()) != null) {
+						int tab = line.indexOf('\t');
+						if (tab <= 0) {
 							continue;
 						}
-						terms[winnerSlot] = conditionalBase64Converter(currentLine, base64Encoded).trim();
-						lines[winnerSlot] = currentLine.substring(currentLine.indexOf(":")).trim();
+						list.setLength(0);
+						int read;
+						while ((read = index.read()) >= 0 && read != '.') {
+							list.append((char) read);
+						}
+						String renumbered = IndexHandler.renumberList(list, documentNumbers, reordered);
+						if (renumbered.length() > 0) {
+							out.write(DatatypeConverter.printBase64Binary(line.substring(0, tab).getBytes()).getBytes());
+							out.write(TitleList.colon);
+							out.write(renumbered.getBytes());
+							out.write(TitleList.dot);
+							out.write('\n');
+						}
 					}
-					currentLine = null;
+				} finally {
+					seekList.close();
+					index.close();
 				}
-				nextTerm = getLowest(terms);
-				winnerSlot = -1;
-			} else {
-				if (firstLine && fileName.equals(IndexHandler.indexFileName)) {
-					this.bo.flush(); this.fos.flush();
-					slBo.write(term.getBytes());
-					slBo.write("\t".getBytes());
-					slBo.write((this.raIndexFile.getFilePointer() + "").getBytes());
-					slBo.write("\n".getBytes());
-				}; 
-				if (firstLine && fileName.equals(IndexHandler.linkIndexFileName)) {
-					this.bo.write(term.getBytes());
-					this.bo.write(TitleList.colon);
-				};
-				if (termIndex == -1) termIndex = getLowestIndex(lineBuffer, term, base64Encoded);
-				if (termIndex == -1) {
-					term = nextTerm;
-					firstLine = true;
-					if (!firstLine && fileName.equals(IndexHandler.linkIndexFileName)) this.bo.write("\n".getBytes());
-					continue;
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Renumber the documents of a list of the index (doc:pos,pos;doc:pos,
+	 * without the final '.') and leave out the deleted ones.
+	 * @param sort whether the renumbered documents have to be sorted
+	 * @return the renumbered list (empty if all documents were deleted)
+	 */
+	private static String renumberList(CharSequence list, int[] documentNumbers, boolean sort) {
+		if (sort) {
+			// the entries by their new numbers
+			TreeMap<Integer, CharSequence> entries = new TreeMap<Integer, CharSequence>();
+			int start = 0;
+			while (start < list.length()) {
+				int end = start;
+				while (end < list.length() && list.charAt(end) != ';') {
+					end++;
 				}
+				int colon = start;
+				while (colon < end && list.charAt(colon) != ':') {
+					colon++;
+				}
+				if (colon > start && colon < end) {
+					int document = Integer.parseInt(list.subSequence(start, colon).toString());
+					int documentNumber = document < documentNumbers.length ? documentNumbers[document] : -1;
+					if (documentNumber >= 0) {
+						entries.put(documentNumber, list.subSequence(colon, end));
+					}
+				}
+				start = end + 1;
 			}
-			term = nextTerm;
-			firstLine = true;
-			this.bo.flush();
-			this.fos.flush();
-		}
-		this.bo.flush();
-		this.fos.flush();
-		this.bo.close();	
-		this.fos.close();
-		this.raIndexFile.close();
-		if (fileName.equals(IndexHandler.indexFileName)) {
-			slBo.flush();
-			foss.flush();
-			slBo.close();
-			foss.close();
-			seeklistFile.close();
-		}
-	}
-
-	private void setupMergingToolsForTempFiles(File[] filesInFolder, BufferedReader[] fileBeginnings, 
-			String[] terms, String[] lines, String[] lineBuffer, boolean base64Encoded) 
-			throws FileNotFoundException, IOException {
-		int index = 0;
-		String line = "";
-		/*
-		 * setup merging tools: a BufferedReader for each of the files +
-		 * read the first lines each to determine what terms to merge
-		 * - lines and terms are considered separately to allow colons, etc.
-		 * in terms
-		 */
-		for(File fileEntry : filesInFolder) {
-			FileReader reader = new FileReader(fileEntry);
-			BufferedReader breed = new BufferedReader(reader);
-			fileBeginnings[index] = breed;
-			line = breed.readLine();
-			lineBuffer[index] = line;
-			if (line == null || line.trim().isEmpty()) {
-				breed.close();
-				fileBeginnings[index] = null;
-			} else {
-				terms[index] = conditionalBase64Converter(line, base64Encoded);
-				lines[index] = line.substring(line.indexOf(":"));
+			StringBuilder result = new StringBuilder(list.length());
+			for (Entry<Integer, CharSequence> entry : entries.entrySet()) {
+				if (result.length() > 0) {
+					result.append(';');
+				}
+				result.append(entry.getKey()).append(entry.getValue());
+			}
+			return result.toString();
+		}
+		StringBuilder result = new StringBuilder(list.length());
+		int start = 0;
+		while (start < list.length()) {
+			int end = start;
+			while (end < list.length() && list.charAt(end) != ';') {
+				end++;
+			}
+			int colon = start;
+			while (colon < end && list.charAt(colon) != ':') {
+				colon++;
 			}
-			index++;
+			if (colon > start && colon < end) {
+				int document = Integer.parseInt(list.subSequence(start, colon).toString());
+				int documentNumber = document < documentNumbers.length ? documentNumbers[document] : -1;
+				if (documentNumber >= 0) {
+					if (result.length() > 0) {
+						result.append(';');
+					}
+					result.append(documentNumber).append(list, colon, end);
+				}
+			}
+			start = end + 1;
 		}
+		return result.toString();
 	}
-	
-	private String conditionalBase64Converter(String content, boolean conversionRequired) {
-		String interestingPart = "";
-		if (content.contains("."))
-			interestingPart = content.substring(0, content.indexOf(":"));
-		else interestingPart = content;
-		content = null;
-		return conversionRequired ? new String(DatatypeConverter.parseBase64Binary(interestingPart)) : interestingPart;
+
+	/**
+	 * Write the link index of a segment as a part, see
+	 * {@link #mergeSegments(List, List)}: the links of deleted documents
+	 * (by the titles of the linking documents) are left out.
+	 */
+	private void writeSegmentLinkIndexRun(String segmentDir, int number, DocumentTable documents, LiveDocs live)
+			throws IOException {
+		BufferedOutputStream out = IndexHandler.openRunOutput(new File(this.dir
+				+ IndexHandler.linkIndexFileName + "_" + number + IndexHandler.tempFileExtension));
+		try {
+			PartitionDirectory partitions = PartitionDirectory.read(segmentDir, IndexHandler.linkIndexFileName);
+			for (int partition = 0; partition < partitions.size(); partition++) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(this.openSegmentFile(
+						segmentDir + IndexHandler.linkIndexFileName + "_" + partition + IndexHandler.fileExtension)),
+						IndexHandler.bufferSize);
+				try {
+					StringBuilder titles = new StringBuilder();
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int colon = line.indexOf(':');
+						if (colon <= 0) {
+							continue;
+						}
+						int end = line.endsWith(".") ? line.length() - 1 : line.length();
+						titles.setLength(0);
+						// the lists of the parts were joined with ';', their titles with ','
+						for (String linkingTitle : line.substring(colon + 1, end).split("[,;]")) {
+							int document = documents.getDocumentNumber(linkingTitle);
+							if (linkingTitle.length() > 0 && (document < 0 || live.isLive(document))) {
+								if (titles.length() > 0) {
+									titles.append(',');
+								}
+								titles.append(linkingTitle);
+							}
+						}
+						if (titles.length() > 0) {
+							out.write(line.substring(0, colon).getBytes());
+							out.write(TitleList.colon);
+							out.write(titles.toString().getBytes());
+							out.write(TitleList.dot);
+							out.write('\n');
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} finally {
+			out.close();
+		}
 	}
-	
-	// find the lexicographically lowest in a collection of Strings
-	private String getLowest(String[] lines) {
-		String lowest = "";
-		for (String line : lines) {
-			if(line != null) {
-				lowest = line;
-				break;
+
+	/**
+	 * Open a file of a segment for reading (throttled, if a limiter is set).
+	 */
+	private InputStream openSegmentFile(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		return this.rateLimiter != null ? this.rateLimiter.wrap(in) : in;
+	}
+
+	/**
+	 * Throttle the reading of segments and parts while merging (see
+	 * {@link MergeScheduler}).
+	 * @param rateLimiter the limiter or <tt>null</tt>
+	 */
+	void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Copy a part of the index and add the given base to all document
+	 * numbers. Lines look like base64(term):doc:pos,pos;doc:pos.
+	 */
+	private static void renumberRun(File run, File target, int documentBase) throws IOException {
+		InputStream in = IndexHandler.openRunInput(run);
+		BufferedOutputStream out = IndexHandler.openRunOutput(target);
+		try {
+			// 0: term, 1: document number, 2: positions
+			int state = 0;
+			int document = 0;
+			int read;
+			while ((read = in.read()) >= 0) {
+				if (state == 1) {
+					if (read >= '0' && read <= '9') {
+						document = 10 * document + (read - '0');
+						continue;
+					}
+					out.write(Integer.toString(documentBase + document).getBytes());
+					document = 0;
+					state = 2;
+				} else if (read == ':' && state == 0 || read == ';' && state == 2) {
+					state = 1;
+				} else if (read == '\n') {
+					state = 0;
+				}
+				out.write(read);
 			}
+		} finally {
+			in.close();
+			out.close();
 		}
-		for(String line : lines) {
-			if(line != null && !line.isEmpty() && lowest.compareTo(line.trim()) > 0)
-				lowest = line;
+	}
+
+	private void deleteTemporaryFiles() {
+		FilenameFilter filter = new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(IndexHandler.tempFileExtension);
+			}
+		};
+
+		File directory = new File(this.dir);
+		File[] filesInFolder = directory.listFiles(filter);
+		for (File file : filesInFolder) file.delete();
+	}
+
+	/**
+	 * Merges all parts of the link index and of the index. Each of them is
+	 * split into partitions of disjoint key ranges (see
+	 * {@link #findSplitKeys(List, int)}), which are merged into files of
+	 * their own on a pool of {@link #MERGE_THREADS} threads; the partitions
+	 * of the link index and of the index are merged at the same time. A
+	 * {@link PartitionDirectory} per file maps the keys to the partitions.
+	 * @throws IOException if a part cannot be read or a partition cannot
+	 *   be written
+	 */
+	private void mergeTempFiles() throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(IndexHandler.MERGE_THREADS);
+		try {
+			List<Future<Void>> merges = new ArrayList<Future<Void>>();
+			merges.addAll(this.submitMerge(pool, IndexHandler.linkIndexFileName, false));
+			merges.addAll(this.submitMerge(pool, IndexHandler.indexFileName, true));
+			for (Future<Void> merge : merges) {
+				merge.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while merging the index");
+		} catch (ExecutionException e) {
+			throw new IOException("Cannot merge the index: " + e.getCause(), e.getCause());
+		} finally {
+			pool.shutdownNow();
 		}
-		lines = null;
-		return lowest.trim();
 	}
-	
-	private int getLowestIndex(String[] lines, String lowest, boolean b64Required) {
-		int index = 0;
-		for(String line : lines) {
-			if (line == null) continue;
-			if (b64Required)
-				line = new String(DatatypeConverter.parseBase64Binary(line.substring(0, line.indexOf(":"))));
-			if(line != null && line.trim().startsWith(lowest))
-				return index;
-			index++;
+
+	/**
+	 * Sample the parts of the given index file, choose the partitions, write
+	 * the directory and submit the merge of every partition.
+	 * @return the merges
+	 */
+	private List<Future<Void>> submitMerge(ExecutorService pool, final String fileName,
+			final boolean base64Encoded) throws IOException {
+		final File[] runs = IndexHandler.getTempFiles(this.dir, fileName);
+		final List<RunSamples> samples = new ArrayList<RunSamples>(runs.length);
+		long size = 0;
+		for (File run : runs) {
+			RunSamples runSamples = IndexHandler.sampleRun(run, base64Encoded);
+			samples.add(runSamples);
+			size += runSamples.size;
+		}
+		int partitions = (int) Math.max(1, Math.min(IndexHandler.MERGE_THREADS,
+				size / IndexHandler.MIN_PARTITION_SIZE));
+		final List<String> firstKeys = IndexHandler.findSplitKeys(samples, partitions);
+		PartitionDirectory.write(this.dir, fileName, firstKeys);
+
+		List<Future<Void>> merges = new ArrayList<Future<Void>>(firstKeys.size());
+		for (int i = 0; i < firstKeys.size(); i++) {
+			final int partition = i;
+			merges.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					IndexHandler.this.mergeTempFilesIntoFile(fileName, base64Encoded, runs, samples,
+							firstKeys, partition);
+					return null;
+				}
+			}));
 		}
-		return -1;
+		return merges;
 	}
 
-	private void writeStringifiedToFile(String content, String filename) throws IOException {
-		FileWriter fos = new FileWriter(filename);
-		BufferedWriter bo = new BufferedWriter(fos, IndexHandler.bufferSize);
-		bo.write(content);
+	/**
+	 * Choose the first key of every partition, such that the partitions
+	 * hold about the same number of bytes of the parts: the samples of all
+	 * parts are taken every {@link #SAMPLE_DISTANCE} bytes, so the quantiles
+	 * of the sampled keys split the bytes evenly.
+	 * @param samples the samples of all parts
+	 * @param partitions the number of partitions
+	 * @return the first key of every partition (at most the given number),
+	 *   ascending; the first one is empty
+	 */
+	private static List<String> findSplitKeys(List<RunSamples> samples, int partitions) {
+		List<String> keys = new ArrayList<String>();
+		for (RunSamples runSamples : samples) {
+			keys.addAll(runSamples.keys);
+		}
+		Collections.sort(keys);
+		List<String> firstKeys = new ArrayList<String>(partitions);
+		firstKeys.add("");
+		for (int partition = 1; partition < partitions && !keys.isEmpty(); partition++) {
+			String key = keys.get((int) ((long) partition * keys.size() / partitions));
+			if (key.compareTo(firstKeys.get(firstKeys.size() - 1)) > 0) {
+				firstKeys.add(key);
+			}
+		}
+		return firstKeys;
+	}
 
-		bo.close();
-		fos.close();
+	/**
+	 * Keys of a part of the index (or link index) at (about) every
+	 * {@link #SAMPLE_DISTANCE} bytes, with the offsets of their lines.
+	 */
+	private static class RunSamples {
+		// the size of the part in bytes
+		long size;
+		// the sampled keys (decoded), ascending
+		final List<String> keys = new ArrayList<String>();
+		// the offsets of the lines of the sampled keys
+		final List<Long> offsets = new ArrayList<Long>();
+
+		/**
+		 * Get the offset from which a part has to be read to find all keys
+		 * which are not less than the given key.
+		 */
+		long getStart(String fromKey) {
+			long start = 0;
+			for (int i = 0; i < this.keys.size() && this.keys.get(i).compareTo(fromKey) < 0; i++) {
+				start = this.offsets.get(i);
+			}
+			return start;
+		}
 	}
 
 	/**
-	 * Get a {@link File} for the given path. If it does already exist,
-	 * try to erase it. If deleting it does not work, throw an 
-	 * {@link IOException}.
-	 * @param filePath the path to the file
-	 * @throws IOException
+	 * Sample the keys of a part. Uncompressed parts are sampled by seeking
+	 * (only a few bytes per sample are read). Compressed parts cannot be read
+	 * from an offset; they are read completely, and all samples have the
+	 * offset 0.
 	 */
-	private File getErasedFile(String filePath) throws IOException {
-		File file = new File(filePath);
-		if (file.exists()) {
-			// try to delete
-			if (!file.delete()) {
-				throw new IOException("Could not delete the existent index file");
+	private static RunSamples sampleRun(File run, boolean base64Encoded) throws IOException {
+		RunSamples samples = new RunSamples();
+		if (IndexHandler.COMPRESS_RUNS) {
+			RunReader reader = new RunReader(run, 0, base64Encoded, 0, "", null, null);
+			try {
+				long nextSample = IndexHandler.SAMPLE_DISTANCE;
+				while (reader.next()) {
+					samples.size += reader.term.length() + reader.list.length() + 3;
+					if (samples.size >= nextSample) {
+						samples.keys.add(reader.term);
+						samples.offsets.add(0L);
+						nextSample += IndexHandler.SAMPLE_DISTANCE;
+					}
+				}
+			} finally {
+				reader.close();
 			}
+			return samples;
 		}
-		return file;
+
+		RandomAccessFile file = new RandomAccessFile(run, "r");
+		try {
+			samples.size = file.length();
+			byte[] buffer = new byte[IndexHandler.bufferSize];
+			long position = IndexHandler.SAMPLE_DISTANCE;
+			while (position < samples.size) {
+				// find the start of the next line
+				long lineStart = -1;
+				file.seek(position - 1);
+				long chunkStart = position - 1;
+				int read;
+				search: while ((read = file.read(buffer)) > 0) {
+					for (int i = 0; i < read; i++) {
+						if (buffer[i] == '\n') {
+							lineStart = chunkStart + i + 1;
+							break search;
+						}
+					}
+					chunkStart += read;
+				}
+				if (lineStart < 0 || lineStart >= samples.size) {
+					break;
+				}
+				// read its key (the key is short, it fits into the buffer)
+				file.seek(lineStart);
+				read = file.read(buffer);
+				for (int i = 0; i < read; i++) {
+					if (buffer[i] == ':') {
+						String key = new String(buffer, 0, i);
+						samples.keys.add(base64Encoded
+								? new String(DatatypeConverter.parseBase64Binary(key)) : key);
+						samples.offsets.add(lineStart);
+						break;
+					}
+				}
+				position = lineStart + IndexHandler.SAMPLE_DISTANCE;
+			}
+		} finally {
+			file.close();
+		}
+		return samples;
 	}
 
 	/**
-	 * Stringifies the seek list of the texts file for writing it to a file.
-	 * Use the pattern like in {@link #seekListToString()}.
-	 * @return a string representation of the seek list of the texts file
+	 * Merges a partition of all parts of the index (or link index) into one
+	 * file with a k-way merge: every part is sorted by term, so a priority
+	 * queue of one reader per part yields the terms in order. The lists of a
+	 * term are concatenated in the order of the parts (i.e., of the
+	 * documents). For the index, the seeklist (term, offset of its list,
+	 * number of its documents, highest frequency of the term in one of
+	 * them, offset of its champion list or -1, position of its first
+	 * impact, see {@link ImpactScores}, and the highest frequency and static
+	 * rank, or -1 if it is not known, of the documents which are not in its
+	 * champion list) and the champion lists (see {@link ChampionList}) of the
+	 * partition are written, too.
+	 * @param fileName the name of the index file, which is also the prefix
+	 *   of its parts
+	 * @param base64Encoded whether the terms in the parts are encoded as base64
+	 * @param runs the parts
+	 * @param samples the samples of the parts
+	 * @param firstKeys the first key of every partition
+	 * @param partition the number of the partition
+	 * @throws IOException
 	 */
-	private String textsSeekListToString() {
-		StringBuilder result = new StringBuilder();
+	private void mergeTempFilesIntoFile(String fileName, boolean base64Encoded, File[] runs,
+			List<RunSamples> samples, List<String> firstKeys, int partition) throws IOException {
+		boolean isIndex = fileName.equals(IndexHandler.indexFileName);
+		String fromKey = firstKeys.get(partition);
+		String toKey = partition + 1 < firstKeys.size() ? firstKeys.get(partition + 1) : null;
+
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, runs.length));
+		BufferedOutputStream out = null;
+		BufferedOutputStream seekListOut = null;
+		BufferedOutputStream championListOut = null;
+		try {
+			for (int run = 0; run < runs.length; run++) {
+				RunReader reader = new RunReader(runs[run], run, base64Encoded,
+						samples.get(run).getStart(fromKey), fromKey, toKey, this.rateLimiter);
+				if (reader.next()) {
+					queue.add(reader);
+				} else {
+					reader.close();
+				}
+			}
 
-		for (Long id : this.textsSeeklist.keySet()) {	// uses iterator
-			result
-			.append(id)
-			.append('\t')
-			.append(this.textsSeeklist.get(id))
-			.append('\t');
+			out = new BufferedOutputStream(new FileOutputStream(
+					this.getPartitionFileName(fileName, partition)), IndexHandler.runBufferSize);
+			if (isIndex) {
+				seekListOut = new BufferedOutputStream(new FileOutputStream(
+						this.getPartitionFileName(IndexHandler.seekListFileName, partition)),
+						IndexHandler.bufferSize);
+				championListOut = new BufferedOutputStream(new FileOutputStream(
+						this.getPartitionFileName(IndexHandler.championListFileName, partition)),
+						IndexHandler.bufferSize);
+			}
+			// offset of the next list in the index file and in the champion lists
+			long offset = 0;
+			long championOffset = 0;
+			// position of the first impact of the next list (one per document)
+			long impactOffset = 0;
+			ChampionList champions = isIndex ? new ChampionList(IndexHandler.CHAMPION_LIST_SIZE, this.sortedRanks) : null;
+			while (!queue.isEmpty()) {
+				String term = queue.peek().term;
+				long listOffset = offset;
+				if (!isIndex) {
+					out.write(term.getBytes());
+					out.write(TitleList.colon);
+				}
+				// concatenate the lists of all parts which contain the term
+				boolean isFirstList = true;
+				if (isIndex) {
+					champions.clear();
+				}
+				while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+					RunReader reader = queue.poll();
+					if (!isFirstList) {
+						out.write(TitleList.semi);
+						offset++;
+					}
+					byte[] list = reader.list.getBytes();
+					out.write(list);
+					offset += list.length;
+					isFirstList = false;
+					if (isIndex) {
+						champions.add(list);
+					}
+					if (reader.next()) {
+						queue.add(reader);
+					} else {
+						reader.close();
+					}
+				}
+				out.write(TitleList.dot);
+				offset++;
+				if (isIndex) {
+					long championListOffset = -1;
+					if (champions.isPartial()) {
+						championListOffset = championOffset;
+						championOffset += champions.write(championListOut);
+					}
+					seekListOut.write((term + "\t" + listOffset + "\t" + champions.documentFrequency
+							+ "\t" + champions.maxFrequency + "\t" + championListOffset
+							+ "\t" + impactOffset + "\t" + champions.outsideMaxFrequency
+							+ "\t" + champions.outsideMaxRank + "\n").getBytes());
+					impactOffset += champions.documentFrequency;
+				} else {
+					out.write('\n');
+				}
+			}
+		} finally {
+			for (RunReader reader : queue) {
+				reader.close();
+			}
+			if (out != null) {
+				out.close();
+			}
+			if (seekListOut != null) {
+				seekListOut.close();
+			}
+			if (championListOut != null) {
+				championListOut.close();
+			}
 		}
-		// remove the last '\t'
-		result.deleteCharAt(result.lastIndexOf("\t"));
+	}
 
-		return result.toString();
+	/**
+	 * Get the parts of the index (or link index) with the given name in a
+	 * directory, in the order in which they were written.
+	 * @param dir the directory (ending with '/')
+	 * @param fileName the name of the index file
+	 * @return the parts (name_N.tmp), ordered by N
+	 */
+	private static File[] getTempFiles(String dir, final String fileName) {
+		final String prefix = fileName + "_";
+		File[] files = new File(dir).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix) && name.endsWith(IndexHandler.tempFileExtension)
+						&& IndexHandler.getTempFileNumber(name, prefix) >= 0;
+			}
+		});
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				int numberA = IndexHandler.getTempFileNumber(a.getName(), prefix);
+				int numberB = IndexHandler.getTempFileNumber(b.getName(), prefix);
+				return numberA < numberB ? -1 : (numberA == numberB ? 0 : 1);
+			}
+		});
+		return files;
 	}
 
 	/**
-	 * Stringifies the id-title-mapping for writing it to a file. Uses the pattern:
-	 * 	1\tAlan Smithee\t3\tActinium	(\t are actual tab characters)
-	 * @return a string representation of the id-title-mapping
+	 * @return the number N of a part (prefixN.tmp) or <tt>-1</tt>
 	 */
-	private String titlesToString() {
-		StringBuilder result = new StringBuilder();
+	private static int getTempFileNumber(String name, String prefix) {
+		try {
+			return Integer.parseInt(name.substring(prefix.length(),
+					name.length() - IndexHandler.tempFileExtension.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
 
-		for (Long id : this.idsToTitles.keySet()) {	// uses iterator
-			result
-			.append(id)
-			.append('\t')
-			.append(this.idsToTitles.get(id))
-			.append('\t');
+	/**
+	 * Reads the lines (term:list.) of a part of the index or link index
+	 * whose terms are within a range, for merging. Readers are ordered by
+	 * their current term, then by the order of their parts.
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		private final BufferedReader reader;
+		private final int run;
+		private final boolean base64Encoded;
+		// the range of terms: from (inclusive) to (exclusive, null: no limit)
+		private final String fromKey;
+		private final String toKey;
+		// the current term (decoded) and its list (without the final '.')
+		String term;
+		String list;
+
+		/**
+		 * Create a reader which starts at the given offset (the start of a
+		 * line before the first term of the range), throttled by the given
+		 * limiter (if it is not <tt>null</tt>).
+		 */
+		RunReader(File file, int run, boolean base64Encoded, long start, String fromKey, String toKey,
+				RateLimiter rateLimiter) throws IOException {
+			InputStream in = IndexHandler.openRunInput(file, start);
+			if (rateLimiter != null) {
+				in = rateLimiter.wrap(in);
+			}
+			this.reader = new BufferedReader(new InputStreamReader(in), IndexHandler.bufferSize);
+			this.run = run;
+			this.base64Encoded = base64Encoded;
+			this.fromKey = fromKey;
+			this.toKey = toKey;
 		}
-		// remove the last '\t'
-		result.deleteCharAt(result.lastIndexOf("\t"));
 
-		return result.toString();
-	}
+		/**
+		 * Read the next line.
+		 * @return <tt>false</tt> at the end of the part
+		 */
+		boolean next() throws IOException {
+			String line;
+			while ((line = this.reader.readLine()) != null) {
+				line = line.trim();
+				int colon = line.indexOf(':');
+				if (colon <= 0) {
+					continue;	// empty
+				}
+				String key = line.substring(0, colon);
+				this.term = this.base64Encoded
+						? new String(DatatypeConverter.parseBase64Binary(key)) : key;
+				if (this.term.compareTo(this.fromKey) < 0) {
+					continue;	// before the range
+				}
+				if (this.toKey != null && this.term.compareTo(this.toKey) >= 0) {
+					return false;	// after the range
+				}
+				int end = line.endsWith(".") ? line.length() - 1 : line.length();
+				this.list = line.substring(colon + 1, end);
+				return true;
+			}
+			return false;
+		}
 
-	private String titlesToIdsToString() {
-		StringBuilder result = new StringBuilder();
+		void close() throws IOException {
+			this.reader.close();
+		}
 
-		for (String title : this.getTitlesToIds().keySet()) {
-			result
-			.append(title)
-			.append('\t')
-			.append(this.getTitlesToIds().get(title))
-			.append('\t');
+		@Override
+		public int compareTo(RunReader other) {
+			int result = this.term.compareTo(other.term);
+			if (result == 0) {
+				result = this.run < other.run ? -1 : (this.run == other.run ? 0 : 1);
+			}
+			return result;
 		}
-		// remove the last '\t'
-		result.deleteCharAt(result.lastIndexOf("\t"));
+	}
 
-		return result.toString();
+	/**
+	 * Get a {@link File} for the given path. If it does already exist,
+	 * try to erase it. If deleting it does not work, throw an 
+	 * {@link IOException}.
+	 * @param filePath the path to the file
+	 * @throws IOException
+	 */
+	private File getErasedFile(String filePath) throws IOException {
+		File file = new File(filePath);
+		if (file.exists()) {
+			// try to delete
+			if (!file.delete()) {
+				throw new IOException("Could not delete the existent index file");
+			}
+		}
+		return file;
 	}
 
 	/**
-	 * Load existing seek list, id-title-mapping and title-id-mapping. 
+	 * Load the existing seek list (unless binary search is used) and map the
+	 * document table (page ids, text offsets, titles and title lookup).
 	 * If the necessary files are not present in the directory, log a 
 	 * message but proceed. If an IOException occurs, print it, but proceed.
 	 */
 	private void loadIndex() {
 		try {
 			System.out.println("Reading index...");
+			// read the partition directories
+			this.indexPartitions = PartitionDirectory.read(this.dir, IndexHandler.indexFileName);
 			if (!IndexHandler.SEEKLIST_BINARY_SEARCH) {
-				// load the seek list
+				// load the seek list (of all partitions)
 				
 				String line = "";
 				String[] parts = null;
-				int lineNumber = 0;
 				int lineCount = 0;
 				
-				InputStream seekListFile = new FileInputStream(this.dir 
-						+ IndexHandler.seekListFileName 
-						+ IndexHandler.fileExtension);
-				Reader reader = new InputStreamReader(seekListFile);
-				LineNumberReader bread = new LineNumberReader(reader, IndexHandler.bufferSize);
-				bread.setLineNumber(lineNumber);
-				while ((line = bread.readLine()) != null) {
-					parts = line.split("\t");
-					this.seeklist.put(parts[0], Long.parseLong(parts[1]));
-					lineNumber = bread.getLineNumber();
-					if (++lineCount % 1000000 == 0) {
-						// print, use new reader (to avoid caching problems)
-						System.out.println("\t" + lineCount + " lines read");
-						bread.close();
-						reader.close();
-						seekListFile = new FileInputStream(this.dir 
-								+ IndexHandler.seekListFileName 
-								+ IndexHandler.fileExtension);
-						reader = new InputStreamReader(seekListFile);
-						bread = new LineNumberReader(reader, IndexHandler.bufferSize);
-						bread.setLineNumber(lineNumber);
+				for (int partition = 0; partition < this.indexPartitions.size(); partition++) {
+					String seekListFileName = this.getPartitionFileName(IndexHandler.seekListFileName, partition);
+					int lineNumber = 0;
+					InputStream seekListFile = new FileInputStream(seekListFileName);
+					Reader reader = new InputStreamReader(seekListFile);
+					LineNumberReader bread = new LineNumberReader(reader, IndexHandler.bufferSize);
+					bread.setLineNumber(lineNumber);
+					while ((line = bread.readLine()) != null) {
+						parts = line.split("\t");
+						this.seeklist.put(parts[0], Long.parseLong(parts[1]));
+						lineNumber = bread.getLineNumber();
+						if (++lineCount % 1000000 == 0) {
+							// print, use new reader (to avoid caching problems)
+							System.out.println("\t" + lineCount + " lines read");
+							bread.close();
+							reader.close();
+							seekListFile = new FileInputStream(seekListFileName);
+							reader = new InputStreamReader(seekListFile);
+							bread = new LineNumberReader(reader, IndexHandler.bufferSize);
+							bread.setLineNumber(lineNumber);
+						}
 					}
+					bread.close();
+					reader.close();
+					seekListFile.close();
 				}
-				bread.close();
-				reader.close();
-				seekListFile.close();
 				
 				System.out.println("\t" + lineCount + " lines read - seeklist complete");
 			}	// else: use binary search at query time
 			
-			// load the seek list of the texts file
-			String firstPart = "";
-			File textsSeekListFile = new File(this.dir 
-					+ IndexHandler.textsSeekListFileName 
-					+ IndexHandler.fileExtension);
-
-			Scanner scanner = new Scanner(textsSeekListFile);
-			scanner.useDelimiter("\t");
-			while (scanner.hasNext())
-				if (!firstPart.isEmpty()) {
-					this.parseTextsSeekListFileString(firstPart + "\t" + scanner.next());
-					firstPart = "";
-				} else {
-					firstPart = scanner.next();
-				}
-			scanner.close();
-
-			// load the id-titles-mapping
-			File titlesFile = new File(this.dir 
-					+ IndexHandler.titlesFileName 
-					+ IndexHandler.fileExtension);
-			scanner = new Scanner(titlesFile);
-			scanner.useDelimiter("\t");
-			while (scanner.hasNext())
-				if (!firstPart.isEmpty()) {
-					this.parseTitlesFileString(firstPart + "\t" + scanner.next());
-					firstPart = "";
-				} else {
-					firstPart = scanner.next();
-				}
-			scanner.close();
-
-			// load the titles-id-mapping
-			File titlesToIdsFile = new File(this.dir 
-					+ IndexHandler.titlesToIdsFileName
-					+ IndexHandler.fileExtension);
-			scanner = new Scanner(titlesToIdsFile);
-			scanner.useDelimiter("\t");
-			while (scanner.hasNext())
-				if (!firstPart.isEmpty()) {
-					this.parseTitlesToIdsFileString(firstPart + "\t" + scanner.next());
-					firstPart = "";
-				} else {
-					firstPart = scanner.next();
-				}
-
-			scanner.close();
+			// map the document table, link graph, ranks and text store (nothing is parsed or copied to the heap)
+			this.documentTable = DocumentTable.open(this.dir);
+			this.linkGraph = LinkGraph.open(this.dir, this.documentTable);
+			this.pageRank = PageRank.open(this.dir);
+			this.textStore = TextStore.open(this.dir);
+			if (ImpactScores.directoryHasFiles(this.dir)) {
+				this.impactScores = ImpactScores.open(this.dir, this.indexPartitions.size());
+			}
+			if (TermVectors.directoryHasFiles(this.dir)) {
+				this.termVectors = TermVectors.open(this.dir);
+			}
 			
 			System.out.println("Complete.");
 		} catch (IOException e) {
@@ -980,28 +1942,42 @@ class IndexHandler {
 	}
 
 	/**
-	 * Construct a seek list of the texts file from the read string. 
-	 * If an exception occurs, print it, but proceed.
-	 * @param string seek list file string
+	 * Read the mapped document table, link graph, ranks and text store into
+	 * memory (pre-warming of a loaded index).
 	 */
-	private void parseTextsSeekListFileString(String string) {
-		String[] parts = string.split("\t");
-		this.textsSeeklist.put(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+	void warm() {
+		this.documentTable.load();
+		this.linkGraph.load();
+		this.pageRank.load();
+		this.textStore.load();
+		if (this.impactScores != null) {
+			this.impactScores.load();
+		}
+		if (this.termVectors != null) {
+			this.termVectors.load();
+		}
 	}
 
 	/**
-	 * Construct an id-titles-mapping from the read string. If an exception occurs,
-	 * print it, but proceed.
-	 * @param string seek list file string
+	 * Unmap the document table, link graph and ranks and close the text
+	 * store of a loaded index. The IndexHandler must not be used afterwards.
+	 * If an IOException occurs, print it, but proceed.
 	 */
-	private void parseTitlesFileString(String string) {
-		String[] parts = string.split("\t");
-		this.idsToTitles.put(Long.parseLong(parts[0]), parts[1]);
-	}
-
-	private void parseTitlesToIdsFileString(String string) {
-		String[] parts = string.split("\t");
-		this.getTitlesToIds().put(parts[0], Long.parseLong(parts[1]));
+	void release() {
+		this.documentTable.release();
+		this.linkGraph.release();
+		this.pageRank.release();
+		if (this.impactScores != null) {
+			this.impactScores.release();
+		}
+		if (this.termVectors != null) {
+			this.termVectors.release();
+		}
+		try {
+			this.textStore.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/**
@@ -1010,82 +1986,61 @@ class IndexHandler {
 	 */
 	private void deleteOldFiles() {
 		// use getErasedFile to erase the files, if they exist
+		DocumentTable.deleteFiles(dir);
+		LinkGraph.deleteFiles(dir);
+		PageRank.deleteFiles(dir);
+		ImpactScores.deleteFiles(dir);
+		TermVectors.deleteFiles(dir);
+		TextStore.deleteFiles(dir);
+		// parts and checkpoint of an earlier build
+		this.deleteTemporaryFiles();
+		IndexCheckpoint.delete(dir);
 		try {
-			this.getErasedFile(dir 
-					+ IndexHandler.indexFileName 
-					+ IndexHandler.fileExtension);
-			this.getErasedFile(dir 
-					+ IndexHandler.linkIndexFileName 
-					+ IndexHandler.fileExtension);
-			this.getErasedFile(dir 
-					+ IndexHandler.seekListFileName 
-					+ IndexHandler.fileExtension);
-			this.getErasedFile(dir 
-					+ IndexHandler.textsFileName 
-					+ IndexHandler.fileExtension);
-			this.getErasedFile(dir 
-					+ IndexHandler.textsSeekListFileName 
-					+ IndexHandler.fileExtension);
-			this.getErasedFile(dir 
-					+ IndexHandler.titlesFileName 
-					+ IndexHandler.fileExtension);
-			this.getErasedFile(dir 
-					+ IndexHandler.titlesToIdsFileName
-					+ IndexHandler.fileExtension);
+			// the partitions, seeklists, champion lists and directories of the index and link index
+			File[] files = new File(dir).listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return (name.startsWith(IndexHandler.indexFileName)
+							|| name.startsWith(IndexHandler.linkIndexFileName))
+							&& name.endsWith(IndexHandler.fileExtension);
+				}
+			});
+			if (files != null) {
+				for (File file : files) {
+					this.getErasedFile(file.getPath());
+				}
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Get the name of the file of a partition of the index, seeklist or
+	 * link index.
+	 * @param fileName the name of the index file
+	 * @param partition the number of the partition
+	 * @return the path of the file
+	 */
+	private String getPartitionFileName(String fileName, int partition) {
+		return this.dir + fileName + "_" + partition + IndexHandler.fileExtension;
+	}
+
 	/**
 	 * Tests whether the given directory has all necessary index files
-	 * (index file, seek list, id-title-mapping, ...). If an IOException 
-	 * occurs, return <tt>false</tt>.
+	 * (partition directories of the index and link index, document table,
+	 * link graph, ranks, ...). If an IOException occurs, return <tt>false</tt>.
 	 * @param dir the directory
 	 * @return <tt>true</tt> if all files are present and can be accessed, 
 	 * 	<tt>false</tt> otherwise
 	 */
 	public static boolean directoryHasIndexFiles(String dir) {
-		File indexFile = new File(dir 
-				+ IndexHandler.indexFileName 
-				+ IndexHandler.fileExtension);
-		if (!indexFile.canRead()) {
-			return false;
-		}
-		File linkIndexFile = new File(dir 
-				+ IndexHandler.linkIndexFileName
-				+ IndexHandler.fileExtension);
-		if (!linkIndexFile.canRead()) {
-			return false;
-		}
-		File seekListFile = new File(dir 
-				+ IndexHandler.seekListFileName 
-				+ IndexHandler.fileExtension);
-		if (!seekListFile.canRead()) {
+		if (!PartitionDirectory.exists(dir, IndexHandler.indexFileName)
+				|| !PartitionDirectory.exists(dir, IndexHandler.linkIndexFileName)) {
 			return false;
 		}
-		File textsFile = new File(dir 
-				+ IndexHandler.textsFileName 
-				+ IndexHandler.fileExtension);
-		if (!textsFile.canRead()) {
-			return false;
-		}
-		File textsSeekListFile = new File(dir 
-				+ IndexHandler.textsSeekListFileName 
-				+ IndexHandler.fileExtension);
-		if (!textsSeekListFile.canRead()) {
-			return false;
-		}
-		File titlesFile = new File(dir 
-				+ IndexHandler.titlesFileName 
-				+ IndexHandler.fileExtension);
-		if (!titlesFile.canRead()) {
-			return false;
-		}
-		File titlesToIdsFile = new File(dir 
-				+ IndexHandler.titlesToIdsFileName 
-				+ IndexHandler.fileExtension);
-		if (!titlesToIdsFile.canRead()) {
+		if (!DocumentTable.directoryHasFiles(dir) || !LinkGraph.directoryHasFiles(dir)
+				|| !PageRank.directoryHasFiles(dir) || !TextStore.directoryHasFiles(dir)) {
 			return false;
 		}
 		// all files exist and can be read
@@ -1103,77 +2058,189 @@ class IndexHandler {
 			return null;
 		}
 		if (IndexHandler.SEEKLIST_BINARY_SEARCH) {
-			// use binary search to the the offset
-			try {
-				File seekListFile = new File(this.dir 
-						+ IndexHandler.seekListFileName 
-						+ IndexHandler.fileExtension);
-				RandomAccessFile raSeekListFile = new RandomAccessFile(seekListFile, "r");
-	
-				// find line via binary search
-	
-				long offset = 0;
-				long leftOffset = 0;
-				long rightOffset = raSeekListFile.length() - 1;
-	
-				long maxTries = 1;
-				long counter = rightOffset;
-				while (counter > 0) {
-					counter /= 2;
-					maxTries++;
-				}
-	
-				while (maxTries > 0) {
-					// read the next line
-					String line = raSeekListFile.readLine();
-					// get term and offset
-					String[] parts = line.toString().split("\t");
-					String readTerm = parts[0];
-					Long readOffset = Long.parseLong(parts[1]);
-					// check the term
-					if (term.equals(readTerm)) {
-						// return offset
-						raSeekListFile.close();
-						return readOffset;
+			String[] parts = this.findSeekListEntry(term);
+			return parts != null ? Long.parseLong(parts[1]) : null;
+		} else {
+			// use the seek list
+			return this.seeklist.get(term);
+		}
+	}
+
+	/**
+	 * Open the list of the given term for reading it document by document
+	 * (see {@link PostingsCursor}). This needs the statistics of the list in
+	 * the seeklist, which indexes written before they were added lack.
+	 * @param term the (pre-processed) index term
+	 * @return the cursor (positioned before the first document) or
+	 *   <tt>null</tt> if the term is not known or its list has no statistics
+	 * @throws IOException if the index file cannot be opened
+	 */
+	public PostingsCursor openPostings(String term) throws IOException {
+		return this.openPostings(term, false);
+	}
+
+	/**
+	 * Open the list or the champion list (see {@link #CHAMPION_LIST_SIZE})
+	 * of the given term, see {@link #openPostings(String)}. The statistics of
+	 * the cursor are those of the whole list. If the list is not longer than
+	 * a champion list, the whole list is opened (see
+	 * {@link PostingsCursor#isChampionList()}).
+	 * @param term the (pre-processed) index term
+	 * @param champions whether the champion list is opened
+	 * @return the cursor (positioned before the first document) or
+	 *   <tt>null</tt> if the term is not known or its list has no statistics
+	 * @throws IOException if the index file cannot be opened
+	 */
+	public PostingsCursor openPostings(String term, boolean champions) throws IOException {
+		if (term == null || "".equals(term) || !IndexHandler.SEEKLIST_BINARY_SEARCH) {
+			return null;
+		}
+		String[] parts = this.findSeekListEntry(term);
+		if (parts == null || parts.length < 4) {
+			return null;
+		}
+		int partition = this.indexPartitions.getPartition(term);
+		int documentFrequency = Integer.parseInt(parts[2]);
+		int maxFrequency = Integer.parseInt(parts[3]);
+		if (champions && parts.length >= 5 && Long.parseLong(parts[4]) >= 0) {
+			PostingsCursor cursor = new PostingsCursor(this.getPartitionFileName(IndexHandler.championListFileName,
+					partition), Long.parseLong(parts[4]), documentFrequency, maxFrequency);
+			// without the statistics of the other documents, they may score as high as any
+			if (parts.length >= 8 && Float.parseFloat(parts[7]) >= 0) {
+				cursor.setChampionList(Integer.parseInt(parts[6]), Float.parseFloat(parts[7]));
+			} else {
+				cursor.setChampionList(maxFrequency, Float.POSITIVE_INFINITY);
+			}
+			return cursor;
+		}
+		PostingsCursor cursor = new PostingsCursor(this.getPartitionFileName(IndexHandler.indexFileName, partition),
+				Long.parseLong(parts[1]), documentFrequency, maxFrequency);
+		if (this.impactScores != null && parts.length >= 6) {
+			cursor.setImpacts(this.impactScores.getImpacts(partition, Long.parseLong(parts[5]), documentFrequency));
+		}
+		return cursor;
+	}
+
+	/**
+	 * Open the list of the given term in impact order (see
+	 * {@link #IMPACT_ORDERED_LISTS}).
+	 * @param term the (pre-processed) index term
+	 * @return the list or <tt>null</tt> if the term is not known or the
+	 *   index has no lists in impact order
+	 */
+	public ImpactOrderedList openImpactOrderedList(String term) {
+		if (term == null || "".equals(term) || !IndexHandler.SEEKLIST_BINARY_SEARCH
+				|| this.impactScores == null || !this.impactScores.isImpactOrdered()) {
+			return null;
+		}
+		String[] parts = this.findSeekListEntry(term);
+		if (parts == null || parts.length < 6) {
+			return null;
+		}
+		return this.impactScores.getImpactOrderedList(this.indexPartitions.getPartition(term),
+				Long.parseLong(parts[5]), Integer.parseInt(parts[2]));
+	}
+
+	/**
+	 * @return the term vectors of the documents or <tt>null</tt> if the
+	 *   index has none (see {@link #TERM_VECTORS})
+	 */
+	public TermVectors getTermVectors() {
+		return this.termVectors;
+	}
+
+	/**
+	 * @return the quantized BM25 scores of the postings or <tt>null</tt> if
+	 *   the index has none (see {@link #QUANTIZED_IMPACTS})
+	 */
+	public ImpactScores getImpactScores() {
+		return this.impactScores;
+	}
+
+	/**
+	 * Whether the documents of the index are numbered in descending static
+	 * rank (see {@link #STATIC_RANK_ORDER}).
+	 * @return <tt>true</tt> if every document has at least the rank of the
+	 *   next one
+	 */
+	public boolean isStaticRankOrdered() {
+		return this.pageRank != null && this.pageRank.isDescending();
+	}
+
+	/**
+	 * Find the line of the given term in the seeklist of its partition by
+	 * binary search.
+	 * @param term the (pre-processed) index term
+	 * @return the fields of the line (term, offset and, if the index has
+	 *   them, the statistics of the list) or <tt>null</tt> if the term is
+	 *   not known
+	 */
+	private String[] findSeekListEntry(String term) {
+		// use binary search to the the offset (in the seeklist of the term's partition)
+		try {
+			File seekListFile = new File(this.getPartitionFileName(IndexHandler.seekListFileName,
+					this.indexPartitions.getPartition(term)));
+			RandomAccessFile raSeekListFile = new RandomAccessFile(seekListFile, "r");
+
+			// find line via binary search
+
+			long offset = 0;
+			long leftOffset = 0;
+			long rightOffset = raSeekListFile.length() - 1;
+
+			long maxTries = 1;
+			long counter = rightOffset;
+			while (counter > 0) {
+				counter /= 2;
+				maxTries++;
+			}
+
+			while (maxTries > 0) {
+				// read the next line
+				String line = raSeekListFile.readLine();
+				// get term and offset
+				String[] parts = line.toString().split("\t");
+				String readTerm = parts[0];
+				// check the term
+				if (term.equals(readTerm)) {
+					// return the line
+					raSeekListFile.close();
+					return parts;
+				} else {
+					// recalculate offset
+					if (term.compareTo(readTerm) < 0) {
+						// term < readTerm, go left
+						rightOffset = offset;
+						offset -= (offset - leftOffset) / 2;
+						if (offset < 0) {
+							break;
+						}
 					} else {
-						// recalculate offset
-						if (term.compareTo(readTerm) < 0) {
-							// term < readTerm, go left
-							rightOffset = offset;
-							offset -= (offset - leftOffset) / 2;
-							if (offset < 0) {
-								break;
-							}
-						} else {
-							// term > readTerm, go right
-							offset = raSeekListFile.getFilePointer();
-							leftOffset = offset;
-							offset += (rightOffset - offset) / 2;
-							if (offset > (raSeekListFile.length() - 1)) {
-								break;
-							}
+						// term > readTerm, go right
+						offset = raSeekListFile.getFilePointer();
+						leftOffset = offset;
+						offset += (rightOffset - offset) / 2;
+						if (offset > (raSeekListFile.length() - 1)) {
+							break;
 						}
 					}
-					// move the file pointer
+				}
+				// move the file pointer
+				raSeekListFile.seek(offset);
+				// go to the beginning of the line
+				while (offset > 0 && ((char) raSeekListFile.read()) != '\n') {
+					offset -= 1;
 					raSeekListFile.seek(offset);
-					// go to the beginning of the line
-					while (offset > 0 && ((char) raSeekListFile.read()) != '\n') {
-						offset -= 1;
-						raSeekListFile.seek(offset);
-					}
-					// decrease tries
-					maxTries--;
 				}
-	
-				raSeekListFile.close();
-				return null;
-			} catch (Exception e) {
-				e.printStackTrace();
-				return null;
+				// decrease tries
+				maxTries--;
 			}
-		} else {
-			// use the seek list
-			return this.seeklist.get(term);
+
+			raSeekListFile.close();
+			return null;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
 		}
 	}
 	
@@ -1186,113 +2253,130 @@ class IndexHandler {
 		List<String> terms = new ArrayList<String>(100);
 		
 		if (IndexHandler.SEEKLIST_BINARY_SEARCH) {
-			try {
-				// find first encounter of the prefix via binary search
-				File seekListFile = new File(this.dir 
-						+ IndexHandler.seekListFileName 
-						+ IndexHandler.fileExtension);
-				RandomAccessFile raSeekListFile = new RandomAccessFile(seekListFile, "r");
+			/*
+			 * search the partition of the prefix and the following ones
+			 * which start with the prefix
+			 */
+			int first = this.indexPartitions.getPartition(prefix);
+			for (int partition = first; partition < this.indexPartitions.size()
+					&& (partition == first || this.indexPartitions.getFirstKey(partition).startsWith(prefix)); partition++) {
+				this.addTermsForPrefix(new File(this.getPartitionFileName(IndexHandler.seekListFileName, partition)),
+						prefix, terms);
+			}
+		} else {
+			for (Entry<String, Long> entry : this.seeklist.entrySet()) {
+				if (entry.getKey().startsWith(prefix)) {
+					terms.add(entry.getKey());
+				}
+			}
+		}
+		
+		return terms;
+	}
+
+	/**
+	 * Add all terms of a seeklist which start with the given prefix to the
+	 * given list (binary search).
+	 * @param seekListFile the seeklist of a partition
+	 * @param prefix the prefix
+	 * @param terms the list of terms
+	 */
+	private void addTermsForPrefix(File seekListFile, String prefix, List<String> terms) {
+		try {
+			// find first encounter of the prefix via binary search
+			RandomAccessFile raSeekListFile = new RandomAccessFile(seekListFile, "r");
 	
-				long offset = 0;
-				long leftOffset = 0;
-				long rightOffset = raSeekListFile.length() - 1;
+			long offset = 0;
+			long leftOffset = 0;
+			long rightOffset = raSeekListFile.length() - 1;
 	
-				long maxTries = 1;
-				long counter = rightOffset;
-				while (counter > 0) {
-					counter /= 2;
-					maxTries++;
-				}
+			long maxTries = 1;
+			long counter = rightOffset;
+			while (counter > 0) {
+				counter /= 2;
+				maxTries++;
+			}
 	
-				while (maxTries > 0) {
-					// read the next line
-					String line = raSeekListFile.readLine();
-					// get term and offset
-					String[] parts = line.toString().split("\t");
-					String readTerm = parts[0];
-					// check the term
-					if (readTerm.startsWith(prefix)) {
-						// encounter found; step back to the first term
-
-						// find the first term which does not start with the prefix
-						while (readTerm.startsWith(prefix)) {
-							// step two terms back (first term was just read)
-							raSeekListFile.seek(raSeekListFile.getFilePointer() - 2);
-							while (offset > 0 && ((char) raSeekListFile.read()) != '\n') {
-								offset -= 1;
-								raSeekListFile.seek(offset);
-							}
-							raSeekListFile.seek(raSeekListFile.getFilePointer() - 2);
-							while (offset > 0 && ((char) raSeekListFile.read()) != '\n') {
-								offset -= 1;
-								raSeekListFile.seek(offset);
-							}
-							// read the next line
-							line = raSeekListFile.readLine();
-							// get term
-							parts = line.toString().split("\t");
-							readTerm = parts[0];
+			while (maxTries > 0) {
+				// read the next line
+				String line = raSeekListFile.readLine();
+				// get term and offset
+				String[] parts = line.toString().split("\t");
+				String readTerm = parts[0];
+				// check the term
+				if (readTerm.startsWith(prefix)) {
+					// encounter found; step back to the first term
+
+					// find the first term which does not start with the prefix
+					while (readTerm.startsWith(prefix)) {
+						// step two terms back (first term was just read)
+						raSeekListFile.seek(raSeekListFile.getFilePointer() - 2);
+						while (offset > 0 && ((char) raSeekListFile.read()) != '\n') {
+							offset -= 1;
+							raSeekListFile.seek(offset);
 						}
-						// term was just read, so the pointer points to the first correct term now
-						
-						// keep reading terms which start with the prefix
-						do {
-							// read the next line
-							line = raSeekListFile.readLine();
-							// get term
-							parts = line.toString().split("\t");
-							readTerm = parts[0];
-							// add if correct
-							if (readTerm.startsWith(prefix)) {
-								terms.add(readTerm);
-							}
-						} while (readTerm.startsWith(prefix));
-						
-						// finish
-						break;
-					} else {
-						// recalculate offset
-						if (prefix.compareTo(readTerm) < 0) {
-							// prefix < readTerm, go left
-							rightOffset = offset;
-							offset -= (offset - leftOffset) / 2;
-							if (offset < 0) {
-								break;
-							}
-						} else {
-							// prefix > readTerm, go right
-							offset = raSeekListFile.getFilePointer();
-							leftOffset = offset;
-							offset += (rightOffset - offset) / 2;
-							if (offset > (raSeekListFile.length() - 1)) {
-								break;
-							}
+						raSeekListFile.seek(raSeekListFile.getFilePointer() - 2);
+						while (offset > 0 && ((char) raSeekListFile.read()) != '\n') {
+							offset -= 1;
+							raSeekListFile.seek(offset);
 						}
+						// read the next line
+						line = raSeekListFile.readLine();
+						// get term
+						parts = line.toString().split("\t");
+						readTerm = parts[0];
 					}
-					// move the file pointer
-					raSeekListFile.seek(offset);
-					// go to the beginning of the line
-					while (offset > 0 && ((char) raSeekListFile.read()) != '\n') {
-						offset -= 1;
-						raSeekListFile.seek(offset);
+					// term was just read, so the pointer points to the first correct term now
+					
+					// keep reading terms which start with the prefix
+					do {
+						// read the next line
+						line = raSeekListFile.readLine();
+						// get term
+						parts = line.toString().split("\t");
+						readTerm = parts[0];
+						// add if correct
+						if (readTerm.startsWith(prefix)) {
+							terms.add(readTerm);
+						}
+					} while (readTerm.startsWith(prefix));
+					
+					// finish
+					break;
+				} else {
+					// recalculate offset
+					if (prefix.compareTo(readTerm) < 0) {
+						// prefix < readTerm, go left
+						rightOffset = offset;
+						offset -= (offset - leftOffset) / 2;
+						if (offset < 0) {
+							break;
+						}
+					} else {
+						// prefix > readTerm, go right
+						offset = raSeekListFile.getFilePointer();
+						leftOffset = offset;
+						offset += (rightOffset - offset) / 2;
+						if (offset > (raSeekListFile.length() - 1)) {
+							break;
+						}
 					}
-					// decrease tries
-					maxTries--;
 				}
-	
-				raSeekListFile.close();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		} else {
-			for (Entry<String, Long> entry : this.seeklist.entrySet()) {
-				if (entry.getKey().startsWith(prefix)) {
-					terms.add(entry.getKey());
+				// move the file pointer
+				raSeekListFile.seek(offset);
+				// go to the beginning of the line
+				while (offset > 0 && ((char) raSeekListFile.read()) != '\n') {
+					offset -= 1;
+					raSeekListFile.seek(offset);
 				}
+				// decrease tries
+				maxTries--;
 			}
+	
+			raSeekListFile.close();
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
-		
-		return terms;
 	}
 
 	/**
@@ -1320,7 +2404,8 @@ class IndexHandler {
 			// get the offset
 			try {
 				// get the file
-				File indexFile = new File(this.dir + IndexHandler.indexFileName + IndexHandler.fileExtension);
+				File indexFile = new File(this.getPartitionFileName(IndexHandler.indexFileName,
+						this.indexPartitions.getPartition(term)));
 				RandomAccessFile raIndexFile = new RandomAccessFile(indexFile, "r");
 
 				/* 
@@ -1352,7 +2437,7 @@ class IndexHandler {
 								builder = new StringBuilder(1000);
 								if (parts.length >= 2) {
 									try {
-										long documentId = Long.parseLong(parts[0]);
+										int documentId = Integer.parseInt(parts[0]);
 										for (int j = 1; j < parts.length; j++) {
 											list.addOccurrence(documentId, Integer.parseInt(parts[j]));
 										}
@@ -1392,80 +2477,28 @@ class IndexHandler {
 		return new Index.TermList();
 	}
 
-	public LinkIndex.TitleList readListForTitle(String title) {
-		if (title == null || "".equals(title)) {
-			return null;
+	/**
+	 * Get the documents which link to the given title: one row of the link
+	 * graph (see {@link LinkGraph}).
+	 * @param processedTitle a title processed by {@link LinkIndex#processTitle(String)}
+	 * @return the numbers of the linking documents, ascending (empty if no
+	 *   document links to the title)
+	 */
+	public IntBuffer getLinkingDocuments(String processedTitle) {
+		int node = this.linkGraph.getNode(processedTitle);
+		if (node < 0) {
+			return IntBuffer.allocate(0);
 		}
+		return this.linkGraph.getInlinks(node);
+	}
 
-		String processedTitle = LinkIndex.processTitle(title);
-
-		try {
-			File indexFile = new File(this.dir 
-					+ IndexHandler.linkIndexFileName 
-					+ IndexHandler.fileExtension);
-			RandomAccessFile raIndexFile = new RandomAccessFile(indexFile, "r");
-
-			// find line via binary search
-
-			long offset = 0;
-			long leftOffset = 0;
-			long rightOffset = raIndexFile.length() - 1;
-
-			long counter = rightOffset;
-			long maxTries = 1;
-			while (counter > 0) {
-				counter /= 2;
-				maxTries++;
-			}
-
-			while (maxTries > 0) {
-				// read the next line
-				String line = raIndexFile.readLine();
-				// build a TitleList
-				LinkIndex.TitleList list = LinkIndex.TitleList.createFromIndexString(line);
-				// check the title
-				String listTitle = list.title;
-				if (processedTitle.equals(listTitle)) {
-					// return list
-					raIndexFile.close();
-					return list;
-				} else {
-					// recalculate offset
-					if (processedTitle.compareTo(listTitle) < 0) {
-						// processedTitle < listTitle, go left
-						rightOffset = offset;
-						offset -= (offset - leftOffset) / 2;
-						if (offset < 0) {
-							break;
-						}
-					} else {
-						// processedTitle > listTitle, go right
-						offset = raIndexFile.getFilePointer();
-						leftOffset = offset;
-						offset += (rightOffset - offset) / 2;
-						if (offset > (raIndexFile.length() - 1)) {
-							break;
-						}
-					}
-				}
-				// move the file pointer
-				raIndexFile.seek(offset);
-				// go to the beginning of the line
-				while (offset > 0 && ((char) raIndexFile.read()) != '\n') {
-					offset -= 1;
-					raIndexFile.seek(offset);
-				}
-					
-				// decrease tries
-				maxTries--;
-			}
-
-			raIndexFile.close();
-			return null;
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
-		}
+	/**
+	 * @param documentNumber the number of the document
+	 * @return the static rank of the document (its PageRank, scaled so that
+	 *   the mean is 1, see {@link PageRank})
+	 */
+	public float getStaticRank(int documentNumber) {
+		return this.pageRank.getRank(documentNumber);
 	}
 
 	/**
@@ -1473,54 +2506,39 @@ class IndexHandler {
 	 * @return the total number of documents
 	 */
 	public int totalNumberOfDocuments() {
-		return this.idsToTitles.keySet().size();
+		return this.documentTable.size();
 	}
 
 	/**
 	 * Create a snippet of the document. Look for any occurrence of a search
 	 * term and retrieve the text around that occurrence, or use the beginning
 	 * of the document if no such occurrence is available.
-	 * @param documentId the ID of the document
+	 * @param documentId the number of the document
 	 * @param queryTerms the relevant terms of the query; may be <tt>null</tt>
 	 *   or empty, in which case it is ignored
-	 * @return the snippet or <tt>null</tt> if the given id is <tt>null</tt>,
+	 * @return the snippet or <tt>null</tt> if the given number is <tt>null</tt>,
 	 *   the document is not known or an error occurs
 	 */
-	public String getSnippetForDocumentId(Long documentId, List<String> queryTerms) {
+	public String getSnippetForDocumentId(Integer documentId, List<String> queryTerms) {
 		// catch unsuited arguments
 		if (documentId == null) {
 			return null;
 		}
-		// get the file offset of the texts file
-		Long offset = this.textsSeeklist.get(documentId);
-		if (offset == null) {
+		if (documentId < 0 || documentId >= this.documentTable.size()) {
 			// document is not known
 			return null;
 		}
-		// read the original text of the document from the texts file
+		// read the cleaned text of the document from the text store
 		String text = null;
 		try {
-			// get the file
-			File textsFile = new File(this.dir + IndexHandler.textsFileName + IndexHandler.fileExtension);
-			RandomAccessFile raTextsFile = new RandomAccessFile(textsFile, "r");
+			text = this.textStore.getText(documentId);
 			/*
-			 * read the text (or its beginning, which is enough for the purpose
-			 * of making a snippet)
+			 * use the beginning of the text, which is enough for the purpose
+			 * of making a snippet
 			 */
-			raTextsFile.seek(offset);
-			long maxLength = raTextsFile.length() - offset;
-			int textSize = 10000 <= maxLength ? 10000 : ((int) maxLength);
-			byte[] textBytes = new byte[textSize];
-			// read the bytes
-			raTextsFile.readFully(textBytes);
-			// create a string from the bytes
-			text = new String(textBytes, "UTF-8");
-			// limit the string, if a delimiter is found
-			int delimiterIndex = text.indexOf("\t");
-			if (delimiterIndex != -1) {
-				text = text.substring(0, delimiterIndex);
-			}
-			raTextsFile.close();
+			if (text != null && text.length() > 10000) {
+				text = text.substring(0, 10000);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -1598,11 +2616,33 @@ class IndexHandler {
 		this.seeklist = seeklist;
 	}
 
-	public Map<Long, String> getIdsToTitles() {
-		return idsToTitles;
+	/**
+	 * @param documentNumber the number of the document
+	 * @return the title of the document or <tt>null</tt> if it is not known
+	 */
+	public String getTitleForDocument(int documentNumber) {
+		if (documentNumber < 0 || documentNumber >= this.documentTable.size()) {
+			return null;
+		}
+		return this.documentTable.getTitle(documentNumber);
+	}
+
+	/**
+	 * @param processedTitle a title processed by {@link LinkIndex#processTitle(String)}
+	 * @return the number of the document with that title or <tt>null</tt>
+	 *   if there is no such document
+	 */
+	public Integer getDocumentForTitle(String processedTitle) {
+		int documentNumber = this.documentTable.getDocumentNumber(processedTitle);
+		return documentNumber >= 0 ? documentNumber : null;
 	}
-	public void setIdsToTitles(Map<Long, String> idsToTitles) {
-		this.idsToTitles = idsToTitles;
+
+	/**
+	 * @param documentNumber the number of the document
+	 * @return the (Wikipedia) page id of the document
+	 */
+	public long getPageIdForDocument(int documentNumber) {
+		return this.documentTable.getPageId(documentNumber);
 	}
 
 	public LinkIndex getLinkIndex() {
@@ -1612,12 +2652,6 @@ class IndexHandler {
 		this.linkIndex = linkIndex;
 	}
 
-	public Map<String, Long> getTitlesToIds() {
-		return titlesToIds;
-	}
-	public void setTitlesToIds(Map<String, Long> titlesToIds) {
-		this.titlesToIds = titlesToIds;
-	}
 	
 	
 
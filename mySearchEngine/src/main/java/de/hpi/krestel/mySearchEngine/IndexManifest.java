@@ -0,0 +1,464 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Publishes finished index builds as segments of the index. An index is
+ * built in the build directory ({@link #getBuildDir(String)}), where it may
+ * be resumed after a crash (see {@link IndexCheckpoint}). Once it is
+ * complete, it is moved to a new segment directory (segment_N), which is
+ * never changed afterwards. The index consists of all live segments; pages
+ * which were updated by a newer segment or deleted are masked by the
+ * {@link LiveDocs} of their segment, which are written to a new file
+ * whenever they change.
+ *
+ * The manifest names the generation, the live segments (oldest first) and
+ * their live documents, and lists all their files with their sizes. It is
+ * replaced atomically (written to a temporary file, forced to disk and
+ * renamed), so readers see either the old or the new index, never a
+ * partial one. Segments and files which are no longer referenced are
+ * deleted after the swap, unless a searcher of an older generation still
+ * uses them (see {@link #retainSegment(String)}); they are deleted once it
+ * releases them.
+ * Segments are also replaced by merging them in the background (see
+ * {@link MergeScheduler}); publishing is synchronized, so a merge which
+ * raced with a new segment or new deletions is detected and discarded.
+ */
+class IndexManifest {
+
+	// name of the manifest (within the index directory)
+	private static final String fileName = "manifest";
+	// file extension
+	private static final String fileExtension = ".txt";
+	// extension of the manifest which is written before it is renamed
+	private static final String tempFileExtension = ".tmp";
+	// name of the build directory (within the index directory)
+	private static final String buildDirName = "build/";
+	// name of a segment directory (within the index directory)
+	private static final String segmentDirName = "segment_";
+	// name of a live documents file (within the index directory)
+	private static final String liveDocsFileName = "liveDocs_";
+	// file extension of live documents files
+	private static final String liveDocsFileExtension = ".bin";
+	// name of the directory in which segments are merged (within the index directory)
+	private static final String mergeDirName = "merge/";
+	// prefix of the properties which hold the sizes of the files
+	private static final String filePrefix = "file.";
+
+	// the segment directories which are used by searchers, with their number of users
+	private static final Map<String, Integer> segmentsInUse = new HashMap<String, Integer>();
+
+	// the index directory
+	private final String dir;
+	// the properties of the manifest
+	private final Properties properties;
+
+	private IndexManifest(String dir, Properties properties) {
+		this.dir = dir;
+		this.properties = properties;
+	}
+
+	/**
+	 * @param dir the index directory (ending with '/')
+	 * @return the directory in which new segments are built
+	 */
+	public static String getBuildDir(String dir) {
+		return dir + IndexManifest.buildDirName;
+	}
+
+	/**
+	 * @param dir the index directory (ending with '/')
+	 * @return the directory in which segments are merged
+	 */
+	public static String getMergeDir(String dir) {
+		return dir + IndexManifest.mergeDirName;
+	}
+
+	/**
+	 * Read the manifest of the given index directory.
+	 * @param dir the index directory (ending with '/')
+	 * @return the manifest or <tt>null</tt> if no index was published (or
+	 *   the manifest cannot be read)
+	 */
+	public static IndexManifest read(String dir) {
+		File file = new File(dir + IndexManifest.fileName + IndexManifest.fileExtension);
+		if (!file.canRead()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		if (properties.getProperty("generation") == null || properties.getProperty("segments") == null) {
+			return null;
+		}
+		return new IndexManifest(dir, properties);
+	}
+
+	/**
+	 * @return the index directory
+	 */
+	public String getDir() {
+		return this.dir;
+	}
+
+	/**
+	 * @return the number of the generation (incremented by every publish)
+	 */
+	public int getGeneration() {
+		return Integer.parseInt(this.properties.getProperty("generation"));
+	}
+
+	/**
+	 * @return the numbers of the live segments, oldest first
+	 */
+	public List<Integer> getSegments() {
+		List<Integer> segments = new ArrayList<Integer>();
+		for (String segment : this.properties.getProperty("segments").split(",")) {
+			if (segment.length() > 0) {
+				segments.add(Integer.parseInt(segment));
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * @param segment the number of a segment
+	 * @return the directory of the segment (ending with '/')
+	 */
+	public String getSegmentDir(int segment) {
+		return IndexManifest.getSegmentDir(this.dir, segment);
+	}
+
+	/**
+	 * @param segment the number of a segment
+	 * @return the size of the files of the segment in bytes
+	 */
+	public long getSegmentSize(int segment) {
+		String prefix = IndexManifest.filePrefix + IndexManifest.segmentDirName + segment + "/";
+		long size = 0;
+		for (Entry<Object, Object> entry : this.properties.entrySet()) {
+			if (((String) entry.getKey()).startsWith(prefix)) {
+				size += Long.parseLong((String) entry.getValue());
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @param segment the number of a segment
+	 * @return the name of the live documents file of the segment or
+	 *   <tt>null</tt> if it has no deletions
+	 */
+	public String getLiveDocsFile(int segment) {
+		return this.properties.getProperty("segment." + segment + ".liveDocs");
+	}
+
+	/**
+	 * Read the live documents of a segment.
+	 * @param segment the number of a segment
+	 * @param size the number of documents of the segment
+	 * @return the live documents
+	 * @throws IOException if the file cannot be read
+	 */
+	public LiveDocs getLiveDocs(int segment, int size) throws IOException {
+		String liveDocsFile = this.getLiveDocsFile(segment);
+		if (liveDocsFile == null) {
+			return LiveDocs.allLive(size);
+		}
+		return LiveDocs.read(new File(this.dir + liveDocsFile), size);
+	}
+
+	/**
+	 * Tests whether all files of the manifest exist with their sizes.
+	 * @return <tt>true</tt> if the index is complete
+	 */
+	public boolean isComplete() {
+		for (Entry<Object, Object> entry : this.properties.entrySet()) {
+			String key = (String) entry.getKey();
+			if (key.startsWith(IndexManifest.filePrefix)) {
+				File file = new File(this.dir + key.substring(IndexManifest.filePrefix.length()));
+				if (!file.canRead() || file.length() != Long.parseLong((String) entry.getValue())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Publish the finished index in the build directory as a new segment,
+	 * see above. The documents of older segments whose pages are part of
+	 * the new segment or are deleted are masked.
+	 * @param dir the index directory (ending with '/')
+	 * @param deletedPageIds the ids of pages which were deleted
+	 * @param replace whether the new segment replaces all older ones (e.g.
+	 *   for a full dump) instead of being added to them
+	 * @throws IOException if the build cannot be moved, the older segments
+	 *   cannot be read or the manifest cannot be written
+	 */
+	public static synchronized void publish(String dir, Set<Long> deletedPageIds, boolean replace)
+			throws IOException {
+		IndexManifest current = IndexManifest.read(dir);
+		int generation = current == null ? 1 : current.getGeneration() + 1;
+		List<Integer> segments = current == null || replace ? new ArrayList<Integer>() : current.getSegments();
+
+		int segment = current == null ? 1 : current.getNextSegment();
+		File segmentDir = IndexManifest.moveToSegment(IndexManifest.getBuildDir(dir), dir, segment);
+
+		// the pages of the new segment replace those of the older segments
+		Set<Long> replacedPageIds = new HashSet<Long>(deletedPageIds);
+		DocumentTable documents = DocumentTable.open(segmentDir.getPath() + "/");
+		for (int document = 0; document < documents.size(); document++) {
+			replacedPageIds.add(documents.getPageId(document));
+		}
+		documents.release();
+
+		Properties properties = new Properties();
+		properties.setProperty("generation", String.valueOf(generation));
+		properties.setProperty("nextSegment", String.valueOf(segment + 1));
+		StringBuilder liveSegments = new StringBuilder();
+		for (int older : segments) {
+			String olderDir = current.getSegmentDir(older);
+			DocumentTable olderDocuments = DocumentTable.open(olderDir);
+			LiveDocs liveDocs = current.getLiveDocs(older, olderDocuments.size());
+			boolean changed = false;
+			for (int document = 0; document < olderDocuments.size(); document++) {
+				if (replacedPageIds.contains(olderDocuments.getPageId(document))) {
+					changed |= liveDocs.delete(document);
+				}
+			}
+			olderDocuments.release();
+			if (liveDocs.liveCount() == 0) {
+				continue;	// the whole segment was replaced
+			}
+			String liveDocsFile = current.getLiveDocsFile(older);
+			if (changed) {
+				liveDocsFile = IndexManifest.liveDocsFileName + older + "_" + generation
+						+ IndexManifest.liveDocsFileExtension;
+				liveDocs.write(new File(dir + liveDocsFile));
+			}
+			IndexManifest.addSegment(properties, liveSegments, dir, older, liveDocsFile);
+		}
+		IndexManifest.addSegment(properties, liveSegments, dir, segment, null);
+		properties.setProperty("segments", liveSegments.toString());
+		IndexManifest.write(dir, properties);
+	}
+
+	/**
+	 * Publish the merged segment in the merge directory
+	 * ({@link #getMergeDir(String)}) in place of the given segments, which
+	 * were merged without their deleted documents. The merge is discarded if
+	 * the segments are not live any more or their live documents changed
+	 * while they were merged.
+	 * @param dir the index directory (ending with '/')
+	 * @param mergedSegments the merged segments (consecutive, oldest first)
+	 * @param liveDocsFiles the live documents file of every merged segment
+	 *   when the merge started (<tt>null</tt> if it had no deletions)
+	 * @return <tt>true</tt> if the merged segment was published
+	 * @throws IOException if the merged segment cannot be moved or the
+	 *   manifest cannot be written
+	 */
+	public static synchronized boolean publishMerge(String dir, List<Integer> mergedSegments,
+			List<String> liveDocsFiles) throws IOException {
+		IndexManifest current = IndexManifest.read(dir);
+		if (current == null) {
+			return false;
+		}
+		List<Integer> segments = current.getSegments();
+		int first = segments.indexOf(mergedSegments.get(0));
+		if (first < 0 || first + mergedSegments.size() > segments.size()
+				|| !segments.subList(first, first + mergedSegments.size()).equals(mergedSegments)) {
+			return false;
+		}
+		for (int i = 0; i < mergedSegments.size(); i++) {
+			String liveDocsFile = current.getLiveDocsFile(mergedSegments.get(i));
+			if (liveDocsFile == null ? liveDocsFiles.get(i) != null : !liveDocsFile.equals(liveDocsFiles.get(i))) {
+				return false;
+			}
+		}
+
+		int segment = current.getNextSegment();
+		IndexManifest.moveToSegment(IndexManifest.getMergeDir(dir), dir, segment);
+
+		Properties properties = new Properties();
+		properties.setProperty("generation", String.valueOf(current.getGeneration() + 1));
+		properties.setProperty("nextSegment", String.valueOf(segment + 1));
+		StringBuilder liveSegments = new StringBuilder();
+		for (int i = 0; i < segments.size(); i++) {
+			if (i == first) {
+				// the merged segment takes the place of its segments
+				IndexManifest.addSegment(properties, liveSegments, dir, segment, null);
+			} else if (i < first || i >= first + mergedSegments.size()) {
+				int older = segments.get(i);
+				IndexManifest.addSegment(properties, liveSegments, dir, older, current.getLiveDocsFile(older));
+			}
+		}
+		properties.setProperty("segments", liveSegments.toString());
+		IndexManifest.write(dir, properties);
+		return true;
+	}
+
+	/**
+	 * @return the number of the next new segment
+	 */
+	private int getNextSegment() {
+		return Integer.parseInt(this.properties.getProperty("nextSegment"));
+	}
+
+	/**
+	 * Move a finished index (build or merge) to the directory of a new
+	 * segment.
+	 * @return the directory of the segment
+	 */
+	private static File moveToSegment(String fromDir, String dir, int segment) throws IOException {
+		File segmentDir = new File(IndexManifest.getSegmentDir(dir, segment));
+		// left over from a crash before the manifest was replaced
+		IndexManifest.deleteDirectory(segmentDir);
+		if (!new File(fromDir).renameTo(segmentDir)) {
+			throw new IOException("Cannot move " + fromDir + " to " + segmentDir);
+		}
+		return segmentDir;
+	}
+
+	/**
+	 * Replace the manifest atomically (the swap) and delete the segments
+	 * and files which it does not reference any more.
+	 */
+	private static void write(String dir, Properties properties) throws IOException {
+		File tempFile = new File(dir + IndexManifest.fileName + IndexManifest.tempFileExtension);
+		FileOutputStream out = new FileOutputStream(tempFile);
+		try {
+			properties.store(out, "index manifest");
+			out.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		// the swap: rename replaces the old manifest atomically
+		if (!tempFile.renameTo(new File(dir + IndexManifest.fileName + IndexManifest.fileExtension))) {
+			throw new IOException("Cannot replace the manifest in " + dir);
+		}
+
+		IndexManifest.deleteUnreferencedFiles(dir, properties);
+	}
+
+	/**
+	 * Add a live segment, its live documents and its files to the properties
+	 * of a manifest.
+	 */
+	private static void addSegment(Properties properties, StringBuilder liveSegments, String dir,
+			int segment, String liveDocsFile) {
+		if (liveSegments.length() > 0) {
+			liveSegments.append(',');
+		}
+		liveSegments.append(segment);
+		if (liveDocsFile != null) {
+			properties.setProperty("segment." + segment + ".liveDocs", liveDocsFile);
+			properties.setProperty(IndexManifest.filePrefix + liveDocsFile,
+					String.valueOf(new File(dir + liveDocsFile).length()));
+		}
+		File segmentDir = new File(IndexManifest.getSegmentDir(dir, segment));
+		for (File file : segmentDir.listFiles()) {
+			if (file.isFile()) {
+				properties.setProperty(IndexManifest.filePrefix + segmentDir.getName() + "/" + file.getName(),
+						String.valueOf(file.length()));
+			}
+		}
+	}
+
+	/**
+	 * Mark a segment as used by a searcher: it is not deleted while it is
+	 * used, even if the manifest does not reference it any more.
+	 * @param segmentDir the directory of the segment
+	 */
+	public static synchronized void retainSegment(String segmentDir) {
+		Integer users = IndexManifest.segmentsInUse.get(segmentDir);
+		IndexManifest.segmentsInUse.put(segmentDir, users == null ? 1 : users + 1);
+	}
+
+	/**
+	 * Release a segment which was used by a searcher, and delete it if it
+	 * is neither used nor referenced by the manifest any more.
+	 * @param dir the index directory (ending with '/')
+	 * @param segmentDir the directory of the segment
+	 */
+	public static synchronized void releaseSegment(String dir, String segmentDir) {
+		Integer users = IndexManifest.segmentsInUse.get(segmentDir);
+		if (users == null || users <= 1) {
+			IndexManifest.segmentsInUse.remove(segmentDir);
+		} else {
+			IndexManifest.segmentsInUse.put(segmentDir, users - 1);
+		}
+		IndexManifest current = IndexManifest.read(dir);
+		if (current != null) {
+			IndexManifest.deleteUnreferencedFiles(dir, current.properties);
+		}
+	}
+
+	/**
+	 * Delete the segments and live documents files which the given
+	 * manifest does not reference and no searcher uses.
+	 */
+	private static void deleteUnreferencedFiles(String dir, Properties properties) {
+		Set<String> referenced = new HashSet<String>();
+		for (Object key : properties.keySet()) {
+			String name = ((String) key);
+			if (name.startsWith(IndexManifest.filePrefix)) {
+				name = name.substring(IndexManifest.filePrefix.length());
+				int slash = name.indexOf('/');
+				referenced.add(slash >= 0 ? name.substring(0, slash) : name);
+			}
+		}
+		for (File file : new File(dir).listFiles()) {
+			String name = file.getName();
+			if ((name.startsWith(IndexManifest.segmentDirName) || name.startsWith(IndexManifest.liveDocsFileName))
+					&& !referenced.contains(name)
+					&& !IndexManifest.segmentsInUse.containsKey(IndexManifest.getSegmentDir(dir, name))) {
+				IndexManifest.deleteDirectory(file);
+			}
+		}
+	}
+
+	private static String getSegmentDir(String dir, int segment) {
+		return IndexManifest.getSegmentDir(dir, IndexManifest.segmentDirName + segment);
+	}
+
+	private static String getSegmentDir(String dir, String name) {
+		return dir + name + "/";
+	}
+
+	/**
+	 * Delete a directory with its files (or a single file).
+	 */
+	static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+}
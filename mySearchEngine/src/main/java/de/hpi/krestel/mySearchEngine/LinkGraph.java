@@ -0,0 +1,461 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * The link graph of an index as compressed sparse rows (CSR) of dense
+ * document numbers, in both directions. It is built from the merged link
+ * index when an index is created (see {@link IndexHandler#createIndex()}),
+ * and its files are memory-mapped for querying like the
+ * {@link DocumentTable}.
+ *
+ * The nodes of the graph are the documents of the index (0..N-1) and the
+ * linked titles which are no document of the index (N..N+M-1, in the order
+ * of their processed titles), e.g. pages of other segments or pages which
+ * do not exist:
+ *  - inlinkOffsets / inlinks: the offset of the inlinks of each node (plus
+ *    one entry which marks the end), and the numbers of the linking
+ *    documents, ascending per node
+ *  - outlinkOffsets / outlinks: the offset of the outlinks of each document
+ *    (plus one), and the linked nodes, ascending per document
+ *  - linkTargets / linkTargetOffsets: the processed titles of the nodes
+ *    which are no documents (UTF-8, concatenated), and their offsets (plus
+ *    one), which are binary searched
+ *
+ * The documents which link to a title are one slice of the inlinks, so a
+ * link query decodes no titles.
+ */
+class LinkGraph {
+
+	// name of the file which stores the offsets of the inlinks (one int per node, plus one)
+	private static final String inlinkOffsetsFileName = "inlinkOffsets";
+	// name of the file which stores the inlinks (one int per link)
+	private static final String inlinksFileName = "inlinks";
+	// name of the file which stores the offsets of the outlinks (one int per document, plus one)
+	private static final String outlinkOffsetsFileName = "outlinkOffsets";
+	// name of the file which stores the outlinks (one int per link)
+	private static final String outlinksFileName = "outlinks";
+	// name of the file which stores the titles of the nodes which are no documents
+	private static final String linkTargetsFileName = "linkTargets";
+	// name of the file which stores the offsets of these titles (one int per title, plus one)
+	private static final String linkTargetOffsetsFileName = "linkTargetOffsets";
+	// file extension of binary columns
+	private static final String fileExtension = ".bin";
+	// buffer size for reading the link index and writing columns
+	private static final int bufferSize = 65536;
+
+	private static final String[] fileNames = new String[] {
+		inlinkOffsetsFileName, inlinksFileName, outlinkOffsetsFileName,
+		outlinksFileName, linkTargetsFileName, linkTargetOffsetsFileName
+	};
+
+	// the documents of the index (maps titles to documents)
+	private final DocumentTable documents;
+	// mapped columns
+	private IntBuffer inlinkOffsets;
+	private IntBuffer inlinks;
+	private IntBuffer outlinkOffsets;
+	private IntBuffer outlinks;
+	private ByteBuffer linkTargets;
+	private IntBuffer linkTargetOffsets;
+	// the mappings of the columns (unmapped by release)
+	private final List<ByteBuffer> mappings = new ArrayList<ByteBuffer>();
+
+	private LinkGraph(DocumentTable documents) {
+		this.documents = documents;
+	}
+
+	/**
+	 * Build the link graph of an index from its merged link index, whose
+	 * lines are <tt>title:linkingtitle,linkingtitle;linkingtitle.</tt> (the
+	 * lists of the parts are joined with ';'). The link index is read twice:
+	 * first the degrees of the nodes are counted, then the links are written
+	 * to their rows. Linking titles which are no document of the index are
+	 * left out.
+	 * @param dir the directory of the index (ending with '/')
+	 * @param documents the finished document table of the index
+	 * @param linkIndexFiles the partitions of the merged link index, in order
+	 * @throws IOException if the link index cannot be read or the graph
+	 *   cannot be written
+	 */
+	public static void create(String dir, DocumentTable documents, List<String> linkIndexFiles)
+			throws IOException {
+		int size = documents.size();
+		int[] inDegrees = new int[size];
+		int[] outDegrees = new int[size];
+		// the linked titles which are no documents, with their in-degree and node
+		TreeMap<byte[], int[]> targets = new TreeMap<byte[], int[]>(DocumentTable.utf8Order);
+		long links = 0;
+
+		int[] inCursors = null;
+		int[] outCursors = null;
+		IntBuffer inlinks = null;
+		IntBuffer outlinks = null;
+		List<ByteBuffer> mappings = new ArrayList<ByteBuffer>(2);
+		try {
+			for (int pass = 0; pass < 2; pass++) {
+				for (String fileName : linkIndexFiles) {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(
+							new FileInputStream(fileName)), LinkGraph.bufferSize);
+					try {
+						String line;
+						while ((line = reader.readLine()) != null) {
+							int colon = line.indexOf(':');
+							if (colon <= 0) {
+								continue;
+							}
+							int[] linking = LinkGraph.getLinkingDocuments(line, colon, documents);
+							if (linking.length == 0) {
+								continue;
+							}
+							String title = line.substring(0, colon);
+							int node = documents.getDocumentNumber(title);
+							if (pass == 0) {
+								// count the degrees
+								if (node >= 0) {
+									inDegrees[node] += linking.length;
+								} else {
+									byte[] key = DocumentTable.encode(title);
+									int[] target = targets.get(key);
+									if (target == null) {
+										targets.put(key, new int[] { linking.length, -1 });
+									} else {
+										target[0] += linking.length;
+									}
+								}
+								for (int document : linking) {
+									outDegrees[document]++;
+								}
+								links += linking.length;
+							} else {
+								// write the links to their rows
+								if (node < 0) {
+									node = targets.get(DocumentTable.encode(title))[1];
+								}
+								for (int document : linking) {
+									inlinks.put(inCursors[node]++, document);
+									outlinks.put(outCursors[document]++, node);
+								}
+							}
+						}
+					} finally {
+						reader.close();
+					}
+				}
+
+				if (pass == 0) {
+					if (links > Integer.MAX_VALUE / 4) {
+						throw new IOException("The link graph has too many links (" + links + ")");
+					}
+					// number the nodes which are no documents and write their titles
+					int node = size;
+					DataOutputStream targetsOut = LinkGraph.createColumn(dir, LinkGraph.linkTargetsFileName);
+					DataOutputStream targetOffsetsOut = LinkGraph.createColumn(dir, LinkGraph.linkTargetOffsetsFileName);
+					int targetsLength = 0;
+					for (Entry<byte[], int[]> target : targets.entrySet()) {
+						target.getValue()[1] = node++;
+						targetOffsetsOut.writeInt(targetsLength);
+						targetsOut.write(target.getKey());
+						targetsLength += target.getKey().length;
+					}
+					targetOffsetsOut.writeInt(targetsLength);
+					targetsOut.close();
+					targetOffsetsOut.close();
+
+					// the offsets of the rows
+					inCursors = new int[node + 1];
+					for (int document = 0; document < size; document++) {
+						inCursors[document + 1] = inCursors[document] + inDegrees[document];
+					}
+					for (int[] target : targets.values()) {
+						inCursors[target[1] + 1] = inCursors[target[1]] + target[0];
+					}
+					outCursors = new int[size + 1];
+					for (int document = 0; document < size; document++) {
+						outCursors[document + 1] = outCursors[document] + outDegrees[document];
+					}
+					LinkGraph.writeColumn(dir, LinkGraph.inlinkOffsetsFileName, inCursors);
+					LinkGraph.writeColumn(dir, LinkGraph.outlinkOffsetsFileName, outCursors);
+					inDegrees = null;
+
+					inlinks = LinkGraph.mapColumn(dir, LinkGraph.inlinksFileName, 4 * links, mappings).asIntBuffer();
+					outlinks = LinkGraph.mapColumn(dir, LinkGraph.outlinksFileName, 4 * links, mappings).asIntBuffer();
+				}
+			}
+
+			// the cursors are at the start of the next row now: sort the outlinks of every document
+			for (int document = 0; document < size; document++) {
+				int end = outCursors[document];
+				int start = end - outDegrees[document];
+				if (end - start > 1) {
+					int[] row = new int[end - start];
+					for (int i = 0; i < row.length; i++) {
+						row[i] = outlinks.get(start + i);
+					}
+					Arrays.sort(row);
+					for (int i = 0; i < row.length; i++) {
+						outlinks.put(start + i, row[i]);
+					}
+				}
+			}
+			for (ByteBuffer mapping : mappings) {
+				((MappedByteBuffer) mapping).force();
+			}
+		} finally {
+			MappedBuffers.unmap(mappings);
+		}
+	}
+
+	/**
+	 * Get the documents in the list of a line of the link index.
+	 * @return the document numbers, ascending and without duplicates
+	 */
+	private static int[] getLinkingDocuments(String line, int colon, DocumentTable documents) {
+		int end = line.endsWith(".") ? line.length() - 1 : line.length();
+		String[] titles = line.substring(colon + 1, end).split("[,;]");
+		int[] linking = new int[titles.length];
+		int count = 0;
+		for (String title : titles) {
+			int document = title.length() > 0 ? documents.getDocumentNumber(title) : -1;
+			if (document >= 0) {
+				linking[count++] = document;
+			}
+		}
+		Arrays.sort(linking, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || linking[unique - 1] != linking[i]) {
+				linking[unique++] = linking[i];
+			}
+		}
+		return Arrays.copyOf(linking, unique);
+	}
+
+	private static DataOutputStream createColumn(String dir, String fileName) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(dir + fileName + LinkGraph.fileExtension), LinkGraph.bufferSize));
+	}
+
+	private static void writeColumn(String dir, String fileName, int[] values) throws IOException {
+		DataOutputStream out = LinkGraph.createColumn(dir, fileName);
+		try {
+			for (int value : values) {
+				out.writeInt(value);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Map a column for writing, see {@link #mapColumn(String)}.
+	 */
+	private static ByteBuffer mapColumn(String dir, String fileName, long length, List<ByteBuffer> mappings)
+			throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dir + fileName + LinkGraph.fileExtension, "rw");
+		try {
+			file.setLength(length);
+			ByteBuffer mapping = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			mappings.add(mapping);
+			return mapping;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Open the link graph in the given directory and map its columns into
+	 * memory.
+	 * @param dir the directory for all index files
+	 * @param documents the document table of the index
+	 * @return a read-only LinkGraph
+	 * @throws IOException if a column cannot be read
+	 */
+	public static LinkGraph open(String dir, DocumentTable documents) throws IOException {
+		LinkGraph graph = new LinkGraph(documents);
+		graph.inlinkOffsets = graph.mapColumn(dir + LinkGraph.inlinkOffsetsFileName).asIntBuffer();
+		graph.inlinks = graph.mapColumn(dir + LinkGraph.inlinksFileName).asIntBuffer();
+		graph.outlinkOffsets = graph.mapColumn(dir + LinkGraph.outlinkOffsetsFileName).asIntBuffer();
+		graph.outlinks = graph.mapColumn(dir + LinkGraph.outlinksFileName).asIntBuffer();
+		graph.linkTargets = graph.mapColumn(dir + LinkGraph.linkTargetsFileName);
+		graph.linkTargetOffsets = graph.mapColumn(dir + LinkGraph.linkTargetOffsetsFileName).asIntBuffer();
+		return graph;
+	}
+
+	private ByteBuffer mapColumn(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path + LinkGraph.fileExtension, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			// the mapping stays valid after the channel is closed
+			ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			this.mappings.add(mapping);
+			return mapping;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Find the node of the given title: the document with that title or
+	 * else the linked title.
+	 * @param processedTitle a title processed by {@link LinkIndex#processTitle(String)}
+	 * @return the node or <tt>-1</tt> if the title is neither a document
+	 *   nor linked
+	 */
+	public int getNode(String processedTitle) {
+		int document = this.documents.getDocumentNumber(processedTitle);
+		if (document >= 0) {
+			return document;
+		}
+		byte[] key = DocumentTable.encode(processedTitle);
+		int low = 0;
+		int high = this.linkTargetOffsets.limit() - 2;	// last entry only marks the end
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int start = this.linkTargetOffsets.get(middle);
+			int end = this.linkTargetOffsets.get(middle + 1);
+			int comparison = this.compareKey(start, end - start, key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return this.documents.size() + middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare a mapped title with the given one (unsigned bytes).
+	 */
+	private int compareKey(int start, int length, byte[] key) {
+		int commonLength = Math.min(length, key.length);
+		for (int i = 0; i < commonLength; i++) {
+			int difference = (this.linkTargets.get(start + i) & 0xff) - (key[i] & 0xff);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Get the processed title of a node.
+	 * @param node the node
+	 * @return the processed title
+	 */
+	public String getTitle(int node) {
+		int size = this.documents.size();
+		if (node < size) {
+			return LinkIndex.processTitle(this.documents.getTitle(node));
+		}
+		int start = this.linkTargetOffsets.get(node - size);
+		int end = this.linkTargetOffsets.get(node - size + 1);
+		return DocumentTable.decode(this.linkTargets, start, end - start);
+	}
+
+	/**
+	 * Get the documents which link to a node.
+	 * @param node the node
+	 * @return a view of the row: the document numbers, ascending
+	 */
+	public IntBuffer getInlinks(int node) {
+		return LinkGraph.getRow(this.inlinks, this.inlinkOffsets, node);
+	}
+
+	/**
+	 * Get the nodes to which a document links.
+	 * @param document the document number
+	 * @return a view of the row: the nodes, ascending
+	 */
+	public IntBuffer getOutlinks(int document) {
+		return LinkGraph.getRow(this.outlinks, this.outlinkOffsets, document);
+	}
+
+	private static IntBuffer getRow(IntBuffer values, IntBuffer offsets, int row) {
+		// a view of its own: the position of the shared buffer is not changed
+		IntBuffer view = values.duplicate();
+		view.limit(offsets.get(row + 1));
+		view.position(offsets.get(row));
+		return view.slice();
+	}
+
+	/**
+	 * @return a view of the offsets of the rows of inlinks (one per node,
+	 *   plus one), for algorithms which walk the whole graph
+	 */
+	IntBuffer getInlinkOffsets() {
+		return this.inlinkOffsets.duplicate();
+	}
+
+	/**
+	 * @return a view of the inlinks of all rows, see {@link #getInlinkOffsets()}
+	 */
+	IntBuffer getInlinkColumn() {
+		return this.inlinks.duplicate();
+	}
+
+	/**
+	 * @return the number of nodes (documents and linked titles)
+	 */
+	public int nodeCount() {
+		return this.inlinkOffsets.limit() - 1;
+	}
+
+	/**
+	 * Read the mapped columns into memory (pre-warming).
+	 */
+	public void load() {
+		MappedBuffers.load(this.mappings);
+	}
+
+	/**
+	 * Unmap the columns. The LinkGraph must not be used afterwards.
+	 */
+	public void release() {
+		MappedBuffers.unmap(this.mappings);
+	}
+
+	/**
+	 * Tests whether the given directory has all columns of a LinkGraph.
+	 * @param dir the directory
+	 * @return <tt>true</tt> if all files are present and can be read
+	 */
+	public static boolean directoryHasFiles(String dir) {
+		for (String fileName : LinkGraph.fileNames) {
+			if (!new File(dir + fileName + LinkGraph.fileExtension).canRead()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delete all columns in the given directory (if they exist).
+	 * @param dir the directory
+	 */
+	public static void deleteFiles(String dir) {
+		for (String fileName : LinkGraph.fileNames) {
+			new File(dir + fileName + LinkGraph.fileExtension).delete();
+		}
+	}
+
+}
@@ -4,7 +4,6 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
-import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -25,24 +24,6 @@ class LinkIndex {
 			this.titles = new TreeSet<String>();
 		} 
 		
-		public static LinkIndex.TitleList createFromIndexString(String string) {
-			LinkIndex.TitleList list = new TitleList(null);
-			
-			// format: title:othertitle;othertitle;othertitle[.]
-			StringTokenizer tok = new StringTokenizer(string, ":;.");
-			boolean firstToken = true;
-			while (tok.hasMoreTokens()) {
-				String token = tok.nextToken();
-				if (firstToken) {
-					list.title = token;
-					firstToken = false;
-				} else {
-					list.addTitle(token);
-				}
-			}
-			return list;
-		}
-		
 		public void addTitle(String linkingTitle) {
 			if (!titles.contains(linkingTitle)) {
 				titles.add(linkingTitle);
@@ -82,7 +63,6 @@ class LinkIndex {
 			// finish
 			bo.write(dot);
 			bo.write("\n".getBytes());
-			bo.flush();
 		}
 		
 		public Collection<String> getTitles() {
@@ -93,18 +73,85 @@ class LinkIndex {
 	
 	private Map<String, LinkIndex.TitleList> titleLists;
 	
+	// the estimated heap size of the lists and their titles (see Index)
+	private long estimatedSize;
 
 	public LinkIndex() {
 		this.titleLists = new TreeMap<String, LinkIndex.TitleList>();
+		this.estimatedSize = 0;
+	}
+	
+	/*
+	 * Maps ASCII characters of titles to their processed form: upper case
+	 * letters become lower case, the characters " .:,;-_" and control
+	 * characters are removed (0).
+	 */
+	private static final char[] titleCharTable = new char[128];
+	static {
+		for (char c = 0; c < 128; c++) {
+			titleCharTable[c] = c <= ' ' ? 0 : Character.toLowerCase(c);
+		}
+		for (char c : " .:,;-_".toCharArray()) {
+			titleCharTable[c] = 0;
+		}
+	}
+
+	/**
+	 * Add a link.
+	 * @param processedTitle the processed title of the linked page
+	 * @param processedLinkingTitle the processed title of the page which
+	 *   contains the link
+	 */
+	public void addLink(String processedTitle, String processedLinkingTitle) {
+		LinkIndex.TitleList list = this.getListForTitle(processedTitle);
+		// the linking title is shared by all links of its page, count only the entry
+		if (list.titles.add(processedLinkingTitle)) {
+			this.estimatedSize += Index.MAP_ENTRY_SIZE;
+		}
 	}
 	
-	public void addLinkingTitle(String title, String linkingTitle) {
-		LinkIndex.TitleList list = this.getListForTitle(processTitle(title));
-		list.addTitle(processTitle(linkingTitle));
+	/**
+	 * Get the estimated heap size of this link index, which is tracked
+	 * while adding links.
+	 * @return the estimated size in bytes
+	 */
+	public long getEstimatedSize() {
+		return this.estimatedSize;
 	}
 	
+	/**
+	 * Process a title for comparison: lower case, without whitespace and
+	 * without the characters " .:,;-_" (so that e.g. "Alan Smithee" and
+	 * "alan_smithee" are the same).
+	 * @param title the title
+	 * @return the processed title
+	 */
 	public static String processTitle(String title) {
-		return title.trim().toLowerCase().replaceAll("[ .:,;-]", "");
+		return processTitle(title, 0, title.length());
+	}
+
+	/**
+	 * Process a part of a text as a title, see {@link #processTitle(String)}.
+	 * @param text the text
+	 * @param start the start of the title in the text
+	 * @param end the end of the title in the text (exclusive)
+	 * @return the processed title
+	 */
+	public static String processTitle(CharSequence text, int start, int end) {
+		char[] processed = new char[end - start];
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < 128) {
+				c = titleCharTable[c];
+				if (c != 0) {
+					processed[length++] = c;
+				}
+			} else {
+				processed[length++] = Character.toLowerCase(c);
+			}
+		}
+		return new String(processed, 0, length);
 	}
 	
 	private LinkIndex.TitleList getListForTitle(String processedTitle) {
@@ -112,6 +159,8 @@ class LinkIndex {
 		if (list == null) {
 			list = new TitleList(processedTitle);
 			this.titleLists.put(processedTitle, list);
+			this.estimatedSize += Index.MAP_ENTRY_SIZE + Index.stringSize(processedTitle.length())
+					+ Index.TREE_SET_SIZE + 24;	// TitleList
 		}
 		return list;
 	}
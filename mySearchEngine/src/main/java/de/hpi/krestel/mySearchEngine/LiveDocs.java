@@ -0,0 +1,128 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The live documents of a segment (see {@link IndexManifest}): one bit per
+ * document number, set if the document is live, cleared if it was deleted
+ * or replaced by a document in a newer segment. Segments are immutable, so
+ * deletions are only recorded here; a new file is written whenever the
+ * deletions of a segment change.
+ * The file holds the bits as longs (big endian, bit i of word i / 64 is
+ * document i).
+ */
+class LiveDocs {
+
+	// the bits
+	private final long[] words;
+	// number of documents
+	private final int size;
+	// number of live documents
+	private int liveCount;
+
+	private LiveDocs(int size) {
+		this.size = size;
+		this.words = new long[(size + 63) / 64];
+	}
+
+	/**
+	 * Create the live documents of a segment without deletions.
+	 * @param size the number of documents of the segment
+	 * @return all documents are live
+	 */
+	public static LiveDocs allLive(int size) {
+		LiveDocs liveDocs = new LiveDocs(size);
+		for (int i = 0; i < liveDocs.words.length; i++) {
+			liveDocs.words[i] = -1L;
+		}
+		if (size % 64 != 0) {
+			liveDocs.words[liveDocs.words.length - 1] = (1L << (size % 64)) - 1;
+		}
+		liveDocs.liveCount = size;
+		return liveDocs;
+	}
+
+	/**
+	 * Read the live documents of a segment.
+	 * @param file the file
+	 * @param size the number of documents of the segment
+	 * @return the live documents
+	 * @throws IOException if the file cannot be read
+	 */
+	public static LiveDocs read(File file, int size) throws IOException {
+		LiveDocs liveDocs = new LiveDocs(size);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			for (int i = 0; i < liveDocs.words.length; i++) {
+				liveDocs.words[i] = in.readLong();
+				liveDocs.liveCount += Long.bitCount(liveDocs.words[i]);
+			}
+		} finally {
+			in.close();
+		}
+		return liveDocs;
+	}
+
+	/**
+	 * Write the live documents and force them to disk.
+	 * @param file the file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		FileOutputStream fileOut = new FileOutputStream(file);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+		try {
+			for (long word : this.words) {
+				out.writeLong(word);
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param document a document number of the segment
+	 * @return <tt>true</tt> if the document is live
+	 */
+	public boolean isLive(int document) {
+		return (this.words[document >>> 6] & (1L << (document & 63))) != 0;
+	}
+
+	/**
+	 * Delete a document.
+	 * @param document a document number of the segment
+	 * @return <tt>true</tt> if the document was live
+	 */
+	public boolean delete(int document) {
+		if (!this.isLive(document)) {
+			return false;
+		}
+		this.words[document >>> 6] &= ~(1L << (document & 63));
+		this.liveCount--;
+		return true;
+	}
+
+	/**
+	 * @return the number of documents of the segment
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the number of live documents
+	 */
+	public int liveCount() {
+		return this.liveCount;
+	}
+
+}
@@ -0,0 +1,60 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.List;
+
+/**
+ * Helpers for memory-mapped files of the index (see {@link DocumentTable},
+ * {@link TextStore}). A mapping is released by the garbage collector only,
+ * which may keep the files of old index generations mapped for a long
+ * time; {@link #unmap(List)} releases them explicitly. A buffer must not be
+ * accessed after it was unmapped (the JVM would crash), so this is only
+ * called once no query can use it any more (see {@link SegmentedIndex}).
+ */
+class MappedBuffers {
+
+	private MappedBuffers() {
+	}
+
+	/**
+	 * Read the given mappings into memory (pre-warming).
+	 * @param buffers the mappings
+	 */
+	public static void load(List<ByteBuffer> buffers) {
+		for (ByteBuffer buffer : buffers) {
+			if (buffer instanceof MappedByteBuffer) {
+				((MappedByteBuffer) buffer).load();
+			}
+		}
+	}
+
+	/**
+	 * Unmap the given mappings. If the JVM does not allow it, they are left
+	 * to the garbage collector.
+	 * @param buffers the mappings (no views of them)
+	 */
+	public static void unmap(List<ByteBuffer> buffers) {
+		for (ByteBuffer buffer : buffers) {
+			if (!buffer.isDirect()) {
+				continue;
+			}
+			try {
+				// sun.nio.ch.DirectBuffer.cleaner().clean()
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					Method cleanMethod = cleaner.getClass().getMethod("clean");
+					cleanMethod.setAccessible(true);
+					cleanMethod.invoke(cleaner);
+				}
+			} catch (Exception e) {
+				// not supported: the garbage collector unmaps the buffer
+			}
+		}
+		buffers.clear();
+	}
+
+}
@@ -0,0 +1,166 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Compares the throughput of the {@link WikiMarkupStripper} with the chain
+ * of regular expressions which was used before to clean texts for snippets.
+ * Reads the texts of all pages of a dump into memory and strips them
+ * several times with both methods.
+ *
+ * Usage: MarkupStripperBenchmark [dump file] [rounds]
+ */
+public class MarkupStripperBenchmark {
+
+	/*
+	 * Insertion-ordered map of regular expressions which were used to remove
+	 * the syntax from documents (the former IndexHandler.cleanPageText).
+	 */
+	private static final Map<String, String> cleaningPatterns = new LinkedHashMap<String, String>();
+	static {
+		cleaningPatterns.put("'''", "");						// bold
+		cleaningPatterns.put("''", "");							// italic
+		cleaningPatterns.put("==+", "");						// headings
+		cleaningPatterns.put("\\[\\[Datei:[^\\]]*\\]\\]", "");	// files (delete content)
+		cleaningPatterns.put("\\[\\[[^|\\]]+\\|", "");			// internal links
+		cleaningPatterns.put("\\[\\[", "");
+		cleaningPatterns.put("\\]\\]", "");
+		cleaningPatterns.put("\\[\\w+://[^\\s]+\\s", "");		// external links
+		cleaningPatterns.put("\\[", "");
+		cleaningPatterns.put("\\]", "");
+		cleaningPatterns.put("\\{\\{[^}]*\\}\\}", "");			// special internal links (delete content)
+		cleaningPatterns.put("\\{\\{", "");
+		cleaningPatterns.put("\\}\\}", "");
+		cleaningPatterns.put("\\{[^}]*\\}", "");				// templates (delete content)
+		cleaningPatterns.put("\\|(.*)\n", "");
+		cleaningPatterns.put("<gallery>[^<]*</gallery>", "");	// galleries (delete content)
+		cleaningPatterns.put("<ref>[^<]*</ref>", "");			// references (delete content)
+		cleaningPatterns.put("#WEITERLEITUNG", "");				// redirection (should not happen anyway)
+		cleaningPatterns.put("<[^>]*>", "");					// arbitrary tags
+		cleaningPatterns.put("\n(.*):\\\\mathrm(.*)\n", "\n");	// formulas
+		cleaningPatterns.put("  ", "");							// double spaces
+		cleaningPatterns.put("\n ", "\n");						// newline followed by space
+		cleaningPatterns.put("\n\n\n", "\n\n");					// triple newlines
+		cleaningPatterns.put("&nbsp;", " ");					// HTML whitespace
+	}
+
+	public static void main(String[] args) throws Exception {
+		String dumpFile = args.length > 0 ? args[0] : "../wikipedia/testDump.xml";
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		List<String> texts = MarkupStripperBenchmark.readTexts(dumpFile);
+		long chars = 0;
+		for (String text : texts) {
+			chars += text.length();
+		}
+		System.out.println(texts.size() + " texts, " + chars + " chars, " + rounds + " rounds");
+
+		// warm up both methods, then measure
+		WikiMarkupStripper stripper = new WikiMarkupStripper();
+		MarkupStripperBenchmark.runRegex(texts, 3);
+		MarkupStripperBenchmark.runStripper(stripper, texts, 3);
+
+		long start = System.nanoTime();
+		long regexChars = MarkupStripperBenchmark.runRegex(texts, rounds);
+		long regexNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		long stripperChars = MarkupStripperBenchmark.runStripper(stripper, texts, rounds);
+		long stripperNanos = System.nanoTime() - start;
+
+		MarkupStripperBenchmark.report("regex chain", chars * rounds, regexNanos, regexChars / rounds);
+		MarkupStripperBenchmark.report("stripper", chars * rounds, stripperNanos, stripperChars / rounds);
+		System.out.println(String.format("speedup: %.1fx", (double) regexNanos / stripperNanos));
+	}
+
+	private static long runRegex(List<String> texts, int rounds) {
+		long outputChars = 0;
+		for (int round = 0; round < rounds; round++) {
+			for (String text : texts) {
+				outputChars += MarkupStripperBenchmark.cleanWithRegex(text).length();
+			}
+		}
+		return outputChars;
+	}
+
+	private static long runStripper(WikiMarkupStripper stripper, List<String> texts, int rounds) {
+		long outputChars = 0;
+		for (int round = 0; round < rounds; round++) {
+			for (String text : texts) {
+				outputChars += stripper.strip(text).length();
+			}
+		}
+		return outputChars;
+	}
+
+	private static void report(String name, long chars, long nanos, long outputChars) {
+		System.out.println(String.format("%-12s %8.1f ms %8.1f MB/s (%d chars of output per round)",
+				name, nanos / 1e6, chars / (nanos / 1e3), outputChars));
+	}
+
+	/**
+	 * The former way of cleaning a text: one replaceAll per pattern.
+	 */
+	static String cleanWithRegex(String text) {
+		String processedText = text.replace('\t', ' ');
+		for (String pattern : cleaningPatterns.keySet()) {
+			processedText = processedText.replaceAll(pattern, cleaningPatterns.get(pattern));
+		}
+		return processedText.trim();
+	}
+
+	/**
+	 * Read the texts of all pages of the dump.
+	 */
+	private static List<String> readTexts(String dumpFile) throws Exception {
+		final List<String> texts = new ArrayList<String>();
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		InputStream inputStream = new FileInputStream(dumpFile);
+		try {
+			saxParser.parse(inputStream, new DefaultHandler() {
+				private StringBuilder text;
+
+				@Override
+				public void startElement(String uri, String localName, String qName,
+						Attributes attributes) throws SAXException {
+					if (qName.equalsIgnoreCase("text")) {
+						this.text = new StringBuilder();
+					}
+				}
+
+				@Override
+				public void endElement(String uri, String localName, String qName)
+						throws SAXException {
+					if (this.text != null && qName.equalsIgnoreCase("text")) {
+						texts.add(this.text.toString());
+						this.text = null;
+					}
+				}
+
+				@Override
+				public void characters(char[] ch, int start, int length)
+						throws SAXException {
+					if (this.text != null) {
+						this.text.append(ch, start, length);
+					}
+				}
+			});
+		} finally {
+			inputStream.close();
+		}
+		return texts;
+	}
+
+}
@@ -0,0 +1,218 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the segments of an index (see {@link IndexManifest}) in the
+ * background of a search process, so the number of segments which every
+ * query has to read stays small.
+ * The segments are grouped into tiers by their size (the live part of it):
+ * tier 0 holds the segments below {@link #MIN_TIER_SIZE}, every further
+ * tier holds segments {@link #MERGE_FACTOR} times as large. Whenever
+ * {@link #MERGE_FACTOR} consecutive segments are in the same tier, they are
+ * merged into one segment of the next tier (consecutive, so the order of
+ * the documents is kept). A segment with more than
+ * {@link #EXPUNGE_DELETES_FRACTION} deleted documents is merged on its own
+ * to expunge them.
+ * Merges run on one thread with low priority, and their reads are limited
+ * to {@link #MERGE_BYTES_PER_SECOND}, so queries keep their I/O bandwidth.
+ * The merged segment is published with an atomic swap of the manifest,
+ * and the searcher reloads the index as a new generation (see
+ * {@link IndexGenerations}); running queries finish on the old one.
+ */
+class MergeScheduler {
+
+	// number of segments of a tier which are merged
+	private static final int MERGE_FACTOR = 4;
+	// size (in bytes) below which all segments are in the lowest tier
+	private static final long MIN_TIER_SIZE = 4 * 1024 * 1024;
+	// fraction of deleted documents above which a segment is rewritten
+	private static final double EXPUNGE_DELETES_FRACTION = 0.2;
+	// maximum rate at which a merge reads its segments and parts
+	private static final long MERGE_BYTES_PER_SECOND = 16 * 1024 * 1024;
+	// time between looking for merges
+	private static final long POLL_MILLIS = 60 * 1000;
+
+	// the index directory
+	private final String dir;
+	// reloads the index of the searcher
+	private final Runnable reload;
+	private final RateLimiter rateLimiter = new RateLimiter(MergeScheduler.MERGE_BYTES_PER_SECOND);
+	private Thread thread;
+	private volatile boolean stopped;
+
+	/**
+	 * @param dir the index directory (ending with '/')
+	 * @param reload reloads the index of the searcher (called after a merged
+	 *   segment was published)
+	 */
+	public MergeScheduler(String dir, Runnable reload) {
+		this.dir = dir;
+		this.reload = reload;
+	}
+
+	/**
+	 * Start merging in the background.
+	 */
+	public synchronized void start() {
+		if (this.thread != null) {
+			return;
+		}
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				MergeScheduler.this.run();
+			}
+		}, "MergeScheduler");
+		this.thread.setDaemon(true);
+		this.thread.setPriority(Thread.MIN_PRIORITY);
+		this.thread.start();
+	}
+
+	/**
+	 * Stop merging (a running merge is aborted) and wait for the thread.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+			this.thread = null;
+		}
+		if (thread == null) {
+			return;
+		}
+		this.stopped = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		while (!this.stopped) {
+			try {
+				while (!this.stopped && this.mergeOnce()) {
+					// merge as long as there is something to merge
+				}
+			} catch (IOException e) {
+				if (!this.stopped) {
+					e.printStackTrace();
+				}
+			}
+			try {
+				Thread.sleep(MergeScheduler.POLL_MILLIS);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Find and perform one merge.
+	 * @return <tt>true</tt> if a merge was published
+	 * @throws IOException if the segments cannot be read or the merged
+	 *   segment cannot be written
+	 */
+	boolean mergeOnce() throws IOException {
+		IndexManifest manifest = IndexManifest.read(this.dir);
+		if (manifest == null) {
+			return false;
+		}
+		List<Integer> segments = manifest.getSegments();
+		List<LiveDocs> liveDocs = new ArrayList<LiveDocs>(segments.size());
+		for (int segment : segments) {
+			// unmap the table right away: merged segments are deleted once the merge is published
+			DocumentTable documents = DocumentTable.open(manifest.getSegmentDir(segment));
+			int size = documents.size();
+			documents.release();
+			liveDocs.add(manifest.getLiveDocs(segment, size));
+		}
+		int[] merge = MergeScheduler.findMerge(manifest, segments, liveDocs);
+		if (merge == null) {
+			return false;
+		}
+
+		List<Integer> mergedSegments = new ArrayList<Integer>();
+		List<String> segmentDirs = new ArrayList<String>();
+		List<LiveDocs> mergedLiveDocs = new ArrayList<LiveDocs>();
+		List<String> liveDocsFiles = new ArrayList<String>();
+		for (int i = merge[0]; i < merge[1]; i++) {
+			mergedSegments.add(segments.get(i));
+			segmentDirs.add(manifest.getSegmentDir(segments.get(i)));
+			mergedLiveDocs.add(liveDocs.get(i));
+			liveDocsFiles.add(manifest.getLiveDocsFile(segments.get(i)));
+		}
+		System.out.println("Merging the segments " + mergedSegments);
+
+		// the merge is built like a new index
+		String mergeDir = IndexManifest.getMergeDir(this.dir);
+		new File(mergeDir).mkdirs();
+		IndexHandler merger = new IndexHandler(mergeDir);
+		merger.setRateLimiter(this.rateLimiter);
+		merger.mergeSegments(segmentDirs, mergedLiveDocs);
+		merger.createIndex();
+		if (!IndexHandler.directoryHasIndexFiles(mergeDir) || this.stopped) {
+			throw new IOException("The merge of the segments " + mergedSegments + " failed");
+		}
+
+		if (!IndexManifest.publishMerge(this.dir, mergedSegments, liveDocsFiles)) {
+			// the segments changed while they were merged; try again
+			System.out.println("The segments " + mergedSegments + " changed while they were merged");
+			return true;
+		}
+		this.reload.run();
+		return true;
+	}
+
+	/**
+	 * Choose the next merge (see above).
+	 * @return the range (from inclusive, to exclusive) of the segments to
+	 *   merge or <tt>null</tt> if nothing needs to be merged
+	 */
+	private static int[] findMerge(IndexManifest manifest, List<Integer> segments, List<LiveDocs> liveDocs) {
+		int[] tiers = new int[segments.size()];
+		for (int i = 0; i < segments.size(); i++) {
+			LiveDocs live = liveDocs.get(i);
+			if (live.size() > 0 && live.liveCount() > 0
+					&& (live.size() - live.liveCount()) > MergeScheduler.EXPUNGE_DELETES_FRACTION * live.size()) {
+				return new int[] { i, i + 1 };
+			}
+			long size = manifest.getSegmentSize(segments.get(i));
+			if (live.size() > 0) {
+				size = size * live.liveCount() / live.size();
+			}
+			tiers[i] = MergeScheduler.getTier(size);
+		}
+
+		// the lowest tier with enough consecutive segments
+		int[] merge = null;
+		for (int i = 0; i + MergeScheduler.MERGE_FACTOR <= tiers.length; i++) {
+			int end = i + 1;
+			while (end < tiers.length && tiers[end] == tiers[i] && end - i < MergeScheduler.MERGE_FACTOR) {
+				end++;
+			}
+			if (end - i == MergeScheduler.MERGE_FACTOR && (merge == null || tiers[i] < tiers[merge[0]])) {
+				merge = new int[] { i, end };
+			}
+		}
+		return merge;
+	}
+
+	/**
+	 * @param size the size of a segment in bytes
+	 * @return its tier
+	 */
+	private static int getTier(long size) {
+		int tier = 0;
+		for (long limit = MergeScheduler.MIN_TIER_SIZE; size >= limit; limit *= MergeScheduler.MERGE_FACTOR) {
+			tier++;
+		}
+		return tier;
+	}
+
+}
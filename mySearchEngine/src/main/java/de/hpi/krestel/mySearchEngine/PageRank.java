@@ -0,0 +1,279 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The static rank of the documents of an index: PageRank over its link
+ * graph (see {@link LinkGraph}), computed by power iteration when the index
+ * is created and stored as a column of one float per document, which is
+ * memory-mapped for querying.
+ * Every iteration pulls the rank of each document from the documents which
+ * link to it (its row of inlinks), in ranges of documents on a pool of
+ * {@link #THREADS} threads; only primitive arrays and the mapped rows are
+ * used. The rank of documents without links to other documents of the
+ * index is distributed over all documents. The iteration stops once the
+ * ranks changed by less than {@link #EPSILON} (sum over all documents) or
+ * after {@link #MAX_ITERATIONS} iterations.
+ * The stored ranks are scaled by the number of documents (their mean is
+ * 1), so the ranks of segments of different sizes are comparable. The graph
+ * of a segment holds the links of its own pages only, so the ranks of a
+ * segment which was added incrementally are approximate until it is merged.
+ */
+class PageRank {
+
+	// probability that the random surfer follows a link
+	private static final double DAMPING = 0.85;
+	// change of the ranks (L1 norm) below which the iteration stops
+	private static final double EPSILON = 1e-6;
+	// maximum number of iterations
+	private static final int MAX_ITERATIONS = 100;
+	// number of threads which compute the ranks
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	// number of ranges of documents per thread (balances the ranges)
+	private static final int RANGES_PER_THREAD = 4;
+
+	// name of the file which stores the ranks (one float per document)
+	private static final String fileName = "pageRank";
+	// file extension of binary columns
+	private static final String fileExtension = ".bin";
+	// buffer size for writing the column
+	private static final int bufferSize = 65536;
+
+	// the mapped column (querying only)
+	private FloatBuffer ranks;
+	// the mapping of the column (unmapped by release)
+	private final List<ByteBuffer> mappings = new ArrayList<ByteBuffer>(1);
+	// whether the ranks are descending (the documents are in static rank order)
+	private boolean descending;
+
+	private PageRank() {
+	}
+
+	/**
+	 * Compute the ranks of the documents of an index and write them.
+	 * @param dir the directory of the index (ending with '/')
+	 * @param graph the link graph of the index
+	 * @param size the number of documents
+	 * @throws IOException if the column cannot be written
+	 */
+	public static void create(String dir, LinkGraph graph, int size) throws IOException {
+		double[] ranks = PageRank.compute(graph, size);
+		float[] scaledRanks = new float[size];
+		for (int document = 0; document < size; document++) {
+			scaledRanks[document] = (float) (ranks[document] * size);
+		}
+		PageRank.write(dir, scaledRanks);
+	}
+
+	/**
+	 * Write the given ranks (e.g., the ranks of an index whose documents
+	 * were renumbered).
+	 * @param dir the directory of the index (ending with '/')
+	 * @param ranks the rank of each document, scaled by their number
+	 * @throws IOException if the column cannot be written
+	 */
+	public static void write(String dir, float[] ranks) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(dir + PageRank.fileName + PageRank.fileExtension), PageRank.bufferSize));
+		try {
+			for (float rank : ranks) {
+				out.writeFloat(rank);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Compute the ranks of the documents by power iteration (see above).
+	 * @param graph the link graph
+	 * @param size the number of documents
+	 * @return the rank of each document (their sum is 1)
+	 * @throws IOException if the computation was interrupted or failed
+	 */
+	static double[] compute(LinkGraph graph, final int size) throws IOException {
+		final double[] ranks = new double[size];
+		if (size == 0) {
+			return ranks;
+		}
+		// rank of a document divided by its number of links to documents
+		final double[] contributions = new double[size];
+		final int[] outDegrees = new int[size];
+		for (int document = 0; document < size; document++) {
+			IntBuffer outlinks = graph.getOutlinks(document);
+			// the rows are ascending: links to titles which are no documents come last
+			int degree = 0;
+			while (degree < outlinks.limit() && outlinks.get(degree) < size) {
+				degree++;
+			}
+			outDegrees[document] = degree;
+			ranks[document] = 1.0 / size;
+		}
+		final IntBuffer inlinkOffsets = graph.getInlinkOffsets();
+		final IntBuffer inlinks = graph.getInlinkColumn();
+
+		// the ranges of documents
+		int rangeCount = Math.min(size, PageRank.THREADS * PageRank.RANGES_PER_THREAD);
+		final int rangeSize = (size + rangeCount - 1) / rangeCount;
+		final double[] base = new double[1];
+		List<Callable<Double>> contribute = new ArrayList<Callable<Double>>(rangeCount);
+		List<Callable<Double>> pull = new ArrayList<Callable<Double>>(rangeCount);
+		for (int start = 0; start < size; start += rangeSize) {
+			final int from = start;
+			final int to = Math.min(size, start + rangeSize);
+			contribute.add(new Callable<Double>() {
+				@Override
+				public Double call() {
+					// the contributions of the range and the rank of its dangling documents
+					double dangling = 0;
+					for (int document = from; document < to; document++) {
+						if (outDegrees[document] > 0) {
+							contributions[document] = ranks[document] / outDegrees[document];
+						} else {
+							contributions[document] = 0;
+							dangling += ranks[document];
+						}
+					}
+					return dangling;
+				}
+			});
+			pull.add(new Callable<Double>() {
+				@Override
+				public Double call() {
+					// the new ranks of the range and their change
+					double change = 0;
+					for (int document = from; document < to; document++) {
+						double sum = 0;
+						int end = inlinkOffsets.get(document + 1);
+						for (int i = inlinkOffsets.get(document); i < end; i++) {
+							sum += contributions[inlinks.get(i)];
+						}
+						double rank = base[0] + PageRank.DAMPING * sum;
+						change += Math.abs(rank - ranks[document]);
+						ranks[document] = rank;
+					}
+					return change;
+				}
+			});
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(PageRank.THREADS);
+		try {
+			for (int iteration = 0; iteration < PageRank.MAX_ITERATIONS; iteration++) {
+				double dangling = PageRank.sum(pool.invokeAll(contribute));
+				// teleportation and the rank of the dangling documents are shared by all
+				base[0] = (1.0 - PageRank.DAMPING) / size + PageRank.DAMPING * dangling / size;
+				double change = PageRank.sum(pool.invokeAll(pull));
+				if (change < PageRank.EPSILON) {
+					System.out.println("PageRank converged after " + (iteration + 1) + " iterations");
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while computing the PageRank");
+		} catch (ExecutionException e) {
+			throw new IOException("Cannot compute the PageRank: " + e.getCause(), e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return ranks;
+	}
+
+	private static double sum(List<Future<Double>> results) throws InterruptedException, ExecutionException {
+		double sum = 0;
+		for (Future<Double> result : results) {
+			sum += result.get();
+		}
+		return sum;
+	}
+
+	/**
+	 * Open the ranks in the given directory and map them into memory.
+	 * @param dir the directory for all index files
+	 * @return the read-only ranks
+	 * @throws IOException if the column cannot be read
+	 */
+	public static PageRank open(String dir) throws IOException {
+		PageRank pageRank = new PageRank();
+		RandomAccessFile file = new RandomAccessFile(dir + PageRank.fileName + PageRank.fileExtension, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			// the mapping stays valid after the channel is closed
+			ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			pageRank.mappings.add(mapping);
+			pageRank.ranks = mapping.asFloatBuffer();
+		} finally {
+			file.close();
+		}
+		pageRank.descending = true;
+		for (int document = 1; document < pageRank.ranks.limit() && pageRank.descending; document++) {
+			pageRank.descending = pageRank.ranks.get(document - 1) >= pageRank.ranks.get(document);
+		}
+		return pageRank;
+	}
+
+	/**
+	 * @param documentNumber the number of a document
+	 * @return its rank, scaled by the number of documents (the mean is 1)
+	 */
+	public float getRank(int documentNumber) {
+		return this.ranks.get(documentNumber);
+	}
+
+	/**
+	 * @return <tt>true</tt> if the documents are numbered in descending rank
+	 *   (see {@link IndexHandler#STATIC_RANK_ORDER})
+	 */
+	public boolean isDescending() {
+		return this.descending;
+	}
+
+	/**
+	 * Read the mapped column into memory (pre-warming).
+	 */
+	public void load() {
+		MappedBuffers.load(this.mappings);
+	}
+
+	/**
+	 * Unmap the column. The PageRank must not be used afterwards.
+	 */
+	public void release() {
+		MappedBuffers.unmap(this.mappings);
+	}
+
+	/**
+	 * Tests whether the given directory has the ranks.
+	 * @param dir the directory
+	 * @return <tt>true</tt> if the file is present and can be read
+	 */
+	public static boolean directoryHasFiles(String dir) {
+		return new File(dir + PageRank.fileName + PageRank.fileExtension).canRead();
+	}
+
+	/**
+	 * Delete the ranks in the given directory (if they exist).
+	 * @param dir the directory
+	 */
+	public static void deleteFiles(String dir) {
+		new File(dir + PageRank.fileName + PageRank.fileExtension).delete();
+	}
+
+}
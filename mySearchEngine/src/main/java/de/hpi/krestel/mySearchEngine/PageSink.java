@@ -0,0 +1,32 @@
+package de.hpi.krestel.mySearchEngine;
+
+/**
+ * Receives the pages which a dump reader ({@link SAXHandler} or
+ * {@link PullDumpReader}) extracts from the dump: only articles which are
+ * not redirects, in the order of the dump.
+ */
+interface PageSink {
+
+	/**
+	 * Called for every relevant page.
+	 * @param pageId the (Wikipedia) page id
+	 * @param title the title of the page
+	 * @param text the text of the page; the buffer is reused by the reader,
+	 *   so it is only valid during the call
+	 */
+	void indexPage(Long pageId, String title, TextBuffer text);
+
+	/**
+	 * Called at the start of every page by readers which know their position
+	 * in the dump ({@link PullDumpReader}).
+	 * @param offset an offset in the (uncompressed) dump which is not before
+	 *   the start of the page
+	 */
+	void setDumpOffset(long offset);
+
+	/**
+	 * Called once at the end of the dump.
+	 */
+	void createIndex();
+
+}
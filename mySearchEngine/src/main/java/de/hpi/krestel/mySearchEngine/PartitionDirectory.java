@@ -0,0 +1,135 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps keys (terms or processed titles) to the partitions of an index
+ * file. The final index (and link index) is split into partitions of
+ * disjoint key ranges, which are merged in parallel into files of their
+ * own (see {@link IndexHandler#createIndex()}). The directory holds the
+ * first key of every partition; it is a small text file with one line
+ * per partition:
+ * 	partition\tfirst key
+ * The first key of the first partition is empty. Keys are compared with
+ * {@link String#compareTo(String)}, as in the index files.
+ */
+class PartitionDirectory {
+
+	// suffix of the name of a directory file
+	private static final String directoryFileName = "_directory";
+	// file extension
+	private static final String fileExtension = ".txt";
+
+	// the first key of every partition, ascending
+	private final String[] firstKeys;
+
+	private PartitionDirectory(String[] firstKeys) {
+		this.firstKeys = firstKeys;
+	}
+
+	/**
+	 * Write the directory of the given index file.
+	 * @param dir the directory of the index files
+	 * @param fileName the name of the index file
+	 * @param firstKeys the first key of every partition (the first one is empty)
+	 * @throws IOException
+	 */
+	public static void write(String dir, String fileName, List<String> firstKeys) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(PartitionDirectory.getFile(dir, fileName)), "UTF-8"));
+		try {
+			for (int partition = 0; partition < firstKeys.size(); partition++) {
+				writer.write(partition + "\t" + firstKeys.get(partition) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Read the directory of the given index file.
+	 * @param dir the directory of the index files
+	 * @param fileName the name of the index file
+	 * @return the directory
+	 * @throws IOException if the directory cannot be read
+	 */
+	public static PartitionDirectory read(String dir, String fileName) throws IOException {
+		List<String> firstKeys = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(PartitionDirectory.getFile(dir, fileName)), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab >= 0) {
+					firstKeys.add(line.substring(tab + 1));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (firstKeys.isEmpty()) {
+			throw new IOException("Empty partition directory for " + fileName);
+		}
+		return new PartitionDirectory(firstKeys.toArray(new String[firstKeys.size()]));
+	}
+
+	/**
+	 * Tests whether the directory of the given index file exists.
+	 * @param dir the directory of the index files
+	 * @param fileName the name of the index file
+	 * @return <tt>true</tt> if the directory can be read
+	 */
+	public static boolean exists(String dir, String fileName) {
+		return PartitionDirectory.getFile(dir, fileName).canRead();
+	}
+
+	private static File getFile(String dir, String fileName) {
+		return new File(dir + fileName + PartitionDirectory.directoryFileName + PartitionDirectory.fileExtension);
+	}
+
+	/**
+	 * Get the partition which holds the given key (if it is indexed at all).
+	 * @param key the key
+	 * @return the number of the partition
+	 */
+	public int getPartition(String key) {
+		// binary search for the last partition whose first key is not greater
+		int low = 0;
+		int high = this.firstKeys.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.firstKeys[middle].compareTo(key) <= 0) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param partition the number of a partition
+	 * @return the first key of the partition
+	 */
+	public String getFirstKey(int partition) {
+		return this.firstKeys[partition];
+	}
+
+	/**
+	 * @return the number of partitions
+	 */
+	public int size() {
+		return this.firstKeys.length;
+	}
+
+}
@@ -0,0 +1,436 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the index from an uncompressed dump in several independent
+ * partitions. The dump is split at &lt;page&gt; tags into byte ranges of
+ * about the same size; every range is parsed by its own
+ * {@link PullDumpReader} into its own {@link IndexHandler}, which writes
+ * the parts of its index, its document table and its text store into a
+ * directory of its own (document numbers start at 0 in every partition).
+ * Afterwards, {@link IndexHandler#mergePartitions(List)} renumbers and
+ * concatenates the partitions in the order of the dump, and the parts of
+ * the index are merged as usual, so the result is the same index as the
+ * one of a single IndexHandler.
+ *
+ * Every partition writes checkpoints (see {@link IndexCheckpoint}). If a
+ * build is restarted, finished partitions are kept and unfinished ones are
+ * resumed near the last page of their checkpoint (see
+ * {@link #readRange(SearchEngineRetrEvil, String, long, long, IndexHandler, PageSink)}).
+ * Once partitions are merged, they cannot be resumed any more.
+ *
+ * The partitions are built on threads of this process by
+ * {@link #build(String, String, int)}. To spread them over several
+ * processes (or machines which share the directory), run
+ * 	PartitionedIndexBuilder partition [dump] [dir] [partitions] [partition]
+ * for every partition and, once all of them are finished,
+ * 	PartitionedIndexBuilder merge [dump] [dir] [partitions]
+ */
+public class PartitionedIndexBuilder {
+
+	// name of the directory of a partition (within the index directory)
+	private static final String partitionDirName = "partition_";
+	// name of the file which holds the boundaries of the partitions (within the index directory)
+	private static final String boundariesFileName = "partitions.txt";
+	// start of a page
+	private static final byte[] pageTag = "<page>".getBytes();
+	// root element around the pages of a partition which does not start or end the dump
+	private static final byte[] rootStart = "<mediawiki>".getBytes();
+	private static final byte[] rootEnd = "</mediawiki>".getBytes();
+	// size of the reads from the dump
+	private static final int READ_SIZE = 1024 * 1024;
+	/*
+	 * distance before the offset of a checkpoint at which a resumed build
+	 * looks for the next page; covers the read-ahead of the XML parser
+	 */
+	private static final long RESUME_MARGIN = 1024 * 1024;
+
+	private final SearchEngineRetrEvil searchEngineRetrEvil;
+
+	public PartitionedIndexBuilder(SearchEngineRetrEvil searchEngineRetrEvil) {
+		this.searchEngineRetrEvil = searchEngineRetrEvil;
+	}
+
+	/**
+	 * Build the partitions on a pool of threads (one per partition), then
+	 * merge them into the index in the given directory.
+	 * @param dumpFile the (uncompressed) dump
+	 * @param dir the directory for all index files (ending with '/')
+	 * @param partitions the number of partitions
+	 * @throws IOException if the dump cannot be read or a partition fails
+	 */
+	public void build(final String dumpFile, final String dir, int partitions) throws IOException {
+		final long[] boundaries = PartitionedIndexBuilder.findBoundaries(dumpFile, partitions);
+		int count = boundaries.length - 1;
+		PartitionedIndexBuilder.checkBoundaries(dir, boundaries);
+		// the partitions share the heap
+		final long ramBudget = IndexHandler.getDefaultRamBudget() / count;
+		ExecutorService pool = Executors.newFixedThreadPool(count);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>(count);
+			for (int i = 0; i < count; i++) {
+				final int partition = i;
+				results.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						PartitionedIndexBuilder.this.buildPartition(dumpFile, dir, boundaries, partition, ramBudget);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while building the partitions");
+		} catch (ExecutionException e) {
+			throw new IOException("Cannot build a partition: " + e.getCause(), e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		PartitionedIndexBuilder.merge(dir, count);
+	}
+
+	/**
+	 * Build one partition of the dump in its own directory.
+	 * @param dumpFile the (uncompressed) dump
+	 * @param dir the directory for all index files (ending with '/')
+	 * @param boundaries the start of every partition, plus the end of the dump
+	 * @param partition the number of the partition
+	 * @param ramBudget the budget of the partition's IndexHandler
+	 * @throws Exception if the partition cannot be read or parsed
+	 */
+	void buildPartition(String dumpFile, String dir, long[] boundaries, int partition, long ramBudget)
+			throws Exception {
+		String partitionDir = PartitionedIndexBuilder.getPartitionDir(dir, partition);
+		IndexCheckpoint checkpoint = IndexCheckpoint.read(partitionDir);
+		if (checkpoint != null && checkpoint.finished) {
+			return;	// finished by an earlier build
+		}
+		new File(partitionDir).mkdirs();
+		final IndexHandler indexer = new IndexHandler(partitionDir);
+		indexer.setRamBudget(ramBudget);
+
+		PartitionedIndexBuilder.readRange(this.searchEngineRetrEvil, dumpFile,
+				boundaries[partition], boundaries[partition + 1], indexer, new PageSink() {
+			@Override
+			public void indexPage(Long pageId, String title, TextBuffer text) {
+				indexer.indexPage(pageId, title, text);
+			}
+
+			@Override
+			public void setDumpOffset(long offset) {
+				indexer.setDumpOffset(offset);
+			}
+
+			@Override
+			public void createIndex() {
+				indexer.finishPartition();
+			}
+		});
+	}
+
+	/**
+	 * Read a byte range of an uncompressed dump into the given sink. If the
+	 * IndexHandler resumes a build, reading starts at the first page after
+	 * {@link #RESUME_MARGIN} bytes before the offset of its checkpoint, so
+	 * only a few pages are skipped; if the last page of the checkpoint is
+	 * not found there, the whole range is read again.
+	 * @param searchEngineRetrEvil the engine (for logging)
+	 * @param dumpFile the (uncompressed) dump
+	 * @param start the start of the range (0 or a &lt;page&gt; tag)
+	 * @param end the end of the range
+	 * @param indexer the IndexHandler which builds the range
+	 * @param sink the sink of the pages (the indexer or a wrapper of it)
+	 * @throws Exception if the range cannot be read or parsed
+	 */
+	static void readRange(SearchEngineRetrEvil searchEngineRetrEvil, String dumpFile, long start, long end,
+			IndexHandler indexer, PageSink sink) throws Exception {
+		long from = start;
+		IndexCheckpoint checkpoint = indexer.getCheckpoint();
+		if (checkpoint != null) {
+			RandomAccessFile file = new RandomAccessFile(dumpFile, "r");
+			try {
+				from = PartitionedIndexBuilder.findPage(file,
+						Math.max(start, checkpoint.dumpOffset - PartitionedIndexBuilder.RESUME_MARGIN));
+			} finally {
+				file.close();
+			}
+			if (from >= end) {
+				from = start;
+			}
+		}
+		PartitionedIndexBuilder.readRange(searchEngineRetrEvil, dumpFile, from, end, sink);
+		if (indexer.isSkippingToCheckpoint() && from > start) {
+			// the last page of the checkpoint starts before the resume position
+			PartitionedIndexBuilder.readRange(searchEngineRetrEvil, dumpFile, start, end, sink);
+		}
+	}
+
+	private static void readRange(SearchEngineRetrEvil searchEngineRetrEvil, String dumpFile, long start, long end,
+			PageSink sink) throws Exception {
+		long length = new File(dumpFile).length();
+		InputStream inputStream = PartitionedIndexBuilder.openRange(dumpFile, start, end, length);
+		try {
+			// offsets of the pages in the dump (without the synthetic root element)
+			long base = start > 0 ? start - PartitionedIndexBuilder.rootStart.length : 0;
+			new PullDumpReader(searchEngineRetrEvil, sink).read(inputStream, base);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Merge the given number of finished partitions into the index in the
+	 * given directory and delete them.
+	 * @param dir the directory for all index files (ending with '/')
+	 * @param partitions the number of partitions
+	 * @throws IOException if a partition cannot be read
+	 */
+	static void merge(String dir, int partitions) throws IOException {
+		List<String> partitionDirs = new ArrayList<String>(partitions);
+		for (int partition = 0; partition < partitions; partition++) {
+			String partitionDir = PartitionedIndexBuilder.getPartitionDir(dir, partition);
+			IndexCheckpoint checkpoint = IndexCheckpoint.read(partitionDir);
+			if (checkpoint == null || !checkpoint.finished) {
+				throw new IOException("Partition " + partition + " is not finished");
+			}
+			partitionDirs.add(partitionDir);
+		}
+
+		IndexHandler indexer = new IndexHandler(dir);
+		indexer.mergePartitions(partitionDirs);
+		indexer.createIndex();
+
+		for (String partitionDir : partitionDirs) {
+			PartitionedIndexBuilder.deleteDirectory(new File(partitionDir));
+		}
+		new File(dir + PartitionedIndexBuilder.boundariesFileName).delete();
+	}
+
+	static String getPartitionDir(String dir, int partition) {
+		return dir + PartitionedIndexBuilder.partitionDirName + partition + "/";
+	}
+
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Compare the boundaries of the partitions with those of an earlier
+	 * (unfinished) build in the same directory: if they differ (e.g. the
+	 * dump or the number of partitions changed), the partitions of that
+	 * build cannot be resumed and are deleted. Then record the boundaries.
+	 */
+	private static void checkBoundaries(String dir, long[] boundaries) throws IOException {
+		File file = new File(dir + PartitionedIndexBuilder.boundariesFileName);
+		StringBuilder current = new StringBuilder();
+		for (long boundary : boundaries) {
+			current.append(boundary).append('\n');
+		}
+		if (file.canRead()) {
+			byte[] earlier = new byte[(int) file.length()];
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				in.readFully(earlier);
+			} finally {
+				in.close();
+			}
+			if (new String(earlier, "UTF-8").equals(current.toString())) {
+				return;
+			}
+		}
+		File[] partitionDirs = new File(dir).listFiles();
+		if (partitionDirs != null) {
+			for (File partitionDir : partitionDirs) {
+				if (partitionDir.isDirectory()
+						&& partitionDir.getName().startsWith(PartitionedIndexBuilder.partitionDirName)) {
+					PartitionedIndexBuilder.deleteDirectory(partitionDir);
+				}
+			}
+		}
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(current.toString().getBytes("UTF-8"));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Split the dump into (at most) the given number of byte ranges of about
+	 * the same size. Every range but the first starts with a &lt;page&gt; tag;
+	 * empty ranges are dropped.
+	 * @return the start of every range, plus the length of the dump
+	 */
+	static long[] findBoundaries(String dumpFile, int partitions) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dumpFile, "r");
+		try {
+			long length = file.length();
+			List<Long> boundaries = new ArrayList<Long>(partitions + 1);
+			boundaries.add(0L);
+			for (int partition = 1; partition < partitions; partition++) {
+				long previous = boundaries.get(boundaries.size() - 1);
+				long boundary = PartitionedIndexBuilder.findPage(file,
+						Math.max(previous + 1, length / partitions * partition));
+				if (boundary < length) {
+					boundaries.add(boundary);
+				}
+			}
+			boundaries.add(length);
+
+			long[] result = new long[boundaries.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = boundaries.get(i);
+			}
+			return result;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Find the next &lt;page&gt; tag at or after the given position (the tag
+	 * cannot occur within the text of a page, where '&lt;' is escaped).
+	 * @return the position of the tag or the length of the file
+	 */
+	private static long findPage(RandomAccessFile file, long from) throws IOException {
+		byte[] tag = PartitionedIndexBuilder.pageTag;
+		byte[] buffer = new byte[PartitionedIndexBuilder.READ_SIZE];
+		long position = from;
+		while (position < file.length()) {
+			file.seek(position);
+			int length = file.read(buffer);
+			if (length < tag.length) {
+				break;
+			}
+			for (int i = 0; i + tag.length <= length; i++) {
+				int j = 0;
+				while (j < tag.length && buffer[i + j] == tag[j]) {
+					j++;
+				}
+				if (j == tag.length) {
+					return position + i;
+				}
+			}
+			// the tag may span two reads
+			position += length - tag.length + 1;
+		}
+		return file.length();
+	}
+
+	/**
+	 * Open a range of the dump as a well-formed document: the ranges which
+	 * do not contain the start (or end) of the dump are wrapped into a root
+	 * element.
+	 */
+	private static InputStream openRange(String dumpFile, long start, long end, long length)
+			throws IOException {
+		Vector<InputStream> parts = new Vector<InputStream>(3);
+		if (start > 0) {
+			parts.add(new ByteArrayInputStream(PartitionedIndexBuilder.rootStart));
+		}
+		parts.add(new BufferedInputStream(new RangeInputStream(dumpFile, start, end),
+				PartitionedIndexBuilder.READ_SIZE));
+		if (end < length) {
+			parts.add(new ByteArrayInputStream(PartitionedIndexBuilder.rootEnd));
+		}
+		return new SequenceInputStream(parts.elements());
+	}
+
+	/**
+	 * Reads a byte range of a file.
+	 */
+	private static class RangeInputStream extends InputStream {
+		private final RandomAccessFile file;
+		private long remaining;
+
+		RangeInputStream(String fileName, long start, long end) throws IOException {
+			this.file = new RandomAccessFile(fileName, "r");
+			this.file.seek(start);
+			this.remaining = end - start;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			int read = this.file.read();
+			if (read >= 0) {
+				this.remaining--;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			int read = this.file.read(bytes, offset, (int) Math.min(length, this.remaining));
+			if (read > 0) {
+				this.remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.file.close();
+		}
+	}
+
+	/**
+	 * Build or merge partitions in this process, see above.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.out.println("Usage: PartitionedIndexBuilder partition [dump] [dir] [partitions] [partition]");
+			System.out.println("       PartitionedIndexBuilder merge [dump] [dir] [partitions]");
+			return;
+		}
+		String dumpFile = args[1];
+		String dir = args[2].endsWith("/") ? args[2] : args[2] + "/";
+		int partitions = Integer.parseInt(args[3]);
+		/*
+		 * every process splits the dump the same way; as empty ranges are
+		 * dropped, there may be fewer partitions than requested
+		 */
+		long[] boundaries = PartitionedIndexBuilder.findBoundaries(dumpFile, partitions);
+		if (args[0].equals("partition")) {
+			int partition = Integer.parseInt(args[4]);
+			if (partition < boundaries.length - 1) {
+				new PartitionedIndexBuilder(new SearchEngineRetrEvil())
+						.buildPartition(dumpFile, dir, boundaries, partition, IndexHandler.getDefaultRamBudget());
+			}
+		} else {
+			PartitionedIndexBuilder.merge(dir, boundaries.length - 1);
+		}
+	}
+
+}
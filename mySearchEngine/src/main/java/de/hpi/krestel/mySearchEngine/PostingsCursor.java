@@ -0,0 +1,186 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the list of a term in the index (<tt>doc:pos,pos;doc:pos.</tt>)
+ * sequentially, document by document: only the document numbers and the
+ * frequencies (the number of positions) are decoded, so a scorer can stop
+ * reading a long list early (see {@link IndexHandler#openPostings(String)}).
+ * The documents of a list are ascending. If the index has impacts (see
+ * {@link ImpactScores}), the cursor also yields the impact of the term in
+ * the current document.
+ */
+class PostingsCursor {
+
+	// buffer size for reading the list
+	private static final int bufferSize = 8192;
+
+	// the number of documents of the list and the highest frequency in it
+	final int documentFrequency;
+	final int maxFrequency;
+
+	private final InputStream in;
+	private boolean finished;
+	// the current document and the frequency of the term in it
+	private int document = -1;
+	private int frequency;
+	// the impacts of the list and the position of the current document
+	private ByteBuffer impacts;
+	private int index = -1;
+	/*
+	 * champion lists only: the highest frequency and static rank of the
+	 * documents of the whole list which are not in the champion list
+	 */
+	private boolean championList;
+	private int outsideMaxFrequency;
+	private float outsideMaxRank;
+
+	/**
+	 * @param fileName the index file
+	 * @param offset the offset of the list in the file
+	 * @param documentFrequency the number of documents of the list
+	 * @param maxFrequency the highest frequency in the list
+	 * @throws IOException if the file cannot be opened
+	 */
+	PostingsCursor(String fileName, long offset, int documentFrequency, int maxFrequency) throws IOException {
+		FileInputStream file = new FileInputStream(fileName);
+		file.getChannel().position(offset);
+		this.in = new BufferedInputStream(file, PostingsCursor.bufferSize);
+		this.documentFrequency = documentFrequency;
+		this.maxFrequency = maxFrequency;
+	}
+
+	/**
+	 * Read the next list of the given stream (which is left open and
+	 * positioned after the list once it is finished).
+	 * @param in the stream, positioned at the start of a list
+	 * @param documentFrequency the number of documents of the list
+	 * @param maxFrequency the highest frequency in the list
+	 */
+	PostingsCursor(InputStream in, int documentFrequency, int maxFrequency) {
+		this.in = in;
+		this.documentFrequency = documentFrequency;
+		this.maxFrequency = maxFrequency;
+	}
+
+	/**
+	 * Read the impacts of the list, too.
+	 * @param impacts the impacts of the list, one per document (see
+	 *   {@link ImpactScores#getImpacts(int, long, int)})
+	 */
+	void setImpacts(ByteBuffer impacts) {
+		this.impacts = impacts;
+	}
+
+	/**
+	 * Mark the list as the champion list of a term (see {@link ChampionList}).
+	 * @param outsideMaxFrequency the highest frequency of the documents of
+	 *   the whole list which are not champions
+	 * @param outsideMaxRank their highest static rank
+	 *   ({@link Float#POSITIVE_INFINITY} if it is not known)
+	 */
+	void setChampionList(int outsideMaxFrequency, float outsideMaxRank) {
+		this.championList = true;
+		this.outsideMaxFrequency = outsideMaxFrequency;
+		this.outsideMaxRank = outsideMaxRank;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the cursor reads only the champion list of
+	 *   a term, so other documents may contain it, too
+	 */
+	boolean isChampionList() {
+		return this.championList;
+	}
+
+	/**
+	 * @return the highest frequency of the term in a document which is not
+	 *   in the champion list (see {@link #isChampionList()})
+	 */
+	int getOutsideMaxFrequency() {
+		return this.outsideMaxFrequency;
+	}
+
+	/**
+	 * @return the highest static rank of a document which is not in the
+	 *   champion list (see {@link #isChampionList()})
+	 */
+	float getOutsideMaxRank() {
+		return this.outsideMaxRank;
+	}
+
+	/**
+	 * Move to the next document of the list.
+	 * @return <tt>false</tt> if the list is finished
+	 * @throws IOException if the list cannot be read
+	 */
+	boolean next() throws IOException {
+		while (!this.finished) {
+			int document = 0;
+			int read;
+			while ((read = this.in.read()) >= '0' && read <= '9') {
+				document = 10 * document + (read - '0');
+			}
+			if (read != ':') {
+				// end of the list (or file)
+				this.finished = true;
+				break;
+			}
+			int frequency = 1;
+			while ((read = this.in.read()) >= 0 && read != ';' && read != '.') {
+				if (read == ',') {
+					frequency++;
+				}
+			}
+			if (read != ';') {
+				this.finished = true;
+			}
+			this.document = document;
+			this.frequency = frequency;
+			this.index++;
+			return true;
+		}
+		this.document = Integer.MAX_VALUE;
+		return false;
+	}
+
+	/**
+	 * @return the current document, or {@link Integer#MAX_VALUE} once the
+	 *   list is finished
+	 */
+	int document() {
+		return this.document;
+	}
+
+	/**
+	 * @return the frequency of the term in the current document
+	 */
+	int frequency() {
+		return this.frequency;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the cursor yields impacts
+	 */
+	boolean hasImpacts() {
+		return this.impacts != null;
+	}
+
+	/**
+	 * @return the impact of the term in the current document (see
+	 *   {@link #setImpacts(ByteBuffer)})
+	 */
+	int impact() {
+		return this.impacts.get(this.index) & 0xFF;
+	}
+
+	void close() throws IOException {
+		this.in.close();
+	}
+
+}
@@ -0,0 +1,259 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads a MediaWiki export (dump) with a StAX pull parser, an alternative
+ * to the {@link SAXHandler}. Extracts id, title and text of every page
+ * which is a Wikipedia article and not a redirect, calls the given sink
+ * for every such page and at the end of the dump.
+ *
+ * The reader is specialized for the export schema: within a page it only
+ * looks at title, ns, id, redirect and text (element names are compared
+ * case-sensitively, as in the schema). As soon as the namespace of a page
+ * is not 0 or the page turns out to be a redirect, the rest of the page is
+ * skipped without copying its text. Chars are appended from the parser's
+ * buffer into TextBuffers which are reused for every page.
+ */
+class PullDumpReader {
+
+	private final SearchEngineRetrEvil searchEngineRetrEvil;
+
+	private final PageSink indexer;	// builds the index
+
+	private Long id;				// id of current page
+	private final TextBuffer title = new TextBuffer(256);		// title of current page
+	private final TextBuffer text = new TextBuffer(64 * 1024);	// text of current page
+	private final TextBuffer value = new TextBuffer(32);		// namespace or id of current page
+
+	public PullDumpReader(SearchEngineRetrEvil searchEngineRetrEvil, PageSink indexer) {
+		this.searchEngineRetrEvil = searchEngineRetrEvil;
+		this.indexer = indexer;
+	}
+
+	/**
+	 * Read the dump and pass all relevant pages to the sink.
+	 * @param inputStream the dump (UTF-8)
+	 * @throws XMLStreamException if the dump is not well-formed
+	 */
+	public void read(InputStream inputStream) throws XMLStreamException {
+		this.read(inputStream, 0);
+	}
+
+	/**
+	 * Read the dump (or a range of it) and pass all relevant pages to the
+	 * sink. Before every page, the sink gets the number of bytes which the
+	 * parser has consumed so far (it reads ahead, so the page starts at or
+	 * before that offset), plus the given base.
+	 * @param inputStream the dump (UTF-8)
+	 * @param base the offset in the dump at which the stream starts
+	 * @throws XMLStreamException if the dump is not well-formed
+	 */
+	public void read(InputStream inputStream, long base) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		CountingInputStream counter = new CountingInputStream(inputStream);
+		XMLStreamReader reader = factory.createXMLStreamReader(counter, "UTF-8");
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT
+						&& reader.getLocalName().equals("page")) {
+					this.indexer.setDumpOffset(base + counter.count);
+					this.readPage(reader);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		// parsing is finished, Indexer may now merge the index
+		this.indexer.createIndex();
+	}
+
+	/**
+	 * Read a page; the reader is positioned at &lt;page&gt; and is
+	 * positioned at &lt;/page&gt; afterwards.
+	 */
+	private void readPage(XMLStreamReader reader) throws XMLStreamException {
+		this.id = null;
+		this.title.clear();
+		this.text.clear();
+		boolean isArticle = false;
+
+		// depth of elements within the page which are not read
+		int depth = 0;
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				if (depth == 0) {
+					break;	// </page>
+				}
+				depth--;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+				if (name.equals("title")) {
+					this.readText(reader, this.title);
+				} else if (name.equals("ns")) {
+					this.value.clear();
+					this.readText(reader, this.value);
+					/*
+					 * page is an article (i.e., it is relevant for the index
+					 * unless it is a redirection); else: page is not an
+					 * article and, therefore, irrelevant
+					 */
+					isArticle = this.value.contentEquals("0");
+					if (!isArticle) {
+						this.skipPage(reader);
+						return;
+					}
+				} else if (name.equals("id")) {
+					this.value.clear();
+					this.readText(reader, this.value);
+					// get the page id (subsequent ids are from revisions)
+					if (this.id == null) {
+						try {
+							this.id = this.value.parseLong();
+						} catch (NumberFormatException e) {
+							// continue, but log exception
+							this.searchEngineRetrEvil.log("PullDumpReader: could not parse ID of the current page: "
+									+ e.getMessage());
+						}
+					}
+				} else if (name.equals("redirect")) {
+					/*
+					 * Policy: suppose that every page which has a tag <redirect />
+					 * (regardless of the "title" attribute of that tag) is a
+					 * redirection
+					 */
+					this.skipElement(reader);
+					this.skipPage(reader);
+					return;
+				} else if (name.equals("text")) {
+					if (isArticle) {
+						this.readText(reader, this.text);
+					} else {
+						depth++;	// no namespace yet, skip the text
+					}
+				} else {
+					depth++;
+				}
+			}
+		}
+
+		/*
+		 * Policy: index the page if and only if all necessary data can be
+		 * provided and the page is relevant (i.e., an article and not an
+		 * indirection). If not all necessary information for a relevant
+		 * page can be provided, log a message.
+		 */
+		if (isArticle) {
+			if (this.id != null && !this.title.isEmpty() && !this.text.isEmpty()) {
+				this.indexer.indexPage(this.id, this.title.toString(), this.text);
+			} else {
+				this.searchEngineRetrEvil.log("");
+			}
+		}
+	}
+
+	/**
+	 * Append the text of the current element to the buffer; the reader is
+	 * positioned at the end of the element afterwards.
+	 */
+	private void readText(XMLStreamReader reader, TextBuffer buffer) throws XMLStreamException {
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.CHARACTERS
+					|| event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE) {
+				buffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				return;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				this.skipElement(reader);
+			}
+		}
+	}
+
+	/**
+	 * Skip the current element, which has just started.
+	 */
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Skip the rest of the page; the reader is positioned at &lt;/page&gt;
+	 * afterwards.
+	 */
+	private void skipPage(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 0;
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (depth == 0) {
+					return;
+				}
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Counts the bytes which are read from a stream.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = this.in.read();
+			if (read >= 0) {
+				this.count++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int read = this.in.read(bytes, offset, length);
+			if (read > 0) {
+				this.count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = this.in.skip(n);
+			this.count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+}
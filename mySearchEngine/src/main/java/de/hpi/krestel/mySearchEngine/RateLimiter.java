@@ -0,0 +1,83 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the rate at which background work (see {@link MergeScheduler})
+ * reads its files, so it leaves I/O bandwidth to the queries. Callers
+ * report the bytes they read; they are put to sleep whenever they are
+ * ahead of the rate. The limiter may be shared by several threads.
+ */
+class RateLimiter {
+
+	// a pause of more than this is not made up for (e.g. while idle)
+	private static final long MAX_CREDIT_NANOS = 1000L * 1000 * 1000;
+
+	// bytes per second
+	private final double bytesPerSecond;
+	// the time at which the reported bytes may be read at the rate
+	private long nextTime = System.nanoTime();
+
+	/**
+	 * @param bytesPerSecond the rate
+	 */
+	public RateLimiter(double bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Report read bytes and sleep if the caller is ahead of the rate.
+	 * @param bytes the number of bytes which were read
+	 * @throws InterruptedIOException if the thread is interrupted
+	 */
+	public void pause(long bytes) throws InterruptedIOException {
+		long sleepNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (now - this.nextTime > RateLimiter.MAX_CREDIT_NANOS) {
+				this.nextTime = now - RateLimiter.MAX_CREDIT_NANOS;
+			}
+			this.nextTime += (long) (bytes / this.bytesPerSecond * 1e9);
+			sleepNanos = this.nextTime - now;
+		}
+		if (sleepNanos > 0) {
+			try {
+				Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while throttled");
+			}
+		}
+	}
+
+	/**
+	 * Wrap a stream, such that reading it is limited by this limiter.
+	 * @param in the stream
+	 * @return the throttled stream
+	 */
+	public InputStream wrap(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int read = super.read();
+				if (read >= 0) {
+					RateLimiter.this.pause(1);
+				}
+				return read;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				int read = super.read(buffer, offset, length);
+				if (read > 0) {
+					RateLimiter.this.pause(read);
+				}
+				return read;
+			}
+		};
+	}
+
+}
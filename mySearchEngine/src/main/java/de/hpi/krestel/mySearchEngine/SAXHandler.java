@@ -10,21 +10,24 @@ import org.xml.sax.helpers.DefaultHandler;
  * and not a redirect.
  * Calls the given Indexer for every page and at the end of the XML dump.
  * 
- * StringBuilders are used to concat parts of the titles and texts, as it 
- * seems that long texts may cause "characters()" to be called several 
- * times. StringBuilder is an alternative of StringBuffer for single threads
- * (faster, but not synchronized) which should work because the parser works
+ * TextBuffers are used to concat parts of the titles, texts, namespaces and
+ * ids, as long texts may cause "characters()" to be called several times.
+ * The buffers are reused for every page, so that the chars are copied only
+ * once and no Strings are created except for the title; the text is handed
+ * to the Indexer as a CharSequence. This works because the parser works
  * sequentially in one thread.
  */
 class SAXHandler extends DefaultHandler {
 
 	private final SearchEngineRetrEvil searchEngineRetrEvil;
 
-	private IndexHandler indexer;	// builds the index
+	private PageSink indexer;		// builds the index
 	
 	private Long id;				// id of current page
-	private StringBuilder title;	// title of current page
-	private StringBuilder text;		// text of current page
+	private final TextBuffer title = new TextBuffer(256);		// title of current page
+	private final TextBuffer text = new TextBuffer(64 * 1024);	// text of current page
+	private final TextBuffer ns = new TextBuffer(16);			// namespace of current page
+	private final TextBuffer idChars = new TextBuffer(32);		// id of current page (unparsed)
 	
 	boolean inPage, 				// parsing <page>
 		inTitle, 					// parsing <title>
@@ -34,7 +37,7 @@ class SAXHandler extends DefaultHandler {
 		isRedirect, 				// whether the page is a redirection
 		inText = false;				// parsing <text>
 	
-	public SAXHandler(SearchEngineRetrEvil searchEngineRetrEvil, IndexHandler indexer) {
+	public SAXHandler(SearchEngineRetrEvil searchEngineRetrEvil, PageSink indexer) {
 		this.searchEngineRetrEvil = searchEngineRetrEvil;
 		this.indexer = indexer;
 	}
@@ -50,8 +53,10 @@ class SAXHandler extends DefaultHandler {
 		this.inText = false;
 		
 		this.id = null;
-		this.title = new StringBuilder(100);
-		this.text = new StringBuilder(1000);
+		this.title.clear();
+		this.text.clear();
+		this.ns.clear();
+		this.idChars.clear();
 	}
 	
 	private void endPage() {
@@ -64,8 +69,8 @@ class SAXHandler extends DefaultHandler {
 		 * page can be provided, log a message.
 		 */
 		if (this.isArticle && !this.isRedirect) {
-			if (this.id != null && this.title.length() > 0 && this.text.length() > 0) {
-				this.indexer.indexPage(this.id, this.title.toString(), this.text.toString());
+			if (this.id != null && !this.title.isEmpty() && !this.text.isEmpty()) {
+				this.indexer.indexPage(this.id, this.title.toString(), this.text);
 			} else {
 				this.searchEngineRetrEvil.log("");
 			}
@@ -84,6 +89,7 @@ class SAXHandler extends DefaultHandler {
 			this.inNs = true;
 		} else if (this.inPage && qName.equalsIgnoreCase("id")) {
 			this.inId = true;
+			this.idChars.clear();
 		} else if (this.inPage && qName.equalsIgnoreCase("redirect")) {
 			/*
 			 * Policy: suppose that every page which has a tag <redirect />
@@ -106,8 +112,24 @@ class SAXHandler extends DefaultHandler {
 			this.inTitle = false;
 		} else if (this.inNs && qName.equalsIgnoreCase("ns")) {
 			this.inNs = false;
+			/* 
+			 * page is an article (i.e., it is relevant for the index 
+			 * unless it is a redirection); else: page is not an article 
+			 * and, therefore, irrelevant
+			 */
+			this.isArticle = this.ns.contentEquals("0");
 		} else if (this.inId && qName.equalsIgnoreCase("id")) {
 			this.inId = false;
+			// get the page id (subsequent ids are from revisions)
+			if (this.id == null) {
+				try {
+					this.id = this.idChars.parseLong();
+				} catch (NumberFormatException e) {
+					// continue, but log exception
+					this.searchEngineRetrEvil.log("SAXParser: could not parse ID of the current page: "
+							+ e.getMessage());
+				}
+			}
 		} else if (this.inText && qName.equalsIgnoreCase("text")) {
 			this.inText = false;
 		}
@@ -118,27 +140,16 @@ class SAXHandler extends DefaultHandler {
 			throws SAXException {
 		if (this.inTitle) {
 			// get the title of the page
-			this.title.append(new String(ch, start, length));
+			this.title.append(ch, start, length);
 		} else if (this.inNs) {
-			if (new String(ch, start, length).equals("0")) {
-				/* 
-				 * page is an article (i.e., it is relevant for the index 
-				 * unless it is a redirection)
-				 */
-				this.isArticle = true;
-			}	// else: page is not an article and, therefore, irrelevant
+			// get the namespace of the page (evaluated at its end)
+			this.ns.append(ch, start, length);
 		} else if (this.inId && this.id == null) {
-			// try to get the page id (subsequent ids are from revisions) as a Long
-			try {
-				this.id = Long.parseLong(new String(ch, start, length));
-			} catch (NumberFormatException e) {
-				// continue, but log exception
-				this.searchEngineRetrEvil.log("SAXParser: could not parse ID of the current page: "
-						+ e.getMessage());
-			}
+			// get the page id (parsed at its end)
+			this.idChars.append(ch, start, length);
 		} else if (this.isArticle && !this.isRedirect && this.inText) {
 			// get the text of the page (may be done in several steps)
-			this.text.append(new String(ch, start, length));
+			this.text.append(ch, start, length);
 		}
 	}
 
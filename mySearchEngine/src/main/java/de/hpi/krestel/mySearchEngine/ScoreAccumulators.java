@@ -0,0 +1,82 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.util.Arrays;
+
+/**
+ * The accumulators of score-at-a-time query evaluation: an open-addressing
+ * hash map of document numbers to their integer scores, sized for the
+ * number of postings which a query may read (not for the number of
+ * documents of the index), so a query with a small postings budget only
+ * allocates a small map. It does not grow; it must be created with the
+ * maximum number of documents that are added.
+ */
+class ScoreAccumulators {
+
+	// marks an empty slot (document numbers are never negative)
+	private static final int EMPTY = -1;
+
+	// the documents and their scores; the capacity is a power of two
+	private final int[] documents;
+	private final int[] scores;
+	private final int mask;
+
+	/**
+	 * @param maxDocuments the maximum number of different documents
+	 */
+	ScoreAccumulators(int maxDocuments) {
+		// at most half full
+		int capacity = Integer.highestOneBit(Math.max(1, maxDocuments)) << 2;
+		this.documents = new int[capacity];
+		this.scores = new int[capacity];
+		this.mask = capacity - 1;
+		Arrays.fill(this.documents, ScoreAccumulators.EMPTY);
+	}
+
+	/**
+	 * Add to the score of a document.
+	 * @param document the document number
+	 * @param score the score to add
+	 */
+	void add(int document, int score) {
+		int slot = ScoreAccumulators.hash(document) & this.mask;
+		while (this.documents[slot] != document) {
+			if (this.documents[slot] == ScoreAccumulators.EMPTY) {
+				this.documents[slot] = document;
+				break;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		this.scores[slot] += score;
+	}
+
+	/**
+	 * @return the number of slots; slot <tt>i</tt> holds a document if
+	 *   {@link #document(int)} is not negative
+	 */
+	int capacity() {
+		return this.documents.length;
+	}
+
+	/**
+	 * @param slot a slot
+	 * @return its document or <tt>-1</tt> if it is empty
+	 */
+	int document(int slot) {
+		return this.documents[slot];
+	}
+
+	/**
+	 * @param slot a slot which holds a document
+	 * @return the score of the document
+	 */
+	int score(int slot) {
+		return this.scores[slot];
+	}
+
+	private static int hash(int document) {
+		// spread consecutive numbers (Fibonacci hashing)
+		int hash = document * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+}
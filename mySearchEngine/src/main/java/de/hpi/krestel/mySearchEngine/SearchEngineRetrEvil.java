@@ -1,19 +1,27 @@
 package de.hpi.krestel.mySearchEngine;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -35,14 +43,23 @@ import org.xml.sax.helpers.DefaultHandler;
  *  - Redirection pages are not indexed to begin with. Therefore, they are not
  *    considered in the ranking (of other documents) either.
  * Query processing:
- *  - Queries may be either link queries, boolean queries or keyword queries.
+ *  - Queries may be either similarity queries, link queries, boolean queries
+ *    or keyword queries.
+ *  - Similarity queries include the string "SIMILAR ". Everything else in the
+ *    query will be interpreted as the title of a page. The terms of the page
+ *    with the highest tf-idf weight (taken from its term vector, which is
+ *    stored while indexing) are used as a keyword query, whose result does
+ *    not include the page itself.
  *  - Link queries include the string "LINKTO ". Everything else in the query
  *    will be interpreted as the title of the respective page (no matter where
  *    the "LINKTO " is located in the query).
  *  - Boolean queries have at least one boolean operator which must be in upper 
  *    case and enclosed in whitespace (e.g. " AND ").
- *  - Keyword queries are all queries which are not link queries or boolean
- *    queries.
+ *  - Keyword queries are all queries which are not similarity queries, link
+ *    queries or boolean queries.
+ *  - Keyword queries are ranked by BM25 and the static rank of the documents
+ *    (PageRank over the links between the pages, computed while indexing).
+ *    The results of link queries are ordered by the static rank.
  *  - Both boolean queries and keyword queries may include phrase queries
  *    (with phrases enclosed like "phrase" or 'phrase') and prefix queries
  *    (with *). In keyword queries, phrase queries and prefix queries are
@@ -52,7 +69,7 @@ import org.xml.sax.helpers.DefaultHandler;
  *  - Snippets are created from the text of their respective page, which is
  *    stored while indexing.
  *  - Relevant query terms for snippet creation are extracted by removing all
- *    operators (boolean, LINKTO, *, quotation marks) from the query text and
+ *    operators (boolean, SIMILAR, LINKTO, *, quotation marks) from the query text and
  *    pre-processing the remaining query. If one of the resulting terms is found
  *    in the text of the page, the snippet is created from the surrounding
  *    lines (this may not work for link queries and prefix queries). Otherwise,
@@ -63,6 +80,25 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	// treat boolean queries as keyword queries and ignore all boolean operators
 	private final static boolean WEAK_BOOLEAN_MODE = true;
 	
+	// read the dump with the PullDumpReader (StAX) instead of the SAXHandler
+	private final static boolean PULL_DUMP_READER = true;
+	
+	/*
+	 * number of partitions in which an uncompressed dump is indexed in
+	 * parallel (see PartitionedIndexBuilder); 1 indexes it in one pass
+	 */
+	private final static int INDEX_PARTITIONS = Runtime.getRuntime().availableProcessors();
+	
+	/*
+	 * add the pages of a new dump (e.g. a revision with the changed pages
+	 * only) to the index as a new segment which replaces their older
+	 * versions; otherwise the new segment replaces the whole index
+	 */
+	private final static boolean INCREMENTAL_INDEXING = true;
+	
+	// merge the segments of a loaded index in the background (see MergeScheduler)
+	private final static boolean MERGE_SEGMENTS = true;
+	
 	/**
 	 * Boolean operator "AND" in upper case
 	 */
@@ -86,7 +122,7 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	 * BM25 parameter <tt>k1</tt> which regulates the weighting of the term
 	 * frequency in a document (<tt>0</tt>: ignored; <tt>1.2</tt>: usual).
 	 */
-	private static final double BM25_K1 = 1.2;
+	static final double BM25_K1 = 1.2;
 	/**
 	 * BM25 parameter <tt>k2</tt> which regulates the weighting of the term
 	 * frequency in the query (<tt>0</tt>: ignored; <tt>0<=k2<=1000</tt>: usual).
@@ -105,7 +141,73 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	 * during indexing, so changing this parameter to something other than 0 is
 	 * not wise.
 	 */
-	private static final double BM25_B = 0.0;
+	static final double BM25_B = 0.0;
+	
+	/**
+	 * Weight of the static rank of a document (its PageRank, see
+	 * {@link PageRank}) in its score: <tt>weight * log(1 + rank)</tt> is
+	 * added to the BM25 score, where the mean rank is 1 (<tt>0</tt>: ignored).
+	 */
+	private static final double STATIC_RANK_WEIGHT = 1.0;
+	
+	/*
+	 * Modes of evaluating keyword queries without a restriction on an index
+	 * whose documents are numbered in descending static rank (see
+	 * QUERY_MODE)
+	 */
+	private static final int EXACT_QUERIES = 0;
+	private static final int IMPACT_QUERIES = 1;
+	private static final int CHAMPION_LIST_QUERIES = 2;
+	private static final int SCORE_AT_A_TIME_QUERIES = 3;
+	
+	/**
+	 * How keyword queries without a restriction are evaluated, if every
+	 * segment numbers its documents in descending static rank (otherwise,
+	 * all lists are read and scored in full):
+	 * <ul>
+	 * <li>{@link #EXACT_QUERIES}: the whole lists are read document by
+	 * document, with exact scores.</li>
+	 * <li>{@link #IMPACT_QUERIES}: the same with the quantized scores of
+	 * {@link ImpactScores} (exact scores if a segment has none).</li>
+	 * <li>{@link #CHAMPION_LIST_QUERIES}: the champion lists of the terms
+	 * are read first (see {@link IndexHandler#CHAMPION_LIST_SIZE}); the
+	 * whole lists are read with exact scores only if the documents outside
+	 * the champion lists might change the ranking, so the ranking is exact.
+	 * This can be checked with
+	 * {@link #computeChampionListNdcg(String, int)}.</li>
+	 * <li>{@link #SCORE_AT_A_TIME_QUERIES}: the lists in impact order are
+	 * read up to {@link #POSTINGS_BUDGET} postings, which is approximate (if
+	 * a segment has no lists in impact order, as {@link #IMPACT_QUERIES}).
+	 * The loss of quality can be measured with
+	 * {@link #computeScoreAtATimeNdcg(String, int, int)}.</li>
+	 * </ul>
+	 * Only the selected mode is used; no mode falls back to another one
+	 * except as stated.
+	 */
+	private static final int QUERY_MODE = CHAMPION_LIST_QUERIES;
+	
+	/**
+	 * Maximum number of postings which a keyword query reads from the
+	 * lists of its terms in impact order (see
+	 * {@link IndexHandler#IMPACT_ORDERED_LISTS}) if queries are evaluated
+	 * score-at-a-time (see {@link #QUERY_MODE}). The blocks with the highest
+	 * impacts of all terms are read first, so the time of a query is bounded
+	 * regardless of the lengths of its lists; once the budget is used up,
+	 * the ranking is approximate.
+	 */
+	private static final int POSTINGS_BUDGET = 1000000;
+	
+	/**
+	 * Order of scored documents (score, document number): by score, and by
+	 * number if the scores are equal (the higher number ranks lower).
+	 */
+	private static final Comparator<double[]> SCORED_DOCUMENT_ORDER = new Comparator<double[]>() {
+		@Override
+		public int compare(double[] a, double[] b) {
+			int comparison = Double.compare(a[0], b[0]);
+			return comparison != 0 ? comparison : Double.compare(b[1], a[1]);
+		}
+	};
 	
 	/**
 	 * If pseudo relevance feedback is used, this is the maximum number of terms
@@ -114,9 +216,42 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	private static final int PRF_EXPAND = 10;
 	
 	/**
-	 * Index handler for queries etc.
+	 * The maximum number of terms of a page which are used to find similar
+	 * pages (see {@link #processSimilarQuery(String, int)}).
+	 */
+	private static final int SIMILAR_TERMS = 20;
+	
+	/**
+	 * Number of recent queries which are run on a new generation of the
+	 * index before it is swapped in (pre-warming).
+	 */
+	private static final int WARM_QUERIES = 16;
+	
+	/**
+	 * Index (all live segments) which the current query acquired from the
+	 * generations (see {@link #search(String, int, int)})
+	 */
+	private final ThreadLocal<SegmentedIndex> indexHandler = new ThreadLocal<SegmentedIndex>();
+	
+	/**
+	 * The recent queries (text, topK, prf), oldest first, for pre-warming
 	 */
-	private IndexHandler indexHandler;
+	private final LinkedList<Object[]> recentQueries = new LinkedList<Object[]>();
+	
+	/**
+	 * The generations of the index; new ones are warmed with the recent queries
+	 */
+	private final IndexGenerations generations = new IndexGenerations(new IndexGenerations.Warmer() {
+		@Override
+		public void warm(SegmentedIndex index) {
+			SearchEngineRetrEvil.this.warm(index);
+		}
+	});
+	
+	/**
+	 * Merges the segments of the loaded index in the background
+	 */
+	private MergeScheduler mergeScheduler;
 	
 	/**
 	 * Initialize the engine. Do not change!
@@ -128,6 +263,14 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	/**
 	 * Parse the dump and create the index in the given "dir".
 	 * The dump may be located elsewhere.
+	 * The index is built in a build directory and published with a manifest
+	 * once it is complete (see {@link IndexManifest}). A build which was
+	 * interrupted is resumed from its last checkpoint (see
+	 * {@link IndexCheckpoint}).
+	 * With incremental indexing, the dump is added as a new segment: its
+	 * pages replace their versions in older segments, and the pages whose
+	 * ids are listed in the file "deletedPages.txt" next to the dump (one
+	 * per line) are deleted.
 	 * @param dir the path of the directory; an '/' will be appended, if necessary
 	 */
 	@Override
@@ -141,26 +284,119 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		if (!dir.endsWith("/")) {
 			dir = dir.concat("/");
 		}
-		// get dump file
+		// get dump file (may be compressed)
 		String dumpFile = new File(dir).getParent() + "/" + "deWikipediaDump.xml";
 		if (IndexHandler.DEV_MODE)
 			dumpFile = new File(dir).getParent() + "/" + "testDump.xml";
+		for (String extension : new String[] { "", ".bz2", ".gz" }) {
+			if (new File(dumpFile + extension).canRead()) {
+				dumpFile = dumpFile + extension;
+				break;
+			}
+		}
+		String buildDir = IndexManifest.getBuildDir(dir);
+		// finished partitions of an interrupted build may wait in the directory of an interrupted sort
+		IndexHandler.recoverStaticRankSort(buildDir);
+		new File(buildDir).mkdirs();
+		this.buildIndex(dumpFile, buildDir);
+
+		// publish the index, unless the build failed
+		if (IndexHandler.directoryHasIndexFiles(buildDir) && IndexCheckpoint.read(buildDir) == null) {
+			try {
+				IndexManifest.publish(dir, this.readDeletedPageIds(new File(dir).getParent() + "/" + "deletedPages.txt"),
+						!SearchEngineRetrEvil.INCREMENTAL_INDEXING);
+			} catch (IOException e) {
+				this.log("Exception while publishing the index: " + e.toString());
+				e.printStackTrace();
+			}
+		} else {
+			this.log("The index build is incomplete; it is resumed by the next call");
+		}
+	}
+
+	/**
+	 * Read the ids of deleted pages.
+	 * @param fileName the file with one page id per line
+	 * @return the ids; empty if the file does not exist
+	 * @throws IOException if the file cannot be read
+	 */
+	private Set<Long> readDeletedPageIds(String fileName) throws IOException {
+		Set<Long> pageIds = new HashSet<Long>();
+		File file = new File(fileName);
+		if (!file.canRead()) {
+			return pageIds;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) {
+					try {
+						pageIds.add(Long.parseLong(line));
+					} catch (NumberFormatException e) {
+						this.log("Invalid page id in " + fileName + ": " + line);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return pageIds;
+	}
+
+	/**
+	 * Parse the dump and create the index in the given build directory.
+	 * @param dumpFile the dump (may be compressed)
+	 * @param dir the build directory
+	 */
+	private void buildIndex(String dumpFile, String dir) {
+		if (SearchEngineRetrEvil.PULL_DUMP_READER && SearchEngineRetrEvil.INDEX_PARTITIONS > 1
+				&& dumpFile.endsWith(".xml")) {
+			// compressed dumps cannot be split, they are decompressed in one stream
+			try {
+				new PartitionedIndexBuilder(this).build(dumpFile, dir, SearchEngineRetrEvil.INDEX_PARTITIONS);
+			} catch (Exception e) {
+				this.log("Exception during partitioned indexing: " + e.toString());
+				e.printStackTrace();
+			}
+			return;
+		}
 		/* 
-		 * create the indexer with the target dir; this instance is only used for
-		 * creating the index, not for answering queries
+		 * create the indexer with the target dir (it resumes an interrupted
+		 * build); this instance is only used for creating the index, not for
+		 * answering queries
 		 */
 		IndexHandler indexer = new IndexHandler(dir);
 		
-		File fileDirectory = new File(dir);
-		if (fileDirectory.listFiles().length > 10) 
-			indexer.createIndex();
+		if (SearchEngineRetrEvil.PULL_DUMP_READER) {
+			try {
+				if (dumpFile.endsWith(".xml")) {
+					// uncompressed: a resumed build seeks to its checkpoint
+					PartitionedIndexBuilder.readRange(this, dumpFile, 0, new File(dumpFile).length(),
+							indexer, indexer);
+					return;
+				}
+				// parse the dump (UTF-8) with the pull parser
+				InputStream inputStream = DumpInputStream.open(dumpFile);
+				try {
+					new PullDumpReader(this, indexer).read(inputStream);
+				} finally {
+					inputStream.close();
+				}
+			} catch (Exception e) {
+				this.log("Exception during StAX parsing: " + e.toString());
+				e.printStackTrace();
+			}
+			return;
+		}
 		try {
 			// get the SAX parser with the appropriate handler
 			SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();			
 			DefaultHandler saxHandler = new SAXHandler(this, indexer);
 
 			// parse the dump (UTF-8)
-			InputStream inputStream = new FileInputStream(dumpFile);
+			InputStream inputStream = DumpInputStream.open(dumpFile);
 			Reader reader = new InputStreamReader(inputStream,"UTF-8");
 			InputSource source = new InputSource(reader);
 			source.setEncoding("UTF-8");
@@ -173,7 +409,7 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	}
 
 	/**
-	 * Load the index.
+	 * Load the index and start merging its segments in the background.
 	 * @param dir base directory of the index files
 	 * @returns <tt>true</tt> if the index was loaded successfully;
 	 *   <tt>false</tt> otherwise, especially if files are missing (i.e., the
@@ -191,19 +427,84 @@ public class SearchEngineRetrEvil extends SearchEngine {
 			dir = dir.concat("/");
 		}
 		
-		// test whether the given directory has all necessary index files
-		if (!IndexHandler.directoryHasIndexFiles(dir)) {
+		if (!this.reloadIndex(dir)) {
+			return false;
+		}
+		if (SearchEngineRetrEvil.MERGE_SEGMENTS && this.mergeScheduler == null) {
+			final String indexDir = dir;
+			this.mergeScheduler = new MergeScheduler(dir, new Runnable() {
+				@Override
+				public void run() {
+					// a merged segment was published
+					SearchEngineRetrEvil.this.reloadIndex(indexDir);
+				}
+			});
+			this.mergeScheduler.start();
+		}
+		return true;
+	}
+
+	/**
+	 * Load the current generation of the index and swap it in (see
+	 * {@link IndexGenerations}); running queries finish on the old one.
+	 * @param dir base directory of the index files (ending with '/')
+	 * @returns <tt>true</tt> if the index was loaded successfully
+	 */
+	private synchronized boolean reloadIndex(String dir) {
+		// find the live segments of the index via the manifest
+		IndexManifest manifest = IndexManifest.read(dir);
+		if (manifest == null || !manifest.isComplete()) {
+			// no index published yet
+			return false;
+		}
+		
+		// test whether the segments have all necessary index files
+		if (!SegmentedIndex.directoryHasIndexFiles(manifest)) {
 			// missing file(s): return false
 			return false;
 		}
+		if (manifest.getGeneration() == this.generations.getGeneration()) {
+			// already loaded
+			return true;
+		}
 		// all files present => load index
-		this.indexHandler = new IndexHandler(dir, true);
+		try {
+			this.generations.publish(new SegmentedIndex(manifest));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
 		return true;
 	}
 
+	/**
+	 * Pre-warm a new generation of the index with the recent queries.
+	 * @param index the new generation
+	 */
+	private void warm(SegmentedIndex index) {
+		List<Object[]> queries;
+		synchronized (this.recentQueries) {
+			queries = new ArrayList<Object[]>(this.recentQueries);
+		}
+		SegmentedIndex previous = this.indexHandler.get();
+		this.indexHandler.set(index);
+		try {
+			for (Object[] query : queries) {
+				this.evaluate((String) query[0], (Integer) query[1], (Integer) query[2]);
+			}
+		} catch (RuntimeException e) {
+			// a failing query must not keep the generation from being swapped in
+			e.printStackTrace();
+		} finally {
+			this.indexHandler.set(previous);
+		}
+	}
+
 	/**
 	 * Evaluate the given query. It is interpreted as either a link query,
 	 * a boolean query or a keyword query.
+	 * The whole query sees one generation of the index, which it acquires
+	 * at the start and releases at the end (see {@link IndexGenerations}).
 	 * @param query the query text
 	 * @param topK number of ranked documents to be returned (applies to
 	 *   keyword queries only)
@@ -211,7 +512,6 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	 *   feedback (0 means no pseudo relevance feedback is used, applies to 
 	 *   keyword queries only)
 	 */
-	@SuppressWarnings("unused")
 	@Override
 	ArrayList<String> search(String query, int topK, int prf) {
 		if (query == null || topK <= 0) {
@@ -219,8 +519,37 @@ public class SearchEngineRetrEvil extends SearchEngine {
 			return new ArrayList<String>();
 		}
 		
-		List<Long> documentIds;
-		if (isLinkQuery(query)) {
+		SegmentedIndex index = this.generations.acquire();
+		if (index == null) {
+			// no index loaded
+			return new ArrayList<String>();
+		}
+		this.indexHandler.set(index);
+		try {
+			return this.evaluate(query, topK, prf);
+		} finally {
+			this.indexHandler.remove();
+			this.generations.release(index);
+			synchronized (this.recentQueries) {
+				this.recentQueries.add(new Object[] { query, topK, prf });
+				if (this.recentQueries.size() > SearchEngineRetrEvil.WARM_QUERIES) {
+					this.recentQueries.removeFirst();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Evaluate the given query on the index of the current query, see
+	 * {@link #search(String, int, int)}.
+	 */
+	@SuppressWarnings("unused")
+	private ArrayList<String> evaluate(String query, int topK, int prf) {
+		List<Integer> documentIds;
+		if (isSimilarQuery(query)) {
+			// a similarity query; do not extract query terms
+			documentIds = processSimilarQuery(query, topK);
+		} else if (isLinkQuery(query)) {
 			// a link query; do not extract query terms
 			documentIds = processLinkQuery(query);
 		} else if (!WEAK_BOOLEAN_MODE && isBooleanQuery(query)) {
@@ -240,13 +569,13 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	 * given IDs.<br>
 	 * For each document, the title followed by a snippet is returned.<br>
 	 * If the given list is <tt>null</tt> or empty, an empty list is returned.
-	 * @param documentIds the IDs of the relevant documents
+	 * @param documentIds the numbers of the relevant documents
 	 * @param query the query text
 	 * @return a list of String representations of the relevant documents which
 	 * 	is never <tt>null</tt>
 	 */
 	private ArrayList<String> createQueryAnswerForDocuments(
-			List<Long> documentIds, String query) {
+			List<Integer> documentIds, String query) {
 		// catch unsuited arguments
 		if (documentIds == null || documentIds.size() <= 0) {
 			return new ArrayList<String>();
@@ -256,18 +585,18 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		List<String> queryTerms = null;
 		if (query != null) {
 			try {
-				queryTerms = this.indexHandler.processRawText(removeAllOperators(query));
+				queryTerms = this.indexHandler.get().processRawText(removeAllOperators(query));
 			} catch (IOException e) {
 				e.printStackTrace();	// should not happen
 			}
 		}
 		
-		for (Long documentId : documentIds) {
+		for (Integer documentId : documentIds) {
 			// get the title of the document
-			String title = this.indexHandler.getIdsToTitles().get(documentId);
+			String title = this.indexHandler.get().getTitleForDocument(documentId);
 			
 			// get a snippet of the document
-			String snippet = this.indexHandler.getSnippetForDocumentId(documentId, queryTerms);
+			String snippet = this.indexHandler.get().getSnippetForDocumentId(documentId, queryTerms);
 				
 			// store: title + newline (unless snippet is null) + snippet
 			result.add((title != null ? title : "") + (snippet != null ? ("\n" + snippet) : ""));
@@ -302,9 +631,9 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	 * Process the query as a prefix query, i.e., find documents containing
 	 * any indexed term which starts with the given prefix.
 	 * @param query the query text
-	 * @return a list of document IDs
+	 * @return a list of document numbers
 	 */
-	private List<Long> processPrefixQuery(String query) {
+	private List<Integer> processPrefixQuery(String query) {
 		// extract the prefix
 		String prefix = query.trim().substring(0, query.indexOf("*"));
 		
@@ -312,13 +641,13 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		prefix = prefix.toLowerCase();
 
 		// get all relevant terms
-		List<String> terms = this.indexHandler.getTermsForPrefix(prefix);
+		List<String> terms = this.indexHandler.get().getTermsForPrefix(prefix);
 		
 		// get all relevant documents
-		Set<Long> documentIds = new TreeSet<Long>();
+		Set<Integer> documentIds = new TreeSet<Integer>();
 		int countTerms = 0;
 		for (String term : terms) {
-			Index.TermList termList = this.indexHandler.readListForTerm(term, false);
+			Index.TermList termList = this.indexHandler.get().readListForTerm(term, false);
 			if (termList != null) {
 				documentIds.addAll(termList.getOccurrences().keySet());
 				if (++countTerms >= 10) {
@@ -330,16 +659,16 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		// if nothing is found: do it again with thorough pre-processing
 		if (documentIds.size() == 0) {
 			try {
-				List<String> processed = this.indexHandler.processRawText(prefix);
+				List<String> processed = this.indexHandler.get().processRawText(prefix);
 	
 				// get all relevant terms
-				terms = this.indexHandler.getTermsForPrefix(processed.get(0));
+				terms = this.indexHandler.get().getTermsForPrefix(processed.get(0));
 				
 				// get all relevant documents
-				documentIds = new TreeSet<Long>();
+				documentIds = new TreeSet<Integer>();
 				countTerms = 0;
 				for (String term : terms) {
-					Index.TermList termList = this.indexHandler.readListForTerm(term, false);
+					Index.TermList termList = this.indexHandler.get().readListForTerm(term, false);
 					if (termList != null) {
 						documentIds.addAll(termList.getOccurrences().keySet());
 						if (++countTerms >= 10) {
@@ -352,7 +681,7 @@ public class SearchEngineRetrEvil extends SearchEngine {
 			}
 		}
 		
-		return new ArrayList<Long>(documentIds);
+		return new ArrayList<Integer>(documentIds);
 	}
 	
 	/**
@@ -371,6 +700,17 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		return false;
 	}
 	
+	/**
+	 * Check if a given query is a similarity query (i.e., queries pages which
+	 * are similar to a given page).
+	 * @param query the query text
+	 * @return <tt>true</tt> if the query is a similarity query, 
+	 * 		<tt>false</tt> otherwise
+	 */
+	private static boolean isSimilarQuery(String query) {
+		return query.contains("SIMILAR ");
+	}
+	
 	/**
 	 * Check if a given query is a link query (i.e., queries references to a
 	 * given page).
@@ -453,9 +793,9 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	 * Process the query as a boolean query.
 	 * The operators are evaluated from left to right with no other precedence.
 	 * @param query the query text
-	 * @return a list of document IDs
+	 * @return a list of document numbers
 	 */
-	private List<Long> processBooleanQuery(String query) {
+	private List<Integer> processBooleanQuery(String query) {
 		// recursively divide the query into subqueries
 		if (isBooleanQuery(query)) {
 			// find the rightmost operator
@@ -467,29 +807,29 @@ public class SearchEngineRetrEvil extends SearchEngine {
 					&& (indexOr == -1 || indexAnd > indexOr) 
 					&& (indexButNot == -1 || indexAnd > indexButNot)) {
 				// intersection
-				List<Long> leftSet = this.processBooleanQuery(query.substring(0, indexAnd));
-				List<Long> rightSet = this.processBooleanQuery(query.substring(indexAnd + AND.length()));
+				List<Integer> leftSet = this.processBooleanQuery(query.substring(0, indexAnd));
+				List<Integer> rightSet = this.processBooleanQuery(query.substring(indexAnd + AND.length()));
 				
 				leftSet.retainAll(rightSet);
-				return new ArrayList<Long>(new HashSet<Long>(leftSet));	// remove duplicates
+				return new ArrayList<Integer>(new HashSet<Integer>(leftSet));	// remove duplicates
 			} else if (indexOr != -1 
 					&& (indexAnd == -1 || indexOr > indexAnd) 
 					&& (indexButNot == -1 || indexOr > indexButNot)) {
 				// union
-				List<Long> leftSet = this.processBooleanQuery(query.substring(0, indexOr));
-				List<Long> rightSet = this.processBooleanQuery(query.substring(indexOr + OR.length()));
+				List<Integer> leftSet = this.processBooleanQuery(query.substring(0, indexOr));
+				List<Integer> rightSet = this.processBooleanQuery(query.substring(indexOr + OR.length()));
 				
 				leftSet.addAll(rightSet);
-				return new ArrayList<Long>(new HashSet<Long>(leftSet));	// remove duplicates
+				return new ArrayList<Integer>(new HashSet<Integer>(leftSet));	// remove duplicates
 			} else if (indexButNot != -1 
 					&& (indexOr == -1 || indexButNot > indexOr) 
 					&& (indexAnd == -1 || indexButNot > indexAnd)) {
 				// difference
-				List<Long> leftSet = this.processBooleanQuery(query.substring(0, indexButNot));
-				List<Long> rightSet = this.processBooleanQuery(query.substring(indexButNot + BUT_NOT.length()));
+				List<Integer> leftSet = this.processBooleanQuery(query.substring(0, indexButNot));
+				List<Integer> rightSet = this.processBooleanQuery(query.substring(indexButNot + BUT_NOT.length()));
 				
 				leftSet.removeAll(rightSet);
-				return new ArrayList<Long>(new HashSet<Long>(leftSet));	// remove duplicates
+				return new ArrayList<Integer>(new HashSet<Integer>(leftSet));	// remove duplicates
 			}
 		} else if (isPrefixQuery(query)) {
 			// prefix query
@@ -500,11 +840,11 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		} else {
 			// single term
 			try {
-				List<String> terms = this.indexHandler.processRawText(query);
+				List<String> terms = this.indexHandler.get().processRawText(query);
 				if (terms.size() > 0) {
-					Index.TermList termList = this.indexHandler.readListForTerm(terms.get(0), false);
+					Index.TermList termList = this.indexHandler.get().readListForTerm(terms.get(0), false);
 					if (termList != null) {
-						return new ArrayList<Long>(termList.getOccurrences().keySet());
+						return new ArrayList<Integer>(termList.getOccurrences().keySet());
 					}
 				}
 			} catch (IOException e) {
@@ -512,77 +852,116 @@ public class SearchEngineRetrEvil extends SearchEngine {
 				e.printStackTrace();
 			}
 		}
-		return new ArrayList<Long>();
+		return new ArrayList<Integer>();
 	}
 	
 	/**
 	 * Process the query as a link query.
 	 * @param query the query text
-	 * @return a list of document IDs
+	 * @return a list of document numbers, ordered by their static rank
+	 *   (highest first)
 	 */
-	private List<Long> processLinkQuery(String query) {
+	private List<Integer> processLinkQuery(String query) {
 		// extract the target title
 		String processedTitle = LinkIndex.processTitle(query.replace("LINKTO ", "").trim());
-		// try to read the TitleList (may be null)
-		LinkIndex.TitleList titleList = this.indexHandler
-				.readListForTitle(processedTitle);
-		
-		// get the IDs of documents linking to the title
-		List<Long> documentIds = new ArrayList<Long>();
-		if (titleList != null) {
-			// sort titles (TreeSet is inherently sorted by natural ordering)
-			TreeSet<String> sortedTitles = new TreeSet<String>(titleList.getTitles());
+		// get the IDs of documents linking to the title (from the link graph)
+		List<Integer> documentIds = this.indexHandler.get().getLinkingDocuments(processedTitle);
+		
+		// order them by their static rank (stable: equal ranks keep the document order)
+		final SegmentedIndex index = this.indexHandler.get();
+		Collections.sort(documentIds, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Float.compare(index.getStaticRank(b), index.getStaticRank(a));
+			}
+		});
+		return documentIds;
+	}
+	
+	/**
+	 * Process the query as a similarity query: the terms of the page with
+	 * the highest tf-idf weight (see {@link #getWeightedTermsFromVectors(List, int)})
+	 * are evaluated as a keyword query (see
+	 * {@link #processInnerBM25Query(List, int, List)}, which scores only as
+	 * many postings as it needs for the topK documents). If the index has no
+	 * term vectors, the terms are taken from a snippet of the page instead.
+	 * @param query the query text
+	 * @param topK the maximum number of documents to return
+	 * @return a list of document numbers (without the page itself)
+	 */
+	private List<Integer> processSimilarQuery(String query, int topK) {
+		List<Integer> result = new ArrayList<Integer>();
+		
+		// get the page
+		String processedTitle = LinkIndex.processTitle(query.replace("SIMILAR ", "").trim());
+		Integer documentId = this.indexHandler.get().getDocumentForTitle(processedTitle);
+		if (documentId == null) {
+			return result;
+		}
+		
+		try {
+			// get the terms of the page
+			List<String> terms = this.getWeightedTermsFromVectors(Collections.singletonList(documentId), SIMILAR_TERMS);
+			if (terms == null) {
+				// no term vectors: use the snippet
+				List<String> snippets = this.createQueryAnswerForDocuments(Collections.singletonList(documentId), null);
+				terms = this.expandQueryTerms(new ArrayList<String>(), snippets);
+			}
+			if (terms.size() > SIMILAR_TERMS) {
+				terms = terms.subList(0, SIMILAR_TERMS);
+			}
 			
-			for (String listedTitle : sortedTitles) {
-				// listedTitle is the pre-processed title, need the document ID
-				Long documentId = this.indexHandler.getTitlesToIds().get(listedTitle);
-				if (documentId != null && !documentIds.contains(documentId)) {
-					documentIds.add(documentId);
+			// get the topK most relevant documents other than the page (which is likely one of them)
+			for (Integer id : this.processInnerBM25Query(terms, topK + 1, null)) {
+				if (!id.equals(documentId) && result.size() < topK) {
+					result.add(id);
 				}
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		
-		return documentIds;
+		return result;
 	}
 	
 	/**
 	 * Process the query as a phrase query. If the phrase is empty (or missing),
 	 * an empty list of documents is returned.
 	 * @param query the query text
-	 * @return a list of document IDs
+	 * @return a list of document numbers
 	 */
-	private List<Long> processPhraseQuery(String query) {
+	private List<Integer> processPhraseQuery(String query) {
 		// extract the phrase
 		String phrase = extractPhraseFromQuery(query);
 		if ("".equals(phrase)) {
-			return new ArrayList<Long>();
+			return new ArrayList<Integer>();
 		}
 		
 		// pre-process the phrase
 		List<String> processedPhrase;
 		try {
-			processedPhrase = this.indexHandler.processRawText(phrase);
+			processedPhrase = this.indexHandler.get().processRawText(phrase);
 		} catch (IOException e) {	// should never happen
 			processedPhrase = new ArrayList<String>();
 			e.printStackTrace();
 		}
 		if (processedPhrase.size() == 0) {
-			return new ArrayList<Long>();
+			return new ArrayList<Integer>();
 		}
 		
 		// search for the given sequence of processed terms in documents
 		List<Index.TermList> termLists = new ArrayList<Index.TermList>();
 		for (String term : processedPhrase) {
-			Index.TermList termList = this.indexHandler.readListForTerm(term, true);
+			Index.TermList termList = this.indexHandler.get().readListForTerm(term, true);
 			if (termList == null) {
 				// term exists, but fetching was aborted => do not consider
 				continue;
 			}
 			termLists.add(termList);
 		}
-		Set<Long> documentIds = new TreeSet<Long>();
-		for (Entry<Long, Collection<Integer>> entry : termLists.get(0).getOccurrences().entrySet()) {
-			long documentId = entry.getKey();
+		Set<Integer> documentIds = new TreeSet<Integer>();
+		for (Entry<Integer, Collection<Integer>> entry : termLists.get(0).getOccurrences().entrySet()) {
+			int documentId = entry.getKey();
 			startPositionsLoop: for (int startPosition : entry.getValue()) {
 				int nextTermIndex = 1;
 				int nextPosition = startPosition + 1;
@@ -597,7 +976,7 @@ public class SearchEngineRetrEvil extends SearchEngine {
 			}
 		}
 		
-		return new ArrayList<Long>(documentIds);
+		return new ArrayList<Integer>(documentIds);
 	}
 	
 	/**
@@ -648,13 +1027,14 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	}
 	
 	/**
-	 * Remove all operators (boolean, LINKTO, *, quotation marks) from a query
+	 * Remove all operators (boolean, SIMILAR, LINKTO, *, quotation marks) from a query
 	 * string. Used for snippet creation.
 	 * @param query the query text
 	 * @return the cleaned query text
 	 */
 	private static String removeAllOperators(String query) {
 		return removeBooleanOperators(query)
+				.replaceAll("SIMILAR ", "")
 				.replaceAll("LINKTO ", "")
 				.replaceAll("[*]", "")
 				.replaceAll("\"", "")
@@ -677,10 +1057,10 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	 * @param topK the maximum number of titles to return
 	 * @param prf use pseudo relevance feedback using the top <tt>prf</tt> documents
 	 *   (if it is <tt>0</tt>, no pseudo relevance feedback is used)
-	 * @return a list of document IDs
+	 * @return a list of document numbers
 	 */
-	private List<Long> processKeywordQuery(String query, int topK, int prf) {
-		List<Long> result = new ArrayList<Long>();
+	private List<Integer> processKeywordQuery(String query, int topK, int prf) {
+		List<Integer> result = new ArrayList<Integer>();
 		
 		try {
 			/*
@@ -692,18 +1072,18 @@ public class SearchEngineRetrEvil extends SearchEngine {
 			
 			// try to execute the query as a phrase query
 			String phraseQuery = query.replaceAll("[\"'*]", "");
-			List<Long> phraseQueryResults = this.processPhraseQuery("\"" + phraseQuery + "\"");
+			List<Integer> phraseQueryResults = this.processPhraseQuery("\"" + phraseQuery + "\"");
 			if (phraseQueryResults.size() >= topK) {
 				return phraseQueryResults.subList(0, topK);
 			}
 			
-			List<String> terms = this.indexHandler.processRawText(query);
+			List<String> terms = this.indexHandler.get().processRawText(query);
 			
 			StringBuilder booleanQueryBuilder = new StringBuilder(100);
 			query = extractBooleanQueryParts(query, booleanQueryBuilder);
 			String booleanQuery = booleanQueryBuilder.toString();
 			
-			List<Long> potentialDocumentIds = null;
+			List<Integer> potentialDocumentIds = null;
 			if (booleanQuery != null && booleanQuery.length() > 0) {
 				// limit the result set to the set yielded by the boolean query
 				potentialDocumentIds = this.processBooleanQuery(booleanQuery);
@@ -732,13 +1112,16 @@ public class SearchEngineRetrEvil extends SearchEngine {
 				// pseudo relevance feedback
 				
 				// get the IDs of the prf most relevant documents
-				ArrayList<Long> ids = this.processInnerBM25Query(terms, prf, potentialDocumentIds);
+				ArrayList<Integer> ids = this.processInnerBM25Query(terms, prf, potentialDocumentIds);
 				
-				// get the snippets
-				ArrayList<String> snippets = this.createQueryAnswerForDocuments(ids, query);
-				
-				// use the snippets to expand the query
-				terms = this.expandQueryTerms(terms, snippets);
+				// use the term vectors of the documents to expand the query
+				ArrayList<String> expandedTerms = this.expandQueryTermsFromVectors(terms, ids);
+				if (expandedTerms == null) {
+					// no term vectors: use the snippets
+					ArrayList<String> snippets = this.createQueryAnswerForDocuments(ids, query);
+					expandedTerms = this.expandQueryTerms(terms, snippets);
+				}
+				terms = expandedTerms;
 				
 				// reevaluate the expanded query and get the topK most relevant documents
 				result = this.processInnerBM25Query(terms, topK, potentialDocumentIds);
@@ -753,6 +1136,143 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		return result;
 	}
 	
+	/**
+	 * Helper method to expand the given (pre-processed) query terms using the
+	 * term vectors of relevant documents (see
+	 * {@link #getWeightedTermsFromVectors(List, int)}) as part of the integration
+	 * of pseudo relevance feedback into the query engine.
+	 * @param terms query terms of the initial query
+	 * @param documentIds documents which were relevant for the initial query
+	 * @return an enhanced list of query terms for the next query or
+	 *   <tt>null</tt> if a segment has no term vectors
+	 */
+	private ArrayList<String> expandQueryTermsFromVectors(List<String> terms, List<Integer> documentIds) {
+		// the query terms may be among the best terms
+		List<String> weightedTerms = this.getWeightedTermsFromVectors(documentIds, PRF_EXPAND + terms.size());
+		if (weightedTerms == null) {
+			return null;
+		}
+		
+		// expand the query terms using a particular maximum of new terms
+		ArrayList<String> expandedTerms = new ArrayList<String>(terms);
+		int newTermsCount = 0;
+		for (String term : weightedTerms) {
+			if (newTermsCount >= PRF_EXPAND) {
+				break;
+			}
+			if (terms.contains(term)) {
+				// term is already used
+				continue;
+			}
+			expandedTerms.add(term);
+			newTermsCount++;
+		}
+		
+		return expandedTerms;
+	}
+	
+	/**
+	 * Get the terms of the given documents from their term vectors (see
+	 * {@link TermVectors}) with the highest tf-idf weight in the documents:
+	 * the sum of their frequencies in the documents times
+	 * <tt>log((N - df + 0.5) / (df + 0.5))</tt>. Terms with a weight of
+	 * <tt>0</tt> or less are left out. The ids, frequencies and statistics of
+	 * the terms are those of the segment of each document: the terms are
+	 * weighted by their ids, and only the best terms of every segment are
+	 * decoded and summed by term over the segments (so a term which is not
+	 * among the best of any segment is left out).
+	 * @param documentIds the documents
+	 * @param maxTerms the maximum number of terms
+	 * @return the terms (highest weight first, ties by term) or
+	 *   <tt>null</tt> if a segment has no term vectors
+	 */
+	private List<String> getWeightedTermsFromVectors(List<Integer> documentIds, int maxTerms) {
+		SegmentedIndex index = this.indexHandler.get();
+		for (int segment = 0; segment < index.segmentCount(); segment++) {
+			if (index.getTermVectors(segment) == null) {
+				return null;
+			}
+		}
+		
+		Map<String, Double> weights = new HashMap<String, Double>();
+		for (int segment = 0; segment < index.segmentCount(); segment++) {
+			TermVectors vectors = index.getTermVectors(segment);
+			int base = index.getBase(segment);
+			
+			// the entries (term id, frequency) of the documents of the segment
+			int count = 0;
+			for (Integer documentId : documentIds) {
+				if (index.getSegment(documentId) == segment) {
+					count += vectors.getTerms(documentId - base).limit();
+				}
+			}
+			if (count == 0) {
+				continue;
+			}
+			long[] entries = new long[count];
+			count = 0;
+			for (Integer documentId : documentIds) {
+				if (index.getSegment(documentId) != segment) {
+					continue;
+				}
+				IntBuffer vectorTerms = vectors.getTerms(documentId - base);
+				IntBuffer frequencies = vectors.getFrequencies(documentId - base);
+				for (int i = 0; i < vectorTerms.limit(); i++) {
+					entries[count++] = ((long) vectorTerms.get(i) << 32) | frequencies.get(i);
+				}
+			}
+			Arrays.sort(entries);
+			
+			// weight the terms: sum the frequencies of each term id, keep the best ones
+			PriorityQueue<double[]> bestTerms = new PriorityQueue<double[]>(maxTerms + 1, SCORED_DOCUMENT_ORDER);
+			int start = 0;
+			while (start < entries.length) {
+				int term = (int) (entries[start] >>> 32);
+				long frequency = 0;
+				int end = start;
+				while (end < entries.length && (int) (entries[end] >>> 32) == term) {
+					frequency += entries[end] & 0xffffffffL;
+					end++;
+				}
+				start = end;
+				
+				int documentFrequency = vectors.getDocumentFrequency(term);
+				double idf = Math.log((vectors.documentCount() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+				if (idf <= 0) {
+					// too frequent to distinguish the documents
+					continue;
+				}
+				addScoredDocument(bestTerms, maxTerms, frequency * idf, term);
+			}
+			
+			// decode the best terms
+			for (double[] bestTerm : bestTerms) {
+				String term = vectors.getTerm((int) bestTerm[1]);
+				Double weight = weights.get(term);
+				weights.put(term, (weight == null ? 0 : weight) + bestTerm[0]);
+			}
+		}
+		
+		// order by weight (highest first), then by term
+		List<Entry<String, Double>> weightedTerms = new ArrayList<Entry<String, Double>>(weights.entrySet());
+		Collections.sort(weightedTerms, new Comparator<Entry<String, Double>>() {
+			@Override
+			public int compare(Entry<String, Double> a, Entry<String, Double> b) {
+				int comparison = b.getValue().compareTo(a.getValue());
+				return comparison != 0 ? comparison : a.getKey().compareTo(b.getKey());
+			}
+		});
+		
+		List<String> result = new ArrayList<String>(Math.min(maxTerms, weightedTerms.size()));
+		for (Entry<String, Double> weightedTerm : weightedTerms) {
+			if (result.size() >= maxTerms) {
+				break;
+			}
+			result.add(weightedTerm.getKey());
+		}
+		return result;
+	}
+	
 	/**
 	 * Helper method to expand the given (pre-processed) query terms using the
 	 * snippets of relevant documents as part of the integration of pseudo 
@@ -770,8 +1290,8 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		// pre-process snippets
 		ArrayList<List<String>> processedSnippets = new ArrayList<List<String>>(snippets.size());
 		for (String snippet : snippets) {
-			snippet = snippet.replaceAll("...", "");	// added during the snippet creation, no significance
-			processedSnippets.add(this.indexHandler.processRawText(snippet));
+			snippet = snippet.replace("...", "");	// added during the snippet creation, no significance
+			processedSnippets.add(this.indexHandler.get().processRawText(snippet));
 		}
 		
 		// count terms in all snippets
@@ -827,14 +1347,45 @@ public class SearchEngineRetrEvil extends SearchEngine {
 	 * @param potentialDocumentIds list of documents which may be used during
 	 *   the scoring
 	 */
-	private ArrayList<Long> processInnerBM25Query(List<String> terms, int topK, List<Long> potentialDocumentIds) {
-		ArrayList<Long> result = new ArrayList<Long>();
+	private ArrayList<Integer> processInnerBM25Query(List<String> terms, int topK, List<Integer> potentialDocumentIds) {
+		ArrayList<Integer> result = new ArrayList<Integer>();
 
 		// if there are no terms, return an empty result set
 		if (terms.size() == 0) {
 			return result;
 		}
 
+		// without a restriction, documents in static rank order can be scored with early termination
+		if (potentialDocumentIds == null && topK > 0) {
+			try {
+				ArrayList<Integer> rankOrderedResult = null;
+				switch (QUERY_MODE) {
+				case CHAMPION_LIST_QUERIES:
+					rankOrderedResult = this.processRankOrderedBM25Query(terms, topK, true, true);
+					if (rankOrderedResult == null) {
+						// the champion lists do not suffice: score the whole lists (exact)
+						rankOrderedResult = this.processRankOrderedBM25Query(terms, topK, false, true);
+					}
+					break;
+				case SCORE_AT_A_TIME_QUERIES:
+					rankOrderedResult = this.processScoreAtATimeQuery(terms, topK, POSTINGS_BUDGET);
+					if (rankOrderedResult == null) {
+						// no lists in impact order
+						rankOrderedResult = this.processRankOrderedBM25Query(terms, topK, false, false);
+					}
+					break;
+				default:
+					rankOrderedResult = this.processRankOrderedBM25Query(terms, topK, false,
+							QUERY_MODE == EXACT_QUERIES);
+				}
+				if (rankOrderedResult != null) {
+					return rankOrderedResult;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
 		// read index file: get lists of occurrences for all query terms
 		Map<String, Index.TermList> termListMap = new HashMap<String, Index.TermList>();
 		for (String term : terms) {
@@ -842,7 +1393,7 @@ public class SearchEngineRetrEvil extends SearchEngine {
 				continue;	// already got the list for this term
 			}
 			// add (term, termList) to the map
-			Index.TermList termList = this.indexHandler.readListForTerm(term, true);
+			Index.TermList termList = this.indexHandler.get().readListForTerm(term, true);
 			if (termList != null) {
 				termListMap.put(term, termList);
 			} else {
@@ -859,7 +1410,7 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		 */
 		Map<String, Integer> termDocumentCountMap = new HashMap<String, Integer>();
 		Map<String, Integer> termQueryFrequency = new HashMap<String, Integer>();
-		Set<Long> documentIds = new TreeSet<Long>();	// no repetitions
+		Set<Integer> documentIds = new TreeSet<Integer>();	// no repetitions
 		for (String term : terms) {
 			// increment frequency
 			Integer frequency = termQueryFrequency.get(term);	// null if not set yet
@@ -886,16 +1437,16 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		}
 
 		// get N (the total number of documents)
-		final int N = this.indexHandler.totalNumberOfDocuments();
+		final int N = this.indexHandler.get().totalNumberOfDocuments();
 
 		// get the set of query terms (without duplicates)
 		Set<String> uniqueTerms = new HashSet<String>();
 		uniqueTerms.addAll(terms);
 
 		// Rank each document which contains at least one query term
-		Map<Double, Long> scoreDocumentMap = new TreeMap<Double, Long>();	// ordered by score
+		Map<Double, Integer> scoreDocumentMap = new TreeMap<Double, Integer>();	// ordered by score
 		boolean scoreListFull = false;
-		for (Long documentId : documentIds) {
+		for (Integer documentId : documentIds) {
 			Double score = 0.0;	// score of this document
 
 			/*
@@ -934,6 +1485,12 @@ public class SearchEngineRetrEvil extends SearchEngine {
 						* (((BM25_K1 + 1.0) * f) / (K + f))
 						* (((BM25_K2 + 1.0) * qf) / (BM25_K2 + qf)));
 			}
+			
+			// blend in the static rank (query independent)
+			if (STATIC_RANK_WEIGHT > 0) {
+				score += STATIC_RANK_WEIGHT
+						* Math.log(1.0 + this.indexHandler.get().getStaticRank(documentId));
+			}
 
 			// make sure that the scores are unique to avoid problems with the map
 			while (scoreDocumentMap.containsKey(score)) {
@@ -976,6 +1533,449 @@ public class SearchEngineRetrEvil extends SearchEngine {
 		return result;
 	}
 	
+	/**
+	 * Helper method to perform the BM25 query on an index whose segments
+	 * number their documents in descending static rank (see
+	 * {@link IndexHandler#STATIC_RANK_ORDER}), with the same scores as
+	 * {@link #processInnerBM25Query(List, int, List)}.
+	 * The lists of the query terms are read document by document, all at
+	 * once (document-at-a-time). The score of every document from the
+	 * current one on is bounded by the highest BM25 score of each term which
+	 * is not finished (from its highest frequency) plus the static rank
+	 * part of the current document, which no later document exceeds. Once
+	 * the topK scores are found and the bound does not exceed the lowest of
+	 * them, the rest of the segment is skipped. Documents with equal scores
+	 * are ranked by their number.
+	 * The number of documents containing a term (n) is taken from the
+	 * seeklists, so it (and the number of documents, N) includes the
+	 * documents which were deleted, until their segment is merged.
+	 * Unless the scores must be exact, if every segment has quantized scores
+	 * (see {@link ImpactScores}) with the parameters {@link #BM25_K1} and
+	 * {@link #BM25_B}, the whole lists are scored by adding their impacts
+	 * (times the frequency of the term in the query), whose idf is that of
+	 * the segment; terms in more than half of the documents of a segment add
+	 * nothing then.
+	 * If only the champion lists are read, the score of a document which is
+	 * not in the champion list of a term lies between its score without the
+	 * term and its score with the highest frequency of the term outside the
+	 * champion list (see {@link ChampionList}); a document in no list is
+	 * bounded by these frequencies and the highest static rank outside the
+	 * champion lists. The ranking is only returned if no document can move
+	 * ahead of a better one within these bounds, so it is the exact one.
+	 * @param championLists whether only the champion lists of the terms are
+	 *   read
+	 * @param exact whether the exact scores are computed from the
+	 *   frequencies instead of adding the quantized scores (the champion
+	 *   lists are always scored exactly)
+	 * @return the IDs of the topK best documents (best first) or
+	 *   <tt>null</tt> if the index is not in static rank order (or the
+	 *   champion lists do not determine the ranking)
+	 * @throws IOException if a list cannot be read
+	 */
+	private ArrayList<Integer> processRankOrderedBM25Query(List<String> terms, int topK, boolean championLists,
+			boolean exact) throws IOException {
+		SegmentedIndex index = this.indexHandler.get();
+		for (int segment = 0; segment < index.segmentCount(); segment++) {
+			if (!index.isStaticRankOrdered(segment)) {
+				return null;
+			}
+		}
+
+		// qf: frequency of the term in the query
+		Map<String, Integer> termQueryFrequency = new LinkedHashMap<String, Integer>();
+		for (String term : terms) {
+			Integer frequency = termQueryFrequency.get(term);
+			termQueryFrequency.put(term, frequency != null ? frequency + 1 : 1);
+		}
+		List<String> uniqueTerms = new ArrayList<String>(termQueryFrequency.keySet());
+
+		// the lists of the terms in all segments (null: unknown term)
+		PostingsCursor[][] cursors = new PostingsCursor[index.segmentCount()][uniqueTerms.size()];
+		// the highest scores of the documents, lowest first (score, document)
+		PriorityQueue<double[]> topScores = new PriorityQueue<double[]>(topK, SCORED_DOCUMENT_ORDER);
+		// champion lists only: the highest score of a document which is not among the topK (or not scored)
+		double outsideBound = Double.NEGATIVE_INFINITY;
+		try {
+			int[] documentCounts = new int[uniqueTerms.size()];
+			for (int segment = 0; segment < cursors.length; segment++) {
+				for (int t = 0; t < uniqueTerms.size(); t++) {
+					cursors[segment][t] = index.openPostings(segment, uniqueTerms.get(t), championLists);
+					if (cursors[segment][t] != null) {
+						documentCounts[t] += cursors[segment][t].documentFrequency;
+					}
+				}
+			}
+
+			// the quantized scores are used if all lists have them, with the same parameters
+			boolean useImpacts = !championLists && !exact;
+			for (int segment = 0; segment < cursors.length && useImpacts; segment++) {
+				ImpactScores impactScores = index.getImpactScores(segment);
+				useImpacts = impactScores != null && impactScores.getK1() == BM25_K1 && impactScores.getB() == BM25_B;
+				for (int t = 0; t < uniqueTerms.size() && useImpacts; t++) {
+					useImpacts = cursors[segment][t] == null || cursors[segment][t].hasImpacts();
+				}
+			}
+
+			// the weight of each term (see processInnerBM25Query), N and n include deleted documents
+			final int N = index.totalNumberOfDocumentsWithDeleted();
+			double K = BM25_K1 * (1 - BM25_B);
+			double[] weights = new double[uniqueTerms.size()];
+			int[] queryFrequencies = new int[uniqueTerms.size()];
+			for (int t = 0; t < uniqueTerms.size(); t++) {
+				int n = documentCounts[t];
+				int qf = termQueryFrequency.get(uniqueTerms.get(t));
+				queryFrequencies[t] = qf;
+				weights[t] = Math.log(1.0 / ((n + 0.5) / ((N - n) + 0.5)))
+						* (((BM25_K2 + 1.0) * qf) / (BM25_K2 + qf));
+			}
+
+			for (int segment = 0; segment < cursors.length; segment++) {
+				PostingsCursor[] lists = cursors[segment];
+				ImpactScores impactScores = useImpacts ? index.getImpactScores(segment) : null;
+				double scale = useImpacts ? impactScores.getScale() : 0;
+				// the highest score of each term in the segment
+				double[] maxScores = new double[lists.length];
+				/*
+				 * champion lists only: the lowest and highest score of each
+				 * term in a document which is not in its champion list
+				 */
+				double[] outsideLowScores = new double[lists.length];
+				double[] outsideHighScores = new double[lists.length];
+				boolean hasChampionLists = false;
+				float outsideMaxRank = 0;
+				for (int t = 0; t < lists.length; t++) {
+					if (lists[t] != null) {
+						int f = lists[t].maxFrequency;
+						if (useImpacts) {
+							maxScores[t] = queryFrequencies[t] * scale
+									* impactScores.getMaxImpact(lists[t].documentFrequency, f);
+						} else {
+							maxScores[t] = Math.max(0, weights[t] * (((BM25_K1 + 1.0) * f) / (K + f)));
+						}
+						if (lists[t].isChampionList()) {
+							f = lists[t].getOutsideMaxFrequency();
+							double outsideScore = weights[t] * (((BM25_K1 + 1.0) * f) / (K + f));
+							outsideLowScores[t] = Math.min(0, outsideScore);
+							outsideHighScores[t] = Math.max(0, outsideScore);
+							hasChampionLists = true;
+							outsideMaxRank = Math.max(outsideMaxRank, lists[t].getOutsideMaxRank());
+						}
+						lists[t].next();
+					}
+				}
+				if (hasChampionLists) {
+					// a document in no list of the segment only contains terms of champion lists
+					double bound = STATIC_RANK_WEIGHT > 0 ? STATIC_RANK_WEIGHT * Math.log(1.0 + outsideMaxRank) : 0;
+					for (int t = 0; t < lists.length; t++) {
+						bound += outsideHighScores[t];
+					}
+					outsideBound = Math.max(outsideBound, bound);
+				}
+
+				while (true) {
+					// the next document and the bound of its score (and of all following ones)
+					int document = Integer.MAX_VALUE;
+					double bound = 0;
+					for (int t = 0; t < lists.length; t++) {
+						if (lists[t] != null && lists[t].document() != Integer.MAX_VALUE) {
+							document = Math.min(document, lists[t].document());
+							bound += maxScores[t];
+						} else {
+							// a finished champion list: later documents may still contain the term
+							bound += outsideHighScores[t];
+						}
+					}
+					if (document == Integer.MAX_VALUE) {
+						break;
+					}
+					double staticScore = STATIC_RANK_WEIGHT > 0
+							? STATIC_RANK_WEIGHT * Math.log(1.0 + index.getStaticRank(segment, document))
+							: 0;
+					if (topScores.size() >= topK && bound + staticScore <= topScores.peek()[0]) {
+						// no document of the rest of the segment reaches the topK
+						outsideBound = Math.max(outsideBound, bound + staticScore);
+						break;
+					}
+
+					// score the document (and move the lists on)
+					double score = staticScore;
+					int impactScore = 0;
+					double outsideLowScore = 0;
+					double outsideHighScore = 0;
+					for (int t = 0; t < lists.length; t++) {
+						if (lists[t] != null && lists[t].document() == document) {
+							if (useImpacts) {
+								impactScore += queryFrequencies[t] * lists[t].impact();
+							} else {
+								int f = lists[t].frequency();
+								score += weights[t] * (((BM25_K1 + 1.0) * f) / (K + f));
+							}
+							lists[t].next();
+						} else {
+							outsideLowScore += outsideLowScores[t];
+							outsideHighScore += outsideHighScores[t];
+						}
+					}
+					score += impactScore * scale;
+					if (!index.isLive(segment, document)) {
+						continue;
+					}
+					double[] dropped = addScoredDocument(topScores, topK, new double[] {
+							score, index.getBase(segment) + document, score + outsideLowScore, score + outsideHighScore });
+					if (dropped != null) {
+						outsideBound = Math.max(outsideBound, dropped[3]);
+					}
+				}
+			}
+		} finally {
+			for (PostingsCursor[] lists : cursors) {
+				for (PostingsCursor list : lists) {
+					if (list != null) {
+						list.close();
+					}
+				}
+			}
+		}
+		if (championLists && outsideBound > Double.NEGATIVE_INFINITY) {
+			if (topScores.size() < topK) {
+				// any document outside the champion lists would be among the topK
+				return null;
+			}
+			// from the lowest of the topK on, no document may beat a better one
+			double[][] scored = topScores.toArray(new double[topScores.size()][]);
+			Arrays.sort(scored, SCORED_DOCUMENT_ORDER);
+			double bound = outsideBound;
+			for (double[] document : scored) {
+				if (bound > document[2]) {
+					return null;
+				}
+				bound = Math.max(bound, document[3]);
+			}
+		}
+		return getScoredDocuments(topScores);
+	}
+	
+	/**
+	 * Helper method to perform the BM25 query score-at-a-time on the lists
+	 * of the terms in impact order (see {@link ImpactOrderedList}), with the
+	 * quantized scores of {@link #processRankOrderedBM25Query(List, int, boolean, boolean)}.
+	 * The blocks of equal impact of all lists (of all segments) are read in
+	 * descending score (impact times the frequency of the term in the query
+	 * and the scale of the segment), and the impacts are added to one
+	 * accumulator per document, until all blocks are read or
+	 * <tt>postingsBudget</tt> postings were read (then the ranking is
+	 * approximate). The static rank is added to the accumulated scores.
+	 * @param postingsBudget the maximum number of postings to read
+	 * @return the IDs of the topK best documents (best first) or
+	 *   <tt>null</tt> if the index has no lists in impact order
+	 */
+	private ArrayList<Integer> processScoreAtATimeQuery(List<String> terms, int topK, int postingsBudget) {
+		SegmentedIndex index = this.indexHandler.get();
+		double[] scales = new double[index.segmentCount()];
+		for (int segment = 0; segment < index.segmentCount(); segment++) {
+			ImpactScores impactScores = index.getImpactScores(segment);
+			if (impactScores == null || !impactScores.isImpactOrdered()
+					|| impactScores.getK1() != BM25_K1 || impactScores.getB() != BM25_B) {
+				return null;
+			}
+			scales[segment] = impactScores.getScale();
+		}
+
+		// qf: frequency of the term in the query
+		Map<String, Integer> termQueryFrequency = new LinkedHashMap<String, Integer>();
+		for (String term : terms) {
+			Integer frequency = termQueryFrequency.get(term);
+			termQueryFrequency.put(term, frequency != null ? frequency + 1 : 1);
+		}
+
+		// the lists of the terms in all segments, and the score of their next block (score, list)
+		List<ImpactOrderedList> lists = new ArrayList<ImpactOrderedList>();
+		List<int[]> listSegments = new ArrayList<int[]>();
+		long listPostings = 0;
+		PriorityQueue<double[]> blocks = new PriorityQueue<double[]>(11, Collections.reverseOrder(SCORED_DOCUMENT_ORDER));
+		for (int segment = 0; segment < index.segmentCount(); segment++) {
+			for (Entry<String, Integer> term : termQueryFrequency.entrySet()) {
+				ImpactOrderedList list = index.openImpactOrderedList(segment, term.getKey());
+				if (list != null && !list.isFinished()) {
+					blocks.add(new double[] { term.getValue() * list.impact() * scales[segment], lists.size() });
+					lists.add(list);
+					listSegments.add(new int[] { segment, term.getValue() });
+					listPostings += list.size();
+				}
+			}
+		}
+
+		// accumulate the impacts of the blocks (at most one accumulator per posting read)
+		ScoreAccumulators accumulators = new ScoreAccumulators((int) Math.min(postingsBudget,
+				Math.min(listPostings, index.totalNumberOfDocumentsWithDeleted())));
+		int postings = 0;
+		while (!blocks.isEmpty() && postings < postingsBudget) {
+			int number = (int) blocks.poll()[1];
+			ImpactOrderedList list = lists.get(number);
+			int base = index.getBase(listSegments.get(number)[0]);
+			int queryFrequency = listSegments.get(number)[1];
+			int impact = queryFrequency * list.impact();
+			int end = Math.min(list.blockEnd(), list.position() + postingsBudget - postings);
+			for (int position = list.position(); position < end; position++) {
+				accumulators.add(base + list.document(position), impact);
+			}
+			postings += end - list.position();
+			list.moveTo(end);
+			if (!list.isFinished()) {
+				blocks.add(new double[] { queryFrequency * list.impact() * scales[listSegments.get(number)[0]], number });
+			}
+		}
+
+		// the topK documents
+		PriorityQueue<double[]> topScores = new PriorityQueue<double[]>(topK, SCORED_DOCUMENT_ORDER);
+		for (int slot = 0; slot < accumulators.capacity(); slot++) {
+			int document = accumulators.document(slot);
+			if (document < 0) {
+				continue;
+			}
+			int segment = index.getSegment(document);
+			int base = index.getBase(segment);
+			if (!index.isLive(segment, document - base)) {
+				continue;
+			}
+			double score = accumulators.score(slot) * scales[segment];
+			if (STATIC_RANK_WEIGHT > 0) {
+				score += STATIC_RANK_WEIGHT * Math.log(1.0 + index.getStaticRank(segment, document - base));
+			}
+			addScoredDocument(topScores, topK, score, document);
+		}
+		return getScoredDocuments(topScores);
+	}
+	
+	/**
+	 * Add a scored document to the topK scores, if it is among them.
+	 * @param topScores the topK scores, lowest first (see {@link #SCORED_DOCUMENT_ORDER})
+	 */
+	private static void addScoredDocument(PriorityQueue<double[]> topScores, int topK, double score, int documentId) {
+		addScoredDocument(topScores, topK, new double[] { score, documentId });
+	}
+	
+	/**
+	 * @param topScores the topK scores, lowest first (see {@link #SCORED_DOCUMENT_ORDER})
+	 * @param scored the score and number of the document (and further values)
+	 * @return the document which is not among the topK (the added one or
+	 *   the one it replaced) or <tt>null</tt>
+	 */
+	private static double[] addScoredDocument(PriorityQueue<double[]> topScores, int topK, double[] scored) {
+		if (topScores.size() < topK) {
+			topScores.add(scored);
+			return null;
+		} else if (SCORED_DOCUMENT_ORDER.compare(scored, topScores.peek()) > 0) {
+			double[] dropped = topScores.poll();
+			topScores.add(scored);
+			return dropped;
+		}
+		return scored;
+	}
+	
+	/**
+	 * @param topScores the topK scores, lowest first (emptied)
+	 * @return the IDs of the documents, best first
+	 */
+	private static ArrayList<Integer> getScoredDocuments(PriorityQueue<double[]> topScores) {
+		ArrayList<Integer> result = new ArrayList<Integer>(topScores.size());
+		while (!topScores.isEmpty()) {
+			result.add(0, (int) topScores.poll()[1]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Measure the quality of the champion lists (see {@link #QUERY_MODE})
+	 * for a keyword query: the NDCG of its ranking from the champion lists
+	 * (or from the whole lists, if the champion lists do not determine it)
+	 * with its exact ranking from the whole lists as the gold ranking, which
+	 * is <tt>1</tt> unless the bounds of the champion lists are wrong.
+	 * @param query the query text
+	 * @param topK the number of documents to compare
+	 * @return the NDCG or <tt>null</tt> if the index is not in static rank
+	 *   order (or could not be read)
+	 */
+	Double computeChampionListNdcg(String query, int topK) {
+		SegmentedIndex index = this.generations.acquire();
+		if (index == null) {
+			return null;
+		}
+		this.indexHandler.set(index);
+		try {
+			List<String> terms = index.processRawText(removeBooleanOperators(query));
+			ArrayList<Integer> gold = this.processRankOrderedBM25Query(terms, topK, false, true);
+			ArrayList<Integer> ranking = this.processRankOrderedBM25Query(terms, topK, true, true);
+			if (gold == null) {
+				return null;
+			}
+			if (ranking == null) {
+				// the query is evaluated with the whole lists then
+				ranking = gold;
+			}
+			return this.computeNdcgOfDocuments(index, gold, ranking, topK);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			this.indexHandler.remove();
+			this.generations.release(index);
+		}
+	}
+	
+	/**
+	 * Measure the quality of the score-at-a-time evaluation with a budget
+	 * of postings (see {@link #QUERY_MODE}) for a keyword query: the NDCG
+	 * of its ranking with its ranking from the whole lists with the same
+	 * quantized scores, document by document, as the gold ranking. With a
+	 * budget of all postings of the lists, it is <tt>1</tt>.
+	 * @param query the query text
+	 * @param topK the number of documents to compare
+	 * @param postingsBudget the maximum number of postings to read
+	 * @return the NDCG or <tt>null</tt> if the index has no lists in impact
+	 *   order (or could not be read)
+	 */
+	Double computeScoreAtATimeNdcg(String query, int topK, int postingsBudget) {
+		SegmentedIndex index = this.generations.acquire();
+		if (index == null) {
+			return null;
+		}
+		this.indexHandler.set(index);
+		try {
+			List<String> terms = index.processRawText(removeBooleanOperators(query));
+			ArrayList<Integer> ranking = this.processScoreAtATimeQuery(terms, topK, postingsBudget);
+			ArrayList<Integer> gold = this.processRankOrderedBM25Query(terms, topK, false, false);
+			if (gold == null || ranking == null) {
+				return null;
+			}
+			return this.computeNdcgOfDocuments(index, gold, ranking, topK);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			this.indexHandler.remove();
+			this.generations.release(index);
+		}
+	}
+	
+	/**
+	 * Compute the NDCG of a ranking of documents (see
+	 * {@link #computeNdcg(ArrayList, ArrayList, int)}).
+	 * @param gold the IDs of the documents of the gold ranking
+	 * @param ranking the IDs of the documents of the ranking
+	 */
+	private Double computeNdcgOfDocuments(SegmentedIndex index, List<Integer> gold, List<Integer> ranking, int topK) {
+		ArrayList<String> goldTitles = new ArrayList<String>(gold.size());
+		for (Integer documentId : gold) {
+			goldTitles.add(index.getTitleForDocument(documentId));
+		}
+		ArrayList<String> titles = new ArrayList<String>(ranking.size());
+		for (Integer documentId : ranking) {
+			titles.add(index.getTitleForDocument(documentId));
+		}
+		return this.computeNdcg(goldTitles, titles, topK);
+	}
+	
 	/**
 	 * Compute the normalized distributed cumulative gain using the gold ranking
 	 * and the actual ranking, up to a given rank.
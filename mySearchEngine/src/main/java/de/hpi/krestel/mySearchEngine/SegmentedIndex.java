@@ -0,0 +1,369 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The index for queries: the live segments of an {@link IndexManifest},
+ * each of which is a complete index (see {@link IndexHandler}).
+ * The documents of the segments are numbered consecutively: a document has
+ * the number base + local number, where base is the number of documents
+ * (live or not) of all older segments. Documents which are not live in
+ * their segment (see {@link LiveDocs}) are left out of all lists, so
+ * callers see only the current version of every page.
+ * A SegmentedIndex is the searcher of one generation of the index (see
+ * {@link IndexGenerations}). It is reference counted: every query holds a
+ * reference while it runs. Once the last reference is released, the
+ * mappings of its segments are unmapped, and segments which the current
+ * manifest does not reference any more are deleted.
+ */
+class SegmentedIndex {
+
+	// the segments, oldest first
+	private final IndexHandler[] segments;
+	// the number of the first document of each segment
+	private final int[] bases;
+	// the live documents of each segment (null if all are live)
+	private final LiveDocs[] liveDocs;
+	// the number of live documents
+	private final int liveCount;
+	// the number of documents, live or not
+	private final int documentCount;
+	// the index directory and the generation of the manifest
+	private final String dir;
+	private final int generation;
+	// the directories of the segments (retained while this index is open)
+	private final List<String> segmentDirs = new ArrayList<String>();
+	// the number of references (the owner's and those of running queries)
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	/**
+	 * Open the live segments of the given manifest.
+	 * @param manifest the manifest of the index
+	 * @throws IOException if the live documents cannot be read
+	 */
+	public SegmentedIndex(IndexManifest manifest) throws IOException {
+		this.dir = manifest.getDir();
+		this.generation = manifest.getGeneration();
+		List<Integer> segmentNumbers = manifest.getSegments();
+		this.segments = new IndexHandler[segmentNumbers.size()];
+		this.bases = new int[segmentNumbers.size()];
+		this.liveDocs = new LiveDocs[segmentNumbers.size()];
+		int base = 0;
+		int liveCount = 0;
+		for (int i = 0; i < segmentNumbers.size(); i++) {
+			String segmentDir = manifest.getSegmentDir(segmentNumbers.get(i));
+			IndexManifest.retainSegment(segmentDir);
+			this.segmentDirs.add(segmentDir);
+			this.segments[i] = new IndexHandler(segmentDir, true);
+			int size = this.segments[i].totalNumberOfDocuments();
+			LiveDocs live = manifest.getLiveDocs(segmentNumbers.get(i), size);
+			this.liveDocs[i] = live.liveCount() < size ? live : null;
+			this.bases[i] = base;
+			base += size;
+			liveCount += live.liveCount();
+		}
+		this.liveCount = liveCount;
+		this.documentCount = base;
+	}
+
+	/**
+	 * @return the generation of the manifest from which this index was opened
+	 */
+	public int getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * Acquire a reference, unless the index was already closed.
+	 * @return <tt>true</tt> if a reference was acquired
+	 */
+	public boolean tryIncRef() {
+		while (true) {
+			int references = this.references.get();
+			if (references <= 0) {
+				return false;
+			}
+			if (this.references.compareAndSet(references, references + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Release a reference; the last one closes the index (see above).
+	 */
+	public void decRef() {
+		if (this.references.decrementAndGet() == 0) {
+			for (IndexHandler segment : this.segments) {
+				segment.release();
+			}
+			for (String segmentDir : this.segmentDirs) {
+				IndexManifest.releaseSegment(this.dir, segmentDir);
+			}
+		}
+	}
+
+	/**
+	 * Read the mapped files of all segments into memory (pre-warming).
+	 */
+	public void warm() {
+		for (IndexHandler segment : this.segments) {
+			segment.warm();
+		}
+	}
+
+	/**
+	 * Tests whether all segments have their index files.
+	 * @param manifest the manifest of the index
+	 * @return <tt>true</tt> if no file is missing
+	 */
+	public static boolean directoryHasIndexFiles(IndexManifest manifest) {
+		for (int segment : manifest.getSegments()) {
+			if (!IndexHandler.directoryHasIndexFiles(manifest.getSegmentDir(segment))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param documentNumber the number of a document
+	 * @return the segment of the document or <tt>-1</tt> if it is not known
+	 */
+	int getSegment(int documentNumber) {
+		if (documentNumber < 0) {
+			return -1;
+		}
+		for (int i = this.segments.length - 1; i >= 0; i--) {
+			if (documentNumber >= this.bases[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param segment a segment (see {@link #segmentCount()})
+	 * @param localNumber the number of a document in the segment
+	 * @return <tt>true</tt> if the document is live
+	 */
+	boolean isLive(int segment, int localNumber) {
+		return this.liveDocs[segment] == null || this.liveDocs[segment].isLive(localNumber);
+	}
+
+	/**
+	 * @return the number of segments (the oldest is 0)
+	 */
+	int segmentCount() {
+		return this.segments.length;
+	}
+
+	/**
+	 * @param segment a segment
+	 * @return the number of its first document
+	 */
+	int getBase(int segment) {
+		return this.bases[segment];
+	}
+
+	/**
+	 * Open the list (or champion list) of a term in one segment, see
+	 * {@link IndexHandler#openPostings(String, boolean)}. Its documents have
+	 * local numbers and include documents which are not live.
+	 */
+	PostingsCursor openPostings(int segment, String term, boolean champions) throws IOException {
+		return this.segments[segment].openPostings(term, champions);
+	}
+
+	/**
+	 * @param segment a segment
+	 * @return <tt>true</tt> if its documents are numbered in descending
+	 *   static rank, see {@link IndexHandler#isStaticRankOrdered()}
+	 */
+	boolean isStaticRankOrdered(int segment) {
+		return this.segments[segment].isStaticRankOrdered();
+	}
+
+	/**
+	 * Open the list of a term in one segment in impact order, see
+	 * {@link IndexHandler#openImpactOrderedList(String)}. Its documents have
+	 * local numbers and include documents which are not live.
+	 */
+	ImpactOrderedList openImpactOrderedList(int segment, String term) {
+		return this.segments[segment].openImpactOrderedList(term);
+	}
+
+	/**
+	 * @param segment a segment
+	 * @return its term vectors (of local document numbers) or
+	 *   <tt>null</tt>, see {@link IndexHandler#getTermVectors()}
+	 */
+	TermVectors getTermVectors(int segment) {
+		return this.segments[segment].getTermVectors();
+	}
+
+	/**
+	 * @param segment a segment
+	 * @return its quantized BM25 scores or <tt>null</tt>, see
+	 *   {@link IndexHandler#getImpactScores()}
+	 */
+	ImpactScores getImpactScores(int segment) {
+		return this.segments[segment].getImpactScores();
+	}
+
+	/**
+	 * @param segment a segment
+	 * @param localNumber the number of a document in the segment
+	 * @return its static rank, see {@link IndexHandler#getStaticRank(int)}
+	 */
+	float getStaticRank(int segment, int localNumber) {
+		return this.segments[segment].getStaticRank(localNumber);
+	}
+
+	/**
+	 * Pre-process raw text, see {@link IndexHandler#processRawText(String)}.
+	 */
+	List<String> processRawText(String text) throws IOException {
+		return this.segments[0].processRawText(text);
+	}
+
+	/**
+	 * Get a list of all indexed terms of live documents starting with the
+	 * given prefix, see {@link IndexHandler#getTermsForPrefix(String)}.
+	 * Terms of deleted documents may be included; their lists are empty.
+	 */
+	public List<String> getTermsForPrefix(String prefix) {
+		if (this.segments.length == 1) {
+			return this.segments[0].getTermsForPrefix(prefix);
+		}
+		TreeSet<String> terms = new TreeSet<String>();
+		for (IndexHandler segment : this.segments) {
+			terms.addAll(segment.getTermsForPrefix(prefix));
+		}
+		return new ArrayList<String>(terms);
+	}
+
+	/**
+	 * Read the TermList of the given term from all segments, see
+	 * {@link IndexHandler#readListForTerm(String, boolean)}.
+	 */
+	public Index.TermList readListForTerm(String term, boolean allowNull) {
+		if (this.segments.length == 1 && this.liveDocs[0] == null) {
+			return this.segments[0].readListForTerm(term, allowNull);
+		}
+		Index.TermList result = new Index.TermList();
+		for (int i = 0; i < this.segments.length; i++) {
+			Index.TermList list = this.segments[i].readListForTerm(term, allowNull);
+			if (list == null) {
+				return null;
+			}
+			for (Entry<Integer, Collection<Integer>> entry : list.getOccurrences().entrySet()) {
+				if (this.isLive(i, entry.getKey())) {
+					result.getOccurrences().put(this.bases[i] + entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the live documents which link to the given title, see
+	 * {@link IndexHandler#getLinkingDocuments(String)}.
+	 * @param processedTitle a title processed by {@link LinkIndex#processTitle(String)}
+	 * @return the document numbers, ascending
+	 */
+	public List<Integer> getLinkingDocuments(String processedTitle) {
+		List<Integer> documents = new ArrayList<Integer>();
+		for (int i = 0; i < this.segments.length; i++) {
+			IntBuffer linking = this.segments[i].getLinkingDocuments(processedTitle);
+			for (int j = 0; j < linking.limit(); j++) {
+				// links of replaced versions of a page are not current
+				int document = linking.get(j);
+				if (this.isLive(i, document)) {
+					documents.add(this.bases[i] + document);
+				}
+			}
+		}
+		return documents;
+	}
+
+	/**
+	 * @param processedTitle a title processed by {@link LinkIndex#processTitle(String)}
+	 * @return the number of the live document with that title or
+	 *   <tt>null</tt> if there is no such document
+	 */
+	public Integer getDocumentForTitle(String processedTitle) {
+		// the newest version of the page
+		for (int i = this.segments.length - 1; i >= 0; i--) {
+			Integer document = this.segments[i].getDocumentForTitle(processedTitle);
+			if (document != null && this.isLive(i, document)) {
+				return this.bases[i] + document;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param documentNumber the number of the document
+	 * @return the title of the document or <tt>null</tt> if it is not known
+	 */
+	public String getTitleForDocument(int documentNumber) {
+		int segment = this.getSegment(documentNumber);
+		if (segment < 0) {
+			return null;
+		}
+		return this.segments[segment].getTitleForDocument(documentNumber - this.bases[segment]);
+	}
+
+	/**
+	 * @param documentNumber the number of the document
+	 * @return the static rank of the document, see
+	 *   {@link IndexHandler#getStaticRank(int)}, or <tt>0</tt> if it is not known
+	 */
+	public float getStaticRank(int documentNumber) {
+		int segment = this.getSegment(documentNumber);
+		if (segment < 0) {
+			return 0;
+		}
+		return this.segments[segment].getStaticRank(documentNumber - this.bases[segment]);
+	}
+
+	/**
+	 * Create a snippet of the document, see
+	 * {@link IndexHandler#getSnippetForDocumentId(Integer, List)}.
+	 */
+	public String getSnippetForDocumentId(Integer documentId, List<String> queryTerms) {
+		if (documentId == null) {
+			return null;
+		}
+		int segment = this.getSegment(documentId);
+		if (segment < 0) {
+			return null;
+		}
+		return this.segments[segment].getSnippetForDocumentId(documentId - this.bases[segment], queryTerms);
+	}
+
+	/**
+	 * @return the number of live documents
+	 */
+	public int totalNumberOfDocuments() {
+		return this.liveCount;
+	}
+
+	/**
+	 * @return the number of documents including the deleted ones (which
+	 *   the statistics of the seeklists count, see
+	 *   {@link #openPostings(int, String, boolean)})
+	 */
+	int totalNumberOfDocumentsWithDeleted() {
+		return this.documentCount;
+	}
+
+}
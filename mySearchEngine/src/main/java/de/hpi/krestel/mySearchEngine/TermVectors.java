@@ -0,0 +1,331 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The term vectors of the documents of an index (a forward index): for
+ * every document, the terms which it contains and their frequencies, as
+ * compressed sparse rows of term ids. It is built from the merged index
+ * when an index is created (see {@link IndexHandler#createIndex()}), and
+ * its files are memory-mapped for querying like the {@link LinkGraph}, so
+ * pseudo relevance feedback needs neither the texts of the documents nor
+ * the analyzer.
+ * The id of a term is its number in the order of the index (over all
+ * partitions):
+ *  - termVectorOffsets / termVectorTerms / termVectorFrequencies: the
+ *    offset of the row of each document (plus one entry which marks the
+ *    end), the term ids of the rows (ascending per document) and their
+ *    frequencies in the document
+ *  - vectorTerms / vectorTermOffsets: the terms (UTF-8, concatenated) and
+ *    their offsets (plus one)
+ *  - vectorTermDocumentFrequencies: the number of documents of each term
+ */
+class TermVectors {
+
+	// name of the file which stores the offsets of the rows (one int per document, plus one)
+	private static final String offsetsFileName = "termVectorOffsets";
+	// name of the file which stores the term ids of the rows (one int per entry)
+	private static final String termsFileName = "termVectorTerms";
+	// name of the file which stores the frequencies of the rows (one int per entry)
+	private static final String frequenciesFileName = "termVectorFrequencies";
+	// name of the file which stores the terms
+	private static final String vectorTermsFileName = "vectorTerms";
+	// name of the file which stores the offsets of the terms (one int per term, plus one)
+	private static final String vectorTermOffsetsFileName = "vectorTermOffsets";
+	// name of the file which stores the number of documents of each term (one int per term)
+	private static final String documentFrequenciesFileName = "vectorTermDocumentFrequencies";
+	// file extension of binary columns
+	private static final String fileExtension = ".bin";
+	// buffer size for reading the index and writing columns
+	private static final int bufferSize = 65536;
+
+	private static final String[] fileNames = new String[] {
+		offsetsFileName, termsFileName, frequenciesFileName,
+		vectorTermsFileName, vectorTermOffsetsFileName, documentFrequenciesFileName
+	};
+
+	// mapped columns
+	private IntBuffer offsets;
+	private IntBuffer terms;
+	private IntBuffer frequencies;
+	private ByteBuffer vectorTerms;
+	private IntBuffer vectorTermOffsets;
+	private IntBuffer documentFrequencies;
+	// the mappings of the columns (unmapped by release)
+	private final List<ByteBuffer> mappings = new ArrayList<ByteBuffer>();
+
+	private TermVectors() {
+	}
+
+	/**
+	 * Build the term vectors of a merged index and write them. The index is
+	 * read twice: the first pass counts the terms of every document and
+	 * writes the terms, the second one writes the rows.
+	 * @param dir the directory of the index (ending with '/')
+	 * @param indexFiles the partitions of the index
+	 * @param seekListFiles the seeklists of the partitions (with the
+	 *   statistics of every list)
+	 * @param documentCount the number of documents
+	 * @throws IOException if the index cannot be read or the term vectors
+	 *   cannot be written
+	 */
+	public static void create(String dir, List<String> indexFiles, List<String> seekListFiles,
+			int documentCount) throws IOException {
+		int[] cursors = new int[documentCount + 1];
+		long entries = 0;
+		IntBuffer terms = null;
+		IntBuffer frequencies = null;
+		List<ByteBuffer> mappings = new ArrayList<ByteBuffer>(2);
+		try {
+			for (int pass = 0; pass < 2; pass++) {
+				DataOutputStream vectorTermsOut = null;
+				DataOutputStream vectorTermOffsetsOut = null;
+				DataOutputStream documentFrequenciesOut = null;
+				if (pass == 0) {
+					vectorTermsOut = TermVectors.createColumn(dir, TermVectors.vectorTermsFileName);
+					vectorTermOffsetsOut = TermVectors.createColumn(dir, TermVectors.vectorTermOffsetsFileName);
+					documentFrequenciesOut = TermVectors.createColumn(dir, TermVectors.documentFrequenciesFileName);
+				}
+				int term = 0;
+				int vectorTermsLength = 0;
+				try {
+					for (int partition = 0; partition < indexFiles.size(); partition++) {
+						InputStream index = new BufferedInputStream(new FileInputStream(indexFiles.get(partition)),
+								TermVectors.bufferSize);
+						BufferedReader seekList = new BufferedReader(new FileReader(seekListFiles.get(partition)));
+						try {
+							String line;
+							while ((line = seekList.readLine()) != null) {
+								String[] parts = line.split("\t");
+								int documentFrequency = Integer.parseInt(parts[2]);
+								PostingsCursor list = new PostingsCursor(index, documentFrequency, Integer.parseInt(parts[3]));
+								if (pass == 0) {
+									// count the terms of the documents and write the term
+									while (list.next()) {
+										cursors[list.document() + 1]++;
+										entries++;
+									}
+									byte[] bytes = DocumentTable.encode(parts[0]);
+									vectorTermOffsetsOut.writeInt(vectorTermsLength);
+									vectorTermsOut.write(bytes);
+									vectorTermsLength += bytes.length;
+									documentFrequenciesOut.writeInt(documentFrequency);
+								} else {
+									// write the term to the rows of its documents
+									while (list.next()) {
+										int position = cursors[list.document()]++;
+										terms.put(position, term);
+										frequencies.put(position, list.frequency());
+									}
+								}
+								term++;
+							}
+						} finally {
+							index.close();
+							seekList.close();
+						}
+					}
+					if (pass == 0) {
+						vectorTermOffsetsOut.writeInt(vectorTermsLength);
+					}
+				} finally {
+					if (pass == 0) {
+						vectorTermsOut.close();
+						vectorTermOffsetsOut.close();
+						documentFrequenciesOut.close();
+					}
+				}
+
+				if (pass == 0) {
+					if (entries > Integer.MAX_VALUE / 4) {
+						throw new IOException("The term vectors have too many entries (" + entries + ")");
+					}
+					// the offsets of the rows
+					for (int document = 0; document < documentCount; document++) {
+						cursors[document + 1] += cursors[document];
+					}
+					TermVectors.writeColumn(dir, TermVectors.offsetsFileName, cursors);
+					terms = TermVectors.mapColumn(dir, TermVectors.termsFileName, 4 * entries, mappings).asIntBuffer();
+					frequencies = TermVectors.mapColumn(dir, TermVectors.frequenciesFileName, 4 * entries, mappings)
+							.asIntBuffer();
+				}
+			}
+			for (ByteBuffer mapping : mappings) {
+				((MappedByteBuffer) mapping).force();
+			}
+		} finally {
+			MappedBuffers.unmap(mappings);
+		}
+	}
+
+	private static DataOutputStream createColumn(String dir, String fileName) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(dir + fileName + TermVectors.fileExtension), TermVectors.bufferSize));
+	}
+
+	private static void writeColumn(String dir, String fileName, int[] values) throws IOException {
+		DataOutputStream out = TermVectors.createColumn(dir, fileName);
+		try {
+			for (int value : values) {
+				out.writeInt(value);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Map a column for writing.
+	 */
+	private static ByteBuffer mapColumn(String dir, String fileName, long length, List<ByteBuffer> mappings)
+			throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dir + fileName + TermVectors.fileExtension, "rw");
+		try {
+			file.setLength(length);
+			ByteBuffer mapping = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			mappings.add(mapping);
+			return mapping;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Open the term vectors in the given directory and map their columns
+	 * into memory.
+	 * @param dir the directory for all index files
+	 * @return read-only TermVectors
+	 * @throws IOException if a column cannot be read
+	 */
+	public static TermVectors open(String dir) throws IOException {
+		TermVectors vectors = new TermVectors();
+		vectors.offsets = vectors.mapColumn(dir + TermVectors.offsetsFileName).asIntBuffer();
+		vectors.terms = vectors.mapColumn(dir + TermVectors.termsFileName).asIntBuffer();
+		vectors.frequencies = vectors.mapColumn(dir + TermVectors.frequenciesFileName).asIntBuffer();
+		vectors.vectorTerms = vectors.mapColumn(dir + TermVectors.vectorTermsFileName);
+		vectors.vectorTermOffsets = vectors.mapColumn(dir + TermVectors.vectorTermOffsetsFileName).asIntBuffer();
+		vectors.documentFrequencies = vectors.mapColumn(dir + TermVectors.documentFrequenciesFileName).asIntBuffer();
+		return vectors;
+	}
+
+	private ByteBuffer mapColumn(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path + TermVectors.fileExtension, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			// the mapping stays valid after the channel is closed
+			ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			this.mappings.add(mapping);
+			return mapping;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Get the term ids of the vector of a document.
+	 * @param document the document number
+	 * @return a view of the row: the term ids, ascending
+	 */
+	public IntBuffer getTerms(int document) {
+		return TermVectors.getRow(this.terms, this.offsets, document);
+	}
+
+	/**
+	 * Get the frequencies of the vector of a document.
+	 * @param document the document number
+	 * @return a view of the row: the frequency of each term of
+	 *   {@link #getTerms(int)}
+	 */
+	public IntBuffer getFrequencies(int document) {
+		return TermVectors.getRow(this.frequencies, this.offsets, document);
+	}
+
+	private static IntBuffer getRow(IntBuffer values, IntBuffer offsets, int row) {
+		// a view of its own: the position of the shared buffer is not changed
+		IntBuffer view = values.duplicate();
+		view.limit(offsets.get(row + 1));
+		view.position(offsets.get(row));
+		return view.slice();
+	}
+
+	/**
+	 * @param term a term id
+	 * @return the term
+	 */
+	public String getTerm(int term) {
+		int start = this.vectorTermOffsets.get(term);
+		int end = this.vectorTermOffsets.get(term + 1);
+		return DocumentTable.decode(this.vectorTerms, start, end - start);
+	}
+
+	/**
+	 * @param term a term id
+	 * @return the number of documents which contain the term
+	 */
+	public int getDocumentFrequency(int term) {
+		return this.documentFrequencies.get(term);
+	}
+
+	/**
+	 * @return the number of documents
+	 */
+	public int documentCount() {
+		return this.offsets.limit() - 1;
+	}
+
+	/**
+	 * Read the mapped columns into memory (pre-warming).
+	 */
+	public void load() {
+		MappedBuffers.load(this.mappings);
+	}
+
+	/**
+	 * Unmap the columns. The TermVectors must not be used afterwards.
+	 */
+	public void release() {
+		MappedBuffers.unmap(this.mappings);
+	}
+
+	/**
+	 * Tests whether the given directory has all files of the term vectors.
+	 * @param dir the directory
+	 * @return <tt>true</tt> if all files are present and can be read
+	 */
+	public static boolean directoryHasFiles(String dir) {
+		for (String fileName : TermVectors.fileNames) {
+			if (!new File(dir + fileName + TermVectors.fileExtension).canRead()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delete the files of the term vectors in the given directory (if they
+	 * exist).
+	 * @param dir the directory
+	 */
+	public static void deleteFiles(String dir) {
+		for (String fileName : TermVectors.fileNames) {
+			new File(dir + fileName + TermVectors.fileExtension).delete();
+		}
+	}
+
+}
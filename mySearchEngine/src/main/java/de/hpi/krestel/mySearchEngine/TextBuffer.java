@@ -0,0 +1,132 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.CharArrayReader;
+import java.io.Reader;
+
+/**
+ * A growable char buffer which is meant to be reused, e.g. for the text of
+ * every page of the dump. Unlike a StringBuilder it can be compared and
+ * parsed without creating a String, and it offers a {@link Reader} and a
+ * {@link CharSequence} view of its content which do not copy the chars.
+ * Views are only valid until the buffer is changed.
+ */
+class TextBuffer implements CharSequence {
+
+	private char[] chars;
+	private int length;
+
+	/**
+	 * @param capacity the initial capacity (grows as needed)
+	 */
+	public TextBuffer(int capacity) {
+		this.chars = new char[capacity];
+		this.length = 0;
+	}
+
+	/**
+	 * Append a range of chars.
+	 */
+	public void append(char[] source, int start, int count) {
+		if (this.length + count > this.chars.length) {
+			char[] grown = new char[Math.max(2 * this.chars.length, this.length + count)];
+			System.arraycopy(this.chars, 0, grown, 0, this.length);
+			this.chars = grown;
+		}
+		System.arraycopy(source, start, this.chars, this.length, count);
+		this.length += count;
+	}
+
+	/**
+	 * Remove the content (the capacity is kept).
+	 */
+	public void clear() {
+		this.length = 0;
+	}
+
+	public boolean isEmpty() {
+		return this.length == 0;
+	}
+
+	/**
+	 * Tests whether the content equals the given string.
+	 */
+	public boolean contentEquals(String string) {
+		if (string.length() != this.length) {
+			return false;
+		}
+		for (int i = 0; i < this.length; i++) {
+			if (this.chars[i] != string.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse the content (without surrounding whitespace) as a decimal
+	 * number.
+	 * @return the number
+	 * @throws NumberFormatException if the content is not a number
+	 */
+	public long parseLong() {
+		int start = 0;
+		int end = this.length;
+		while (start < end && this.chars[start] <= ' ') {
+			start++;
+		}
+		while (end > start && this.chars[end - 1] <= ' ') {
+			end--;
+		}
+		boolean negative = start < end && this.chars[start] == '-';
+		if (negative) {
+			start++;
+		}
+		// at most 18 digits, which cannot overflow
+		if (start == end || end - start > 18) {
+			throw new NumberFormatException("For input \"" + this.toString() + "\"");
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			char c = this.chars[i];
+			if (c < '0' || c > '9') {
+				throw new NumberFormatException("For input \"" + this.toString() + "\"");
+			}
+			value = 10 * value + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return a Reader of the content which does not copy it
+	 */
+	public Reader reader() {
+		return new CharArrayReader(this.chars, 0, this.length);
+	}
+
+	@Override
+	public int length() {
+		return this.length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index >= this.length) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return this.chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || start > end || end > this.length) {
+			throw new IndexOutOfBoundsException(start + ", " + end);
+		}
+		return new String(this.chars, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return new String(this.chars, 0, this.length);
+	}
+
+}
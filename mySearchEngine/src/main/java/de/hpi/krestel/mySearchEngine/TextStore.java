@@ -0,0 +1,720 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores the (cleaned) texts of all documents for snippet creation.
+ * Texts are encoded as UTF-8 and collected into blocks of about
+ * {@link #BLOCK_SIZE} bytes, which are compressed with {@link Deflater}
+ * and appended to the texts file. Decompressed, a block looks like:
+ * 	[int count][int offset] * (count + 1)[text bytes]
+ * where the offsets are relative to the start of the text bytes (the last
+ * offset marks the end of the last text).
+ * The block table holds (int offset high, int offset low, int first
+ * text number) per block, plus one entry which marks the end of the last
+ * block. It is memory-mapped and binary searched to find the block
+ * of a document; the block itself is read with a positional read, as the
+ * texts file may exceed the size of a single mapping. Recently used blocks
+ * are kept decompressed in a small LRU cache, so the texts of documents in
+ * the same block are cheap.
+ * Texts are normally stored in the order of their documents. If they are
+ * added in another order (see {@link #addText(String, int)}), the text
+ * order column holds the number of the stored text of every document (one
+ * int per document).
+ * A TextStore is either created for writing ({@link #create(String)}),
+ * resumed from a checkpoint ({@link #resume(String, long, int)}) or opened
+ * for reading ({@link #open(String)}).
+ *
+ * While writing, {@link #addText(String)} only hands the text to a bounded
+ * queue. A single writer thread encodes and compresses the blocks and
+ * appends them to one long-lived channel in large writes of
+ * {@link #WRITE_BUFFER_SIZE} bytes (so all but the last write before a
+ * checkpoint are aligned); the files are forced to disk only at checkpoints
+ * and when the store is closed.
+ */
+class TextStore {
+
+	// name of the file which stores the compressed blocks
+	private static final String textsFileName = "texts";
+	// name of the file which stores the block table
+	private static final String blocksFileName = "textBlocks";
+	// name of the file which stores the text order (only if it is not the document order)
+	private static final String orderFileName = "textOrder";
+	// file extension
+	private static final String fileExtension = ".bin";
+	// (uncompressed) size of a block after which it is compressed and written
+	static final int BLOCK_SIZE = 64 * 1024;
+	// number of decompressed blocks which are cached
+	private static final int CACHE_SIZE = 64;
+	// buffer size for writing the block table
+	private static final int bufferSize = 65536;
+	// size of the writes to the texts file
+	static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+	// number of texts which may wait for the writer thread
+	private static final int QUEUE_SIZE = 1024;
+	// marks the end of the queue
+	private static final String END_OF_TEXTS = new String();
+	// marks a checkpoint in the queue
+	private static final String CHECKPOINT = new String();
+	// time to wait for the writer thread before checking it for errors
+	private static final long CHECKPOINT_POLL_MILLIS = 100;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// directory of the files
+	private String dir;
+
+	// indexing only: queue and thread which write the texts
+	private BlockingQueue<String> queue;
+	private Thread writer;
+	// the length of the texts file at the last checkpoint (from the writer thread)
+	private BlockingQueue<Long> checkpoints;
+	// the first error of the writer thread
+	private volatile IOException writerError;
+
+	// indexing only, owned by the writer thread
+	private FileOutputStream textsOut;
+	private FileChannel textsChannel;
+	private ByteBuffer writeBuffer;
+	private FileOutputStream blocksFileOut;
+	private DataOutputStream blocksOut;
+	private Deflater deflater;
+	private ByteArrayOutputStream blockTexts;
+	private int[] blockOffsets;
+	private int blockCount;
+	private int blockFirstDocument;
+	private long textsLength;
+	private byte[] compressBuffer;
+	private int writtenTexts;
+	// indexing only: the stored text of every document (null while they are in document order)
+	private int[] textNumbers;
+
+	// querying only
+	private RandomAccessFile textsFile;
+	private FileChannel texts;
+	private IntBuffer blocks;
+	private int numberOfBlocks;
+	// the stored text of every document (null if they are in document order)
+	private IntBuffer order;
+	private Map<Integer, byte[]> cache;
+	// the mappings (unmapped by close)
+	private final List<ByteBuffer> mappings = new ArrayList<ByteBuffer>();
+
+	// number of documents
+	private int size;
+
+	private TextStore(String dir) {
+		this.dir = dir;
+		this.size = 0;
+	}
+
+	/**
+	 * Create an empty TextStore in the given directory. Existing files are
+	 * overwritten.
+	 * @param dir the directory for all index files
+	 * @return a TextStore which accepts new texts
+	 * @throws IOException
+	 */
+	public static TextStore create(String dir) throws IOException {
+		return TextStore.startWriting(dir, false, 0, 0);
+	}
+
+	/**
+	 * Continue writing the TextStore in the given directory from a
+	 * checkpoint (see {@link #checkpoint()}): the files are truncated to
+	 * the blocks which were complete at the checkpoint, and further texts
+	 * are appended.
+	 * @param dir the directory for all index files
+	 * @param textsLength the length of the texts file at the checkpoint
+	 * @param size the number of texts at the checkpoint
+	 * @return a TextStore which accepts new texts
+	 * @throws IOException if the files are shorter than the checkpoint
+	 */
+	public static TextStore resume(String dir, long textsLength, int size) throws IOException {
+		RandomAccessFile texts = new RandomAccessFile(dir + TextStore.textsFileName + TextStore.fileExtension, "rw");
+		try {
+			if (texts.length() < textsLength) {
+				throw new IOException("The texts file is shorter than the checkpoint");
+			}
+			texts.setLength(textsLength);
+		} finally {
+			texts.close();
+		}
+		// keep the entries of the blocks which start before the end of the texts
+		RandomAccessFile blocks = new RandomAccessFile(dir + TextStore.blocksFileName + TextStore.fileExtension, "rw");
+		try {
+			long entries = 0;
+			while (12 * (entries + 1) <= blocks.length()) {
+				blocks.seek(12 * entries);
+				if (blocks.readLong() >= textsLength) {
+					break;
+				}
+				entries++;
+			}
+			blocks.setLength(12 * entries);
+		} finally {
+			blocks.close();
+		}
+		return TextStore.startWriting(dir, true, textsLength, size);
+	}
+
+	/**
+	 * Open the files for writing (appending to them, if requested) and
+	 * start the writer thread.
+	 */
+	private static TextStore startWriting(String dir, boolean append, long textsLength, int size)
+			throws IOException {
+		final TextStore store = new TextStore(dir);
+		if (!append) {
+			new File(dir + TextStore.orderFileName + TextStore.fileExtension).delete();
+		}
+		store.textsOut = new FileOutputStream(dir + TextStore.textsFileName + TextStore.fileExtension, append);
+		store.textsChannel = store.textsOut.getChannel();
+		store.writeBuffer = ByteBuffer.allocateDirect(TextStore.WRITE_BUFFER_SIZE);
+		store.blocksFileOut = new FileOutputStream(dir + TextStore.blocksFileName + TextStore.fileExtension, append);
+		store.blocksOut = new DataOutputStream(new BufferedOutputStream(
+				store.blocksFileOut, TextStore.bufferSize));
+		store.deflater = new Deflater();
+		store.blockTexts = new ByteArrayOutputStream(2 * TextStore.BLOCK_SIZE);
+		store.blockOffsets = new int[256];
+		store.compressBuffer = new byte[TextStore.BLOCK_SIZE];
+		store.blockCount = 0;
+		store.blockFirstDocument = size;
+		store.textsLength = textsLength;
+		store.writtenTexts = size;
+		store.size = size;
+
+		store.queue = new ArrayBlockingQueue<String>(TextStore.QUEUE_SIZE);
+		store.checkpoints = new ArrayBlockingQueue<Long>(1);
+		store.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				store.writeTexts();
+			}
+		}, "TextStore writer");
+		store.writer.start();
+		return store;
+	}
+
+	/**
+	 * Create a TextStore in the given directory which holds the texts of
+	 * the stores in the given directories, in that order. The compressed
+	 * blocks are copied as they are; only the block table is rewritten
+	 * (offsets and document numbers are shifted by the preceding stores),
+	 * and so is the text order of stores which have one.
+	 * Existing files are overwritten.
+	 * @param dir the directory for all index files
+	 * @param partDirs the directories of the (closed) stores to concatenate
+	 * @throws IOException if a store cannot be read or written
+	 */
+	public static void concatenate(String dir, List<String> partDirs) throws IOException {
+		FileOutputStream textsOut = new FileOutputStream(dir + TextStore.textsFileName + TextStore.fileExtension);
+		FileOutputStream blocksFileOut = new FileOutputStream(dir + TextStore.blocksFileName + TextStore.fileExtension);
+		DataOutputStream blocksOut = new DataOutputStream(new BufferedOutputStream(
+				blocksFileOut, TextStore.bufferSize));
+		new File(dir + TextStore.orderFileName + TextStore.fileExtension).delete();
+		// the text order of the concatenation (null while every part is in document order)
+		int[] textNumbers = null;
+		try {
+			FileChannel textsChannel = textsOut.getChannel();
+			long textsBase = 0;
+			int documentBase = 0;
+			for (String partDir : partDirs) {
+				TextStore part = TextStore.open(partDir);
+				try {
+					if (part.order != null || textNumbers != null) {
+						textNumbers = TextStore.grow(textNumbers, documentBase, documentBase + part.size);
+						for (int document = 0; document < part.size; document++) {
+							textNumbers[documentBase + document] = documentBase + part.getTextNumber(document);
+						}
+					}
+					for (int block = 0; block < part.numberOfBlocks; block++) {
+						blocksOut.writeLong(textsBase + part.getBlockOffset(block));
+						blocksOut.writeInt(documentBase + part.blocks.get(3 * block + 2));
+					}
+					long length = part.getBlockOffset(part.numberOfBlocks);
+					long copied = 0;
+					while (copied < length) {
+						copied += part.texts.transferTo(copied, length - copied, textsChannel);
+					}
+					textsBase += length;
+					documentBase += part.size;
+				} finally {
+					part.close();
+				}
+			}
+			// end of the last block
+			blocksOut.writeLong(textsBase);
+			blocksOut.writeInt(documentBase);
+			blocksOut.flush();
+			blocksFileOut.getFD().sync();
+			textsChannel.force(true);
+			if (textNumbers != null) {
+				TextStore.writeOrder(dir, textNumbers, documentBase);
+			}
+		} finally {
+			blocksOut.close();
+			textsOut.close();
+		}
+	}
+
+	/**
+	 * Grow the text order to the given size; if there is none yet, it is
+	 * created with the documents before <tt>identitySize</tt> in order.
+	 */
+	private static int[] grow(int[] textNumbers, int identitySize, int size) {
+		if (textNumbers == null) {
+			textNumbers = new int[Math.max(16, size)];
+			for (int document = 0; document < identitySize; document++) {
+				textNumbers[document] = document;
+			}
+		} else if (textNumbers.length < size) {
+			textNumbers = Arrays.copyOf(textNumbers, Math.max(size, 2 * textNumbers.length));
+		}
+		return textNumbers;
+	}
+
+	/**
+	 * Write the text order column (the first <tt>size</tt> entries).
+	 */
+	private static void writeOrder(String dir, int[] textNumbers, int size) throws IOException {
+		FileOutputStream orderFileOut = new FileOutputStream(dir + TextStore.orderFileName + TextStore.fileExtension);
+		DataOutputStream orderOut = new DataOutputStream(new BufferedOutputStream(orderFileOut, TextStore.bufferSize));
+		try {
+			for (int document = 0; document < size; document++) {
+				orderOut.writeInt(textNumbers[document]);
+			}
+			orderOut.flush();
+			orderFileOut.getFD().sync();
+		} finally {
+			orderOut.close();
+		}
+	}
+
+	/**
+	 * Open the TextStore in the given directory and map its files.
+	 * @param dir the directory for all index files
+	 * @return a read-only TextStore
+	 * @throws IOException if a file cannot be read
+	 */
+	public static TextStore open(String dir) throws IOException {
+		TextStore store = new TextStore(dir);
+		store.textsFile = new RandomAccessFile(
+				dir + TextStore.textsFileName + TextStore.fileExtension, "r");
+		store.texts = store.textsFile.getChannel();
+		store.blocks = store.map(TextStore.blocksFileName).asIntBuffer();
+		store.numberOfBlocks = store.blocks.limit() / 3 - 1;	// last entry only marks the end
+		store.size = store.numberOfBlocks >= 0 ? store.blocks.get(3 * store.numberOfBlocks + 2) : 0;
+		if (new File(dir + TextStore.orderFileName + TextStore.fileExtension).canRead()) {
+			store.order = store.map(TextStore.orderFileName).asIntBuffer();
+		}
+		store.cache = new LinkedHashMap<Integer, byte[]>(2 * TextStore.CACHE_SIZE, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				return this.size() > TextStore.CACHE_SIZE;
+			}
+		};
+		return store;
+	}
+
+	private ByteBuffer map(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(
+				this.dir + fileName + TextStore.fileExtension, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			// the mapping stays valid after the channel is closed
+			ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			this.mappings.add(mapping);
+			return mapping;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Append the text of the next document (texts must be added in order of
+	 * document numbers). The text is written asynchronously; this only blocks
+	 * if the writer thread falls behind by {@link #QUEUE_SIZE} texts.
+	 * @param text the text
+	 * @throws IOException if the writer thread failed
+	 */
+	public void addText(String text) throws IOException {
+		this.addText(text, this.size);
+	}
+
+	/**
+	 * Append the text of the given document, which may be out of order
+	 * (e.g. if the texts of a store are copied in the order in which they
+	 * are stored, but their documents are renumbered). Once every text is
+	 * added, the documents must be numbered densely from <tt>0</tt>.
+	 * @param text the text
+	 * @param documentNumber the document number of the text
+	 * @throws IOException if the writer thread failed
+	 */
+	public void addText(String text, int documentNumber) throws IOException {
+		if (documentNumber != this.size || this.textNumbers != null) {
+			this.textNumbers = TextStore.grow(this.textNumbers, this.size, Math.max(this.size, documentNumber) + 1);
+			this.textNumbers[documentNumber] = this.size;
+		}
+		this.checkWriter();
+		try {
+			this.queue.put(text);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while adding a text");
+		}
+		this.size++;
+	}
+
+	/**
+	 * Write all texts which were added so far (the current block is
+	 * finished early) and force the files to disk, so that the store can be
+	 * resumed with the returned length and the current {@link #size()}.
+	 * Blocks until the writer thread has caught up.
+	 * @return the length of the texts file
+	 * @throws IOException if the writer thread failed
+	 */
+	public long checkpoint() throws IOException {
+		this.checkWriter();
+		try {
+			this.queue.put(TextStore.CHECKPOINT);
+			Long textsLength;
+			while ((textsLength = this.checkpoints.poll(TextStore.CHECKPOINT_POLL_MILLIS,
+					TimeUnit.MILLISECONDS)) == null) {
+				this.checkWriter();
+			}
+			return textsLength;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing a checkpoint");
+		}
+	}
+
+	private void checkWriter() throws IOException {
+		if (this.writerError != null) {
+			throw this.writerError;
+		}
+	}
+
+	/**
+	 * The loop of the writer thread: take texts from the queue until the end
+	 * is reached, then write the last block and the end of the block table.
+	 */
+	private void writeTexts() {
+		try {
+			while (true) {
+				String text = this.queue.take();
+				if (text == TextStore.END_OF_TEXTS) {
+					break;
+				}
+				if (text == TextStore.CHECKPOINT) {
+					this.writeBlock();
+					this.flushWriteBuffer();
+					this.blocksOut.flush();
+					this.blocksFileOut.getFD().sync();
+					this.textsChannel.force(true);
+					this.checkpoints.put(this.textsLength);
+					continue;
+				}
+				this.appendText(text);
+			}
+			this.writeBlock();
+			this.blocksOut.writeLong(this.textsLength);
+			this.blocksOut.writeInt(this.writtenTexts);
+			this.flushWriteBuffer();
+		} catch (IOException e) {
+			this.writerError = e;
+		} catch (InterruptedException e) {
+			this.writerError = new IOException("Interrupted while writing texts");
+		} catch (RuntimeException e) {
+			this.writerError = new IOException(e);
+		} finally {
+			if (this.writerError != null) {
+				// keep the indexing thread from blocking on a full queue
+				this.queue.clear();
+			}
+		}
+	}
+
+	/**
+	 * Add a text to the current block (writer thread).
+	 */
+	private void appendText(String text) throws IOException {
+		if (this.blockCount + 1 >= this.blockOffsets.length) {
+			int[] offsets = new int[2 * this.blockOffsets.length];
+			System.arraycopy(this.blockOffsets, 0, offsets, 0, this.blockOffsets.length);
+			this.blockOffsets = offsets;
+		}
+		this.blockOffsets[this.blockCount++] = this.blockTexts.size();
+		byte[] bytes = text.getBytes(TextStore.UTF8);
+		this.blockTexts.write(bytes, 0, bytes.length);
+		this.writtenTexts++;
+		if (this.blockTexts.size() >= TextStore.BLOCK_SIZE) {
+			this.writeBlock();
+		}
+	}
+
+	/**
+	 * Compress the current block and append it to the write buffer (writer
+	 * thread).
+	 */
+	private void writeBlock() throws IOException {
+		if (this.blockCount == 0) {
+			return;
+		}
+		this.blockOffsets[this.blockCount] = this.blockTexts.size();
+
+		// header: count and offsets
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(
+				this.blockTexts.size() + 4 * (this.blockCount + 2));
+		DataOutputStream rawOut = new DataOutputStream(raw);
+		rawOut.writeInt(this.blockCount);
+		for (int i = 0; i <= this.blockCount; i++) {
+			rawOut.writeInt(this.blockOffsets[i]);
+		}
+		this.blockTexts.writeTo(rawOut);
+		rawOut.flush();
+
+		// block table entry
+		this.blocksOut.writeLong(this.textsLength);
+		this.blocksOut.writeInt(this.blockFirstDocument);
+
+		// compress
+		this.deflater.reset();
+		this.deflater.setInput(raw.toByteArray());
+		this.deflater.finish();
+		while (!this.deflater.finished()) {
+			int length = this.deflater.deflate(this.compressBuffer);
+			this.write(this.compressBuffer, length);
+			this.textsLength += length;
+		}
+
+		this.blockFirstDocument += this.blockCount;
+		this.blockCount = 0;
+		this.blockTexts.reset();
+	}
+
+	/**
+	 * Copy bytes into the write buffer; write the buffer to the channel
+	 * whenever it is full (writer thread).
+	 */
+	private void write(byte[] bytes, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			int chunk = Math.min(length - offset, this.writeBuffer.remaining());
+			this.writeBuffer.put(bytes, offset, chunk);
+			offset += chunk;
+			if (!this.writeBuffer.hasRemaining()) {
+				this.flushWriteBuffer();
+			}
+		}
+	}
+
+	private void flushWriteBuffer() throws IOException {
+		this.writeBuffer.flip();
+		while (this.writeBuffer.hasRemaining()) {
+			this.textsChannel.write(this.writeBuffer);
+		}
+		this.writeBuffer.clear();
+	}
+
+	/**
+	 * Finish writing: wait for the writer thread to write all texts, then
+	 * force the files to disk and close them.
+	 * A read-only TextStore closes the texts file and unmaps the block
+	 * table; it must not be used afterwards.
+	 * @throws IOException if a text could not be written
+	 */
+	public void close() throws IOException {
+		if (this.textsFile != null) {
+			this.textsFile.close();
+			this.textsFile = null;
+			MappedBuffers.unmap(this.mappings);
+		}
+		if (this.writer == null) {
+			return;	// read-only or already closed
+		}
+		try {
+			if (this.writerError == null) {
+				this.queue.put(TextStore.END_OF_TEXTS);
+			}
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing the text store");
+		} finally {
+			this.writer = null;
+		}
+		try {
+			this.checkWriter();
+			this.blocksOut.flush();
+			this.blocksFileOut.getFD().sync();
+			this.textsChannel.force(true);
+		} finally {
+			this.blocksOut.close();
+			this.textsOut.close();
+			this.deflater.end();
+		}
+		if (this.textNumbers != null) {
+			TextStore.writeOrder(this.dir, this.textNumbers, this.size);
+		}
+	}
+
+	/**
+	 * Read the block table into memory (pre-warming).
+	 */
+	public void load() {
+		MappedBuffers.load(this.mappings);
+	}
+
+	/**
+	 * Get the text of a document.
+	 * @param documentNumber the dense document number
+	 * @return the text or <tt>null</tt> if the document is not known
+	 * @throws IOException if the block cannot be decompressed
+	 */
+	public String getText(int documentNumber) throws IOException {
+		if (documentNumber < 0 || documentNumber >= this.size) {
+			return null;
+		}
+		return this.getStoredText(this.getTextNumber(documentNumber));
+	}
+
+	/**
+	 * @param documentNumber the dense document number
+	 * @return the position of its text in the store (the number of texts
+	 *   which are stored before it)
+	 */
+	public int getTextNumber(int documentNumber) {
+		return this.order != null ? this.order.get(documentNumber) : documentNumber;
+	}
+
+	/**
+	 * Get a text by its position in the store (see {@link #getTextNumber(int)}).
+	 * Reading the texts in this order decompresses every block once.
+	 * @param textNumber the position of the text
+	 * @return the text
+	 * @throws IOException if the block cannot be decompressed
+	 */
+	public String getStoredText(int textNumber) throws IOException {
+		// binary search for the last block which starts at or before the text
+		int low = 0;
+		int high = this.numberOfBlocks - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.blocks.get(3 * middle + 2) <= textNumber) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		byte[] block = this.getBlock(low);
+		ByteBuffer header = ByteBuffer.wrap(block);
+		int count = header.getInt(0);
+		int index = textNumber - this.blocks.get(3 * low + 2);
+		int textsStart = 4 * (count + 2);
+		int start = header.getInt(4 * (index + 1));
+		int end = header.getInt(4 * (index + 2));
+		return new String(block, textsStart + start, end - start, TextStore.UTF8);
+	}
+
+	/**
+	 * Get a decompressed block, from the cache if possible.
+	 */
+	private byte[] getBlock(int blockNumber) throws IOException {
+		synchronized (this.cache) {
+			byte[] block = this.cache.get(blockNumber);
+			if (block != null) {
+				return block;
+			}
+		}
+		long start = this.getBlockOffset(blockNumber);
+		long end = this.getBlockOffset(blockNumber + 1);
+		byte[] compressed = new byte[(int) (end - start)];
+		ByteBuffer buffer = ByteBuffer.wrap(compressed);
+		while (buffer.hasRemaining()) {
+			// positional read: thread-safe, does not move the channel's position
+			if (this.texts.read(buffer, start + buffer.position()) < 0) {
+				throw new IOException("Truncated texts file at block " + blockNumber);
+			}
+		}
+		Inflater inflater = new Inflater();
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(2 * TextStore.BLOCK_SIZE);
+		try {
+			inflater.setInput(compressed);
+			byte[] inflated = new byte[TextStore.BLOCK_SIZE];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(inflated);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated text block " + blockNumber);
+				}
+				raw.write(inflated, 0, length);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt text block " + blockNumber + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		byte[] block = raw.toByteArray();
+		synchronized (this.cache) {
+			this.cache.put(blockNumber, block);
+		}
+		return block;
+	}
+
+	private long getBlockOffset(int blockNumber) {
+		long high = this.blocks.get(3 * blockNumber) & 0xffffffffL;
+		long low = this.blocks.get(3 * blockNumber + 1) & 0xffffffffL;
+		return (high << 32) | low;
+	}
+
+	/**
+	 * @return the number of texts
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Tests whether the given directory has all files of a TextStore.
+	 * @param dir the directory
+	 * @return <tt>true</tt> if all files are present and can be read
+	 */
+	public static boolean directoryHasFiles(String dir) {
+		return new File(dir + TextStore.textsFileName + TextStore.fileExtension).canRead()
+				&& new File(dir + TextStore.blocksFileName + TextStore.fileExtension).canRead();
+	}
+
+	/**
+	 * Delete all files of a TextStore in the given directory (if they exist).
+	 * @param dir the directory
+	 */
+	public static void deleteFiles(String dir) {
+		new File(dir + TextStore.textsFileName + TextStore.fileExtension).delete();
+		new File(dir + TextStore.blocksFileName + TextStore.fileExtension).delete();
+		new File(dir + TextStore.orderFileName + TextStore.fileExtension).delete();
+	}
+
+}
@@ -0,0 +1,165 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Extracts the titles of linked pages from the text of a page in a single
+ * pass. Recognized links:
+ *  - internal links, e.g. [[Actinium]] or [[Actinium#Isotope]]
+ *  - internal links with text, e.g. [[Actinium|ein dummes Element]]
+ *  - external links which should be internal, e.g.
+ *    [http://de.wikipedia.org/wiki/Actinium Lol voll die "externe" Seite]
+ * Links to other namespaces (e.g. categories and files, i.e. titles which
+ * contain a colon) are ignored; links within files are found. Hash parts
+ * (e.g. ...#Section) are removed.
+ *
+ * The titles are processed by {@link LinkIndex#processTitle(CharSequence, int, int)}
+ * and de-duplicated in a set which is reused for every page.
+ *
+ * Not thread-safe: every thread needs its own instance.
+ */
+class WikiLinkScanner {
+
+	// prefixes of external links which should be internal
+	private static final String[] wikipediaUrlPrefixes = new String[] {
+		"[http://de.wikipedia.org/wiki/", "[https://de.wikipedia.org/wiki/"
+	};
+
+	// the processed titles of the current page, reused for every page
+	private final Set<String> titles = new HashSet<String>();
+	// the text which is scanned
+	private CharSequence text;
+	private int length;
+
+	/**
+	 * Find the titles of all pages which are linked in the given text.
+	 * The returned set is reused by the next call.
+	 * @param text the original text of a page (in Wikipedia syntax)
+	 * @return the processed titles (may be empty but not <tt>null</tt>)
+	 */
+	public Set<String> scan(CharSequence text) {
+		this.titles.clear();
+		if (text == null) {
+			return this.titles;
+		}
+		this.text = text;
+		this.length = text.length();
+
+		int i = 0;
+		while (i < this.length) {
+			if (text.charAt(i) != '[') {
+				i++;
+			} else if (i + 1 < this.length && text.charAt(i + 1) == '[') {
+				i = this.internalLink(i + 2);
+			} else {
+				i = this.externalLink(i);
+			}
+		}
+
+		this.text = null;
+		return this.titles;
+	}
+
+	/**
+	 * Read an internal link whose title starts at the given position.
+	 * @return the position after the link or, if there is no link, the
+	 *   position where scanning continues
+	 */
+	private int internalLink(int start) {
+		// title: up to #, | or ]]
+		int i = start;
+		char c = 0;
+		while (i < this.length) {
+			c = this.text.charAt(i);
+			if (c == '#' || c == '|' || c == ']') {
+				break;
+			} else if (c == ':' || c == '[' || c == '\n') {
+				// other namespace (or no link), continue within it
+				return i;
+			}
+			i++;
+		}
+		int end = i;
+		// hash part and text (may not contain ])
+		if (c == '#' || c == '|') {
+			boolean inText = c == '|';
+			while (i < this.length) {
+				c = this.text.charAt(i);
+				if (c == ']') {
+					break;
+				} else if (!inText && c == '|') {
+					inText = true;
+				} else if (!inText && (c == '[' || c == '\n')) {
+					return i;
+				}
+				i++;
+			}
+		}
+		if (i + 1 < this.length && this.text.charAt(i + 1) == ']') {
+			this.addTitle(start, end);
+			return i + 2;
+		}
+		return i;
+	}
+
+	/**
+	 * Read an external link to a Wikipedia page which starts at the given
+	 * position.
+	 * @return the position after the link or, if there is no such link, the
+	 *   position where scanning continues
+	 */
+	private int externalLink(int i) {
+		for (String prefix : WikiLinkScanner.wikipediaUrlPrefixes) {
+			if (this.startsWith(i, prefix)) {
+				// title: up to a space, :, # or ]
+				int start = i + prefix.length();
+				int end = start;
+				while (end < this.length) {
+					char c = this.text.charAt(end);
+					if (c == ' ' || c == ':' || c == '#' || c == ']' || c == '\n') {
+						break;
+					}
+					end++;
+				}
+				// text: up to the closing ]
+				int close = end;
+				while (close < this.length && this.text.charAt(close) != ']'
+						&& this.text.charAt(close) != '[') {
+					close++;
+				}
+				if (close < this.length && this.text.charAt(close) == ']') {
+					if (this.text.charAt(end) != ':') {
+						// not another namespace
+						this.addTitle(start, end);
+					}
+					return close + 1;
+				}
+				return close;
+			}
+		}
+		return i + 1;
+	}
+
+	private void addTitle(int start, int end) {
+		if (end > start) {
+			String title = LinkIndex.processTitle(this.text, start, end);
+			if (title.length() > 0) {
+				this.titles.add(title);
+			}
+		}
+	}
+
+	private boolean startsWith(int i, String prefix) {
+		if (i + prefix.length() > this.length) {
+			return false;
+		}
+		for (int j = 0; j < prefix.length(); j++) {
+			if (this.text.charAt(i + j) != prefix.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
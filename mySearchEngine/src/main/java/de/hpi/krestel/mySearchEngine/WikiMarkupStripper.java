@@ -0,0 +1,397 @@
+package de.hpi.krestel.mySearchEngine;
+
+/**
+ * Removes the wiki markup from the text of a page in order to create nice
+ * snippets. The text is scanned once, markup is skipped and the remaining
+ * characters are appended to a StringBuilder which is reused for every
+ * page, so no intermediate copies of the text are created.
+ *
+ * Handled markup:
+ *  - bold / italic ('' and '''), headings (==)
+ *  - files (e.g. [[Datei:...]], removed with their content)
+ *  - internal links ([[target]] and [[target|text]], the text is kept)
+ *  - external links ([http://... text], the text is kept)
+ *  - templates, tables and other braces ({{...}}, {|...|}, removed with
+ *    their content, also if nested)
+ *  - references and galleries (removed with their content), comments and
+ *    arbitrary tags
+ *  - the rest of a line after a single | (e.g. table cells)
+ *  - lines with formulas (:\mathrm...), redirections (#WEITERLEITUNG)
+ *  - entities (e.g. &amp;nbsp;, &amp;amp;, &amp;#8211;)
+ * Tabs become spaces, runs of spaces are collapsed, spaces at the start of
+ * lines are dropped and there are never more than two consecutive newlines.
+ * Lists (* ..., # ...) are not removed.
+ *
+ * Not thread-safe: every thread needs its own instance.
+ */
+class WikiMarkupStripper {
+
+	// prefixes of links to files (removed with their content)
+	private static final String[] fileLinkPrefixes = new String[] {
+		"Datei:", "Bild:", "File:", "Image:"
+	};
+	// named entities and their replacements
+	private static final String[] entityNames = new String[] {
+		"nbsp", "amp", "lt", "gt", "quot", "ndash", "mdash", "shy"
+	};
+	private static final String[] entityValues = new String[] {
+		" ", "&", "<", ">", "\"", "\u2013", "\u2014", ""
+	};
+	// maximum length of an entity (e.g. &#x10FFFF;)
+	private static final int MAX_ENTITY_LENGTH = 10;
+
+	// the output, reused for every page
+	private final StringBuilder out = new StringBuilder(16 * 1024);
+	// the text which is stripped
+	private CharSequence text;
+	private int length;
+	// start of the current line in the output
+	private int lineStart;
+	// whether the current line contains a formula
+	private boolean formulaLine;
+	// number of open internal links
+	private int linkDepth;
+
+	/**
+	 * Remove the markup from the given text.
+	 * @param text the wiki text of a page; may be <tt>null</tt>
+	 * @return the text without markup and without leading / trailing
+	 *   whitespace
+	 */
+	public String strip(CharSequence text) {
+		this.out.setLength(0);
+		if (text == null) {
+			return "";
+		}
+		this.text = text;
+		this.length = text.length();
+		this.lineStart = 0;
+		this.formulaLine = false;
+		this.linkDepth = 0;
+
+		int i = 0;
+		while (i < this.length) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '\'':
+				i = this.skipRun(i, '\'');
+				break;
+			case '=':
+				i = this.skipRun(i, '=');
+				break;
+			case '[':
+				i = this.openBracket(i);
+				break;
+			case ']':
+				// end of a link
+				if (this.linkDepth > 0 && this.startsWith(i, "]]")) {
+					this.linkDepth--;
+					i += 2;
+				} else {
+					i++;
+				}
+				break;
+			case '{':
+				i = this.skipBalanced(i, '{', '}');
+				break;
+			case '}':
+				i++;	// unbalanced
+				break;
+			case '|':
+				// within a link, e.g. [[target|text|more text]], only drop the |
+				i = this.linkDepth > 0 ? i + 1 : this.skipLine(i);
+				break;
+			case '<':
+				i = this.openTag(i);
+				break;
+			case '&':
+				i = this.entity(i);
+				break;
+			case '\n':
+				// links do not span lines
+				this.linkDepth = 0;
+				this.append(c);
+				i++;
+				break;
+			case '#':
+				if (this.startsWith(i, "#WEITERLEITUNG")) {
+					i += "#WEITERLEITUNG".length();
+				} else {
+					this.append(c);
+					i++;
+				}
+				break;
+			case '\\':
+				if (this.startsWith(i, "\\mathrm") && this.out.length() > 0
+						&& this.out.charAt(this.out.length() - 1) == ':') {
+					this.formulaLine = true;
+				}
+				this.append(c);
+				i++;
+				break;
+			default:
+				this.append(c);
+				i++;
+			}
+		}
+
+		this.text = null;
+		// remove trailing whitespace (leading whitespace is never appended)
+		int end = this.out.length();
+		while (end > 0 && this.out.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		this.out.setLength(end);
+		return this.out.toString();
+	}
+
+	/**
+	 * Append a character to the output and normalize whitespace.
+	 */
+	private void append(char c) {
+		int outLength = this.out.length();
+		char last = outLength > 0 ? this.out.charAt(outLength - 1) : '\n';
+		if (c == '\t' || c == '\r' || c == ' ') {
+			// collapse spaces, no spaces at the start of a line
+			if (last != ' ' && last != '\n') {
+				this.out.append(' ');
+			}
+		} else if (c == '\n') {
+			if (this.formulaLine) {
+				// drop the whole line
+				this.out.setLength(this.lineStart);
+				this.formulaLine = false;
+				return;
+			}
+			// no spaces at the end of a line
+			while (outLength > 0 && this.out.charAt(outLength - 1) == ' ') {
+				outLength--;
+			}
+			this.out.setLength(outLength);
+			// at most two consecutive newlines, none at the beginning
+			if (outLength > 0 && !(outLength > 1
+					&& this.out.charAt(outLength - 1) == '\n'
+					&& this.out.charAt(outLength - 2) == '\n')) {
+				this.out.append('\n');
+			}
+			this.lineStart = this.out.length();
+		} else {
+			this.out.append(c);
+		}
+	}
+
+	private void append(String string) {
+		for (int i = 0; i < string.length(); i++) {
+			this.append(string.charAt(i));
+		}
+	}
+
+	private boolean startsWith(int i, String prefix) {
+		if (i + prefix.length() > this.length) {
+			return false;
+		}
+		for (int j = 0; j < prefix.length(); j++) {
+			if (this.text.charAt(i + j) != prefix.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean startsWithIgnoreCase(int i, String prefix) {
+		if (i + prefix.length() > this.length) {
+			return false;
+		}
+		for (int j = 0; j < prefix.length(); j++) {
+			if (Character.toLowerCase(this.text.charAt(i + j)) != prefix.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skip a run of the given character if it has at least two characters
+	 * (e.g. '' or ==); a single character is kept.
+	 */
+	private int skipRun(int i, char c) {
+		int end = i;
+		while (end < this.length && this.text.charAt(end) == c) {
+			end++;
+		}
+		if (end - i == 1) {
+			this.append(c);
+		}
+		return end;
+	}
+
+	/**
+	 * Skip to the end of the line, including the newline.
+	 */
+	private int skipLine(int i) {
+		while (i < this.length && this.text.charAt(i) != '\n') {
+			i++;
+		}
+		return i < this.length ? i + 1 : i;
+	}
+
+	/**
+	 * Skip a (possibly nested) group which starts at the given position,
+	 * e.g. a template. If the group is not closed, only the opening
+	 * character is skipped.
+	 */
+	private int skipBalanced(int i, char open, char close) {
+		int depth = 0;
+		for (int j = i; j < this.length; j++) {
+			char c = this.text.charAt(j);
+			if (c == open) {
+				depth++;
+			} else if (c == close) {
+				depth--;
+				if (depth == 0) {
+					return j + 1;
+				}
+			}
+		}
+		return i + 1;
+	}
+
+	/**
+	 * Handle a [ at the given position: files are skipped, the target of
+	 * a piped internal link is skipped, the URL of an external link is
+	 * skipped. The rest of a link is processed like normal text; the
+	 * closing brackets are dropped.
+	 */
+	private int openBracket(int i) {
+		if (this.startsWith(i, "[[")) {
+			int start = i + 2;
+			for (String prefix : WikiMarkupStripper.fileLinkPrefixes) {
+				if (this.startsWith(start, prefix)) {
+					return this.skipBalanced(i, '[', ']');
+				}
+			}
+			this.linkDepth++;
+			// skip the target of a piped link, i.e. everything up to the first |
+			for (int j = start; j < this.length; j++) {
+				char c = this.text.charAt(j);
+				if (c == '|') {
+					return j + 1;
+				} else if (c == ']' || c == '[') {
+					break;
+				}
+			}
+			return start;
+		}
+		// external link, e.g. [http://www.example.com text]
+		int j = i + 1;
+		while (j < this.length && Character.isLetterOrDigit(this.text.charAt(j))) {
+			j++;
+		}
+		if (j > i + 1 && this.startsWith(j, "://")) {
+			// skip the URL and the following whitespace
+			while (j < this.length && this.text.charAt(j) > ' ' && this.text.charAt(j) != ']') {
+				j++;
+			}
+			if (j < this.length && this.text.charAt(j) != ']' && this.text.charAt(j) != '\n') {
+				j++;
+			}
+			return j;
+		}
+		return i + 1;
+	}
+
+	/**
+	 * Handle a &lt; at the given position: references, galleries and
+	 * comments are skipped with their content, other tags are skipped. If
+	 * the tag is not closed, the &lt; is kept.
+	 */
+	private int openTag(int i) {
+		if (this.startsWith(i, "<!--")) {
+			int end = this.indexOf("-->", i + 4);
+			return end < 0 ? this.length : end + 3;
+		}
+		// the tag ends before the next <
+		int close = i + 1;
+		while (close < this.length && this.text.charAt(close) != '>' && this.text.charAt(close) != '<') {
+			close++;
+		}
+		if (close >= this.length || this.text.charAt(close) != '>') {
+			this.append('<');
+			return i + 1;
+		}
+		boolean selfClosing = this.text.charAt(close - 1) == '/';
+		if (!selfClosing) {
+			if (this.isTag(i, "ref")) {
+				return this.skipToEndTag(close + 1, "</ref>");
+			} else if (this.isTag(i, "gallery")) {
+				return this.skipToEndTag(close + 1, "</gallery>");
+			}
+		}
+		return close + 1;
+	}
+
+	private boolean isTag(int i, String name) {
+		int end = i + 1 + name.length();
+		if (!this.startsWithIgnoreCase(i + 1, name) || end >= this.length) {
+			return false;
+		}
+		char c = this.text.charAt(end);
+		return c == '>' || c == ' ' || c == '/';
+	}
+
+	private int skipToEndTag(int i, String endTag) {
+		for (int j = i; j < this.length; j++) {
+			if (this.text.charAt(j) == '<' && this.startsWithIgnoreCase(j, endTag)) {
+				return j + endTag.length();
+			}
+		}
+		return this.length;
+	}
+
+	private int indexOf(String string, int from) {
+		for (int j = from; j <= this.length - string.length(); j++) {
+			if (this.startsWith(j, string)) {
+				return j;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Handle a &amp; at the given position: known entities are replaced,
+	 * otherwise the &amp; is kept.
+	 */
+	private int entity(int i) {
+		int end = i + 1;
+		int limit = Math.min(this.length, i + WikiMarkupStripper.MAX_ENTITY_LENGTH);
+		while (end < limit && this.text.charAt(end) != ';') {
+			end++;
+		}
+		if (end < limit) {
+			String name = this.text.subSequence(i + 1, end).toString();
+			if (name.startsWith("#")) {
+				try {
+					int codePoint = name.startsWith("#x") || name.startsWith("#X")
+							? Integer.parseInt(name.substring(2), 16)
+							: Integer.parseInt(name.substring(1));
+					if (Character.isValidCodePoint(codePoint)) {
+						this.append(new String(Character.toChars(codePoint)));
+						return end + 1;
+					}
+				} catch (NumberFormatException e) {
+					// no entity
+				}
+			} else {
+				for (int j = 0; j < WikiMarkupStripper.entityNames.length; j++) {
+					if (WikiMarkupStripper.entityNames[j].equals(name)) {
+						this.append(WikiMarkupStripper.entityValues[j]);
+						return end + 1;
+					}
+				}
+			}
+		}
+		this.append('&');
+		return i + 1;
+	}
+
+}
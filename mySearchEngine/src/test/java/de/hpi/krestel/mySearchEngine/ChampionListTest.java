@@ -0,0 +1,95 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the selection of the champion lists and that queries which are
+ * answered from them (or fall back to the whole lists) are ranked exactly.
+ */
+public class ChampionListTest extends TestCase {
+
+	// the number of pages of the generated dump: every word is in more than a champion list
+	private static final int PAGES = 1500;
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.dir = GeneratedDump.createTempDirectory("championLists");
+	}
+
+	@Override
+	protected void tearDown() {
+		GeneratedDump.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * The first half of the champions are the first documents, the others
+	 * have the highest frequencies of the rest; the documents which are
+	 * left out are counted for the bounds.
+	 */
+	public void testSelection() throws IOException {
+		float[] ranks = new float[] { 9, 8, 7, 6, 5, 4, 3, 2 };
+		ChampionList champions = new ChampionList(4, ranks);
+		champions.add("0:1".getBytes());
+		champions.add("1:1;2:1,2;3:1,2,3".getBytes());
+		champions.add("4:1;5:1,2,3;6:1,2;7:1,2".getBytes());
+		assertTrue(champions.isPartial());
+		assertEquals(8, champions.documentFrequency);
+		assertEquals(3, champions.maxFrequency);
+		assertEquals(2, champions.outsideMaxFrequency);
+		assertEquals(7f, champions.outsideMaxRank);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long length = champions.write(out);
+		assertEquals("0:1;1:1;3:1,2,3;5:1,2,3.", out.toString());
+		assertEquals(out.size(), length);
+
+		// the next term
+		champions.clear();
+		champions.add("2:1".getBytes());
+		assertFalse(champions.isPartial());
+		assertEquals(0, champions.outsideMaxFrequency);
+		out.reset();
+		champions.write(out);
+		assertEquals("2:1.", out.toString());
+
+		// without ranks, the rank of the documents which are left out is not known
+		champions = new ChampionList(2, null);
+		champions.add("0:1;1:1;2:1".getBytes());
+		assertEquals(-1f, champions.outsideMaxRank);
+	}
+
+	/**
+	 * Every query is ranked like with the whole lists, whether the champion
+	 * lists determine the ranking or not.
+	 */
+	public void testRankingEqualsWholeLists() throws Exception {
+		GeneratedDump.write(this.dir.getPath() + "/deWikipediaDump.xml", PAGES, 42);
+		String indexDir = this.dir.getPath() + "/index/";
+		SearchEngineRetrEvil engine = new SearchEngineRetrEvil();
+		engine.index(indexDir);
+		assertTrue(engine.loadIndex(indexDir));
+
+		String[] words = GeneratedDump.WORDS;
+		SegmentedIndex index = new SegmentedIndex(IndexManifest.read(indexDir));
+		for (String word : words) {
+			PostingsCursor list = index.openPostings(0, index.processRawText(word).get(0), true);
+			assertTrue(word, list.isChampionList());
+			list.close();
+		}
+		for (int topK : new int[] { 1, 10, 100 }) {
+			for (int i = 0; i < words.length; i++) {
+				String query = words[i];
+				assertEquals(query, 1.0, engine.computeChampionListNdcg(query, topK), 1e-9);
+				query = words[i] + " " + words[(i + 1) % words.length];
+				assertEquals(query, 1.0, engine.computeChampionListNdcg(query, topK), 1e-9);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes dumps of generated pages for the tests which build an index.
+ */
+class GeneratedDump {
+
+	// the words of the pages
+	static final String[] WORDS = new String[] {
+		"Actinium", "Regisseur", "Film", "Pseudonym", "Soziologie", "Systemtheorie",
+		"Kernreaktor", "Isotop", "Drehbuch", "Hollywood", "Taiwan", "Kritik"
+	};
+
+	/**
+	 * Write a dump of pages ("Seite N" with the id N + 1) with 20 random
+	 * words and two links each, of which the second one links to one of the
+	 * first 40 pages, so their static rank is high.
+	 * @param dumpFile the file
+	 * @param pages the number of pages
+	 * @param seed the seed of the random words and links
+	 * @return the texts of the pages
+	 */
+	static List<String> write(String dumpFile, int pages, long seed) throws IOException {
+		List<String> texts = new ArrayList<String>(pages);
+		Random random = new Random(seed);
+		Writer out = new OutputStreamWriter(new FileOutputStream(dumpFile), "UTF-8");
+		try {
+			out.write("<mediawiki xml:lang=\"de\">\n");
+			for (int page = 0; page < pages; page++) {
+				StringBuilder text = new StringBuilder();
+				for (int word = 0; word < 20; word++) {
+					text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+				}
+				text.append("[[Seite ").append(random.nextInt(pages)).append("]] ");
+				text.append("[[Seite ").append(random.nextInt(40)).append("]]");
+				texts.add(text.toString());
+				out.write("  <page>\n    <title>Seite " + page + "</title>\n    <ns>0</ns>\n    <id>" + (page + 1)
+						+ "</id>\n    <revision>\n      <id>" + (page + 1) + "0</id>\n      <text xml:space=\"preserve\">"
+						+ text + "</text>\n    </revision>\n  </page>\n");
+			}
+			out.write("</mediawiki>\n");
+		} finally {
+			out.close();
+		}
+		return texts;
+	}
+
+	/**
+	 * Create an empty temporary directory.
+	 * @param prefix the prefix of its name
+	 */
+	static File createTempDirectory(String prefix) throws IOException {
+		File dir = File.createTempFile(prefix, "");
+		dir.delete();
+		dir.mkdirs();
+		return dir;
+	}
+
+	static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					GeneratedDump.deleteDirectory(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		directory.delete();
+	}
+
+}
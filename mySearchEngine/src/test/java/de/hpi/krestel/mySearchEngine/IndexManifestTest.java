@@ -0,0 +1,122 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that a merge is only published if the segments which it merged did
+ * not change in the meantime: new deletions or a replacement of the
+ * segments discard it, a new segment alone does not.
+ */
+public class IndexManifestTest extends TestCase {
+
+	private File dir;
+	private String indexDir;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.dir = GeneratedDump.createTempDirectory("indexManifest");
+		this.indexDir = this.dir.getPath() + "/";
+	}
+
+	@Override
+	protected void tearDown() {
+		GeneratedDump.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * Deleting a page of a segment while it is merged discards the merge,
+	 * so the deletion is kept; a merge started afterwards is published.
+	 */
+	public void testMergeRacingWithDeletions() throws IOException {
+		this.publish(new long[] { 1, 2, 3 }, new long[0], false);
+		this.publish(new long[] { 4, 5 }, new long[0], false);
+		List<Integer> merged = Arrays.asList(1, 2);
+		List<String> liveDocsFiles = this.getLiveDocsFiles(merged);
+		this.writeTable(IndexManifest.getMergeDir(this.indexDir), new long[] { 1, 2, 3, 4, 5 });
+
+		// page 2 is deleted while the segments are merged
+		this.publish(new long[] { 6 }, new long[] { 2 }, false);
+		assertFalse(IndexManifest.publishMerge(this.indexDir, merged, liveDocsFiles));
+		IndexManifest manifest = IndexManifest.read(this.indexDir);
+		assertEquals(Arrays.asList(1, 2, 3), manifest.getSegments());
+		assertFalse(manifest.getLiveDocs(1, 3).isLive(1));
+		IndexManifest.deleteDirectory(new File(IndexManifest.getMergeDir(this.indexDir)));
+
+		// the merge again, without page 2
+		liveDocsFiles = this.getLiveDocsFiles(merged);
+		this.writeTable(IndexManifest.getMergeDir(this.indexDir), new long[] { 1, 3, 4, 5 });
+		assertTrue(IndexManifest.publishMerge(this.indexDir, merged, liveDocsFiles));
+		manifest = IndexManifest.read(this.indexDir);
+		assertEquals(Arrays.asList(4, 3), manifest.getSegments());
+		assertNull(manifest.getLiveDocsFile(4));
+		assertTrue(manifest.isComplete());
+		assertFalse(new File(this.indexDir + "segment_1").exists());
+	}
+
+	/**
+	 * A new segment which does not touch the merged segments does not
+	 * discard the merge; one which replaces them does.
+	 */
+	public void testMergeRacingWithNewSegments() throws IOException {
+		this.publish(new long[] { 1, 2 }, new long[0], false);
+		this.publish(new long[] { 3 }, new long[0], false);
+		List<Integer> merged = Arrays.asList(1, 2);
+		List<String> liveDocsFiles = this.getLiveDocsFiles(merged);
+		this.writeTable(IndexManifest.getMergeDir(this.indexDir), new long[] { 1, 2, 3 });
+
+		// a segment with new pages only
+		this.publish(new long[] { 4 }, new long[0], false);
+		assertTrue(IndexManifest.publishMerge(this.indexDir, merged, liveDocsFiles));
+		assertEquals(Arrays.asList(4, 3), IndexManifest.read(this.indexDir).getSegments());
+
+		// a full dump replaces the segments while they are merged
+		merged = Arrays.asList(4, 3);
+		liveDocsFiles = this.getLiveDocsFiles(merged);
+		this.writeTable(IndexManifest.getMergeDir(this.indexDir), new long[] { 1, 2, 3, 4 });
+		this.publish(new long[] { 1, 2 }, new long[0], true);
+		assertFalse(IndexManifest.publishMerge(this.indexDir, merged, liveDocsFiles));
+		assertEquals(Collections.singletonList(5), IndexManifest.read(this.indexDir).getSegments());
+	}
+
+	/**
+	 * Build a segment with the given pages and publish it.
+	 */
+	private void publish(long[] pageIds, long[] deletedPageIds, boolean replace) throws IOException {
+		this.writeTable(IndexManifest.getBuildDir(this.indexDir), pageIds);
+		HashSet<Long> deleted = new HashSet<Long>();
+		for (long pageId : deletedPageIds) {
+			deleted.add(pageId);
+		}
+		IndexManifest.publish(this.indexDir, deleted, replace);
+	}
+
+	/**
+	 * Write a document table with the given pages (the only part of a
+	 * segment which publishing reads).
+	 */
+	private void writeTable(String tableDir, long[] pageIds) throws IOException {
+		new File(tableDir).mkdirs();
+		DocumentTable documents = DocumentTable.create(tableDir);
+		for (long pageId : pageIds) {
+			documents.addDocument(pageId, "Seite " + pageId);
+		}
+		documents.close();
+	}
+
+	private List<String> getLiveDocsFiles(List<Integer> segments) {
+		IndexManifest manifest = IndexManifest.read(this.indexDir);
+		String[] liveDocsFiles = new String[segments.size()];
+		for (int i = 0; i < segments.size(); i++) {
+			liveDocsFiles[i] = manifest.getLiveDocsFile(segments.get(i));
+		}
+		return Arrays.asList(liveDocsFiles);
+	}
+
+}
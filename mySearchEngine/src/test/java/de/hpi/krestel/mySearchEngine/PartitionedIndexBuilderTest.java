@@ -0,0 +1,204 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Builds the index of a small generated dump in one pass and in partitions
+ * which write several parts each, and compares the results.
+ */
+public class PartitionedIndexBuilderTest extends TestCase {
+
+	// the number of pages of the generated dump and of partitions
+	private static final int PAGES = 60;
+	private static final int PARTITIONS = 2;
+	// the words of the pages
+	private static final String[] WORDS = new String[] {
+		"Actinium", "Regisseur", "Film", "Pseudonym", "Soziologie", "Systemtheorie",
+		"Kernreaktor", "Isotop", "Drehbuch", "Hollywood", "Taiwan", "Kritik"
+	};
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.dir = File.createTempFile("partitionedIndex", "");
+		this.dir.delete();
+		this.dir.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() {
+		PartitionedIndexBuilderTest.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * Every partition spills after every page, so it has many parts; their
+	 * lists must be taken over in the order in which they were written.
+	 */
+	public void testPartitionsWithSeveralPartsEqualSinglePass() throws Exception {
+		String dumpFile = this.dir.getPath() + "/dump.xml";
+		PartitionedIndexBuilderTest.writeDump(dumpFile);
+		SearchEngineRetrEvil engine = new SearchEngineRetrEvil();
+
+		// one pass
+		String singleDir = this.dir.getPath() + "/single/";
+		new File(singleDir).mkdirs();
+		IndexHandler single = new IndexHandler(singleDir);
+		PartitionedIndexBuilder.readRange(engine, dumpFile, 0, new File(dumpFile).length(), single, single);
+
+		// partitions with a budget which is used up by every page
+		String partitionedDir = this.dir.getPath() + "/partitioned/";
+		new File(partitionedDir).mkdirs();
+		long[] boundaries = PartitionedIndexBuilder.findBoundaries(dumpFile, PARTITIONS);
+		assertEquals(PARTITIONS + 1, boundaries.length);
+		List<String> partitionDirs = new ArrayList<String>();
+		for (int partition = 0; partition < PARTITIONS; partition++) {
+			new PartitionedIndexBuilder(engine).buildPartition(dumpFile, partitionedDir, boundaries, partition, 1);
+			partitionDirs.add(PartitionedIndexBuilder.getPartitionDir(partitionedDir, partition));
+		}
+		IndexHandler merged = new IndexHandler(partitionedDir);
+		merged.mergePartitions(partitionDirs);
+
+		// the taken over parts list the documents of every term in ascending order
+		File[] runs = PartitionedIndexBuilderTest.getRuns(partitionedDir);
+		assertTrue(runs.length > 2 * PARTITIONS);
+		Map<String, Integer> lastDocuments = new HashMap<String, Integer>();
+		for (File run : runs) {
+			for (String line : PartitionedIndexBuilderTest.read(run).split("\n")) {
+				if (line.length() == 0) {
+					continue;
+				}
+				int separator = line.indexOf(':');
+				String term = line.substring(0, separator);
+				Integer last = lastDocuments.get(term);
+				for (String entry : line.substring(separator + 1, line.length() - 1).split(";")) {
+					int document = Integer.parseInt(entry.substring(0, entry.indexOf(':')));
+					assertTrue(term + ": " + document + " after " + last, last == null || document > last);
+					last = document;
+				}
+				lastDocuments.put(term, last);
+			}
+		}
+
+		// the final index is the same
+		merged.createIndex();
+		for (String fileName : new String[] { "index_0.txt", "index_seeklist_0.txt" }) {
+			assertEquals(fileName, PartitionedIndexBuilderTest.read(new File(singleDir + fileName)),
+					PartitionedIndexBuilderTest.read(new File(partitionedDir + fileName)));
+		}
+		// the linking titles of a line are in the order of the parts, each of which is sorted
+		assertEquals(PartitionedIndexBuilderTest.readSortedLinks(new File(singleDir + "link_index_0.txt")),
+				PartitionedIndexBuilderTest.readSortedLinks(new File(partitionedDir + "link_index_0.txt")));
+	}
+
+	/**
+	 * Write a dump of {@link #PAGES} pages with random words and links.
+	 */
+	private static void writeDump(String dumpFile) throws IOException {
+		Random random = new Random(42);
+		Writer out = new OutputStreamWriter(new FileOutputStream(dumpFile), "UTF-8");
+		try {
+			out.write("<mediawiki xml:lang=\"de\">\n");
+			for (int page = 0; page < PAGES; page++) {
+				StringBuilder text = new StringBuilder();
+				for (int word = 0; word < 40; word++) {
+					text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+				}
+				text.append("[[Seite ").append(random.nextInt(PAGES)).append("]]");
+				out.write("  <page>\n    <title>Seite " + page + "</title>\n    <ns>0</ns>\n    <id>" + (page + 1)
+						+ "</id>\n    <revision>\n      <id>" + (page + 1) + "0</id>\n      <text xml:space=\"preserve\">"
+						+ text + "</text>\n    </revision>\n  </page>\n");
+			}
+			out.write("</mediawiki>\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the parts of the index (index_N.tmp) in the directory, ordered by N
+	 */
+	private static File[] getRuns(String dir) {
+		File[] runs = new File(dir).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.matches("index_[0-9]+\\.tmp");
+			}
+		});
+		Arrays.sort(runs, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return PartitionedIndexBuilderTest.getRunNumber(a) - PartitionedIndexBuilderTest.getRunNumber(b);
+			}
+		});
+		return runs;
+	}
+
+	private static int getRunNumber(File run) {
+		return Integer.parseInt(run.getName().substring("index_".length(), run.getName().length() - ".tmp".length()));
+	}
+
+	/**
+	 * @return the lines (title:title,title.) of a link index with the
+	 *   titles of every line sorted
+	 */
+	private static List<String> readSortedLinks(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		for (String line : PartitionedIndexBuilderTest.read(file).split("\n")) {
+			int separator = line.indexOf(':');
+			if (separator < 0) {
+				lines.add(line);
+				continue;
+			}
+			String[] titles = line.substring(separator + 1, line.length() - 1).split(",");
+			Arrays.sort(titles);
+			lines.add(line.substring(0, separator) + ":" + Arrays.toString(titles));
+		}
+		return lines;
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int length = 0;
+			while (length < bytes.length) {
+				length += in.read(bytes, length, bytes.length - length);
+			}
+			return new String(bytes, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					PartitionedIndexBuilderTest.deleteDirectory(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		directory.delete();
+	}
+
+}
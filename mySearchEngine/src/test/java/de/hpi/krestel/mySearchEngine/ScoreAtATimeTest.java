@@ -0,0 +1,51 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that queries evaluated score-at-a-time over the lists in impact
+ * order rank like the lists in document order with the same scores.
+ */
+public class ScoreAtATimeTest extends TestCase {
+
+	// the number of pages of the generated dump
+	private static final int PAGES = 300;
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.dir = GeneratedDump.createTempDirectory("scoreAtATime");
+	}
+
+	@Override
+	protected void tearDown() {
+		GeneratedDump.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * With a budget of all postings, the ranking is the one of the whole
+	 * lists; with a small budget, it is approximate.
+	 */
+	public void testFullBudgetEqualsDocumentAtATime() throws Exception {
+		GeneratedDump.write(this.dir.getPath() + "/deWikipediaDump.xml", PAGES, 7);
+		String indexDir = this.dir.getPath() + "/index/";
+		SearchEngineRetrEvil engine = new SearchEngineRetrEvil();
+		engine.index(indexDir);
+		assertTrue(engine.loadIndex(indexDir));
+
+		String[] words = GeneratedDump.WORDS;
+		for (int topK : new int[] { 1, 10, 100 }) {
+			for (int i = 0; i < words.length; i++) {
+				String query = words[i] + " " + words[(i + 1) % words.length] + " " + words[i];
+				assertEquals(query, 1.0, engine.computeScoreAtATimeNdcg(query, topK, Integer.MAX_VALUE), 1e-9);
+				Double ndcg = engine.computeScoreAtATimeNdcg(query, topK, 10);
+				assertTrue(query, ndcg >= 0 && ndcg <= 1.0 + 1e-9);
+			}
+		}
+	}
+
+}
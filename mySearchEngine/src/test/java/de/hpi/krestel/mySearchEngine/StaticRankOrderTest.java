@@ -0,0 +1,125 @@
+package de.hpi.krestel.mySearchEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that renumbering the documents of an index in descending static
+ * rank keeps what queries read about every page, and that an interrupted
+ * renumbering is recovered.
+ */
+public class StaticRankOrderTest extends TestCase {
+
+	// the number of pages of the generated dump
+	private static final int PAGES = 300;
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.dir = GeneratedDump.createTempDirectory("staticRankOrder");
+	}
+
+	@Override
+	protected void tearDown() {
+		GeneratedDump.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * Every page keeps its title, terms and frequencies, links and text
+	 * under its new number, and the numbers are in descending static rank.
+	 */
+	public void testRenumberingPreservesDocuments() throws Exception {
+		List<String> texts = GeneratedDump.write(this.dir.getPath() + "/deWikipediaDump.xml", PAGES, 3);
+		String indexDir = this.dir.getPath() + "/index/";
+		new SearchEngineRetrEvil().index(indexDir);
+		SegmentedIndex index = new SegmentedIndex(IndexManifest.read(indexDir));
+		assertEquals(1, index.segmentCount());
+		assertTrue(index.isStaticRankOrdered(0));
+		assertEquals(PAGES, index.totalNumberOfDocuments());
+
+		for (int document = 0; document + 1 < PAGES; document++) {
+			assertTrue(index.getStaticRank(document) >= index.getStaticRank(document + 1));
+		}
+
+		// the pages which link to every page (by page)
+		List<Set<Integer>> linkingPages = new ArrayList<Set<Integer>>();
+		for (int page = 0; page < PAGES; page++) {
+			linkingPages.add(new HashSet<Integer>());
+		}
+		for (int page = 0; page < PAGES; page++) {
+			String text = texts.get(page);
+			for (int link = text.indexOf("[[Seite "); link >= 0; link = text.indexOf("[[Seite ", link + 1)) {
+				linkingPages.get(Integer.parseInt(text.substring(link + 8, text.indexOf("]]", link)))).add(page);
+			}
+		}
+
+		for (int page = 0; page < PAGES; page++) {
+			String title = "Seite " + page;
+			Integer document = index.getDocumentForTitle(LinkIndex.processTitle(title));
+			assertNotNull(title, document);
+			assertEquals(title, index.getTitleForDocument(document));
+
+			// the frequency of every word
+			List<String> words = Arrays.asList(texts.get(page).split(" "));
+			for (String word : GeneratedDump.WORDS) {
+				String term = index.processRawText(word).get(0);
+				Collection<Integer> positions = index.readListForTerm(term, false).getOccurrences().get(document);
+				assertEquals(title + ": " + word, Collections.frequency(words, word),
+						positions != null ? positions.size() : 0);
+			}
+
+			// the linking pages
+			Set<Integer> linking = new HashSet<Integer>();
+			for (int linkingDocument : index.getLinkingDocuments(LinkIndex.processTitle(title))) {
+				String linkingTitle = index.getTitleForDocument(linkingDocument);
+				linking.add(Integer.parseInt(linkingTitle.substring("Seite ".length())));
+			}
+			assertEquals(title, linkingPages.get(page), linking);
+
+			// the beginning of the text
+			String snippet = index.getSnippetForDocumentId(document, new ArrayList<String>());
+			String[] snippetWords = snippet.replace("...", "").trim().split("\\s+");
+			for (int word = 0; word < 5; word++) {
+				assertEquals(title, words.get(word), snippetWords[word]);
+			}
+		}
+	}
+
+	/**
+	 * A crash between renaming the directory and renaming the sorted one
+	 * to it restores the directory; a crash after both only leaves the
+	 * renamed directory, which is deleted.
+	 */
+	public void testRecoverInterruptedSort() throws IOException {
+		String baseDir = this.dir.getPath() + "/build";
+		File unsortedDir = new File(baseDir + "_unsorted");
+		File sortedDir = new File(baseDir + "_sorted");
+
+		// between the renames (and the directory was created again)
+		unsortedDir.mkdirs();
+		new File(unsortedDir, "partition_0").mkdirs();
+		sortedDir.mkdirs();
+		new File(baseDir).mkdirs();
+		IndexHandler.recoverStaticRankSort(baseDir + "/");
+		assertTrue(new File(baseDir + "/partition_0").isDirectory());
+		assertFalse(unsortedDir.exists());
+		assertFalse(sortedDir.exists());
+
+		// after the renames
+		unsortedDir.mkdirs();
+		IndexHandler.recoverStaticRankSort(baseDir + "/");
+		assertTrue(new File(baseDir + "/partition_0").isDirectory());
+		assertFalse(unsortedDir.exists());
+	}
+
+}